@@ -18,6 +18,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,11 +35,13 @@ import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.MetadataMap;
 import org.geoserver.config.GeoServer;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.util.SharedExecutors;
 import org.geoserver.wcs.responses.NetCDFDimensionsManager.NetCDFDimensionMapping;
 import org.geoserver.wcs.responses.NetCDFDimensionsManager.NetCDFDimensionMapping.DimensionValuesSet;
 import org.geoserver.wcs2_0.response.DimensionBean;
 import org.geoserver.wcs2_0.response.DimensionBean.DimensionType;
 import org.geoserver.wcs2_0.response.GranuleStack;
+import org.geoserver.wcs2_0.response.LazyGranuleStack;
 import org.geoserver.wcs2_0.response.WCS20GetCoverageResponse;
 import org.geoserver.wcs2_0.util.NCNameResourceCodec;
 import org.geoserver.web.netcdf.DataPacking;
@@ -73,7 +78,6 @@ import ucar.nc2.NetcdfFileWriter.Version;
 import ucar.nc2.Variable;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.write.Nc4Chunking;
-import ucar.nc2.write.Nc4ChunkingDefault;
 import ucar.units.NoSuchUnitException;
 import ucar.units.PrefixDBException;
 import ucar.units.SpecificationException;
@@ -104,6 +108,14 @@ public class NetCDFOutputManager {
 
     private static final double EQUALITY_DELTA = 1E-10; //Consider customizing it depending on the noData magnitude
 
+    static final int WRITE_THREADS = Integer.getInteger("org.geoserver.wcs.netcdf.writeThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Name of the shared pool computing the granule tiles and copying them into the output matrix
+     */
+    static final String WRITE_POOL = "netcdf-write";
+
     /**
      * Attributes that are never copied to the main output variable from a NetCDF/GRIB source because they require special handling.
      */
@@ -208,8 +220,9 @@ public class NetCDFOutputManager {
             Map<String, String> encodingParameters, String outputFormat) throws IOException {
         this.granuleStack = granuleStack;
         parseParams(encodingParameters);
-        this.writer = getWriter(file, outputFormat);
+        // the sample granule drives the chunking of the NetCDF-4 output, collect it first
         collectCoverageDimensions();
+        this.writer = getWriter(file, outputFormat);
         initializeNetCDF();
     }
 
@@ -246,7 +259,8 @@ public class NetCDFOutputManager {
             if (!NetCDFUtilities.isNC4CAvailable()) {
                 throw new IOException(NetCDFUtilities.NC4_ERROR_MESSAGE);
             }
-            Nc4Chunking chunker = new Nc4ChunkingDefault(compressionLevel, shuffle);
+            Nc4Chunking chunker = new NetCDFTileChunking(sampleGranule.getRenderedImage(),
+                    compressionLevel, shuffle);
             writer = NetcdfFileWriter.createNew(version, file.getAbsolutePath(), chunker);
         }
 
@@ -309,8 +323,16 @@ public class NetCDFOutputManager {
                     1 * XAffineTransform.getScaleY0(transform)};
             stats = new DataStats();
         }
+        if (dataPacking == DataPacking.NONE && granuleStack instanceof LazyGranuleStack) {
+            // the dimension values are known upfront, avoid reading the granules twice
+            for (Map<String, Object> properties : ((LazyGranuleStack) granuleStack)
+                    .getGranuleProperties()) {
+                updateDimensionValues(properties);
+            }
+            return;
+        }
         for (GridCoverage2D coverage : granuleStack.getGranules()) {
-            updateDimensionValues(coverage);
+            updateDimensionValues(coverage.getProperties());
             if (!(dataPacking == DataPacking.NONE)) {
                 collectStats(coverage, statisticsPeriods);
             }
@@ -387,10 +409,9 @@ public class NetCDFOutputManager {
     /**
      * Update the dimension values of a Dimension, by inspecting the coverage properties
      * 
-     * @param coverage
+     * @param properties
      */
-    private void updateDimensionValues(GridCoverage2D coverage) {
-        Map properties = coverage.getProperties();
+    private void updateDimensionValues(Map properties) {
         for (NetCDFDimensionMapping dimension : dimensionsManager.getDimensions()) {
             final String dimensionName = dimension.getName();
             final Object value = properties.get(dimensionName);
@@ -847,24 +868,6 @@ public class NetCDFOutputManager {
         for (GridCoverage2D gridCoverage: granuleStack.getGranules()) {
             final RenderedImage ri = gridCoverage.getRenderedImage();
 
-            //
-            // Preparing tile properties for future scan
-            //
-            int width = ri.getWidth();
-            int height = ri.getHeight();
-            int minX = ri.getMinX();
-            int minY = ri.getMinY();
-            int maxX = minX + width - 1;
-            int maxY = minY + height - 1;
-            int tileWidth = Math.min(ri.getTileWidth(), width);
-            int tileHeight = Math.min(ri.getTileHeight(), height);
-
-            int minTileX = minX / tileWidth - (minX < 0 ? (-minX % tileWidth > 0 ? 1 : 0): 0);
-            int minTileY = minY / tileHeight - (minY < 0 ? (-minY % tileHeight > 0 ? 1 : 0): 0);
-            int maxTileX = maxX / tileWidth - (maxX < 0 ? (-maxX % tileWidth > 0 ? 1 : 0): 0);
-            int maxTileY = maxY / tileHeight - (maxY < 0 ? (-maxY % tileHeight > 0 ? 1 : 0): 0);
-
-            final Index matrixIndex = matrix.getIndex();
             final int indexing[] = new int[numDimensions];
 
             // Update the NetCDF array indexing to set values for a specific 2D slice 
@@ -906,40 +909,109 @@ public class NetCDFOutputManager {
             // ----------------
             // Fill data matrix
             // ----------------
+            fillMatrix(ri, indexing, matrix, NetCDFUtilities.transcodeImageDataType(imageDataType), netCDFDataType);
+        }
 
-            // Loop over bands using a RandomIter 
-            final RandomIter data = RandomIterFactory.create(ri, null);
+        // ------------------------------
+        // Write the data to the variable
+        // ------------------------------
+        writer.write(var, matrix);
+        writer.flush();
+    }
+
+    /**
+     * Copies the pixels of a granule into its 2D slice of the data matrix. Each row of tiles is
+     * computed and copied by a separate task, as they write to different portions of the matrix
+     * @param ri the granule image
+     * @param indexing the NetCDF array indexing of the slice
+     * @param matrix the data matrix
+     * @param imageDataType
+     * @param netCDFDataType
+     * @throws IOException
+     */
+    private void fillMatrix(final RenderedImage ri, final int[] indexing, final Array matrix,
+            final DataType imageDataType, final DataType netCDFDataType) throws IOException {
+        //
+        // Preparing tile properties for future scan
+        //
+        final int width = ri.getWidth();
+        final int height = ri.getHeight();
+        final int minX = ri.getMinX();
+        final int minY = ri.getMinY();
+        final int maxX = minX + width - 1;
+        final int maxY = minY + height - 1;
+        final int tileWidth = Math.min(ri.getTileWidth(), width);
+        final int tileHeight = Math.min(ri.getTileHeight(), height);
+
+        final int minTileX = minX / tileWidth - (minX < 0 ? (-minX % tileWidth > 0 ? 1 : 0): 0);
+        final int minTileY = minY / tileHeight - (minY < 0 ? (-minY % tileHeight > 0 ? 1 : 0): 0);
+        final int maxTileX = maxX / tileWidth - (maxX < 0 ? (-maxX % tileWidth > 0 ? 1 : 0): 0);
+        final int maxTileY = maxY / tileHeight - (maxY < 0 ? (-maxY % tileHeight > 0 ? 1 : 0): 0);
+
+        List<Future<?>> rows = new ArrayList<Future<?>>();
+        try {
             for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
-                for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
-                    for (int trow = 0; trow < tileHeight; trow++) {
-                        int j = (tileY * tileHeight) + trow;
-                        if ((j >= minY) && (j <= maxY)) {
-                            for (int tcol = 0; tcol < tileWidth; tcol++) {
-                                int col = (tileX * tileWidth) + tcol;
-                                if ((col >= minX) && (col <= maxX)) {
-                                    int k = col;
-                                    final int yPos = height - j + minY - 1;
-
-                                    // Simply setting lat and lon
-                                    indexing[numDimensions - 1] = k - minX;
-                                    indexing[numDimensions - 2] = yPos;
-                                    matrixIndex.set(indexing);
-                                    setPixel(k, j, NetCDFUtilities.transcodeImageDataType(imageDataType), netCDFDataType, data, matrix, matrixIndex);
+                final int ty = tileY;
+                FutureTask<Void> row = new FutureTask<Void>(() -> {
+                    // iterators and indexes are not thread safe, each task gets its own
+                    final RandomIter data = RandomIterFactory.create(ri, null);
+                    final Index matrixIndex = matrix.getIndex();
+                    final int rowIndexing[] = indexing.clone();
+                    final int numDimensions = rowIndexing.length;
+                    try {
+                        for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                            for (int trow = 0; trow < tileHeight; trow++) {
+                                int j = (ty * tileHeight) + trow;
+                                if ((j >= minY) && (j <= maxY)) {
+                                    for (int tcol = 0; tcol < tileWidth; tcol++) {
+                                        int col = (tileX * tileWidth) + tcol;
+                                        if ((col >= minX) && (col <= maxX)) {
+                                            int k = col;
+                                            final int yPos = height - j + minY - 1;
+
+                                            // Simply setting lat and lon
+                                            rowIndexing[numDimensions - 1] = k - minX;
+                                            rowIndexing[numDimensions - 2] = yPos;
+                                            matrixIndex.set(rowIndexing);
+                                            setPixel(k, j, imageDataType, netCDFDataType, data, matrix, matrixIndex);
+                                        }
+                                    }
                                 }
                             }
                         }
+                    } finally {
+                        // Finalize the iterator
+                        data.done();
                     }
+                }, null);
+                if (minTileY == maxTileY) {
+                    row.run();
+                } else {
+                    SharedExecutors.execute(WRITE_POOL, WRITE_THREADS, row);
                 }
+                rows.add(row);
             }
-            // Finalize the iterator 
-            data.done();
-        }
 
-        // ------------------------------
-        // Write the data to the variable
-        // ------------------------------
-        writer.write(var, matrix);
-        writer.flush();
+            for (Future<?> row : rows) {
+                try {
+                    row.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while copying the granule data", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            // no need to complete the copy if we are bailing out
+            for (Future<?> row : rows) {
+                row.cancel(false);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,72 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import java.awt.image.RenderedImage;
+import java.util.List;
+
+import ucar.nc2.Dimension;
+import ucar.nc2.Variable;
+import ucar.nc2.write.Nc4ChunkingDefault;
+
+/**
+ * NetCDF-4 chunking strategy aligning the chunks of the gridded variables with the tiles of the
+ * source images, so that each chunk gets filled by a single tile, and a client reading a single
+ * 2D slice (or a portion of it) does not need to decompress data from the other slices.
+ * <p>
+ * Chunks start from the origin of the variable, and the rows are written bottom up, flipped with
+ * respect to the image. Tiles and chunks line up only if the tile grid starts at the image
+ * origin and the image height is a multiple of the tile height, other images are chunked by the
+ * default strategy. So are variables whose two innermost dimensions do not match the image size,
+ * and images whose tiles are too small to make for efficient chunks (e.g., single row strips).
+ * </p>
+ */
+class NetCDFTileChunking extends Nc4ChunkingDefault {
+
+    /**
+     * Minimum number of elements in a tile based chunk
+     */
+    static final int MIN_CHUNK_ELEMENTS = 64 * 64;
+
+    private final int width;
+
+    private final int height;
+
+    private final int tileWidth;
+
+    private final int tileHeight;
+
+    private final boolean aligned;
+
+    NetCDFTileChunking(RenderedImage sample, int deflateLevel, boolean shuffle) {
+        super(deflateLevel, shuffle);
+        this.width = sample.getWidth();
+        this.height = sample.getHeight();
+        this.tileWidth = Math.min(sample.getTileWidth(), width);
+        this.tileHeight = Math.min(sample.getTileHeight(), height);
+        this.aligned = (sample.getMinX() - sample.getTileGridXOffset()) % tileWidth == 0
+                && (sample.getMinY() - sample.getTileGridYOffset()) % tileHeight == 0
+                && height % tileHeight == 0;
+    }
+
+    @Override
+    public long[] computeChunking(Variable v) {
+        List<Dimension> dimensions = v.getDimensions();
+        int rank = dimensions.size();
+        if (!aligned || rank < 2 || dimensions.get(rank - 1).getLength() != width
+                || dimensions.get(rank - 2).getLength() != height
+                || (long) tileWidth * tileHeight < MIN_CHUNK_ELEMENTS) {
+            return super.computeChunking(v);
+        }
+        // one slice along the higher rank dimensions, one tile along lat/lon (y/x)
+        long[] chunks = new long[rank];
+        for (int i = 0; i < rank - 2; i++) {
+            chunks[i] = 1;
+        }
+        chunks[rank - 2] = tileHeight;
+        chunks[rank - 1] = tileWidth;
+        return chunks;
+    }
+}
@@ -0,0 +1,101 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.ma2.DataType;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.Variable;
+import ucar.nc2.write.Nc4ChunkingDefault;
+
+public class NetCDFTileChunkingTest {
+
+    File file;
+
+    NetcdfFileWriter writer;
+
+    @Before
+    public void setupWriter() throws IOException {
+        file = File.createTempFile("chunking", ".nc", new File("./target"));
+        writer = NetcdfFileWriter.createNew(Version.netcdf3, file.getAbsolutePath());
+        writer.addDimension(null, "time", 3);
+        writer.addDimension(null, "elevation", 2);
+        writer.addDimension(null, "lat", 512);
+        writer.addDimension(null, "lon", 1024);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        writer.abort();
+        FileUtils.deleteQuietly(file);
+    }
+
+    TiledImage image(int tileWidth, int tileHeight) {
+        return image(tileWidth, tileHeight, 0, 0);
+    }
+
+    TiledImage image(int tileWidth, int tileHeight, int tileGridXOffset, int tileGridYOffset) {
+        return new TiledImage(0, 0, 1024, 512, tileGridXOffset, tileGridYOffset, RasterFactory
+                .createBandedSampleModel(DataBuffer.TYPE_FLOAT, tileWidth, tileHeight, 1), null);
+    }
+
+    @Test
+    public void testTileAligned() {
+        NetCDFTileChunking chunking = new NetCDFTileChunking(image(256, 128), 0, false);
+        Variable var = writer.addVariable(null, "data", DataType.FLOAT, "time elevation lat lon");
+        assertArrayEquals(new long[] { 1, 1, 128, 256 }, chunking.computeChunking(var));
+    }
+
+    @Test
+    public void testLargeTiles() {
+        // tiles larger than the image are clipped to its size
+        NetCDFTileChunking chunking = new NetCDFTileChunking(image(2048, 2048), 0, false);
+        Variable var = writer.addVariable(null, "data", DataType.FLOAT, "time lat lon");
+        assertArrayEquals(new long[] { 1, 512, 1024 }, chunking.computeChunking(var));
+    }
+
+    @Test
+    public void testFallbackToDefault() {
+        Nc4ChunkingDefault defaultChunking = new Nc4ChunkingDefault(0, false);
+
+        // strips are too small to make good chunks
+        NetCDFTileChunking chunking = new NetCDFTileChunking(image(1024, 1), 0, false);
+        Variable var = writer.addVariable(null, "data", DataType.FLOAT, "time lat lon");
+        assertArrayEquals(defaultChunking.computeChunking(var), chunking.computeChunking(var));
+
+        // not a gridded variable
+        chunking = new NetCDFTileChunking(image(256, 128), 0, false);
+        var = writer.addVariable(null, "times", DataType.DOUBLE, "time");
+        assertArrayEquals(defaultChunking.computeChunking(var), chunking.computeChunking(var));
+    }
+
+    @Test
+    public void testFallbackOnMisalignedTiles() {
+        Nc4ChunkingDefault defaultChunking = new Nc4ChunkingDefault(0, false);
+        Variable var = writer.addVariable(null, "data", DataType.FLOAT, "time lat lon");
+
+        // the rows are flipped, the last tile row would straddle two chunk rows
+        NetCDFTileChunking chunking = new NetCDFTileChunking(image(256, 200), 0, false);
+        assertArrayEquals(defaultChunking.computeChunking(var), chunking.computeChunking(var));
+
+        // the tile grid does not start at the image origin
+        chunking = new NetCDFTileChunking(image(256, 128, 64, 0), 0, false);
+        assertArrayEquals(defaultChunking.computeChunking(var), chunking.computeChunking(var));
+    }
+}
@@ -6,6 +6,7 @@
 
 package org.geoserver.wps.response;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -14,13 +15,16 @@ import org.apache.commons.io.IOUtils;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.resource.Resource;
+import org.geoserver.wcs.CoverageResultStore;
 import org.geoserver.wps.GetExecutionResultType;
 import org.geoserver.wps.GetExecutionStatusType;
 import org.geoserver.wps.WPSException;
 import org.geoserver.wps.resource.WPSResourceManager;
 
 /**
- * Returns a response already computed and stored in an output
+ * Returns a response already computed and stored in an output. Execution results, e.g. the
+ * rasters of the download process, honor single byte range requests, so that large downloads
+ * can be resumed.
  * 
  * @author Andrea Aime - GeoSolutions
  */
@@ -77,8 +81,41 @@ public class StoredResourceResponse extends Response {
         }
     }
 
+    @Override
+    public String[][] getHeaders(Object value, Operation operation) {
+        if (!isExecutionResult(operation)) {
+            return null;
+        }
+        Resource resource = (Resource) value;
+        String etag = getETag(resource);
+        String[][] headers = new String[][] { { "ETag", "\"" + etag + "\"" },
+                { "Accept-Ranges", "bytes" } };
+        return CoverageResultStore.addRangeHeaders(headers, resource.file().length(), etag);
+    }
+
+    boolean isExecutionResult(Operation operation) {
+        return operation.getParameters()[0] instanceof GetExecutionResultType;
+    }
+
+    /**
+     * The stored outputs are not modified once written, their path and time are enough to tell
+     * them apart
+     */
+    String getETag(Resource resource) {
+        return Integer.toHexString(resource.path().hashCode()) + "-"
+                + Long.toHexString(resource.lastmodified());
+    }
+
     public void write(Object value, OutputStream output, Operation operation) throws IOException {
         Resource resource = (Resource) value;
+        if (isExecutionResult(operation)) {
+            File file = resource.file();
+            long[] range = CoverageResultStore.setRangeStatus(file.length(), getETag(resource));
+            if (range != null) {
+                CoverageResultStore.transfer(file, output, range[0], range[1]);
+            }
+            return;
+        }
         try (InputStream is = resource.in()) {
             IOUtils.copy(is, output);
         }
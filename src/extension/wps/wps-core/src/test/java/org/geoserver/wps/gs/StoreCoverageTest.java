@@ -8,6 +8,7 @@ package org.geoserver.wps.gs;
 import static junit.framework.Assert.*;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
@@ -24,6 +25,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.opengis.coverage.grid.GridCoverage;
 
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 
 public class StoreCoverageTest extends WPSTestSupport {
@@ -41,9 +43,8 @@ public class StoreCoverageTest extends WPSTestSupport {
                 SystemTestData.class, getCatalog());
     }
 
-    @Test
-    public void testStore() throws Exception {
-        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+    String getStoreRequest() {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
                 + "<wps:Execute version=\"1.0.0\" service=\"WPS\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns=\"http://www.opengis.net/wps/1.0.0\" xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:wps=\"http://www.opengis.net/wps/1.0.0\" xmlns:ows=\"http://www.opengis.net/ows/1.1\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:ogc=\"http://www.opengis.net/ogc\" xmlns:wcs=\"http://www.opengis.net/wcs/1.1.1\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xsi:schemaLocation=\"http://www.opengis.net/wps/1.0.0 http://schemas.opengis.net/wps/1.0.0/wpsAll.xsd\">\n"
                 + "  <ows:Identifier>gs:StoreCoverage</ows:Identifier>\n"
                 + "  <wps:DataInputs>\n"
@@ -66,6 +67,11 @@ public class StoreCoverageTest extends WPSTestSupport {
                 + "  <wps:ResponseForm>\n" + "    <wps:RawDataOutput>\n"
                 + "      <ows:Identifier>coverageLocation</ows:Identifier>\n"
                 + "    </wps:RawDataOutput>\n" + "  </wps:ResponseForm>\n" + "</wps:Execute>";
+    }
+
+    @Test
+    public void testStore() throws Exception {
+        String xml = getStoreRequest();
 
         MockHttpServletResponse response = postAsServletResponse(root(), xml);
         String url = response.getContentAsString();
@@ -180,4 +186,25 @@ public class StoreCoverageTest extends WPSTestSupport {
 
     }
 
+    @Test
+    public void testRangedResult() throws Exception {
+        String url = postAsServletResponse(root(), getStoreRequest()).getContentAsString();
+        MockHttpServletResponse response = getAsServletResponse(url.substring(url
+                .indexOf("ows?")));
+        assertEquals(200, response.getStatus());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        String etag = response.getHeader("ETag");
+        byte[] full = response.getContentAsByteArray();
+
+        MockHttpServletRequest request = createRequest(url.substring(url.indexOf("ows?")));
+        request.setMethod("GET");
+        request.addHeader("Range", "bytes=10-19");
+        request.addHeader("If-Range", etag);
+        response = dispatch(request);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-19/" + full.length, response.getHeader("Content-Range"));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(full, 10, 20),
+                response.getContentAsByteArray()));
+    }
+
 }
@@ -7,18 +7,27 @@ package org.geoserver.gwc.layer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.media.jai.PlanarImage;
 
 import org.geoserver.gwc.GWC;
 import org.geoserver.ows.Response;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.RawMap;
@@ -35,12 +44,24 @@ import org.geowebcache.layer.MetaTile;
 import org.geowebcache.mime.FormatModifier;
 import org.geowebcache.mime.MimeType;
 
+import com.google.common.base.Throwables;
+
 import it.geosolutions.jaiext.BufferedImageAdapter;
 
 public class GeoServerMetaTile extends MetaTile {
 
+    /**
+     * System property enabling the parallel encoding of the tiles of a meta tile, see
+     * {@link #encodeTiles(ExecutorService)}
+     */
+    public static final String PARALLEL_ENCODING_KEY = "org.geoserver.gwc.metaTile.parallelEncoding";
+
     private WebMap metaTileMap;
 
+    private WritableRaster metaTileRaster;
+
+    private byte[][] encodedTiles;
+
     public GeoServerMetaTile(GridSubset gridSubset, MimeType responseFormat,
             FormatModifier formatModifier, long[] tileGridPosition, int metaX, int metaY,
             Integer gutter) {
@@ -58,7 +79,7 @@ public class GeoServerMetaTile extends MetaTile {
     /**
      * Creates the {@link RenderedImage} corresponding to the tile at index {@code tileIdx} and uses
      * a {@link RenderedImageMapResponse} to encode it into the {@link #getResponseFormat() response
-     * format}.
+     * format}, unless the tiles have already been encoded by {@link #encodeTiles(ExecutorService)}
      * 
      * @see org.geowebcache.layer.MetaTile#writeTileToStream(int, org.geowebcache.io.Resource)
      * @see RenderedImageMapResponse#write
@@ -82,55 +103,134 @@ public class GeoServerMetaTile extends MetaTile {
             throw new IllegalArgumentException("Only RenderedImageMaps are supported so far: "
                     + metaTileMap.getClass().getName());
         }
-        
-        final RenderedImageMap metaTileMap = (RenderedImageMap) this.metaTileMap;
-        final RenderedImageMapResponse mapEncoder;
-        {
-            final GWC mediator = GWC.get();
-            final Response responseEncoder = mediator.getResponseEncoder(responseFormat,
-                    metaTileMap);
-            mapEncoder = (RenderedImageMapResponse) responseEncoder;
+
+        OutputStream outStream = target.getOutputStream();
+        try {
+            if (encodedTiles != null) {
+                outStream.write(encodedTiles[tileIdx]);
+            } else {
+                encodeTile(getMapEncoder(), createTileImage(tileIdx),
+                        createTileContext(tileIdx), outStream);
+            }
+            return true;
+        } finally {
+            outStream.close();
+        }
+    }
+
+    /**
+     * Encodes all the tiles of the meta tile in parallel using the provided executor, the
+     * following calls to {@link #writeTileToStream(int, Resource)} will just copy the encoded
+     * tiles to the target resource. Does nothing if the meta tile is not an image, or contains a
+     * single tile.
+     * 
+     * @param executor
+     * @throws IOException
+     */
+    public void encodeTiles(ExecutorService executor) throws IOException {
+        checkNotNull(metaTileMap, "webMap is not set");
+        if (!(metaTileMap instanceof RenderedImageMap) || this.tiles.length < 2) {
+            return;
+        }
+
+        // the tiles are sliced in the calling thread, it's cheap and keeps the disposal
+        // bookkeeping single threaded, the encoding is what takes time
+        final RenderedImageMapResponse mapEncoder = getMapEncoder();
+        final byte[][] encoded = new byte[this.tiles.length][];
+        final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        final List<Future<?>> futures = new ArrayList<>(this.tiles.length);
+        for (int i = 0; i < this.tiles.length; i++) {
+            final int tileIdx = i;
+            final RenderedImage tile = createTileImage(tileIdx);
+            final WMSMapContent tileContext = createTileContext(tileIdx);
+            futures.add(executor.submit(() -> {
+                transfer.apply();
+                try {
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    encodeTile(mapEncoder, tile, tileContext, bos);
+                    encoded[tileIdx] = bos.toByteArray();
+                    return null;
+                } finally {
+                    transfer.cleanup();
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding the meta tile");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw new IOException("Failed to encode the meta tile", e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
         }
+        this.encodedTiles = encoded;
+    }
+
+    /**
+     * Returns true if the tiles should be encoded in parallel before being stored, see
+     * {@link #PARALLEL_ENCODING_KEY}
+     * 
+     */
+    public static boolean isParallelEncodingEnabled() {
+        return Boolean.valueOf(GeoServerExtensions.getProperty(PARALLEL_ENCODING_KEY));
+    }
 
-        RenderedImage tile = metaTileMap.getImage();
-        WMSMapContent tileContext = metaTileMap.getMapContext();
+    private RenderedImageMapResponse getMapEncoder() {
+        final GWC mediator = GWC.get();
+        final Response responseEncoder = mediator.getResponseEncoder(responseFormat, metaTileMap);
+        return (RenderedImageMapResponse) responseEncoder;
+    }
 
+    private RenderedImage createTileImage(final int tileIdx) {
+        RenderedImage tile = ((RenderedImageMap) metaTileMap).getImage();
         if (this.tiles.length > 1 || (this.tiles.length == 1 && metaHasGutter())) {
             final Rectangle tileDim = this.tiles[tileIdx];
             tile = createTile(tileDim.x, tileDim.y, tileDim.width, tileDim.height);
             disposeLater(tile);
-            {
-                final WMSMapContent metaTileContext = metaTileMap.getMapContext();
-                // do not create tileContext with metaTileContext.getLayers() as the layer list.
-                // It is not needed at this stage and the constructor would force a
-                // MapLayer.getBounds() that might fail
-                tileContext = new WMSMapContent();
-                tileContext.setRequest(metaTileContext.getRequest());
-                tileContext.setBgColor(metaTileContext.getBgColor());
-                tileContext.setMapWidth(tileDim.width);
-                tileContext.setMapHeight(tileDim.height);
-                tileContext.setPalette(metaTileContext.getPalette());
-                tileContext.setTransparent(tileContext.isTransparent());
-                long[][] tileIndexes = getTilesGridPositions();
-                BoundingBox tileBounds = gridSubset.boundsFromIndex(tileIndexes[tileIdx]);
-                ReferencedEnvelope tilebbox = new ReferencedEnvelope(
-                        metaTileContext.getCoordinateReferenceSystem());
-                tilebbox.init(tileBounds.getMinX(), tileBounds.getMaxX(), tileBounds.getMinY(),
-                        tileBounds.getMaxY());
-                tileContext.getViewport().setBounds(tilebbox);
-            }
         }
+        return tile;
+    }
 
-        OutputStream outStream = target.getOutputStream();
-        try {
-            // call formatImageOuputStream instead of write to avoid disposition of rendered images
-            // when processing a tile from a metatile and instead defer it to this class' dispose()
-            // method
-            mapEncoder.formatImageOutputStream(tile, outStream, tileContext);
-            return true;
-        } finally {
-            outStream.close();
+    private WMSMapContent createTileContext(final int tileIdx) {
+        final WMSMapContent metaTileContext = ((RenderedImageMap) metaTileMap).getMapContext();
+        if (this.tiles.length > 1 || (this.tiles.length == 1 && metaHasGutter())) {
+            final Rectangle tileDim = this.tiles[tileIdx];
+            // do not create tileContext with metaTileContext.getLayers() as the layer list.
+            // It is not needed at this stage and the constructor would force a
+            // MapLayer.getBounds() that might fail
+            WMSMapContent tileContext = new WMSMapContent();
+            tileContext.setRequest(metaTileContext.getRequest());
+            tileContext.setBgColor(metaTileContext.getBgColor());
+            tileContext.setMapWidth(tileDim.width);
+            tileContext.setMapHeight(tileDim.height);
+            tileContext.setPalette(metaTileContext.getPalette());
+            tileContext.setTransparent(tileContext.isTransparent());
+            long[][] tileIndexes = getTilesGridPositions();
+            BoundingBox tileBounds = gridSubset.boundsFromIndex(tileIndexes[tileIdx]);
+            ReferencedEnvelope tilebbox = new ReferencedEnvelope(
+                    metaTileContext.getCoordinateReferenceSystem());
+            tilebbox.init(tileBounds.getMinX(), tileBounds.getMaxX(), tileBounds.getMinY(),
+                    tileBounds.getMaxY());
+            tileContext.getViewport().setBounds(tilebbox);
+            return tileContext;
         }
+        return metaTileContext;
+    }
+
+    private void encodeTile(RenderedImageMapResponse mapEncoder, RenderedImage tile,
+            WMSMapContent tileContext, OutputStream outStream) throws IOException {
+        // call formatImageOuputStream instead of write to avoid disposition of rendered images
+        // when processing a tile from a metatile and instead defer it to this class' dispose()
+        // method
+        mapEncoder.formatImageOutputStream(tile, outStream, tileContext);
     }
 
     /**
@@ -183,23 +283,14 @@ public class GeoServerMetaTile extends MetaTile {
             disposeLater(w.getRenderedImage());
             break;
         case 1:
+            // copying the data once to ensure we don't have side effects when we clean the
+            // cache, the tiles are then just views on the copy
             final PlanarImage pImage = (PlanarImage) metaTileImage;
-            final WritableRaster wTile = WritableRaster.createWritableRaster(pImage
-                    .getSampleModel().createCompatibleSampleModel(tileWidth, tileHeight),
-                    new Point(x, y));
-            Rectangle sourceArea = new Rectangle(x, y, tileWidth, tileHeight);
-            sourceArea = sourceArea.intersection(pImage.getBounds());
-
-            // copying the data to ensure we don't have side effects when we clean the cache
-            pImage.copyData(wTile);
-            if (wTile.getMinX() != 0 || wTile.getMinY() != 0) {
-                tile = new BufferedImage(pImage.getColorModel(),
-                        (WritableRaster) wTile.createTranslatedChild(0, 0), pImage.getColorModel()
-                                .isAlphaPremultiplied(), null);
-            } else {
-                tile = new BufferedImage(pImage.getColorModel(), wTile, pImage.getColorModel()
-                        .isAlphaPremultiplied(), null);
-            }
+            final WritableRaster raster = getMetaTileRaster(pImage);
+            final ColorModel cm = pImage.getColorModel();
+            tile = new BufferedImage(cm,
+                    raster.createWritableChild(x, y, tileWidth, tileHeight, 0, 0, null),
+                    cm.isAlphaPremultiplied(), null);
             break;
         case 2:
             final BufferedImage image = (BufferedImage) metaTileImage;
@@ -215,8 +306,17 @@ public class GeoServerMetaTile extends MetaTile {
         return tile;
     }
 
+    private synchronized WritableRaster getMetaTileRaster(PlanarImage pImage) {
+        if (metaTileRaster == null) {
+            metaTileRaster = pImage.copyData();
+        }
+        return metaTileRaster;
+    }
+
     @Override
     public void dispose() {
+        metaTileRaster = null;
+        encodedTiles = null;
         if (metaTileMap != null) {
             metaTileMap.dispose();
             metaTileMap = null;
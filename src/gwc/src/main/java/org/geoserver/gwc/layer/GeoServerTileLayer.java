@@ -21,6 +21,7 @@ import org.geoserver.ows.URLMangler;
 import org.geoserver.ows.util.RequestUtils;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.rest.RequestInfo;
+import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetLegendGraphicRequest;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
@@ -586,6 +587,9 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
                     map = dispatchGetMap(tile, metaTile);
                     checkNotNull(map, "Did not obtain a WebMap from GeoServer's Dispatcher");
                     metaTile.setWebMap(map);
+                    if (GeoServerMetaTile.isParallelEncodingEnabled()) {
+                        metaTile.encodeTiles(DefaultWebMapService.getImageEncodingPool());
+                    }
                     saveTiles(metaTile, tile, requestTime);
                 } catch (Exception e) {
                     Throwables.propagateIfInstanceOf(e, GeoWebCacheException.class);
@@ -20,6 +20,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +37,7 @@ import org.geoserver.catalog.CoverageView.CoverageBand;
 import org.geoserver.catalog.CoverageView.EnvelopeCompositionType;
 import org.geoserver.catalog.CoverageView.InputCoverageBand;
 import org.geoserver.catalog.CoverageViewHandler.CoveragesConsistencyChecker;
+import org.geoserver.util.SharedExecutors;
 import org.geotools.coverage.CoverageFactoryFinder;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
@@ -91,6 +96,15 @@ public class CoverageViewReader implements GridCoverage2DReader {
     
     private static final Logger LOGGER = Logging.getLogger(CoverageViewReader.class);
 
+    static final int READ_THREADS = Integer.getInteger(
+            "org.geoserver.catalog.coverageViewReadThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Name of the shared pool reading the sources of multi-coverage views in parallel
+     */
+    static final String READ_POOL = "coverage-view-read";
+
     /** The CoverageView containing definition */
     CoverageView coverageView;
 
@@ -236,15 +250,15 @@ public class CoverageViewReader implements GridCoverage2DReader {
         // This is a good spot to read coverages. Reading a coverage is done only once, it is
         // cached to be used for its other bands that possibly take part in the CoverageView definition
         HashMap<String, GridCoverage2D> inputCoverages = new HashMap<String, GridCoverage2D>();
-        GridCoverage2D dynamicAlphaSource = null;
-        int nonNullCoverages = 0;
+        List<String> coverageNames = new ArrayList<String>();
+        List<GridCoverage2DReader> readers = new ArrayList<GridCoverage2DReader>();
         for (int bIdx : selectedBandIndices) {
             CoverageBand band = bands.get(bIdx);
             List<InputCoverageBand> selectedBands = band.getInputCoverageBands();
 
             // Peek for coverage name
             String coverageName = selectedBands.get(0).getCoverageName();
-            if (!inputCoverages.containsKey(coverageName)) {
+            if (!coverageNames.contains(coverageName)) {
                 GridCoverage2DReader reader = SingleGridCoverage2DReader.wrap(delegate, coverageName);
                 // Remove this when removing constraints
                 if (checker == null) {
@@ -252,15 +266,28 @@ public class CoverageViewReader implements GridCoverage2DReader {
                 } else {
                     checker.checkConsistency(reader);
                 }
-                // bands selection parameter inside on final bands so they should not be propagated to the delegate reader
-                GeneralParameterValue[] filteredParameters = parameters;
-                if (parameters != null) {
-                    // creating a copy of parameters excluding the bands parameter
-                    filteredParameters = Arrays.stream(parameters).filter(
-                            parameter -> !parameter.getDescriptor().getName().equals(AbstractGridFormat.BANDS.getName()))
-                            .toArray(GeneralParameterValue[]::new);
-                }
-                GridCoverage2D coverage = reader.read(filteredParameters);
+                coverageNames.add(coverageName);
+                readers.add(reader);
+            }
+        }
+
+        // bands selection parameter inside on final bands so they should not be propagated to the delegate reader
+        GeneralParameterValue[] filteredParameters = parameters;
+        if (parameters != null) {
+            // creating a copy of parameters excluding the bands parameter
+            filteredParameters = Arrays.stream(parameters).filter(
+                    parameter -> !parameter.getDescriptor().getName().equals(AbstractGridFormat.BANDS.getName()))
+                    .toArray(GeneralParameterValue[]::new);
+        }
+
+        // read the sources in parallel, they are independent of each other
+        List<Future<GridCoverage2D>> reads = submitReads(readers, filteredParameters);
+        GridCoverage2D dynamicAlphaSource = null;
+        int nonNullCoverages = 0;
+        boolean completed = false;
+        try {
+            for (int i = 0; i < readers.size(); i++) {
+                GridCoverage2D coverage = getCoverage(reads.get(i));
                 if (coverage == null) {
                     if (handler.isHomogeneousCoverages() || 
                             handler.getEnvelopeCompositionType() == EnvelopeCompositionType.INTERSECTION) {
@@ -269,10 +296,19 @@ public class CoverageViewReader implements GridCoverage2DReader {
                 } else {
                     nonNullCoverages++;
                 }
-                if (dynamicAlphaSource == null && hasDynamicAlpha(coverage, reader)) {
+                if (dynamicAlphaSource == null && hasDynamicAlpha(coverage, readers.get(i))) {
                     dynamicAlphaSource = coverage;
                 }
-                inputCoverages.put(coverageName, coverage);
+                inputCoverages.put(coverageNames.get(i), coverage);
+            }
+            completed = true;
+        } finally {
+            // no need to complete the reads if we are bailing out, but the coverages already
+            // read have to be disposed
+            if (!completed) {
+                for (Future<GridCoverage2D> read : reads) {
+                    disposeRead(read);
+                }
             }
         }
         
@@ -420,6 +456,78 @@ public class CoverageViewReader implements GridCoverage2DReader {
         return result;
     }
 
+    /**
+     * Starts reading the given sources, in parallel if there is more than one
+     */
+    private List<Future<GridCoverage2D>> submitReads(List<GridCoverage2DReader> readers,
+            GeneralParameterValue[] parameters) {
+        List<Future<GridCoverage2D>> reads = new ArrayList<Future<GridCoverage2D>>();
+        for (GridCoverage2DReader reader : readers) {
+            FutureTask<GridCoverage2D> read = new CoverageRead(() -> reader.read(parameters));
+            if (readers.size() == 1) {
+                read.run();
+            } else {
+                SharedExecutors.execute(READ_POOL, READ_THREADS, read);
+            }
+            reads.add(read);
+        }
+        return reads;
+    }
+
+    /**
+     * Cancels the read, or disposes the coverage it returned if already completed
+     */
+    private void disposeRead(Future<GridCoverage2D> read) {
+        if (read.cancel(false)) {
+            // a read already running disposes its coverage on completion, see CoverageRead
+            return;
+        }
+        try {
+            GridCoverage2D coverage = read.get();
+            if (coverage != null) {
+                coverage.dispose(true);
+            }
+        } catch (Exception e) {
+            // the read failed, nothing to dispose
+            LOGGER.log(Level.FINE, "Coverage view source read failed", e);
+        }
+    }
+
+    /**
+     * A source read that disposes the coverage it returns if it has been cancelled meanwhile
+     */
+    static class CoverageRead extends FutureTask<GridCoverage2D> {
+
+        CoverageRead(Callable<GridCoverage2D> read) {
+            super(read);
+        }
+
+        @Override
+        protected void set(GridCoverage2D coverage) {
+            super.set(coverage);
+            if (isCancelled() && coverage != null) {
+                coverage.dispose(true);
+            }
+        }
+    }
+
+    private GridCoverage2D getCoverage(Future<GridCoverage2D> read) throws IOException {
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the coverage view sources", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     private void addAlphaColorModelHint(Hints localHints, int currentBandCount) {
         ImageLayout layout = new ImageLayout();
         ColorModel alphaModel = getColorModelWithAlpha(currentBandCount);
@@ -0,0 +1,196 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Describes how one of the {@link ResourcePool} caches retains its values.
+ * <p>
+ * The values are kept strongly reachable up to the configured maximum number of entries or the
+ * maximum total weight (the weight takes precedence when both are set), and for no longer than
+ * the expire after access time, if any. Values going past those limits are evicted, unless the
+ * soft fallback is enabled, in which case they are kept softly reachable and left for the
+ * garbage collector to reclaim under memory pressure. Evicted values are not disposed, as
+ * running requests might still be using them, they are only weakly referenced until reclaimed
+ * by the garbage collector, or looked up again.
+ * </p>
+ * <p>
+ * A policy can be written and parsed back as a comma separated list of key/value pairs, e.g.
+ * <code>maxEntries=100,expireAfterAccess=600,softFallback=false</code>, with the expiration
+ * expressed in seconds. Missing keys keep their default value, that is, unbounded, no
+ * expiration and no soft fallback.
+ * </p>
+ */
+public final class ResourceCachePolicy implements Serializable {
+
+    private static final long serialVersionUID = -4364474577453932516L;
+
+    static final String MAX_ENTRIES = "maxEntries";
+
+    static final String MAX_WEIGHT = "maxWeight";
+
+    static final String EXPIRE_AFTER_ACCESS = "expireAfterAccess";
+
+    static final String SOFT_FALLBACK = "softFallback";
+
+    /**
+     * A policy keeping all values strongly reachable until they are explicitly removed
+     */
+    public static final ResourceCachePolicy UNBOUNDED = new ResourceCachePolicy(-1, -1, -1,
+            false);
+
+    final long maxEntries;
+
+    final long maxWeight;
+
+    final long expireAfterAccess;
+
+    final boolean softFallback;
+
+    /**
+     * Builds a new policy
+     *
+     * @param maxEntries The maximum number of strongly reachable values, or a negative number for
+     *        no limit
+     * @param maxWeight The maximum total weight of the strongly reachable values, or a negative
+     *        number for no limit
+     * @param expireAfterAccess Time in seconds after which a value that has not been accessed is
+     *        evicted, or a negative number to never expire values
+     * @param softFallback If true, values past the limits are kept softly reachable in the
+     *        cache, instead of being evicted
+     */
+    public ResourceCachePolicy(long maxEntries, long maxWeight, long expireAfterAccess,
+            boolean softFallback) {
+        this.maxEntries = maxEntries < 0 ? -1 : maxEntries;
+        this.maxWeight = maxWeight < 0 ? -1 : maxWeight;
+        this.expireAfterAccess = expireAfterAccess <= 0 ? -1 : expireAfterAccess;
+        this.softFallback = softFallback;
+    }
+
+    /**
+     * Returns a policy keeping the most recently used values strongly reachable, and the others
+     * softly reachable. This is the behavior the resource pool caches have by default.
+     *
+     * @param maxEntries
+     *
+     */
+    public static ResourceCachePolicy softFallback(long maxEntries) {
+        return new ResourceCachePolicy(maxEntries, -1, -1, true);
+    }
+
+    /**
+     * Parses a policy from its textual representation, see {@link #toString()}
+     *
+     * @param spec
+     *
+     * @throws IllegalArgumentException if the specification cannot be parsed
+     */
+    public static ResourceCachePolicy parse(String spec) {
+        long maxEntries = -1;
+        long maxWeight = -1;
+        long expireAfterAccess = -1;
+        boolean softFallback = false;
+        if (spec != null) {
+            for (String kvp : spec.split(",")) {
+                if (kvp.trim().isEmpty()) {
+                    continue;
+                }
+                int idx = kvp.indexOf('=');
+                if (idx <= 0) {
+                    throw new IllegalArgumentException("Invalid cache policy element '" + kvp
+                            + "', expected a key=value pair");
+                }
+                String key = kvp.substring(0, idx).trim();
+                String value = kvp.substring(idx + 1).trim();
+                try {
+                    if (MAX_ENTRIES.equalsIgnoreCase(key)) {
+                        maxEntries = Long.parseLong(value);
+                    } else if (MAX_WEIGHT.equalsIgnoreCase(key)) {
+                        maxWeight = Long.parseLong(value);
+                    } else if (EXPIRE_AFTER_ACCESS.equalsIgnoreCase(key)) {
+                        expireAfterAccess = Long.parseLong(value);
+                    } else if (SOFT_FALLBACK.equalsIgnoreCase(key)) {
+                        softFallback = Boolean.parseBoolean(value);
+                    } else {
+                        throw new IllegalArgumentException("Unknown cache policy key '" + key
+                                + "'");
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value '" + value + "' for cache "
+                            + "policy key '" + key + "'", e);
+                }
+            }
+        }
+        return new ResourceCachePolicy(maxEntries, maxWeight, expireAfterAccess, softFallback);
+    }
+
+    /**
+     * The maximum number of strongly reachable values, or -1 if not limited
+     */
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * The maximum total weight of the strongly reachable values, or -1 if not limited
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * The time in seconds after which values not accessed are evicted, or -1 if values do not
+     * expire
+     */
+    public long getExpireAfterAccess() {
+        return expireAfterAccess;
+    }
+
+    /**
+     * Whether evicted values are kept softly reachable instead of being disposed
+     */
+    public boolean isSoftFallback() {
+        return softFallback;
+    }
+
+    @Override
+    public String toString() {
+        List<String> elements = new ArrayList<>();
+        if (maxEntries >= 0) {
+            elements.add(MAX_ENTRIES + "=" + maxEntries);
+        }
+        if (maxWeight >= 0) {
+            elements.add(MAX_WEIGHT + "=" + maxWeight);
+        }
+        if (expireAfterAccess > 0) {
+            elements.add(EXPIRE_AFTER_ACCESS + "=" + expireAfterAccess);
+        }
+        elements.add(SOFT_FALLBACK + "=" + softFallback);
+        return String.join(",", elements);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxEntries, maxWeight, expireAfterAccess, softFallback);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ResourceCachePolicy)) {
+            return false;
+        }
+        ResourceCachePolicy other = (ResourceCachePolicy) obj;
+        return maxEntries == other.maxEntries && maxWeight == other.maxWeight
+                && expireAfterAccess == other.expireAfterAccess
+                && softFallback == other.softFallback;
+    }
+}
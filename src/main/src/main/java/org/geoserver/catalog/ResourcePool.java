@@ -29,13 +29,21 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -109,7 +117,6 @@ import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
 import org.geotools.styling.StyleImpl;
 import org.geotools.styling.StyledLayerDescriptor;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.Utilities;
 import org.geotools.util.logging.Logging;
 import org.geotools.xml.DocumentFactory;
@@ -137,6 +144,18 @@ import org.vfny.geoserver.global.GeoServerFeatureLocking;
 import org.vfny.geoserver.util.DataStoreUtils;
 import org.xml.sax.EntityResolver;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.AbstractCache.SimpleStatsCounter;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ForwardingMap;
+
 /**
  * Provides access to resources such as datastores, coverage readers, and 
  * feature types.
@@ -153,6 +172,10 @@ import org.xml.sax.EntityResolver;
  * <li>{@link #sldCache} </li>
  * <li>{@link #styleCache} </li>
  * </p>
+ * <p>
+ * Cache lookups never block each other, and the loading of a missing entry only blocks the
+ * threads looking for the same entry, see {@link #getOrLoad(Map, Object, CacheEntryLoader)}
+ * </p>
  * 
  * @author Justin Deoliveira, Boundless
  */
@@ -197,6 +220,34 @@ public class ResourcePool {
      * Default number of hard references
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
+
+    /**
+     * Time in seconds the values evicted from the resource caches are kept before being
+     * disposed, leaving the requests still using them time to complete
+     */
+    static long RETIRED_GRACE_PERIOD = Long.getLong("org.geoserver.catalog.retiredGracePeriod",
+            60);
+
+    /**
+     * Name of the {@link DataAccess} cache, see
+     * {@link #setCachePolicy(String, ResourceCachePolicy)}
+     */
+    public static final String DATA_STORE_CACHE = "dataStore";
+
+    /** Name of the {@link FeatureType} cache */
+    public static final String FEATURE_TYPE_CACHE = "featureType";
+
+    /** Name of the feature type {@link AttributeTypeInfo} cache */
+    public static final String FEATURE_TYPE_ATTRIBUTE_CACHE = "featureTypeAttribute";
+
+    /** Name of the {@link GridCoverageReader} cache */
+    public static final String COVERAGE_READER_CACHE = "coverageReader";
+
+    /** Name of the {@link WebMapServer} cache */
+    public static final String WMS_CACHE = "wms";
+
+    /** Name of the {@link WebMapTileServer} cache */
+    public static final String WMTS_CACHE = "wmts";
     
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
@@ -213,6 +264,8 @@ public class ResourcePool {
     Map<StyleInfo,Style> styleCache;
     List<Listener> listeners;
     ThreadPoolExecutor coverageExecutor;
+    LoadingCache<CacheEntryKey, Lock> loadLocks;
+    Map<String, ResourceCachePolicy> cachePolicies = new ConcurrentHashMap<>();
     CatalogRepository repository;
     EntityResolverProvider entityResolverProvider;
 
@@ -245,6 +298,14 @@ public class ResourcePool {
         styleCache = createStyleCache();
 
         listeners = new CopyOnWriteArrayList<Listener>();
+        // one lock per cache entry being loaded, they go away as soon as no thread uses them
+        loadLocks = CacheBuilder.newBuilder().weakValues()
+                .build(new CacheLoader<CacheEntryKey, Lock>() {
+                    @Override
+                    public Lock load(CacheEntryKey key) {
+                        return new ReentrantLock();
+                    }
+                });
     }
 
     /**
@@ -285,7 +346,7 @@ public class ResourcePool {
     }
 
     protected Map<String,CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        return new ConcurrentHashMap<String, CoordinateReferenceSystem>();
     }
 
     /**
@@ -374,7 +435,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, StyledLayerDescriptor> createSldCache() {
-        return new HashMap<StyleInfo, StyledLayerDescriptor>();
+        return new ConcurrentHashMap<StyleInfo, StyledLayerDescriptor>();
     }
 
     /**
@@ -388,7 +449,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        return new ConcurrentHashMap<StyleInfo, Style>();
     }
 
     /**
@@ -427,8 +488,97 @@ public class ResourcePool {
             featureTypeCache = createFeatureTypeCache(featureTypeCacheSize);
             featureTypeAttributeCache.clear();
             featureTypeAttributeCache = createFeatureTypeAttributeCache(featureTypeCacheSize);
+            // an explicitly configured policy wins over the cache size
+            applyCachePolicy(FEATURE_TYPE_CACHE);
+            applyCachePolicy(FEATURE_TYPE_ATTRIBUTE_CACHE);
+        }
+    }
+
+    /**
+     * Returns the caches whose retention policy can be configured, by name
+     */
+    synchronized Map<String, CatalogResourceCache<?, ?>> getPolicyCaches() {
+        Map<String, Map<?, ?>> caches = new LinkedHashMap<>();
+        caches.put(DATA_STORE_CACHE, dataStoreCache);
+        caches.put(FEATURE_TYPE_CACHE, featureTypeCache);
+        caches.put(FEATURE_TYPE_ATTRIBUTE_CACHE, featureTypeAttributeCache);
+        caches.put(COVERAGE_READER_CACHE, hintCoverageReaderCache);
+        caches.put(WMS_CACHE, wmsCache);
+        caches.put(WMTS_CACHE, wmtsCache);
+        // subclasses might have replaced the caches with plain maps
+        Map<String, CatalogResourceCache<?, ?>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<?, ?>> entry : caches.entrySet()) {
+            if (entry.getValue() instanceof CatalogResourceCache) {
+                result.put(entry.getKey(), (CatalogResourceCache<?, ?>) entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the names of the caches whose retention policy can be configured
+     */
+    public Set<String> getCacheNames() {
+        return getPolicyCaches().keySet();
+    }
+
+    /**
+     * Returns the retention policy in use by the specified cache, or null if the cache is not
+     * found or does not support policies
+     * 
+     * @param cacheName One of the names returned by {@link #getCacheNames()}
+     */
+    public ResourceCachePolicy getCachePolicy(String cacheName) {
+        CatalogResourceCache<?, ?> cache = getPolicyCaches().get(cacheName);
+        return cache == null ? null : cache.getPolicy();
+    }
+
+    /**
+     * Returns the retention policy explicitly configured for the specified cache, or null if the
+     * cache is using its default one
+     * 
+     * @param cacheName One of the names returned by {@link #getCacheNames()}
+     */
+    public ResourceCachePolicy getConfiguredCachePolicy(String cacheName) {
+        return cachePolicies.get(cacheName);
+    }
+
+    /**
+     * Sets the retention policy of the specified cache. The cached values are preserved, but
+     * the ones exceeding the new policy limits will be evicted.
+     * 
+     * @param cacheName One of the names returned by {@link #getCacheNames()}
+     * @param policy The policy, or null to go back to the default one
+     */
+    public void setCachePolicy(String cacheName, ResourceCachePolicy policy) {
+        synchronized (this) {
+            if (policy == null) {
+                cachePolicies.remove(cacheName);
+            } else {
+                cachePolicies.put(cacheName, policy);
+            }
+            applyCachePolicy(cacheName);
         }
     }
+
+    void applyCachePolicy(String cacheName) {
+        CatalogResourceCache<?, ?> cache = getPolicyCaches().get(cacheName);
+        if (cache != null) {
+            cache.setPolicy(cachePolicies.get(cacheName));
+        }
+    }
+
+    /**
+     * Returns the hit, miss, load and eviction statistics of the caches supporting them, by
+     * cache name
+     */
+    public Map<String, CacheStats> getCacheStatistics() {
+        Map<String, CacheStats> result = new LinkedHashMap<>();
+        for (Map.Entry<String, CatalogResourceCache<?, ?>> entry : getPolicyCaches().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return result;
+    }
     
     /**
      * Sets the size of the feature type cache.
@@ -478,6 +628,88 @@ public class ResourcePool {
     public static ResourcePool create(Catalog catalog) {
         return create(catalog, null);
     }
+
+    /**
+     * Looks up a value in the cache, loading and caching it if missing. Lookups do not block,
+     * concurrent loads of the same key are performed just once, with the other threads waiting
+     * for the first one to complete, while loads of different keys proceed in parallel.
+     * <p>
+     * A null value returned by the loader is not cached.
+     * </p>
+     * 
+     * @param cache The cache to look into
+     * @param key The cache key
+     * @param loader Loads the value if not found in the cache
+     * @throws IOException If the loader fails
+     */
+    <K, V> V getOrLoad(Map<K, V> cache, K key, CacheEntryLoader<V> loader) throws IOException {
+        V value = cache.get(key);
+        if (value == null) {
+            Lock lock = getLoadLock(cache, key);
+            lock.lock();
+            try {
+                value = peek(cache, key);
+                if (value == null) {
+                    long start = System.nanoTime();
+                    boolean loaded = false;
+                    try {
+                        value = loader.load();
+                        loaded = true;
+                    } finally {
+                        if (cache instanceof CatalogResourceCache) {
+                            ((CatalogResourceCache<?, ?>) cache).recordLoad(System.nanoTime() - start,
+                                    loaded);
+                        }
+                    }
+                    if (value != null) {
+                        cache.put(key, value);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Looks up a value without affecting the cache hit/miss statistics
+     */
+    @SuppressWarnings("unchecked")
+    <K, V> V peek(Map<K, V> cache, K key) {
+        if (cache instanceof CatalogResourceCache) {
+            return ((CatalogResourceCache<K, V>) cache).peek(key);
+        }
+        return cache.get(key);
+    }
+
+    /**
+     * Removes a value from the cache, waiting for any concurrent load of the same key to
+     * complete first, so that a stale value cannot be cached after the removal
+     * 
+     * @param cache
+     * @param key
+     */
+    <K, V> void invalidate(Map<K, V> cache, K key) {
+        Lock lock = getLoadLock(cache, key);
+        lock.lock();
+        try {
+            cache.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the lock guarding the loading of the given cache entry
+     */
+    Lock getLoadLock(Map<?, ?> cache, Object key) {
+        return loadLocks.getUnchecked(new CacheEntryKey(cache, key));
+    }
     
     /**
      * Returns a {@link CoordinateReferenceSystem} object based on its identifier
@@ -502,23 +734,14 @@ public class ResourcePool {
         if(srsName == null)
             return null;
         
-        CoordinateReferenceSystem crs = crsCache.get( srsName );
-        if ( crs == null ) {
-            synchronized (crsCache) {
-                crs = crsCache.get( srsName );
-                if ( crs == null ) {
-                    try {
-                        crs = CRS.decode( srsName );
-                        crsCache.put( srsName, crs );
-                    }
-                    catch( Exception e) {
-                        throw (IOException) new IOException().initCause(e);
-                    }
-                }
+        return getOrLoad(crsCache, srsName, () -> {
+            try {
+                return CRS.decode( srsName );
             }
-        }
-        
-        return crs;
+            catch( Exception e) {
+                throw (IOException) new IOException().initCause(e);
+            }
+        });
     }
     
     /**
@@ -773,32 +996,28 @@ public class ResourcePool {
             return info.getAttributes();
         }
         
-        //check the cache
-        List<AttributeTypeInfo> atts = featureTypeAttributeCache.get(info.getId());
-        if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = featureTypeAttributeCache.get(info.getId());
-                if (atts == null) {
-                    //load from feature type
-                    atts = loadAttributes(info);
-                    
-                    //check for a schema override
-                    try {
-                        handleSchemaOverride(atts,info);
-                    }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, 
-                            "Error occured applying schema override for "+info.getName(), e);
-                    }
-                    
-                    // cache attributes only if the id is not null -> the feature type is not new
-                    if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
-                    }
-                }
-            }
+        // cache attributes only if the id is not null -> the feature type is not new
+        if (info.getId() == null) {
+            return loadAttributesWithOverrides(info);
         }
-        
+        return getOrLoad(featureTypeAttributeCache, info.getId(),
+                () -> loadAttributesWithOverrides(info));
+    }
+
+    private List<AttributeTypeInfo> loadAttributesWithOverrides(FeatureTypeInfo info)
+            throws IOException {
+        //load from feature type
+        List<AttributeTypeInfo> atts = loadAttributes(info);
+
+        //check for a schema override
+        try {
+            handleSchemaOverride(atts,info);
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, 
+                "Error occured applying schema override for "+info.getName(), e);
+        }
+
         return atts;
     }
     
@@ -952,27 +1171,17 @@ public class ResourcePool {
 
     FeatureType getCacheableFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
         String key = getFeatureTypeInfoKey(info, handleProjectionPolicy);
-        FeatureType ft = featureTypeCache.get( key );
-        if ( ft == null ) {
-            synchronized ( featureTypeCache ) {
-                ft = featureTypeCache.get( key );
-                if ( ft == null ) {
-
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
-                    FeatureTypeCallback initializer = getFeatureTypeInitializer(info, dataAccess);
-                    if (initializer != null) {
-                        initializer.initialize(info, dataAccess, null);
-                    }
-                    // ft = jstore.getSchema(vt.getName());
-                    ft = dataAccess.getSchema(info.getQualifiedNativeName());
-                    ft = buildFeatureType(info, handleProjectionPolicy, ft);
-
-                    featureTypeCache.put( key, ft );
-                }
+        return getOrLoad(featureTypeCache, key, () -> {
+            //grab the underlying feature type
+            DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+            FeatureTypeCallback initializer = getFeatureTypeInitializer(info, dataAccess);
+            if (initializer != null) {
+                initializer.initialize(info, dataAccess, null);
             }
-        }
-        return ft;
+            // ft = jstore.getSchema(vt.getName());
+            FeatureType ft = dataAccess.getSchema(info.getQualifiedNativeName());
+            return buildFeatureType(info, handleProjectionPolicy, ft);
+        });
     }
 
     private FeatureType getNonCacheableFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
@@ -1216,9 +1425,11 @@ public class ResourcePool {
      * @param info The feature type metadata.
      */
     public void clear( FeatureTypeInfo info ) {
-        featureTypeCache.remove(getFeatureTypeInfoKey(info, true));
-        featureTypeCache.remove(getFeatureTypeInfoKey(info, false));
-        featureTypeAttributeCache.remove( info.getId() );
+        invalidate(featureTypeCache, getFeatureTypeInfoKey(info, true));
+        invalidate(featureTypeCache, getFeatureTypeInfoKey(info, false));
+        if (info.getId() != null) {
+            invalidate(featureTypeAttributeCache, info.getId());
+        }
     }
     
     /**
@@ -1484,35 +1695,25 @@ public class ResourcePool {
             hints.add(new RenderingHints(Hints.EXECUTOR_SERVICE, coverageExecutor));
         }
         // look into the cache
-        Object key = new CoverageHintReaderKey(info.getId(), hints);
-        GridCoverageReader reader = hintCoverageReaderCache.get( key );
-        
+        CoverageHintReaderKey key = new CoverageHintReaderKey(info.getId(), hints);
+        final Hints readerHints = hints;
         // if not found in cache, create it
-        if (reader == null) {
-            synchronized ( hintCoverageReaderCache ) {
-                if (key != null) {
-                    reader = hintCoverageReaderCache.get(key);
-                }
-                if (reader == null) {
-                    /////////////////////////////////////////////////////////
-                    //
-                    // Getting coverage reader using the format and the real path.
-                    //
-                    // /////////////////////////////////////////////////////////
-                    final String urlString = expandedStore.getURL();
-                    Object readObject = getObjectToRead(urlString);
-
-                    // readers might change the provided hints, pass down a defensive copy
-                    reader = gridFormat.getReader(readObject, hints);
-                    if (reader == null) {
-                        throw new IOException("Failed to create reader from " + urlString + " and hints " + hints);
-                    }
-                    if (key != null) {
-                        hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
-                    }
-                }
+        GridCoverageReader reader = getOrLoad(hintCoverageReaderCache, key, () -> {
+            /////////////////////////////////////////////////////////
+            //
+            // Getting coverage reader using the format and the real path.
+            //
+            // /////////////////////////////////////////////////////////
+            final String urlString = expandedStore.getURL();
+            Object readObject = getObjectToRead(urlString);
+
+            // readers might change the provided hints, pass down a defensive copy
+            GridCoverageReader newReader = gridFormat.getReader(readObject, readerHints);
+            if (newReader == null) {
+                throw new IOException("Failed to create reader from " + urlString + " and hints " + readerHints);
             }
-        }
+            return newReader;
+        });
 
         if(coverageInfo == null && coverageName != null) {
             coverageInfo = getCoverageInfo(coverageName, info);
@@ -1594,7 +1795,7 @@ public class ResourcePool {
         HashSet<CoverageHintReaderKey> keys = new HashSet<CoverageHintReaderKey>(hintCoverageReaderCache.keySet());
         for (CoverageHintReaderKey key : keys) {
             if(key.id != null && key.id.equals(storeId)) {
-                hintCoverageReaderCache.remove(key);
+                invalidate(hintCoverageReaderCache, key);
             }
         }
         
@@ -1753,24 +1954,19 @@ public class ResourcePool {
                 wms = null;
             }
             if (wms == null) {
-                synchronized (wmsCache) {
-                    wms = wmsCache.get(id);
-                    if (wms == null) {
-                        HTTPClient client = getHTTPClient(expandedStore);
-                        String capabilitiesURL = expandedStore.getCapabilitiesURL();
-                        URL serverURL = new URL(capabilitiesURL);
-                        Map<String, Object> hints = new HashMap<>();
-                        hints.put(DocumentHandler.DEFAULT_NAMESPACE_HINT_KEY, WMSSchema.getInstance());
-                        hints.put(DocumentFactory.VALIDATION_HINT, Boolean.FALSE);
-                        if(entityResolver != null) {
-                            hints.put(XMLHandlerHints.ENTITY_RESOLVER, entityResolver);
-                        }
-                        
-                        wms = new WebMapServer(serverURL, client, hints);
-
-                        wmsCache.put(id, wms);
+                wms = getOrLoad(wmsCache, id, () -> {
+                    HTTPClient client = getHTTPClient(expandedStore);
+                    String capabilitiesURL = expandedStore.getCapabilitiesURL();
+                    URL serverURL = new URL(capabilitiesURL);
+                    Map<String, Object> hints = new HashMap<>();
+                    hints.put(DocumentHandler.DEFAULT_NAMESPACE_HINT_KEY, WMSSchema.getInstance());
+                    hints.put(DocumentFactory.VALIDATION_HINT, Boolean.FALSE);
+                    if(entityResolver != null) {
+                        hints.put(XMLHandlerHints.ENTITY_RESOLVER, entityResolver);
                     }
-                }
+
+                    return new WebMapServer(serverURL, client, hints);
+                });
             }
 
             return wms;
@@ -1800,21 +1996,18 @@ public class ResourcePool {
                 wmts = null;
             }
             if (wmts == null) {
-                synchronized (wmtsCache) {
-                    wmts = (WebMapTileServer) wmtsCache.get(id);
-                    if (wmts == null) {
-                        HTTPClient client = getHTTPClient(expandedStore); 
-                        String capabilitiesURL = expandedStore.getCapabilitiesURL();
-                        URL serverURL = new URL(capabilitiesURL);
-                        wmts = new WebMapTileServer(serverURL, client, null);
-                        
-                        if(StringUtils.isNotEmpty(info.getHeaderName()) && StringUtils.isNotEmpty(info.getHeaderValue())) {
-                            wmts.getHeaders().put(info.getHeaderName(), info.getHeaderValue());
-                        }
-
-                        wmtsCache.put(id, wmts);
+                wmts = getOrLoad(wmtsCache, id, () -> {
+                    HTTPClient client = getHTTPClient(expandedStore); 
+                    String capabilitiesURL = expandedStore.getCapabilitiesURL();
+                    URL serverURL = new URL(capabilitiesURL);
+                    WebMapTileServer server = new WebMapTileServer(serverURL, client, null);
+
+                    if(StringUtils.isNotEmpty(info.getHeaderName()) && StringUtils.isNotEmpty(info.getHeaderValue())) {
+                        server.getHeaders().put(info.getHeaderName(), info.getHeaderValue());
                     }
-                }
+
+                    return server;
+                });
             }
     
             return wmts;
@@ -1948,29 +2141,20 @@ public class ResourcePool {
      * @throws IOException Any parsing errors.
      */
     public StyledLayerDescriptor getSld( final StyleInfo info) throws IOException {
-        StyledLayerDescriptor sld = sldCache.get( info );
-        if ( sld== null ) {
-            synchronized (sldCache) {
-                sld = sldCache.get( info );
-                if ( sld == null ) {
-                    sld = dataDir().parsedSld(info);
-
-                    sldCache.put( info, sld );
-
-                    final Resource styleResource = dataDir().style(info);
-                    styleResource.addListener( new ResourceListener() {
-                        @Override
-                        public void changed(ResourceNotification notify) {
-                            sldCache.remove(info);
-                            styleResource.removeListener( this );
-                        }
-                    });
+        return getOrLoad(sldCache, info, () -> {
+            StyledLayerDescriptor sld = dataDir().parsedSld(info);
 
+            final Resource styleResource = dataDir().style(info);
+            styleResource.addListener( new ResourceListener() {
+                @Override
+                public void changed(ResourceNotification notify) {
+                    sldCache.remove(info);
+                    styleResource.removeListener( this );
                 }
-            }
-        }
+            });
 
-        return sld;
+            return sld;
+        });
     }
     /**
      * Returns the first {@link Style} in a style resource, caching the result. Any associated images should
@@ -1986,39 +2170,31 @@ public class ResourcePool {
      * @throws IOException Any parsing errors.
      */
     public Style getStyle( final StyleInfo info ) throws IOException {
-        Style style = styleCache.get( info );
-        if ( style == null ) {
-            synchronized (styleCache) {
-                style = styleCache.get( info );
-                if ( style == null ) {
-                    style = dataDir().parsedStyle(info);
-
-                    if (style == null) {
-                        throw new ServiceException("Could not extract a UserStyle definition from "
-                                + info.getName());
-                    }
-                    //Make sure we don't change the name of an object in sldCache
-                    if (style instanceof StyleImpl) {
-                        style = (Style)((StyleImpl)style).clone();
-                    }
-                    // remove this when wms works off style info
-                    style.setName( info.getName() );
-                    styleCache.put( info, style );
-                    
-                    final Resource styleResource = dataDir().style(info);
-                    styleResource.addListener( new ResourceListener() {
-                        @Override
-                        public void changed(ResourceNotification notify) {
-                            styleCache.remove(info);
-                            styleResource.removeListener( this );
-                        }
-                    });
-                    
-                }
+        return getOrLoad(styleCache, info, () -> {
+            Style style = dataDir().parsedStyle(info);
+
+            if (style == null) {
+                throw new ServiceException("Could not extract a UserStyle definition from "
+                        + info.getName());
             }
-        }
-        
-        return style;
+            //Make sure we don't change the name of an object in sldCache
+            if (style instanceof StyleImpl) {
+                style = (Style)((StyleImpl)style).clone();
+            }
+            // remove this when wms works off style info
+            style.setName( info.getName() );
+
+            final Resource styleResource = dataDir().style(info);
+            styleResource.addListener( new ResourceListener() {
+                @Override
+                public void changed(ResourceNotification notify) {
+                    styleCache.remove(info);
+                    styleResource.removeListener( this );
+                }
+            });
+
+            return style;
+        });
     }
 
     /**
@@ -2027,7 +2203,7 @@ public class ResourcePool {
      * @param info The style metadata.
      */
     public void clear(StyleInfo info) {
-        styleCache.remove( info );
+        invalidate(styleCache, info);
     }
     
     /**
@@ -2065,10 +2241,13 @@ public class ResourcePool {
      * @param format Whether to format the style
      */
     public void writeStyle( StyleInfo info, Style style, boolean format) throws IOException {
-        synchronized ( styleCache ) {
+        // wait for any concurrent load of the same style, and keep it from caching the old one
+        Lock lock = getLoadLock(styleCache, info);
+        lock.lock();
+        try {
             Resource styleFile = dataDir().style(info);
             BufferedOutputStream out = new BufferedOutputStream(styleFile.out());
-            
+
             try {
                 Styles.handler(info.getFormat()).encode(Styles.sld(style), info.getFormatVersion(), format, out);
                 clear(info);
@@ -2076,6 +2255,8 @@ public class ResourcePool {
             finally {
                 out.close();
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -2098,7 +2279,10 @@ public class ResourcePool {
      * @param format Whether to format the style
      */
     public void writeSLD( StyleInfo info, StyledLayerDescriptor style, boolean format) throws IOException {
-        synchronized ( sldCache ) {
+        // wait for any concurrent load of the same style, and keep it from caching the old one
+        Lock lock = getLoadLock(sldCache, info);
+        lock.lock();
+        try {
             Resource styleFile = dataDir().style(info);
             BufferedOutputStream out = new BufferedOutputStream(styleFile.out());
 
@@ -2109,6 +2293,8 @@ public class ResourcePool {
             finally {
                 out.close();
             }
+        } finally {
+            lock.unlock();
         }
     }
     
@@ -2120,10 +2306,15 @@ public class ResourcePool {
      * 
      */
     public void writeStyle( StyleInfo style, InputStream in ) throws IOException {
-        synchronized ( styleCache ) {
+        // wait for any concurrent load of the same style, and keep it from caching the old one
+        Lock lock = getLoadLock(styleCache, style);
+        lock.lock();
+        try {
             Resource styleFile = dataDir().style(style);
             writeStyle(in, styleFile);
             clear(style);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -2150,14 +2341,18 @@ public class ResourcePool {
      * 
      */
     public void deleteStyle( StyleInfo style, boolean purgeFile ) throws IOException {
-        synchronized ( styleCache ) {
-           
+        // wait for any concurrent load of the same style
+        Lock lock = getLoadLock(styleCache, style);
+        lock.lock();
+        try {
             if( purgeFile ){
                 File styleFile = dataDir().findStyleSldFile(style);
                 if(styleFile != null && styleFile.exists() ){
                     styleFile.delete();
                 }
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -2181,51 +2376,326 @@ public class ResourcePool {
         listeners.clear();
     }
     
+    /**
+     * Loads a value missing from one of the caches
+     */
+    @FunctionalInterface
+    interface CacheEntryLoader<V> {
+        V load() throws Exception;
+    }
+
+    /**
+     * Identifies an entry of a specific cache, used to look up the lock guarding its loading
+     */
+    static final class CacheEntryKey {
+        final Map<?, ?> cache;
+
+        final Object key;
+
+        CacheEntryKey(Map<?, ?> cache, Object key) {
+            this.cache = cache;
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(cache) + Objects.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CacheEntryKey)) {
+                return false;
+            }
+            CacheEntryKey other = (CacheEntryKey) obj;
+            return cache == other.cache && Objects.equals(key, other.key);
+        }
+    }
+
     /**
      * Base class for all the resource caches, ensures type safety and provides
-     * an easier way to handle with resource disposal 
+     * an easier way to handle with resource disposal.
+     * <p>
+     * The retention of the values is controlled by a {@link ResourceCachePolicy}. With the soft
+     * fallback enabled (the default) the values are softly referenced, and the policy limits how
+     * many of the most recently used ones are also kept strongly reachable. Without it, the
+     * values are strongly referenced and the ones going past the policy limits are evicted.
+     * Evicted values might still be in use by running requests, so they are disposed only after
+     * a grace period, see {@link ResourcePool#RETIRED_GRACE_PERIOD}, unless looked up again in
+     * the meantime, which puts them back in the cache. Values explicitly removed are disposed
+     * right away.
+     * The cache is thread safe, lookups do not block each other, and hit, miss, load and
+     * eviction statistics are collected.
+     * </p>
      * @author Andrea Aime
      *
      * @param <K>
      * @param <V>
      */
-    abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
+    abstract class CatalogResourceCache<K, V> extends ForwardingMap<K, V> {
+
+        final ResourceCachePolicy defaultPolicy;
+
+        final SimpleStatsCounter stats = new SimpleStatsCounter();
+
+        volatile ResourceCachePolicy policy;
+
+        /**
+         * The values kept strongly reachable when the soft fallback is enabled, null otherwise
+         */
+        volatile Cache<K, V> hardCache;
+
+        /**
+         * All the cached values
+         */
+        volatile Cache<K, V> cache;
+
+        /**
+         * The values evicted while possibly still in use, disposed once the grace period is over
+         */
+        final Cache<K, V> retired = CacheBuilder.newBuilder()
+                .expireAfterWrite(RETIRED_GRACE_PERIOD, TimeUnit.SECONDS)
+                .<K, V> removalListener(n -> {
+                    // taken back or explicitly disposed otherwise
+                    if (n.wasEvicted() && n.getValue() != null) {
+                        dispose(n.getKey(), n.getValue());
+                    }
+                }).build();
+
+        /**
+         * Guards the swap of the caches on policy changes: writes take the read lock, so that
+         * they proceed in parallel but cannot land in a cache being replaced
+         */
+        final ReadWriteLock swapLock = new ReentrantReadWriteLock();
 
         public CatalogResourceCache() {
             this(100);
         }
 
         public CatalogResourceCache(int hardReferences) {
-            super(hardReferences);
-            super.cleaner = new ValueCleaner() {
+            this(ResourceCachePolicy.softFallback(hardReferences));
+        }
 
-                @Override
-                public void clean(Object key, Object object) {
-                    dispose((K) key, (V) object);
+        public CatalogResourceCache(ResourceCachePolicy policy) {
+            this.defaultPolicy = policy;
+            setPolicy(policy);
+        }
+
+        /**
+         * Returns the policy currently in use
+         */
+        public ResourceCachePolicy getPolicy() {
+            return policy;
+        }
+
+        /**
+         * Changes the retention policy. The cached values are preserved, but the ones exceeding
+         * the new policy limits are evicted.
+         * 
+         * @param policy The new policy, or null to go back to the cache default one
+         */
+        public void setPolicy(ResourceCachePolicy policy) {
+            if (policy == null) {
+                policy = defaultPolicy;
+            }
+            Cache<K, V> newHardCache;
+            Cache<K, V> newCache;
+            if (policy.isSoftFallback()) {
+                newHardCache = buildCache(policy, false, n -> {
+                });
+                newCache = buildCache(null, true, this::onRemoval);
+            } else {
+                newHardCache = null;
+                newCache = buildCache(policy, false, this::onRemoval);
+            }
+            swapLock.writeLock().lock();
+            try {
+                Map<K, V> current = Collections.emptyMap();
+                if (cache != null) {
+                    // let expired values go through the removal listener before copying
+                    cache.cleanUp();
+                    current = new HashMap<>(cache.asMap());
+                }
+                // the old caches are dropped, their values moved to the new ones, where the
+                // ones exceeding the new policy limits get evicted
+                this.policy = policy;
+                this.hardCache = newHardCache;
+                this.cache = newCache;
+                putAll(current);
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+        }
+
+        Cache<K, V> buildCache(ResourceCachePolicy policy, boolean softValues,
+                RemovalListener<K, V> listener) {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+            if (softValues) {
+                builder.softValues();
+            }
+            if (policy != null) {
+                if (policy.getMaxWeight() >= 0) {
+                    builder.maximumWeight(policy.getMaxWeight())
+                            .weigher(new Weigher<Object, Object>() {
+                                @Override
+                                @SuppressWarnings("unchecked")
+                                public int weigh(Object key, Object value) {
+                                    return Math.max(0,
+                                            CatalogResourceCache.this.weigh((K) key, (V) value));
+                                }
+                            });
+                } else if (policy.getMaxEntries() >= 0) {
+                    builder.maximumSize(policy.getMaxEntries());
+                }
+                if (policy.getExpireAfterAccess() > 0) {
+                    builder.expireAfterAccess(policy.getExpireAfterAccess(), TimeUnit.SECONDS);
+                }
+            }
+            return builder.<K, V> removalListener(listener).build();
+        }
+
+        void onRemoval(RemovalNotification<K, V> n) {
+            RemovalCause cause = n.getCause();
+            if (cause == RemovalCause.COLLECTED) {
+                // nothing left to dispose
+                stats.recordEviction();
+            } else if (cause != RemovalCause.REPLACED && n.getValue() != null) {
+                // replaced values are still in use, the others are gone from the cache
+                Cache<K, V> hard = hardCache;
+                if (hard != null) {
+                    hard.invalidate(n.getKey());
+                }
+                if (cause == RemovalCause.EXPLICIT) {
+                    dispose(n.getKey(), n.getValue());
+                } else {
+                    // running requests might still be using the value, dispose it later
+                    stats.recordEviction();
+                    retired.put(n.getKey(), n.getValue());
+                    retired.cleanUp();
                 }
-            };
+            }
+        }
+
+        @Override
+        protected Map<K, V> delegate() {
+            return cache.asMap();
+        }
+
+        @Override
+        public V get(Object key) {
+            V value = peek(key);
+            if (value == null) {
+                stats.recordMisses(1);
+            } else {
+                stats.recordHits(1);
+            }
+            return value;
+        }
+
+        /**
+         * Same as {@link #get(Object)}, but does not record a hit or a miss
+         */
+        @SuppressWarnings("unchecked")
+        V peek(Object key) {
+            V value = cache.getIfPresent(key);
+            if (value == null) {
+                // an evicted value not disposed yet, put it back instead of loading a new one
+                value = retired.asMap().remove(key);
+                if (value != null) {
+                    put((K) key, value);
+                }
+                return value;
+            }
+            Cache<K, V> hard = hardCache;
+            if (hard != null && hard.getIfPresent(key) != value) {
+                hard.put((K) key, value);
+            }
+            return value;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            swapLock.readLock().lock();
+            try {
+                Cache<K, V> hard = hardCache;
+                if (hard != null) {
+                    hard.put(key, value);
+                }
+                retired.invalidate(key);
+                return cache.asMap().put(key, value);
+            } finally {
+                swapLock.readLock().unlock();
+            }
         }
 
         @Override
+        public void putAll(Map<? extends K, ? extends V> map) {
+            standardPutAll(map);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
         public V remove(Object key) {
-            V object = super.remove(key);
-            if (object != null) {
-                dispose((K) key, object);
+            swapLock.readLock().lock();
+            try {
+                V value = cache.asMap().remove(key);
+                V evicted = retired.asMap().remove(key);
+                if (evicted != null) {
+                    dispose((K) key, evicted);
+                }
+                return value != null ? value : evicted;
+            } finally {
+                swapLock.readLock().unlock();
             }
-            return object;
         }
 
         @Override
         public void clear() {
-            for (Entry entry : entrySet()) {
-                try {
-                    dispose((K) entry.getKey(), (V) entry.getValue());
-                }
-                catch(Exception e) {
-                    LOGGER.log(Level.WARNING, "Error dispoing entry: " + entry, e);
+            swapLock.readLock().lock();
+            try {
+                cache.invalidateAll();
+                for (K key : new ArrayList<>(retired.asMap().keySet())) {
+                    V evicted = retired.asMap().remove(key);
+                    if (evicted != null) {
+                        dispose(key, evicted);
+                    }
                 }
+            } finally {
+                swapLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Records the time it took to load a value missing from the cache
+         */
+        void recordLoad(long nanos, boolean success) {
+            if (success) {
+                stats.recordLoadSuccess(nanos);
+            } else {
+                stats.recordLoadException(nanos);
             }
-            super.clear();
+        }
+
+        /**
+         * Returns a snapshot of the cache statistics
+         */
+        public CacheStats getStats() {
+            return stats.snapshot();
+        }
+
+        /**
+         * Returns the number of values kept strongly reachable, or -1 if not limited
+         */
+        public int getHardReferencesCount() {
+            return (int) policy.getMaxEntries();
+        }
+
+        /**
+         * Returns the weight of a value, used when the policy sets a maximum weight. Defaults
+         * to one, subclasses can return a figure closer to the memory used by the value
+         */
+        protected int weigh(K key, V value) {
+            return 1;
         }
 
         protected abstract void dispose(K key, V object);
@@ -2236,6 +2706,11 @@ public class ResourcePool {
         public FeatureTypeCache(int maxSize) {
             super(maxSize);
         }
+
+        @Override
+        protected int weigh(String key, FeatureType featureType) {
+            return Math.max(1, featureType.getDescriptors().size());
+        }
         
         protected void dispose(String key, FeatureType featureType) {
             String id = key.substring(0, key.indexOf(PROJECTION_POLICY_SEPARATOR));
@@ -2385,6 +2860,11 @@ public class ResourcePool {
             super(size);
         }
 
+        @Override
+        protected int weigh(String key, List<AttributeTypeInfo> attributes) {
+            return Math.max(1, attributes.size());
+        }
+
         @Override
         protected void dispose(String key, List<AttributeTypeInfo> object) {
             // nothing to do actually
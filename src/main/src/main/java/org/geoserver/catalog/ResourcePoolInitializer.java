@@ -6,6 +6,9 @@
 package org.geoserver.catalog;
 
 import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
@@ -13,15 +16,29 @@ import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.GeoServerInitializer;
 import org.geoserver.config.GeoServerReinitializer;
 import org.geoserver.util.EntityResolverProvider;
+import org.geotools.util.logging.Logging;
 
 /**
  * Initializes parameters of the {@link ResourcePool} class from configuration.
+ * <p>
+ * Besides the feature type cache size, the retention policy of each resource pool cache can be
+ * set in the global settings metadata, using the {@link #CACHE_POLICY_PREFIX} followed by the
+ * cache name as the key, and the policy specification as the value, see
+ * {@link ResourceCachePolicy#parse(String)}
+ * </p>
  * 
  * @author Justin Deoliveira, OpenGeo
  *
  */
 public class ResourcePoolInitializer implements GeoServerReinitializer {
 
+    static final Logger LOGGER = Logging.getLogger(ResourcePoolInitializer.class);
+
+    /**
+     * Prefix of the global settings metadata keys holding the cache policies
+     */
+    public static final String CACHE_POLICY_PREFIX = "resourcePool.cachePolicy.";
+
     GeoServer gs;
     EntityResolverProvider resolverProvider;
     
@@ -37,6 +54,7 @@ public class ResourcePoolInitializer implements GeoServerReinitializer {
         if (cacheSize > 0) {
             gs.getCatalog().getResourcePool().setFeatureTypeCacheSize(cacheSize);
         }
+        applyCachePolicies(global);
         
         geoServer.addListener(new ConfigurationListenerAdapter() {
             @Override
@@ -49,9 +67,43 @@ public class ResourcePoolInitializer implements GeoServerReinitializer {
                 }
                 gs.getCatalog().getResourcePool().setCoverageExecutor(global.getCoverageAccess().getThreadPoolExecutor());
             }
+
+            @Override
+            public void handlePostGlobalChange(GeoServerInfo global) {
+                // metadata changes are not tracked entry by entry, check all the policies
+                applyCachePolicies(global);
+            }
         });
         
         gs.getCatalog().getResourcePool().setEntityResolverProvider(resolverProvider);
     }
+
+    /**
+     * Applies the cache policies found in the global settings metadata, leaving alone the caches
+     * whose policy did not change
+     * 
+     * @param global
+     */
+    void applyCachePolicies(GeoServerInfo global) {
+        ResourcePool pool = gs.getCatalog().getResourcePool();
+        MetadataMap metadata = global.getMetadata();
+        for (String name : pool.getCacheNames()) {
+            ResourceCachePolicy policy = null;
+            String spec = metadata == null ? null
+                    : metadata.get(CACHE_POLICY_PREFIX + name, String.class);
+            if (spec != null && !spec.trim().isEmpty()) {
+                try {
+                    policy = ResourceCachePolicy.parse(spec);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.log(Level.WARNING, "Invalid policy for the " + name
+                            + " cache, keeping the current one", e);
+                    continue;
+                }
+            }
+            if (!Objects.equals(policy, pool.getConfiguredCachePolicy(name))) {
+                pool.setCachePolicy(name, policy);
+            }
+        }
+    }
     
 }
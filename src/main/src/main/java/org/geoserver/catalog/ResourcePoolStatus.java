@@ -0,0 +1,85 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.ResourcePool.CatalogResourceCache;
+import org.geoserver.platform.ModuleStatus;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Reports the policy, size and statistics of the {@link ResourcePool} caches, making them
+ * available in the status page and in the REST about/status resource
+ */
+public class ResourcePoolStatus implements ModuleStatus {
+
+    Catalog catalog;
+
+    public ResourcePoolStatus(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public String getModule() {
+        return "resource-pool";
+    }
+
+    @Override
+    public Optional<String> getComponent() {
+        return Optional.of("resource-pool");
+    }
+
+    @Override
+    public String getName() {
+        return "Resource pool caches";
+    }
+
+    @Override
+    public Optional<String> getVersion() {
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public Optional<String> getMessage() {
+        StringBuilder result = new StringBuilder();
+        Map<String, CatalogResourceCache<?, ?>> caches = catalog.getResourcePool()
+                .getPolicyCaches();
+        for (Map.Entry<String, CatalogResourceCache<?, ?>> entry : caches.entrySet()) {
+            CatalogResourceCache<?, ?> cache = entry.getValue();
+            CacheStats stats = cache.getStats();
+            result.append(entry.getKey()).append(": policy=[").append(cache.getPolicy())
+                    .append("], size=").append(cache.size())
+                    .append(", hits=").append(stats.hitCount())
+                    .append(", misses=").append(stats.missCount())
+                    .append(", hitRate=").append(String.format("%.3f", stats.hitRate()))
+                    .append(", loads=").append(stats.loadSuccessCount())
+                    .append(", loadFailures=").append(stats.loadExceptionCount())
+                    .append(", averageLoadTime=")
+                    .append(TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()))
+                    .append("ms, evictions=").append(stats.evictionCount()).append("\n");
+        }
+        return Optional.of(result.toString());
+    }
+
+    @Override
+    public Optional<String> getDocumentation() {
+        return Optional.empty();
+    }
+
+}
@@ -1869,7 +1869,8 @@ public class CatalogImpl implements Catalog {
     public <T extends CatalogInfo> CloseableIterator<T> list(final Class<T> of,
             final Filter filter, Integer offset, Integer count, SortBy sortOrder) {
         CatalogFacade facade = getFacade();
-        if (sortOrder != null && !facade.canSort(of, sortOrder.getPropertyName().getPropertyName())) {
+        if (sortOrder != null && sortOrder.getPropertyName() != null
+                && !facade.canSort(of, sortOrder.getPropertyName().getPropertyName())) {
             // TODO: use GeoTools' merge-sort code to provide sorting anyways
             throw new UnsupportedOperationException("Catalog backend can't sort on property "
                     + sortOrder.getPropertyName() + " in-process sorting is pending implementation");
@@ -7,8 +7,13 @@ package org.geoserver.catalog.impl;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.function.Function;
@@ -17,6 +22,8 @@ import java.util.function.Predicate;
 import org.geoserver.catalog.CatalogInfo;
 import org.opengis.feature.type.Name;
 
+import com.google.common.collect.Iterators;
+
 /**
  * A support index for {@link DefaultCatalogFacade}, can perform fast lookups of {@link CatalogInfo} objects
  * by id or by "name", where the name is defined by a a user provided mapping function.
@@ -24,18 +31,159 @@ import org.opengis.feature.type.Name;
  * The lookups by predicate have been tested and optimized for performance, in particular
  * the current for loops turned out to be significantly faster than building and returning streams
  * 
+ * Secondary indexes can be registered with {@link #withIndex(String, Function)}, in order to find
+ * the objects sharing a given key (e.g., the stores in a workspace) without scanning all the
+ * values, see {@link #list(Class, String, String, Predicate)}
+ * 
  * @param <T>
  */
 class CatalogInfoLookup<T extends CatalogInfo> {
     ConcurrentHashMap<Class<T>, Map<String, T>> idMultiMap = new ConcurrentHashMap<>();
     ConcurrentHashMap<Class<T>, Map<Name, T>> nameMultiMap = new ConcurrentHashMap<>();
+    Map<String, SecondaryIndex<T>> indexes = new ConcurrentHashMap<>();
     Function<T, Name> nameMapper;
     static final Predicate TRUE = x -> true;
     
+    /**
+     * Maps objects to one of more keys (e.g., the ids of the objects they refer to), and keys
+     * to the objects having them. A null key is supported, and sorts before all the others.
+     * The keys are kept sorted, allowing prefix lookups and ordered scans. Modifications are
+     * serialized, lookups do not block.
+     */
+    static final class SecondaryIndex<T extends CatalogInfo> {
+
+        static final String NULL_KEY = "\u0000null";
+
+        final Function<T, Collection<String>> keysMapper;
+
+        final ConcurrentSkipListMap<String, Map<String, T>> valuesByKey =
+                new ConcurrentSkipListMap<>();
+
+        final ConcurrentHashMap<String, Set<String>> keysById = new ConcurrentHashMap<>();
+
+        SecondaryIndex(Function<T, Collection<String>> keysMapper) {
+            this.keysMapper = keysMapper;
+        }
+
+        synchronized void add(T value) {
+            String id = value.getId();
+            Set<String> keys = new HashSet<>();
+            for (String key : keysMapper.apply(value)) {
+                keys.add(key == null ? NULL_KEY : key);
+            }
+            Set<String> oldKeys = keysById.put(id, keys);
+            if (oldKeys != null) {
+                oldKeys.removeAll(keys);
+                removeKeys(id, oldKeys);
+            }
+            for (String key : keys) {
+                valuesByKey.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>()).put(id,
+                        value);
+            }
+        }
+
+        synchronized void remove(String id) {
+            Set<String> keys = keysById.remove(id);
+            if (keys != null) {
+                removeKeys(id, keys);
+            }
+        }
+
+        private void removeKeys(String id, Set<String> keys) {
+            for (String key : keys) {
+                Map<String, T> values = valuesByKey.get(key);
+                if (values != null) {
+                    values.remove(id);
+                    if (values.isEmpty()) {
+                        valuesByKey.remove(key);
+                    }
+                }
+            }
+        }
+
+        Collection<T> get(String key) {
+            Map<String, T> values = valuesByKey.get(key == null ? NULL_KEY : key);
+            return values == null ? Collections.emptyList() : values.values();
+        }
+
+        Collection<T> get(Collection<String> keys) {
+            if (keys.size() == 1) {
+                return get(keys.iterator().next());
+            }
+            // the same object can have more than one of the keys
+            Map<String, T> result = new LinkedHashMap<>();
+            for (String key : keys) {
+                for (T value : get(key)) {
+                    result.put(value.getId(), value);
+                }
+            }
+            return result.values();
+        }
+
+        Collection<T> getByPrefix(String prefix) {
+            Map<String, T> result = new LinkedHashMap<>();
+            for (Map<String, T> values : getPrefixRange(prefix).values()) {
+                for (T value : values.values()) {
+                    result.put(value.getId(), value);
+                }
+            }
+            return result.values();
+        }
+
+        int count(Collection<String> keys) {
+            int count = 0;
+            for (String key : keys) {
+                Map<String, T> values = valuesByKey.get(key == null ? NULL_KEY : key);
+                count += values == null ? 0 : values.size();
+            }
+            return count;
+        }
+
+        int countByPrefix(String prefix) {
+            int count = 0;
+            for (Map<String, T> values : getPrefixRange(prefix).values()) {
+                count += values.size();
+            }
+            return count;
+        }
+
+        private Map<String, Map<String, T>> getPrefixRange(String prefix) {
+            return valuesByKey.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+        }
+
+        /**
+         * Returns all the values in key order. Objects having more than one key are returned
+         * once for each key.
+         */
+        Iterator<T> iterator(boolean descending) {
+            Collection<Map<String, T>> maps = descending ? valuesByKey.descendingMap().values()
+                    : valuesByKey.values();
+            return Iterators.concat(Iterators.transform(maps.iterator(),
+                    values -> values.values().iterator()));
+        }
+
+        synchronized void clear() {
+            valuesByKey.clear();
+            keysById.clear();
+        }
+    }
+
     public CatalogInfoLookup(Function<T, Name> nameMapper) {
         super();
         this.nameMapper = nameMapper;
     }
+
+    /**
+     * Registers a secondary index. Indexes must be registered before any value is added.
+     * 
+     * @param indexName The index name, used in {@link #list(Class, String, String, Predicate)}
+     * @param keysMapper Returns the index keys of a value
+     * @return This lookup
+     */
+    CatalogInfoLookup<T> withIndex(String indexName, Function<T, Collection<String>> keysMapper) {
+        indexes.put(indexName, new SecondaryIndex<>(keysMapper));
+        return this;
+    }
     
     <K> Map<K, T> getMapForValue(ConcurrentHashMap<Class<T>, Map<K, T>> maps, T value) {
         Class<T> vc;
@@ -67,6 +215,9 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         Map<Name, T> nameMap = getMapForValue(nameMultiMap, value);
         Name name = nameMapper.apply(value);
         nameMap.put(name, value);
+        for (SecondaryIndex<T> index : indexes.values()) {
+            index.add(value);
+        }
         Map<String, T> idMap = getMapForValue(idMultiMap, value);
         return idMap.put(value.getId(), value);
     }
@@ -84,6 +235,9 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         Name name = nameMapper.apply(value);
         Map<Name, T> nameMap = getMapForValue(nameMultiMap, value);
         nameMap.remove(name);
+        for (SecondaryIndex<T> index : indexes.values()) {
+            index.remove(value.getId());
+        }
         Map<String, T> idMap = getMapForValue(idMultiMap, value);
         return idMap.remove(value.getId());
     }
@@ -104,10 +258,30 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         }
     }
 
+    /**
+     * Updates the secondary indexes after a modification has been committed. Unlike
+     * {@link #update(CatalogInfo)} this must be called after the changes have been applied to
+     * the value.
+     */
+    public void reindex(T value) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        if(Proxy.isProxyClass(value.getClass())) {
+            ModificationProxy h = (ModificationProxy) Proxy.getInvocationHandler(value);
+            value = (T) h.getProxyObject();
+        }
+        for (SecondaryIndex<T> index : indexes.values()) {
+            index.add(value);
+        }
+    }
     
     public void clear() {
         idMultiMap.clear();
         nameMultiMap.clear();
+        for (SecondaryIndex<T> index : indexes.values()) {
+            index.clear();
+        }
     }
 
     /**
@@ -139,6 +313,98 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         return result;
     }
     
+    /**
+     * Looks up objects by class, secondary index key and matching predicate. Only the objects
+     * having the key are tested against the predicate, which is still needed to perform an exact
+     * match (e.g., the key is the workspace id, the predicate checks workspace equality).
+     * The objects are returned sorted by name, like in {@link #list(Class, Predicate)}.
+     * 
+     * @param clazz
+     * @param indexName The name of an index registered with {@link #withIndex(String, Function)}
+     * @param key The index key, can be null
+     * @param predicate
+     * @return
+     */
+    <U extends CatalogInfo> List<U> list(Class<U> clazz, String indexName, String key,
+            Predicate<U> predicate) {
+        return filter(clazz, getIndex(indexName).get(key), predicate);
+    }
+
+    /**
+     * Same as {@link #list(Class, String, String, Predicate)}, returns the objects having any of
+     * the given keys
+     */
+    <U extends CatalogInfo> List<U> list(Class<U> clazz, String indexName,
+            Collection<String> keys, Predicate<U> predicate) {
+        return filter(clazz, getIndex(indexName).get(keys), predicate);
+    }
+
+    /**
+     * Same as {@link #list(Class, String, String, Predicate)}, returns the objects having a key
+     * starting with the given prefix
+     */
+    <U extends CatalogInfo> List<U> listByPrefix(Class<U> clazz, String indexName,
+            String prefix, Predicate<U> predicate) {
+        return filter(clazz, getIndex(indexName).getByPrefix(prefix), predicate);
+    }
+
+    /**
+     * Returns the number of objects having any of the given keys, regardless of their class
+     */
+    int count(String indexName, Collection<String> keys) {
+        return getIndex(indexName).count(keys);
+    }
+
+    /**
+     * Returns the number of objects having a key starting with the given prefix, regardless of
+     * their class
+     */
+    int countByPrefix(String indexName, String prefix) {
+        return getIndex(indexName).countByPrefix(prefix);
+    }
+
+    /**
+     * Lazily iterates over the objects of the given class matching the predicate, in index key
+     * order. Meant to be used on indexes associating a single key to each object.
+     */
+    <U extends CatalogInfo> Iterator<U> iterator(Class<U> clazz, String indexName,
+            boolean descending, Predicate<U> predicate) {
+        Iterator<T> values = getIndex(indexName).iterator(descending);
+        return (Iterator<U>) (Iterator<?>) Iterators.filter(values,
+                v -> clazz.isInstance(v) && (predicate == TRUE || predicate.test((U) v)));
+    }
+
+    boolean hasIndex(String indexName) {
+        return indexes.containsKey(indexName);
+    }
+
+    SecondaryIndex<T> getIndex(String indexName) {
+        SecondaryIndex<T> index = indexes.get(indexName);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown index " + indexName);
+        }
+        return index;
+    }
+
+    private <U extends CatalogInfo> List<U> filter(Class<U> clazz, Collection<T> candidates,
+            Predicate<U> predicate) {
+        ArrayList<U> result = new ArrayList<U>();
+        for (T v : candidates) {
+            if (clazz.isInstance(v)) {
+                final U u = (U) v;
+                if (predicate == TRUE || predicate.test(u)) {
+                    result.add(u);
+                }
+            }
+        }
+        if (result.size() > 1) {
+            result.sort((u1, u2) -> ((Comparable<Name>) nameMapper.apply((T) u1))
+                    .compareTo(nameMapper.apply((T) u2)));
+        }
+
+        return result;
+    }
+
     /**
      * Looks up a CatalogInfo by class and identifier
      * @param id
@@ -0,0 +1,243 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.geoserver.catalog.impl.DefaultCatalogFacade.NAMESPACE_INDEX;
+import static org.geoserver.catalog.impl.DefaultCatalogFacade.NAME_INDEX;
+import static org.geoserver.catalog.impl.DefaultCatalogFacade.STORE_INDEX;
+import static org.geoserver.catalog.impl.DefaultCatalogFacade.WORKSPACE_INDEX;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geotools.feature.NameImpl;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+
+/**
+ * Turns the filters used in {@link DefaultCatalogFacade#list} into lookups against the
+ * {@link CatalogInfoLookup} secondary indexes, so that only the objects that can possibly match
+ * are evaluated against the filter.
+ * <p>
+ * The filter, or any of the terms of a top level {@link And}, can be an equality comparison
+ * against one of the indexed properties:
+ * <ul>
+ * <li><code>name</code></li>
+ * <li><code>workspace</code>, <code>workspace.name</code>, <code>workspace.id</code> for stores,
+ * layer groups and styles</li>
+ * <li><code>store</code>, <code>store.name</code>, <code>store.id</code>,
+ * <code>namespace</code>, <code>namespace.prefix</code>, <code>namespace.id</code> for
+ * resources</li>
+ * </ul>
+ * or a case sensitive like on <code>name</code> with a fixed prefix, e.g. <code>roads*</code>.
+ * When more than a term can be used, the most selective one is picked. The whole filter is
+ * still evaluated on the candidates, the plan only reduces the number of objects to check.
+ * </p>
+ */
+class CatalogQueryPlanner {
+
+    /**
+     * A lookup of candidates in a secondary index, either by key or by key prefix
+     */
+    static final class IndexScan {
+
+        final String indexName;
+
+        final Collection<String> keys;
+
+        final String prefix;
+
+        final int estimate;
+
+        IndexScan(String indexName, Collection<String> keys, String prefix, int estimate) {
+            this.indexName = indexName;
+            this.keys = keys;
+            this.prefix = prefix;
+            this.estimate = estimate;
+        }
+
+        <U extends CatalogInfo> List<U> list(CatalogInfoLookup<?> lookup, Class<U> clazz,
+                Predicate<U> predicate) {
+            if (prefix != null) {
+                return lookup.listByPrefix(clazz, indexName, prefix, predicate);
+            } else if (keys.isEmpty()) {
+                return new ArrayList<>();
+            } else {
+                return lookup.list(clazz, indexName, keys, predicate);
+            }
+        }
+    }
+
+    final DefaultCatalogFacade facade;
+
+    CatalogQueryPlanner(DefaultCatalogFacade facade) {
+        this.facade = facade;
+    }
+
+    /**
+     * Returns the most selective index scan for the filter, or null if the filter cannot be
+     * served by the lookup indexes
+     *
+     * @param lookup
+     * @param filter
+     */
+    IndexScan plan(CatalogInfoLookup<?> lookup, Filter filter) {
+        if (lookup == null || filter == null || filter == Filter.INCLUDE) {
+            return null;
+        }
+        List<Filter> terms = filter instanceof And ? ((And) filter).getChildren()
+                : Collections.singletonList(filter);
+        IndexScan best = null;
+        for (Filter term : terms) {
+            IndexScan scan = null;
+            if (term instanceof PropertyIsEqualTo) {
+                scan = planEqualTo(lookup, (PropertyIsEqualTo) term);
+            } else if (term instanceof PropertyIsLike) {
+                scan = planLike(lookup, (PropertyIsLike) term);
+            }
+            if (scan != null && (best == null || scan.estimate < best.estimate)) {
+                best = scan;
+            }
+        }
+        return best;
+    }
+
+    IndexScan planEqualTo(CatalogInfoLookup<?> lookup, PropertyIsEqualTo equal) {
+        if (!equal.isMatchingCase()) {
+            return null;
+        }
+        Expression e1 = equal.getExpression1();
+        Expression e2 = equal.getExpression2();
+        PropertyName property;
+        Literal literal;
+        if (e1 instanceof PropertyName && e2 instanceof Literal) {
+            property = (PropertyName) e1;
+            literal = (Literal) e2;
+        } else if (e2 instanceof PropertyName && e1 instanceof Literal) {
+            property = (PropertyName) e2;
+            literal = (Literal) e1;
+        } else {
+            return null;
+        }
+        Object value = literal.getValue();
+        if (value == null) {
+            return null;
+        }
+
+        String path = property.getPropertyName();
+        String indexName;
+        Collection<String> keys;
+        if ("name".equals(path)) {
+            indexName = NAME_INDEX;
+            keys = Collections.singletonList(asString(value));
+        } else if (path.startsWith("workspace")) {
+            indexName = WORKSPACE_INDEX;
+            keys = getKeys(path, "workspace", value, name -> {
+                WorkspaceInfo ws = facade.workspaces.findByName(new NameImpl(name),
+                        WorkspaceInfo.class);
+                return ws == null ? Collections.emptyList()
+                        : Collections.singletonList(ws.getId());
+            });
+        } else if (path.startsWith("namespace")) {
+            indexName = NAMESPACE_INDEX;
+            keys = getKeys(path, "namespace", value, null);
+            if (keys == null && "namespace.prefix".equals(path)) {
+                NamespaceInfo ns = facade.namespaces.findByName(new NameImpl(asString(value)),
+                        NamespaceInfo.class);
+                keys = ns == null ? Collections.emptyList()
+                        : Collections.singletonList(ns.getId());
+            }
+        } else if (path.startsWith("store")) {
+            indexName = STORE_INDEX;
+            keys = getKeys(path, "store", value, name -> {
+                // store names are unique only within a workspace
+                List<String> ids = new ArrayList<>();
+                for (StoreInfo store : facade.stores.list(StoreInfo.class, NAME_INDEX, name,
+                        CatalogInfoLookup.TRUE)) {
+                    ids.add(store.getId());
+                }
+                return ids;
+            });
+        } else {
+            return null;
+        }
+
+        if (keys == null || !lookup.hasIndex(indexName)) {
+            return null;
+        }
+        return new IndexScan(indexName, keys, null, lookup.count(indexName, keys));
+    }
+
+    /**
+     * Returns the index keys for an equality on a reference property, a direct comparison
+     * against the referenced object or its id, or against its name
+     */
+    Collection<String> getKeys(String path, String reference, Object value,
+            Function<String, Collection<String>> nameResolver) {
+        if (path.equals(reference) && value instanceof CatalogInfo) {
+            return Collections.singletonList(((CatalogInfo) value).getId());
+        } else if (path.equals(reference + ".id")) {
+            return Collections.singletonList(asString(value));
+        } else if (path.equals(reference + ".name") && nameResolver != null) {
+            return nameResolver.apply(asString(value));
+        }
+        return null;
+    }
+
+    IndexScan planLike(CatalogInfoLookup<?> lookup, PropertyIsLike like) {
+        if (!like.isMatchingCase() || !(like.getExpression() instanceof PropertyName)
+                || !"name".equals(((PropertyName) like.getExpression()).getPropertyName())
+                || !lookup.hasIndex(NAME_INDEX)) {
+            return null;
+        }
+        String prefix = getLiteralPrefix(like);
+        if (prefix == null || prefix.isEmpty()) {
+            return null;
+        }
+        return new IndexScan(NAME_INDEX, null, prefix, lookup.countByPrefix(NAME_INDEX, prefix));
+    }
+
+    /**
+     * Returns the fixed part of a like pattern, up to the first wildcard, or null if the
+     * pattern uses escapes
+     */
+    static String getLiteralPrefix(PropertyIsLike like) {
+        String pattern = like.getLiteral();
+        if (pattern == null) {
+            return null;
+        }
+        String escape = like.getEscape();
+        if (escape != null && !escape.isEmpty() && pattern.contains(escape)) {
+            return null;
+        }
+        int end = pattern.length();
+        for (String wildcard : new String[] { like.getWildCard(), like.getSingleChar() }) {
+            if (wildcard != null && !wildcard.isEmpty()) {
+                int idx = pattern.indexOf(wildcard);
+                if (idx >= 0 && idx < end) {
+                    end = idx;
+                }
+            }
+        }
+        return pattern.substring(0, end);
+    }
+
+    static String asString(Object value) {
+        return value instanceof String ? (String) value : String.valueOf(value);
+    }
+}
@@ -9,6 +9,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -18,6 +19,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 import javax.annotation.Nullable;
 
@@ -35,6 +37,7 @@ import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogQueryPlanner.IndexScan;
 import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.catalog.util.CloseableIteratorAdapter;
 import org.geoserver.ows.util.OwsUtils;
@@ -45,6 +48,8 @@ import org.opengis.filter.sort.SortBy;
 import org.opengis.filter.sort.SortOrder;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 
 /**
@@ -85,11 +90,100 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     static final Function<StyleInfo, Name> STYLE_NAME_MAPPER = s -> 
         new NameImpl(s.getWorkspace() != null ? s.getWorkspace().getId() : null, s.getName());
-        
+
+    /**
+     * Secondary index on the object name, sorted, used by the {@link CatalogQueryPlanner}
+     */
+    static final String NAME_INDEX = "name";
+
+    /**
+     * Secondary index on the containing workspace id
+     */
+    static final String WORKSPACE_INDEX = "workspace";
+
+    /**
+     * Secondary index on the containing namespace id
+     */
+    static final String NAMESPACE_INDEX = "namespace";
+
+    /**
+     * Secondary index on the containing store id
+     */
+    static final String STORE_INDEX = "store";
+
+    /**
+     * Secondary index on the ids of the styles in use
+     */
+    static final String STYLE_INDEX = "style";
+
+    static final Function<StoreInfo, Collection<String>> STORE_WORKSPACE_MAPPER = s ->
+        Collections.singletonList(idOf(s.getWorkspace()));
+
+    static final Function<ResourceInfo, Collection<String>> RESOURCE_STORE_MAPPER = r ->
+        Collections.singletonList(idOf(r.getStore()));
+
+    static final Function<ResourceInfo, Collection<String>> RESOURCE_NAMESPACE_MAPPER = r ->
+        Collections.singletonList(idOf(r.getNamespace()));
+
+    static final Function<LayerGroupInfo, Collection<String>> LAYERGROUP_WORKSPACE_MAPPER = lg ->
+        Collections.singletonList(idOf(lg.getWorkspace()));
+
+    static final Function<StyleInfo, Collection<String>> STYLE_WORKSPACE_MAPPER = s ->
+        Collections.singletonList(idOf(s.getWorkspace()));
+
+    static final Function<LayerInfo, Collection<String>> LAYER_STYLE_MAPPER = l -> {
+        List<String> ids = new ArrayList<>();
+        if (l.getDefaultStyle() != null) {
+            ids.add(l.getDefaultStyle().getId());
+        }
+        for (StyleInfo style : l.getStyles()) {
+            if (style != null) {
+                ids.add(style.getId());
+            }
+        }
+        return ids;
+    };
+
+    static <T extends CatalogInfo> Function<T, Collection<String>> nameKey(
+            Function<T, String> nameGetter) {
+        return i -> Collections.singletonList(nameGetter.apply(i));
+    }
+
+    static String idOf(CatalogInfo info) {
+        return info != null ? info.getId() : null;
+    }
+
+    static CatalogInfoLookup<StoreInfo> newStoreLookup() {
+        return new CatalogInfoLookup<>(STORE_NAME_MAPPER)
+                .withIndex(NAME_INDEX, nameKey(StoreInfo::getName))
+                .withIndex(WORKSPACE_INDEX, STORE_WORKSPACE_MAPPER);
+    }
+
+    static CatalogInfoLookup<ResourceInfo> newResourceLookup() {
+        return new CatalogInfoLookup<>(RESOURCE_NAME_MAPPER)
+                .withIndex(NAME_INDEX, nameKey(ResourceInfo::getName))
+                .withIndex(STORE_INDEX, RESOURCE_STORE_MAPPER)
+                .withIndex(NAMESPACE_INDEX, RESOURCE_NAMESPACE_MAPPER);
+    }
+
+    static CatalogInfoLookup<LayerGroupInfo> newLayerGroupLookup() {
+        return new CatalogInfoLookup<>(LAYERGROUP_NAME_MAPPER)
+                .withIndex(NAME_INDEX, nameKey(LayerGroupInfo::getName))
+                .withIndex(WORKSPACE_INDEX, LAYERGROUP_WORKSPACE_MAPPER);
+    }
+
+    static CatalogInfoLookup<StyleInfo> newStyleLookup() {
+        return new CatalogInfoLookup<>(STYLE_NAME_MAPPER)
+                .withIndex(NAME_INDEX, nameKey(StyleInfo::getName))
+                .withIndex(WORKSPACE_INDEX, STYLE_WORKSPACE_MAPPER);
+    }
+
     static final class LayerInfoLookup extends CatalogInfoLookup<LayerInfo> {
 
         public LayerInfoLookup() {
             super(LAYER_NAME_MAPPER);
+            withIndex(NAME_INDEX, nameKey(LayerInfo::getName));
+            withIndex(STYLE_INDEX, LAYER_STYLE_MAPPER);
         }
         
         public void update(ResourceInfo proxiedValue) {
@@ -113,7 +207,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     /**
      * Contains the stores keyed by implementation class
      */
-    protected CatalogInfoLookup<StoreInfo> stores = new CatalogInfoLookup<>(STORE_NAME_MAPPER);
+    protected CatalogInfoLookup<StoreInfo> stores = newStoreLookup();
     
     /**
      * The default store keyed by workspace id
@@ -123,7 +217,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     /**
      * resources
      */
-    protected CatalogInfoLookup<ResourceInfo> resources = new CatalogInfoLookup<>(RESOURCE_NAME_MAPPER);
+    protected CatalogInfoLookup<ResourceInfo> resources = newResourceLookup();
 
     /**
      * The default namespace
@@ -158,12 +252,17 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     /**
      * layer groups
      */
-    protected CatalogInfoLookup<LayerGroupInfo> layerGroups = new CatalogInfoLookup<>(LAYERGROUP_NAME_MAPPER);
+    protected CatalogInfoLookup<LayerGroupInfo> layerGroups = newLayerGroupLookup();
     
     /**
      * styles
      */
-    protected CatalogInfoLookup<StyleInfo> styles = new CatalogInfoLookup<>(STYLE_NAME_MAPPER);
+    protected CatalogInfoLookup<StyleInfo> styles = newStyleLookup();
+
+    /**
+     * Turns list filters into index lookups
+     */
+    protected CatalogQueryPlanner planner = new CatalogQueryPlanner(this);
 
     /**
      * the catalog
@@ -210,6 +309,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         beforeSaved(store, propertyNames, oldValues, newValues);
         stores.update(store);
         commitProxy(store);
+        stores.reindex(store);
         afterSaved(store, propertyNames, oldValues, newValues);
     }
     
@@ -246,7 +346,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             ws = workspace;
         }
 
-        List<T> matches = stores.list(clazz, s -> ws.equals(s.getWorkspace()));
+        List<T> matches = stores.list(clazz, WORKSPACE_INDEX, idOf(ws),
+                s -> ws.equals(s.getWorkspace()));
         return ModificationProxy.createList(matches,clazz);
     }
     
@@ -315,6 +416,13 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         resources.update(resource);
         layers.update(resource);
         commitProxy(resource);
+        resources.reindex(resource);
+        // the layer name is the resource one
+        LayerInfo layer = layers.findByName(RESOURCE_NAME_MAPPER.apply(resource),
+                LayerInfo.class);
+        if (layer != null) {
+            layers.reindex(layer);
+        }
         afterSaved(resource, propertyNames, oldValues, newValues);
     }
     
@@ -352,7 +460,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             ns = namespace;
         }
 
-        List<T> matches = resources.list(clazz, r -> ns.equals(r.getNamespace()));
+        List<T> matches = resources.list(clazz, NAMESPACE_INDEX, idOf(ns),
+                r -> ns.equals(r.getNamespace()));
         return ModificationProxy.createList( matches, clazz );
     }
     
@@ -369,7 +478,9 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         } else {
             // should not happen, but some broken test code sets up namespaces without equivalent workspaces
             // or stores without workspaces
-            resource = resources.findFirst(clazz, r -> name.equals( r.getName() ) && store.equals( r.getStore()));
+            List<T> matches = resources.list(clazz, STORE_INDEX, store.getId(),
+                    r -> name.equals(r.getName()) && store.equals(r.getStore()));
+            resource = matches.isEmpty() ? null : matches.get(0);
         }
         return wrapInModificationProxy(resource, clazz);
     }
@@ -384,7 +495,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public <T extends ResourceInfo> List<T> getResourcesByStore(
             StoreInfo store, Class<T> clazz) {
-        List<T> matches = resources.list(clazz, r -> store.equals(r.getStore()));
+        List<T> matches = resources.list(clazz, STORE_INDEX, store.getId(),
+                r -> store.equals(r.getStore()));
         return  ModificationProxy.createList( matches, clazz );
     }
     
@@ -413,6 +525,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         beforeSaved(layer, propertyNames, oldValues, newValues);
         layers.update(layer);
         commitProxy(layer);
+        layers.reindex(layer);
         afterSaved(layer, propertyNames, oldValues, newValues);
     }
     
@@ -451,7 +564,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
     
     public List<LayerInfo> getLayers(StyleInfo style) {
-        List<LayerInfo> matches = layers.list(LayerInfo.class, li -> style.equals(li.getDefaultStyle()) || li.getStyles().contains(style));
+        List<LayerInfo> matches = layers.list(LayerInfo.class, STYLE_INDEX, style.getId(),
+                li -> style.equals(li.getDefaultStyle()) || li.getStyles().contains(style));
         return ModificationProxy.createList(matches,LayerInfo.class);
     }
     
@@ -552,6 +666,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         beforeSaved(layerGroup, propertyNames, oldValues, newValues);
         layerGroups.update(layerGroup);
         commitProxy(layerGroup);
+        layerGroups.reindex(layerGroup);
         afterSaved(layerGroup, propertyNames, oldValues, newValues);
     }
     
@@ -574,13 +689,17 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             ws = workspace;
         }
         Predicate<LayerGroupInfo> predicate;
+        String wsId;
         if(workspace == NO_WORKSPACE) {
             predicate = lg -> lg.getWorkspace() == null;
+            wsId = null;
         } else {
             predicate = lg -> ws.equals(lg.getWorkspace());
+            wsId = idOf(ws);
         }
 
-        List<LayerGroupInfo> matches = layerGroups.list(LayerGroupInfo.class, predicate);
+        List<LayerGroupInfo> matches = layerGroups.list(LayerGroupInfo.class, WORKSPACE_INDEX,
+                wsId, predicate);
         return ModificationProxy.createList(matches,LayerGroupInfo.class);
 
     }
@@ -783,6 +902,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         beforeSaved(style, propertyNames, oldValues, newValues);
         styles.update(style);
         commitProxy(style);
+        styles.reindex(style);
         afterSaved(style, propertyNames, oldValues, newValues);
     }
 
@@ -828,7 +948,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         //TODO: support ANY_WORKSPACE?
         List<StyleInfo> matches;
         if (workspace == NO_WORKSPACE) {
-            matches = styles.list(StyleInfo.class, s -> s.getWorkspace() == null);
+            matches = styles.list(StyleInfo.class, WORKSPACE_INDEX, null,
+                    s -> s.getWorkspace() == null);
         } else {
             WorkspaceInfo ws;
             if ( workspace == null ) {
@@ -837,7 +958,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
                 ws = workspace;
             }
             
-            matches = styles.list(StyleInfo.class, s -> ws.equals(s.getWorkspace()));
+            matches = styles.list(StyleInfo.class, WORKSPACE_INDEX, idOf(ws),
+                    s -> ws.equals(s.getWorkspace()));
         }
 
         return ModificationProxy.createList(matches,StyleInfo.class);
@@ -877,7 +999,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         //stores
         if ( stores == null ) {
-            stores = new CatalogInfoLookup<>(STORE_NAME_MAPPER);
+            stores = newStoreLookup();
         }
         for ( Object o : stores.values() ) {
             resolve((StoreInfoImpl)o);
@@ -885,7 +1007,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         //styles
         if ( styles == null ) {
-            styles = new CatalogInfoLookup<>(STYLE_NAME_MAPPER);
+            styles = newStyleLookup();
         }
         for ( StyleInfo s : styles.values() ) {
             resolve(s);
@@ -893,7 +1015,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         //resources
         if ( resources == null ) {
-            resources = new CatalogInfoLookup<>(RESOURCE_NAME_MAPPER);
+            resources = newResourceLookup();
         }
         for( Object o : resources.values() ) {
             resolve((ResourceInfo)o);
@@ -909,7 +1031,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         //layer groups
         if ( layerGroups == null ) {
-            layerGroups = new CatalogInfoLookup<>(LAYERGROUP_NAME_MAPPER);
+            layerGroups = newLayerGroupLookup();
         }
         for (LayerGroupInfo lg : layerGroups.values()) {
             resolve(lg);
@@ -978,7 +1100,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
     @Override
     public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
-        return Iterables.size(iterable(of, filter, null));
+        return query(of, filter).size();
     }
 
     /**
@@ -1033,14 +1155,41 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
         if (sortOrder != null) {
             for (SortBy so : sortOrder) {
-                if (sortOrder != null && !canSort(of, so.getPropertyName().getPropertyName())) {
+                // natural and reverse order have no property name
+                if (so.getPropertyName() != null
+                        && !canSort(of, so.getPropertyName().getPropertyName())) {
                     throw new IllegalArgumentException(
                         "Can't sort objects of type "+of.getName()+" by "+so.getPropertyName());
                 }
             }
         }
 
-        Iterable<T> iterable = iterable(of, filter, sortOrder);
+        CatalogInfoLookup<?> lookup = getLookup(of);
+        if (lookup != null && isNameOrdered(lookup, sortOrder)
+                && planner.plan(lookup, filter) == null) {
+            // no index can narrow down the search, but the name index is already sorted,
+            // the page can be served scanning it lazily
+            boolean descending = SortOrder.DESCENDING.equals(sortOrder[0].getSortOrder());
+            Iterator<T> iterator = lookup.iterator(of, NAME_INDEX, descending,
+                    toPredicate(filter));
+            if (offset != null && offset.intValue() > 0) {
+                Iterators.advance(iterator, offset.intValue());
+            }
+            if (count != null && count.intValue() >= 0) {
+                iterator = Iterators.limit(iterator, count.intValue());
+            }
+            return new CloseableIteratorAdapter<T>(
+                    Iterators.transform(iterator, o -> ModificationProxy.create(o, of)));
+        }
+
+        // only the objects up to the end of the page need to be sorted
+        int limit = Integer.MAX_VALUE;
+        if (count != null && count.intValue() >= 0) {
+            long end = (offset != null ? Math.max(0, offset.longValue()) : 0) + count.longValue();
+            limit = (int) Math.min(Integer.MAX_VALUE, end);
+        }
+        List<T> all = sort(query(of, filter), sortOrder, limit);
+        Iterable<T> iterable = ModificationProxy.createList(all, of);
 
         if (offset != null && offset.intValue() > 0) {
             iterable = Iterables.skip(iterable, offset.intValue());
@@ -1055,48 +1204,113 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         return new CloseableIteratorAdapter<T>(iterator);
     }
 
-    @SuppressWarnings("unchecked")
     public <T extends CatalogInfo> Iterable<T> iterable(final Class<T> of,
             final Filter filter, final SortBy[] sortByList) {
-        List<T> all;
-        
-        T t = null;
+        List<T> all = sort(query(of, filter), sortByList, Integer.MAX_VALUE);
+        return ModificationProxy.createList(all, of);
+    }
+
+    /**
+     * Returns the lookup holding all the objects of the given type, or null if they are not
+     * held in a single lookup
+     */
+    CatalogInfoLookup<?> getLookup(Class<?> of) {
         if (NamespaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) namespaces.list(of, toPredicate(filter));
+            return namespaces;
         } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) workspaces.list(of, toPredicate(filter));
+            return workspaces;
         } else if (StoreInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) stores.list(of, toPredicate(filter));
+            return stores;
         } else if (ResourceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) resources.list(of, toPredicate(filter));
+            return resources;
         } else if (LayerInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) layers.list(of, toPredicate(filter));
+            return layers;
         } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) layerGroups.list(of, toPredicate(filter));
+            return layerGroups;
+        } else if (StyleInfo.class.isAssignableFrom(of)) {
+            return styles;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the raw objects matching the filter, using the secondary indexes to narrow down
+     * the search when possible
+     */
+    @SuppressWarnings("unchecked")
+    <T extends CatalogInfo> List<T> query(final Class<T> of, final Filter filter) {
+        Predicate<T> predicate = toPredicate(filter);
+        CatalogInfoLookup<?> lookup = getLookup(of);
+        if (lookup != null) {
+            IndexScan scan = planner.plan(lookup, filter);
+            if (scan != null) {
+                return scan.list(lookup, of, predicate);
+            }
+            return lookup.list(of, predicate);
         } else if (PublishedInfo.class.isAssignableFrom(of)) {
-            all = new ArrayList<>();
+            List<T> all = new ArrayList<>();
             all.addAll((List<T>) layers.list(LayerInfo.class, toPredicate(filter)));
             all.addAll((List<T>) layerGroups.list(LayerGroupInfo.class, toPredicate(filter)));
-        } else if (StyleInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) styles.list(of, toPredicate(filter));
+            return all;
         } else if (MapInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) new ArrayList<>(maps);
+            return (List<T>) new ArrayList<>(maps);
         } else {
             throw new IllegalArgumentException("Unknown type: " + of);
         }
+    }
 
-        if (null != sortByList) {
-            for (int i = sortByList.length - 1; i >= 0; i--) {
-                SortBy sortBy = sortByList[i];
-                Ordering<Object> ordering = Ordering.from(comparator(sortBy));
-                if (SortOrder.DESCENDING.equals(sortBy.getSortOrder())) {
-                    ordering = ordering.reverse();
-                }
-                all = ordering.sortedCopy(all);
+    boolean isNameOrdered(CatalogInfoLookup<?> lookup, SortBy[] sortByList) {
+        return sortByList != null && sortByList.length == 1 && sortByList[0] != null
+                && sortByList[0].getPropertyName() != null
+                && "name".equals(sortByList[0].getPropertyName().getPropertyName())
+                && lookup.hasIndex(NAME_INDEX);
+    }
+
+    /**
+     * Sorts the objects, the sort is stable. Only the first <code>limit</code> objects are
+     * returned, without sorting the rest of the list.
+     */
+    <T> List<T> sort(final List<T> all, final SortBy[] sortByList, int limit) {
+        if (sortByList == null || sortByList.length == 0) {
+            return all;
+        }
+        // natural and reverse order have no property, they refer to the lookup order,
+        // which the stable sort on the other keys preserves on ties
+        final List<T> source = sortByList[0].getPropertyName() == null
+                && SortOrder.DESCENDING.equals(sortByList[0].getSortOrder()) ? Lists.reverse(all)
+                        : all;
+        Comparator<Object> comparator = null;
+        for (SortBy sortBy : sortByList) {
+            if (sortBy.getPropertyName() == null) {
+                continue;
+            }
+            Comparator<Object> c = comparator(sortBy);
+            if (SortOrder.DESCENDING.equals(sortBy.getSortOrder())) {
+                c = c.reversed();
             }
+            comparator = comparator == null ? c : comparator.thenComparing(c);
+        }
+        if (comparator == null) {
+            return new ArrayList<>(source);
         }
 
-        return ModificationProxy.createList(all, of);
+        if (limit >= source.size()) {
+            List<T> sorted = new ArrayList<>(source);
+            sorted.sort(comparator);
+            return sorted;
+        }
+        // partial sort, ties are broken by position to get the same result as a stable sort
+        final Comparator<Object> objectComparator = comparator;
+        Ordering<Integer> ordering = Ordering.from((Integer p1, Integer p2) -> {
+            int result = objectComparator.compare(source.get(p1), source.get(p2));
+            return result != 0 ? result : Integer.compare(p1, p2);
+        });
+        List<T> sorted = new ArrayList<>(limit);
+        for (Integer position : ordering.leastOf(IntStream.range(0, source.size()).iterator(),
+                limit)) {
+            sorted.add(source.get(position));
+        }
+        return sorted;
     }
 
     private <T> Predicate<T> toPredicate(Filter filter) {
@@ -11,6 +11,9 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -18,6 +21,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogInfo;
@@ -29,6 +34,8 @@ import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.factory.CommonFactoryFinder;
 import org.opengis.filter.FilterFactory;
 
+import com.google.common.collect.Iterators;
+
 /**
  * Proxies an object storing any modifications to it.
  * <p>
@@ -43,6 +50,13 @@ import org.opengis.filter.FilterFactory;
  * Any collections handled through this interface are cloned and client code 
  * obtains a copy. The two collections will be synced on a call to {@link #commit()}.
  * </p>
+ * <p>
+ * Proxies created while running a {@link #readOnly(ReadOnlyTask)} task cannot be modified:
+ * setters throw {@link UnsupportedOperationException}, and list and set properties are returned
+ * as unmodifiable views of the underlying collections instead of being copied, with their
+ * elements lazily wrapped in read only proxies. This is meant for code, like capabilities
+ * generation, that walks large parts of the catalog without ever changing it.
+ * </p>
  * 
  * @author Justin Deoliveira, The Open Planning Project
  * 
@@ -51,6 +65,71 @@ import org.opengis.filter.FilterFactory;
  */
 public class ModificationProxy implements WrappingProxy, Serializable {
 
+    /**
+     * Whether proxies created by the current thread are read only
+     */
+    static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+
+    /**
+     * How each proxied method is handled, avoids parsing the method name on each invocation
+     */
+    static final Map<Method, MethodHandling> METHOD_HANDLING = new ConcurrentHashMap<>();
+
+    static final class MethodHandling {
+
+        /**
+         * The property name for getters and setters, null otherwise
+         */
+        final String property;
+
+        final boolean getter;
+
+        final boolean setter;
+
+        final boolean collection;
+
+        final boolean map;
+
+        /**
+         * Whether the collection returned by a getter can be replaced by a read only view
+         */
+        final boolean view;
+
+        MethodHandling(Method method) {
+            String name = method.getName();
+            Class<?> type = method.getReturnType();
+            this.getter = (name.startsWith("get") || name.startsWith("is"))
+                    && method.getParameterCount() == 0;
+            this.setter = !getter && name.startsWith("set") && method.getParameterCount() == 1;
+            if (getter) {
+                this.property = name.substring(name.startsWith("get") ? 3 : 2);
+            } else if (setter) {
+                this.property = name.substring(3);
+            } else {
+                this.property = null;
+            }
+            this.collection = getter && Collection.class.isAssignableFrom(type);
+            this.map = getter && Map.class.isAssignableFrom(type);
+            this.view = type == List.class || type == Set.class || type == Collection.class;
+        }
+
+        static MethodHandling of(Method method) {
+            MethodHandling handling = METHOD_HANDLING.get(method);
+            if (handling == null) {
+                handling = METHOD_HANDLING.computeIfAbsent(method, MethodHandling::new);
+            }
+            return handling;
+        }
+    }
+
+    /**
+     * A task run in a read only context, see {@link ModificationProxy#readOnly(ReadOnlyTask)}
+     */
+    @FunctionalInterface
+    public interface ReadOnlyTask<T, E extends Exception> {
+        T run() throws E;
+    }
+
     /** 
      * the proxy object 
      */
@@ -73,8 +152,18 @@ public class ModificationProxy implements WrappingProxy, Serializable {
      */
     HashMap<String,Object> oldCollectionValues;
 
+    /**
+     * If true, the proxy rejects modifications and does not copy collections
+     */
+    final boolean readOnly;
+
     public ModificationProxy(Object proxyObject) {
+        this(proxyObject, false);
+    }
+
+    public ModificationProxy(Object proxyObject, boolean readOnly) {
         this.proxyObject = proxyObject;
+        this.readOnly = readOnly;
     }
 
     private ClassProperties cp(){
@@ -90,24 +179,25 @@ public class ModificationProxy implements WrappingProxy, Serializable {
     public Object invoke(Object proxy, Method method, Object[] args)
             throws Throwable {
         
-        String property = null;
-        if ( ( method.getName().startsWith( "get")  || method.getName().startsWith( "is" ) ) 
-                && method.getParameterCount() == 0 ) {
+        MethodHandling handling = MethodHandling.of(method);
+        String property = handling.property;
+        if ( handling.getter ) {
             //intercept getter to check the dirty property set
-            property = method.getName().substring( 
-                method.getName().startsWith( "get") ? 3 : 2 );
             if ( properties != null && properties().containsKey( property ) ) {
                 //return the previously set object
                 return properties().get( property );
             }
             else {
                 //if collection, create a wrapper
-                if ( Collection.class.isAssignableFrom( method.getReturnType() ) ) {
+                if ( handling.collection ) {
                     Collection real = (Collection) method.invoke( proxyObject, null );
                     if(real == null) {
                         // in this case there is nothing we can do
                         return null;
                     }
+                    if (readOnly && handling.view) {
+                        return readOnlyView(real, method.getReturnType());
+                    }
                     Collection wrap = ModificationProxyCloner.cloneCollection(real, true);
                     properties().put( property, wrap );
                     // we also need to store a clone of the initial state as the collection
@@ -115,7 +205,7 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                     Collection clone = ModificationProxyCloner.cloneCollection(real, false);
                     oldCollectionValues().put(property, clone);
                     return wrap;
-                } else if(Map.class.isAssignableFrom( method.getReturnType() )) {
+                } else if( handling.map ) {
                     Map real = (Map) method.invoke( proxyObject, null );
                     if(real == null) {
                         // in this case there is nothing we can do
@@ -135,9 +225,12 @@ public class ModificationProxy implements WrappingProxy, Serializable {
             }
             
         }
-        if ( method.getName().startsWith( "set") && args.length == 1) {
+        if ( handling.setter ) {
+            if (readOnly) {
+                throw new UnsupportedOperationException("Cannot call " + method.getName()
+                        + ", the object was obtained in a read only context");
+            }
             //intercept setter and put new value in list
-            property = method.getName().substring( 3 );
             properties().put( property, args[0] );
             
             return null;
@@ -160,7 +253,8 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                 //avoid double proxy
                 Object o = ModificationProxy.unwrap( result );
                 if ( o == result ) {
-                    result = ModificationProxy.create( result, (Class) method.getReturnType() );
+                    result = ProxyUtils.createProxy(result, (Class) method.getReturnType(),
+                            new ModificationProxy(result, readOnly));
                     
                     //cache the proxy, in case it is modified itself
                     properties().put( property, result );
@@ -179,6 +273,88 @@ public class ModificationProxy implements WrappingProxy, Serializable {
     public Object getProxyObject() {
         return proxyObject;
     }
+
+    /**
+     * Returns true if this proxy rejects modifications, see {@link #readOnly(ReadOnlyTask)}
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Returns an unmodifiable view of a list or set property
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    Collection readOnlyView(Collection real, Class<?> type) {
+        if (type == List.class && real instanceof List) {
+            List list = (List) real;
+            return new AbstractList() {
+                @Override
+                public Object get(int index) {
+                    return readOnlyElement(list.get(index));
+                }
+
+                @Override
+                public int size() {
+                    return list.size();
+                }
+            };
+        } else if (type == Set.class || type == Collection.class) {
+            Collection view = new AbstractCollection() {
+                @Override
+                public Iterator iterator() {
+                    return Iterators.transform(real.iterator(), o -> readOnlyElement(o));
+                }
+
+                @Override
+                public int size() {
+                    return real.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return real.contains(unwrap(o));
+                }
+            };
+            return type == Set.class ? new ReadOnlySet(view) : view;
+        }
+        // a list typed collection that is not a list, copy it as usual
+        return ModificationProxyCloner.cloneCollection(real, true);
+    }
+
+    Object readOnlyElement(Object element) {
+        if (element != null && !(element instanceof Proxy)
+                && shouldProxyProperty(element.getClass())) {
+            return ProxyUtils.createProxy(element, Info.class, new ModificationProxy(element,
+                    true));
+        }
+        return element;
+    }
+
+    @SuppressWarnings("rawtypes")
+    static final class ReadOnlySet extends AbstractSet {
+
+        final Collection delegate;
+
+        ReadOnlySet(Collection delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Iterator iterator() {
+            return delegate.iterator();
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return delegate.contains(o);
+        }
+    }
     
     public HashMap<String,Object> getProperties() {
         return properties();
@@ -566,7 +742,41 @@ public class ModificationProxy implements WrappingProxy, Serializable {
      * @throws RuntimeException If creating the proxy fails.
      */
     public static <T> T create( T proxyObject, Class<T> clazz ) {
-        return ProxyUtils.createProxy(proxyObject, clazz, new ModificationProxy( proxyObject ));
+        return ProxyUtils.createProxy(proxyObject, clazz, new ModificationProxy( proxyObject,
+                isReadOnlyContext() ));
+    }
+
+    /**
+     * Runs the task in a read only context, the catalog objects the task obtains are wrapped in
+     * proxies that cannot be modified, and are cheaper to create and use since they do not need
+     * to copy collections to track their changes.
+     * <p>
+     * The objects should not be retained past the end of the task, as they will keep on
+     * rejecting modifications.
+     * </p>
+     *
+     * @param task The task to run
+     * @return The task result
+     */
+    public static <T, E extends Exception> T readOnly(ReadOnlyTask<T, E> task) throws E {
+        Boolean previous = READ_ONLY.get();
+        READ_ONLY.set(Boolean.TRUE);
+        try {
+            return task.run();
+        } finally {
+            if (previous == null) {
+                READ_ONLY.remove();
+            } else {
+                READ_ONLY.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the current thread is running a {@link #readOnly(ReadOnlyTask)} task
+     */
+    public static boolean isReadOnlyContext() {
+        return Boolean.TRUE.equals(READ_ONLY.get());
     }
     
     /**
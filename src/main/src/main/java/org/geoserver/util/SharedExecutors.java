@@ -0,0 +1,109 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Holds the thread pools used to split the work of a single request among several threads
+ * (parallel reads, encodings and writes), so that they are all shut down along with the
+ * application context.
+ * <p>
+ * Pools are created on demand and shared by name. The tasks run with the thread locals of the
+ * request submitting them, see {@link ThreadLocalsTransfer}. When a pool is saturated, or the
+ * holder has been shut down or is not available, the tasks run in the calling thread instead.
+ * </p>
+ */
+public class SharedExecutors implements DisposableBean {
+
+    Map<String, ThreadPoolExecutor> pools = new ConcurrentHashMap<>();
+
+    volatile boolean disposed;
+
+    /**
+     * Runs the task in the named pool of the {@link SharedExecutors} found in the application
+     * context, or in the calling thread if there is none
+     *
+     * @param name The pool name, also used to name its threads
+     * @param threads The number of threads of the pool, used only when the pool is first created
+     * @param task The task to run
+     */
+    public static void execute(String name, int threads, FutureTask<?> task) {
+        SharedExecutors executors = GeoServerExtensions.bean(SharedExecutors.class);
+        if (executors == null) {
+            task.run();
+        } else {
+            executors.submit(name, threads, task);
+        }
+    }
+
+    /**
+     * Runs the task in the named pool, or in the calling thread if the pool is saturated or
+     * shut down
+     *
+     * @param name The pool name, also used to name its threads
+     * @param threads The number of threads of the pool, used only when the pool is first created
+     * @param task The task to run
+     */
+    public void submit(String name, int threads, FutureTask<?> task) {
+        ThreadPoolExecutor pool = getPool(name, threads);
+        if (pool == null) {
+            task.run();
+            return;
+        }
+        ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        try {
+            pool.execute(() -> {
+                transfer.apply();
+                try {
+                    task.run();
+                } finally {
+                    transfer.cleanup();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // pool saturated or shutting down, run in the calling thread
+            task.run();
+        }
+    }
+
+    /**
+     * Returns the named pool, creating it if missing, or null if the holder has been shut down
+     */
+    public ThreadPoolExecutor getPool(String name, int threads) {
+        if (disposed) {
+            return null;
+        }
+        return pools.computeIfAbsent(name, n -> {
+            int size = Math.max(1, threads);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(size * 16), new ThreadFactoryBuilder()
+                            .setDaemon(true).setNameFormat(n + "-%d").build());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        });
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        disposed = true;
+        for (ThreadPoolExecutor pool : pools.values()) {
+            pool.shutdownNow();
+        }
+        pools.clear();
+    }
+}
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.function.Consumer;
 
 import javax.xml.namespace.QName;
@@ -22,7 +23,9 @@ import org.geoserver.catalog.CoverageView.SelectedResolution;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.test.TestData;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.util.SharedExecutors;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
@@ -398,6 +401,30 @@ public class CoverageViewTest extends GeoServerSystemTestSupport {
         }
     }
     
+    /**
+     * Checks the sources of a multi coverage view are read on the parallel read pool
+     */
+    @Test
+    public void testHeterogeneousViewParallelReads() throws Exception {
+        CoverageInfo info = buildHeterogeneousResolutionView("s2AllBandsParallel", cv -> {
+        }, "B01", "B02", "B03", "B04", "B05", "B06", "B07", "B08", "B09", "B10", "B11", "B12");
+        GridCoverage2D coverage = null;
+        try {
+            GridCoverage2DReader reader = (GridCoverage2DReader) info.getGridCoverageReader(null, null);
+            ThreadPoolExecutor pool = GeoServerExtensions.bean(SharedExecutors.class)
+                    .getPool(CoverageViewReader.READ_POOL, CoverageViewReader.READ_THREADS);
+            long submitted = pool.getTaskCount();
+            coverage = reader.read(null);
+            assertEquals(12, coverage.getNumSampleDimensions());
+            assertEquals(submitted + 12, pool.getTaskCount());
+        } finally {
+            getCatalog().remove(info);
+            if(coverage != null) {
+                coverage.dispose(true);
+            }
+        }
+    }
+
     /**
      * Tests a heterogeneous view without setting any extra configuration (falling back on defaults)
      * @throws Exception
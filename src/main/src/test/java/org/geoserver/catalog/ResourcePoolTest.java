@@ -20,8 +20,17 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.jai.PlanarImage;
@@ -69,7 +78,6 @@ import org.geotools.styling.AbstractStyleVisitor;
 import org.geotools.styling.Mark;
 import org.geotools.styling.PolygonSymbolizer;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.Version;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -82,6 +90,7 @@ import org.opengis.style.ExternalGraphic;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
 
+import com.google.common.cache.CacheStats;
 import com.vividsolutions.jts.geom.Point;
 
 /**
@@ -275,9 +284,228 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         Catalog catalog = getCatalog();
         // we actually keep two versions of the feature type in the cache, so we need it 
         // twice as big
-        assertEquals(400, ((SoftValueHashMap)catalog.getResourcePool().getFeatureTypeCache()).getHardReferencesCount());
+        assertEquals(400, ((ResourcePool.CatalogResourceCache) catalog.getResourcePool()
+                .getFeatureTypeCache()).getHardReferencesCount());
     }
     
+    @Test public void testLoadOncePerKey() throws Exception {
+        final ResourcePool pool = ResourcePool.create(getCatalog());
+        final Map<String, String> cache = new ConcurrentHashMap<>();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> pool.getOrLoad(cache, "a", () -> {
+                    loads.incrementAndGet();
+                    loading.countDown();
+                    release.await();
+                    return "valueA";
+                })));
+            }
+
+            // while "a" is being loaded other keys can be loaded and looked up
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            assertEquals("valueB", pool.getOrLoad(cache, "b", () -> "valueB"));
+            assertEquals("valueB", cache.get("b"));
+
+            release.countDown();
+            for (Future<String> future : futures) {
+                assertEquals("valueA", future.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test public void testLoadFailureNotCached() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        Map<String, String> cache = new ConcurrentHashMap<>();
+        try {
+            pool.getOrLoad(cache, "a", () -> {
+                throw new IOException("failed");
+            });
+            fail("Should have thrown an exception");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertFalse(cache.containsKey("a"));
+        assertEquals("value", pool.getOrLoad(cache, "a", () -> "value"));
+    }
+
+    @Test public void testParseCachePolicy() {
+        ResourceCachePolicy policy = ResourceCachePolicy
+                .parse("maxEntries=10, expireAfterAccess=600,softFallback=true");
+        assertEquals(10, policy.getMaxEntries());
+        assertEquals(-1, policy.getMaxWeight());
+        assertEquals(600, policy.getExpireAfterAccess());
+        assertTrue(policy.isSoftFallback());
+        assertEquals(policy, ResourceCachePolicy.parse(policy.toString()));
+        assertEquals(ResourceCachePolicy.UNBOUNDED, ResourceCachePolicy.parse(""));
+
+        try {
+            ResourceCachePolicy.parse("maxSize=10");
+            fail("Should have failed on the unknown key");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("maxSize"));
+        }
+    }
+
+    @Test public void testCachePolicyEviction() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        final List<String> disposed = new ArrayList<>();
+        ResourceCachePolicy policy = new ResourceCachePolicy(2, -1, -1, false);
+        ResourcePool.CatalogResourceCache<String, String> cache;
+        cache = pool.new CatalogResourceCache<String, String>(policy) {
+            @Override
+            protected void dispose(String key, String value) {
+                disposed.add(key);
+            }
+        };
+        assertEquals("a", pool.getOrLoad(cache, "a", () -> "a"));
+        assertEquals("b", pool.getOrLoad(cache, "b", () -> "b"));
+        assertEquals("a", cache.get("a"));
+        // "b" is the least recently used one, it's evicted but not disposed, as it might
+        // still be in use
+        cache.put("c", "c");
+        assertEquals(2, cache.size());
+        assertFalse(cache.containsKey("b"));
+        assertTrue(disposed.isEmpty());
+
+        CacheStats stats = cache.getStats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(2, stats.missCount());
+        assertEquals(2, stats.loadSuccessCount());
+        assertEquals(1, stats.evictionCount());
+
+        // looking it up again while still reachable puts it back, evicting "a"
+        assertEquals("b", pool.getOrLoad(cache, "b", () -> "other"));
+        assertTrue(cache.containsKey("b"));
+        assertFalse(cache.containsKey("a"));
+        assertEquals(2, cache.getStats().loadSuccessCount());
+
+        // shrinking the cache evicts, going back to the default keeps the values
+        cache.setPolicy(new ResourceCachePolicy(1, -1, -1, false));
+        assertEquals(1, cache.size());
+        cache.setPolicy(null);
+        assertEquals(1, cache.size());
+        assertTrue(disposed.isEmpty());
+
+        // explicit removal disposes, evicted values included
+        cache.remove("a");
+        cache.clear();
+        assertEquals(3, disposed.size());
+        assertTrue(disposed.containsAll(Arrays.asList("a", "b", "c")));
+    }
+
+    @Test public void testEvictedValuesDisposedAfterGracePeriod() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        final List<String> disposed = new ArrayList<>();
+        long gracePeriod = ResourcePool.RETIRED_GRACE_PERIOD;
+        ResourcePool.RETIRED_GRACE_PERIOD = 0;
+        try {
+            ResourcePool.CatalogResourceCache<String, String> cache;
+            cache = pool.new CatalogResourceCache<String, String>(
+                    new ResourceCachePolicy(1, -1, -1, false)) {
+                @Override
+                protected void dispose(String key, String value) {
+                    disposed.add(key);
+                }
+            };
+            cache.put("a", "a");
+            cache.put("b", "b");
+            // no grace period, the evicted value is disposed right away
+            assertEquals(Arrays.asList("a"), disposed);
+            assertNull(cache.get("a"));
+        } finally {
+            ResourcePool.RETIRED_GRACE_PERIOD = gracePeriod;
+        }
+    }
+
+    @Test public void testCachePolicySwapKeepsConcurrentLoads() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        final List<String> disposed = new CopyOnWriteArrayList<>();
+        ResourcePool.CatalogResourceCache<String, String> cache;
+        cache = pool.new CatalogResourceCache<String, String>(ResourceCachePolicy.UNBOUNDED) {
+            @Override
+            protected void dispose(String key, String value) {
+                disposed.add(key);
+            }
+        };
+        int count = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final String key = "k" + i;
+                futures.add(executor.submit(() -> pool.getOrLoad(cache, key, () -> key)));
+                if (i % 10 == 0) {
+                    final ResourceCachePolicy policy = i % 20 == 0
+                            ? ResourceCachePolicy.UNBOUNDED : ResourceCachePolicy.softFallback(1);
+                    futures.add(executor.submit(() -> cache.setPolicy(policy)));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // no load got lost in a replaced cache
+        cache.setPolicy(ResourceCachePolicy.UNBOUNDED);
+        assertEquals(count, cache.size());
+        assertTrue(disposed.isEmpty());
+    }
+
+    @Test public void testCachePolicySoftFallback() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        final List<String> disposed = new ArrayList<>();
+        ResourceCachePolicy policy = ResourceCachePolicy.softFallback(1);
+        ResourcePool.CatalogResourceCache<String, String> cache;
+        cache = pool.new CatalogResourceCache<String, String>(policy) {
+            @Override
+            protected void dispose(String key, String value) {
+                disposed.add(key);
+            }
+        };
+        // values going past the limit are only softly referenced, not disposed
+        cache.put("a", "a");
+        cache.put("b", "b");
+        assertEquals(1, cache.hardCache.size());
+        assertEquals("a", cache.get("a"));
+        assertTrue(disposed.isEmpty());
+
+        cache.remove("a");
+        assertEquals(1, disposed.size());
+        assertEquals("a", disposed.get(0));
+    }
+
+    @Test public void testConfigureCachePolicy() {
+        GeoServer gs = getGeoServer();
+        GeoServerInfo global = gs.getGlobal();
+        ResourcePool pool = getCatalog().getResourcePool();
+        ResourceCachePolicy defaultPolicy = pool.getCachePolicy(ResourcePool.DATA_STORE_CACHE);
+        assertEquals(ResourceCachePolicy.softFallback(100), defaultPolicy);
+
+        global.getMetadata().put(ResourcePoolInitializer.CACHE_POLICY_PREFIX
+                + ResourcePool.DATA_STORE_CACHE, "maxEntries=10,softFallback=false");
+        gs.save(global);
+        try {
+            assertEquals(new ResourceCachePolicy(10, -1, -1, false),
+                    pool.getCachePolicy(ResourcePool.DATA_STORE_CACHE));
+            assertTrue(pool.getCacheStatistics().containsKey(ResourcePool.DATA_STORE_CACHE));
+        } finally {
+            global = gs.getGlobal();
+            global.getMetadata().remove(ResourcePoolInitializer.CACHE_POLICY_PREFIX
+                    + ResourcePool.DATA_STORE_CACHE);
+            gs.save(global);
+        }
+        assertEquals(defaultPolicy, pool.getCachePolicy(ResourcePool.DATA_STORE_CACHE));
+    }
+
     @Test public void testDropCoverageStore() throws Exception {
         // build the store
         Catalog cat = getCatalog();
@@ -22,6 +22,7 @@ import static org.junit.Assert.fail;
 
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -68,6 +69,7 @@ import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.catalog.util.CloseableIterator;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.util.logging.Logging;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -876,6 +878,133 @@ public class CatalogImplTest {
         
     }
     
+    @Test
+    public void testStoresByWorkspaceAfterChange() throws Exception {
+        addDataStore();
+        assertEquals(1, catalog.getStoresByWorkspace(ws, DataStoreInfo.class).size());
+
+        WorkspaceInfo ws2 = catalog.getFactory().createWorkspace();
+        ws2.setName("newWorkspace");
+        catalog.add(ws2);
+        ws2 = catalog.getWorkspaceByName(ws2.getName());
+
+        DataStoreInfo ds2 = catalog.getDataStoreByName(ds.getName());
+        ds2.setWorkspace(ws2);
+        catalog.save(ds2);
+
+        assertTrue(catalog.getStoresByWorkspace(ws, DataStoreInfo.class).isEmpty());
+        List<DataStoreInfo> stores = catalog.getStoresByWorkspace(ws2, DataStoreInfo.class);
+        assertEquals(1, stores.size());
+        assertEquals(ds2.getId(), stores.get(0).getId());
+    }
+
+    @Test
+    public void testLayersByStyleAfterChange() throws Exception {
+        addLayer();
+        addDefaultStyle();
+        assertEquals(1, catalog.getLayers(s).size());
+
+        LayerInfo l2 = catalog.getLayerByName(l.getName());
+        l2.setDefaultStyle(catalog.getStyleByName(StyleInfo.DEFAULT_LINE));
+        l2.getStyles().add(catalog.getStyleByName(s.getName()));
+        catalog.save(l2);
+        assertEquals(1, catalog.getLayers(s).size());
+        assertEquals(1, catalog.getLayers(defaultLineStyle).size());
+
+        l2 = catalog.getLayerByName(l.getName());
+        l2.getStyles().clear();
+        catalog.save(l2);
+        assertTrue(catalog.getLayers(s).isEmpty());
+        assertEquals(1, catalog.getLayers(defaultLineStyle).size());
+
+        catalog.remove(l2);
+        assertTrue(catalog.getLayers(defaultLineStyle).isEmpty());
+    }
+
+    @Test
+    public void testReadOnlyContext() throws Exception {
+        addLayer();
+        StyleInfo extra = newStyle("extra", "extra.sld");
+        catalog.add(extra);
+        LayerInfo layer = catalog.getLayerByName(l.getName());
+        layer.getStyles().add(extra);
+        catalog.save(layer);
+
+        ModificationProxy.readOnly(() -> {
+            LayerInfo ro = catalog.getLayerByName(l.getName());
+            assertTrue(ModificationProxy.handler(ro).isReadOnly());
+            try {
+                ro.setTitle("changed");
+                fail("Setters should not be allowed in a read only context");
+            } catch (UnsupportedOperationException e) {
+                // fine
+            }
+            // collections are views, with read only elements
+            assertEquals(1, ro.getStyles().size());
+            StyleInfo style = ro.getStyles().iterator().next();
+            assertEquals(extra.getName(), style.getName());
+            assertTrue(ModificationProxy.handler(style).isReadOnly());
+            assertTrue(ro.getStyles().contains(catalog.getStyleByName(extra.getName())));
+            try {
+                ro.getStyles().clear();
+                fail("Collections should not be modifiable in a read only context");
+            } catch (UnsupportedOperationException e) {
+                // fine
+            }
+            // nested objects are read only too
+            assertTrue(ModificationProxy.handler(ro.getResource()).isReadOnly());
+            for (LayerInfo li : catalog.getLayers()) {
+                assertTrue(ModificationProxy.handler(li).isReadOnly());
+            }
+            return null;
+        });
+
+        // back to normal outside of the context
+        layer = catalog.getLayerByName(l.getName());
+        assertFalse(ModificationProxy.handler(layer).isReadOnly());
+        layer.getStyles().clear();
+        catalog.save(layer);
+        assertTrue(catalog.getLayerByName(l.getName()).getStyles().isEmpty());
+    }
+
+    /**
+     * Compares the cost of walking the layers with and without a read only context, only runs
+     * with the <code>benchmarkTests</code> profile. The number of layers, 100k by default, can be
+     * changed with the <code>org.geoserver.catalog.proxy.layers</code> system variable
+     */
+    @Test
+    public void testReadOnlyBenchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarkTests"));
+        addLayer();
+        int layers = Integer.getInteger("org.geoserver.catalog.proxy.layers", 100000);
+        for (int i = 0; i < layers; i++) {
+            FeatureTypeInfo ft = newFeatureType("ft" + i, ds);
+            catalog.add(ft);
+            catalog.add(newLayer(ft, s, s));
+        }
+        Logger logger = Logging.getLogger(CatalogImplTest.class);
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            long styles = walkLayers();
+            long regular = (System.nanoTime() - start) / 1000000;
+            start = System.nanoTime();
+            long readOnlyStyles = ModificationProxy.readOnly(() -> walkLayers());
+            long readOnly = (System.nanoTime() - start) / 1000000;
+            assertEquals(styles, readOnlyStyles);
+            logger.info("Walked " + layers + " layers, regular proxies: " + regular
+                    + "ms, read only proxies: " + readOnly + "ms");
+        }
+    }
+
+    long walkLayers() {
+        long styles = 0;
+        for (LayerInfo layer : catalog.getLayers()) {
+            styles += layer.getStyles().size();
+            layer.getResource().getNamespace().getPrefix();
+        }
+        return styles;
+    }
+
     @Test
     public void testDataStoreEvents() {
         addWorkspace();
@@ -2699,6 +2828,84 @@ public class CatalogImplTest {
                 Lists.newArrayList(catalog.list(LayerInfo.class, filter, offset, limit, null)));
     }
         
+    @Test
+    public void testListIndexedPredicate() {
+        addDataStore();
+        addNamespace();
+
+        FeatureTypeInfo ft1, ft2, ft3, ft11;
+        catalog.add(ft2 = newFeatureType("ft2", ds));
+        catalog.add(ft11 = newFeatureType("ft11", ds));
+        catalog.add(ft3 = newFeatureType("ft3", ds));
+        catalog.add(ft1 = newFeatureType("ft1", ds));
+        ft1 = catalog.getFeatureType(ft1.getId());
+        ft2 = catalog.getFeatureType(ft2.getId());
+        ft3 = catalog.getFeatureType(ft3.getId());
+        ft11 = catalog.getFeatureType(ft11.getId());
+
+        // paging sorted by name, served by the name index
+        Filter filter = acceptAll();
+        assertEquals(Arrays.asList(ft1, ft11, ft2, ft3), Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, filter, null, null, asc("name"))));
+        assertEquals(Arrays.asList(ft11, ft2), Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, filter, 1, 2, asc("name"))));
+        assertEquals(Arrays.asList(ft2, ft11), Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, filter, 1, 2, desc("name"))));
+        assertEquals(Arrays.asList(ft3), Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, filter, 3, 10, asc("name"))));
+
+        // prefix and reference lookups, combined with a residual filter
+        FilterFactory factory = CommonFactoryFinder.getFilterFactory();
+        filter = Predicates.and(equal("store.name", ds.getName()),
+                factory.like(factory.property("name"), "ft1*"));
+        assertEquals(Arrays.asList(ft1, ft11), Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, filter, null, null, asc("name"))));
+        assertEquals(2, catalog.count(FeatureTypeInfo.class, filter));
+
+        filter = Predicates.and(equal("namespace.prefix", ns.getPrefix()),
+                contains("name", "3"));
+        assertEquals(Arrays.asList(ft3), Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, filter)));
+        filter = equal("namespace.prefix", "notThere");
+        assertEquals(0, catalog.count(FeatureTypeInfo.class, filter));
+
+        // multiple sort keys with partial sorting, ties keep the natural order
+        filter = equal("store.id", ds.getId());
+        List<FeatureTypeInfo> all = Lists.newArrayList(catalog.list(FeatureTypeInfo.class,
+                filter, null, null, asc("title"), desc("name")));
+        assertEquals(Arrays.asList(ft3, ft2, ft11, ft1), all);
+        assertEquals(all.subList(1, 3), Lists.newArrayList(catalog.list(FeatureTypeInfo.class,
+                filter, 1, 2, asc("title"), desc("name"))));
+
+        // renames are reflected in the index
+        ft3.setName("ft0");
+        catalog.save(ft3);
+        assertEquals(Arrays.asList(ft3, ft1), Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, acceptAll(), 0, 2, asc("name"))));
+    }
+
+    @Test
+    public void testListNaturalOrder() {
+        addDataStore();
+        addNamespace();
+        for (String name : new String[] { "ft2", "ft11", "ft3", "ft1" }) {
+            catalog.add(newFeatureType(name, ds));
+        }
+
+        // natural and reverse order have no property name, and are not served by the name index
+        Filter filter = acceptAll();
+        List<FeatureTypeInfo> natural = Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, filter, null, null, SortBy.NATURAL_ORDER));
+        assertEquals(Lists.newArrayList(catalog.list(FeatureTypeInfo.class, filter)), natural);
+        assertEquals(natural.subList(1, 3), Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, filter, 1, 2, SortBy.NATURAL_ORDER)));
+        List<FeatureTypeInfo> reverse = Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, filter, null, null, SortBy.REVERSE_ORDER));
+        assertEquals(Lists.reverse(natural), reverse);
+        assertEquals(reverse.subList(0, 2), Lists.newArrayList(
+                catalog.list(FeatureTypeInfo.class, filter, 0, 2, SortBy.REVERSE_ORDER)));
+    }
+
     /**
      * This tests more advanced filters: multi-valued filters, opposite equations, field equations
      */
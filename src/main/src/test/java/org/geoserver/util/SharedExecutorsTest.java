@@ -0,0 +1,48 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+
+public class SharedExecutorsTest {
+
+    @Test
+    public void testSharedPools() throws Exception {
+        SharedExecutors executors = new SharedExecutors();
+        try {
+            FutureTask<String> task = new FutureTask<>(() -> Thread.currentThread().getName());
+            executors.submit("test-pool", 2, task);
+            assertTrue(task.get().startsWith("test-pool-"));
+
+            // same name, same pool
+            ThreadPoolExecutor pool = executors.getPool("test-pool", 2);
+            assertSame(pool, executors.getPool("test-pool", 4));
+            assertNotSame(pool, executors.getPool("other-pool", 2));
+        } finally {
+            executors.destroy();
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        SharedExecutors executors = new SharedExecutors();
+        ThreadPoolExecutor pool = executors.getPool("test-pool", 2);
+        executors.destroy();
+        assertTrue(pool.isShutdown());
+
+        // once shut down the tasks run in the calling thread
+        FutureTask<String> task = new FutureTask<>(() -> Thread.currentThread().getName());
+        executors.submit("test-pool", 2, task);
+        assertEquals(Thread.currentThread().getName(), task.get());
+    }
+}
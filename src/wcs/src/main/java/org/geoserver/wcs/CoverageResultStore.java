@@ -0,0 +1,882 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.DirectInvocationService;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.LocalPublished;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+
+/**
+ * Spools the responses of GetCoverage requests to files in the data directory, so that
+ * repeated or resumed downloads of the same extract can be served from the file, honoring HTTP
+ * range requests, instead of reading and encoding the coverage again.
+ * <p>
+ * The store is opt-in, enabled by the {@link #RESULT_STORE} WCS metadata flag. Only GET
+ * requests are stored, keyed by their parameters, the local workspace or layer, and the name
+ * and roles of the requesting user. Entries expire after {@link #RESULT_STORE_TIMEOUT} seconds,
+ * and are dropped when coverages, their stores or layers, the data access rules, or the WCS
+ * configuration change.
+ * </p>
+ * <p>
+ * Each instance spools to its own directory, as the data directory might be shared among the
+ * nodes of a cluster. The directory is removed on shutdown.
+ * </p>
+ * <p>
+ * Responses carry an <code>ETag</code> and <code>Accept-Ranges: bytes</code>. Stored results
+ * are served honoring single <code>Range</code> requests, <code>If-Range</code> and
+ * <code>If-None-Match</code>. A <code>X-Cache</code> header reports either <code>HIT</code> or
+ * <code>MISS</code>.
+ * </p>
+ */
+public class CoverageResultStore extends AbstractDispatcherCallback implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(CoverageResultStore.class);
+
+    /**
+     * WCS metadata flag enabling the result store
+     */
+    public static final String RESULT_STORE = "resultStore";
+
+    /**
+     * WCS metadata key for the time in seconds the results are kept for
+     */
+    public static final String RESULT_STORE_TIMEOUT = "resultStoreTimeout";
+
+    static final int DEFAULT_TIMEOUT = 3600;
+
+    /**
+     * Response header reporting store hits and misses
+     */
+    public static final String CACHE_HEADER = "X-Cache";
+
+    /**
+     * Maximum size in bytes of the stored results, responses larger than that are not stored
+     */
+    static final long STORE_SIZE = Long.getLong("org.geoserver.wcs.resultStoreSize",
+            16L * 1024 * 1024 * 1024);
+
+    /**
+     * The storable GetCoverage being executed by the current thread, on a miss
+     */
+    static final ThreadLocal<PendingResult> PENDING = new ThreadLocal<>();
+
+    /**
+     * The stored result being served by the current thread, on a hit
+     */
+    static final ThreadLocal<StoredResult> HIT = new ThreadLocal<>();
+
+    /**
+     * Result directories not modified for this long are left over by instances that did not
+     * shut down cleanly, and are removed
+     */
+    static final long STALE_AGE = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * A stored GetCoverage response. It doubles as the service answering hits, returning itself
+     * as the operation result, which is then encoded by
+     * {@link org.geoserver.wcs.responses.StoredResultResponse}.
+     * <p>
+     * The file is reference counted, it is deleted once the result has been dropped from the
+     * store and the hits being served have released it.
+     * </p>
+     */
+    public static final class StoredResult implements DirectInvocationService {
+
+        final File file;
+
+        final String etag;
+
+        final String mimeType;
+
+        final String[][] headers;
+
+        final String disposition;
+
+        final String fileName;
+
+        /**
+         * One reference held by the store, plus one for each hit being served
+         */
+        final AtomicInteger references = new AtomicInteger(1);
+
+        StoredResult(File file, String etag, String mimeType, String[][] headers,
+                String disposition, String fileName) {
+            this.file = file;
+            this.etag = etag;
+            this.mimeType = mimeType;
+            this.headers = headers;
+            this.disposition = disposition;
+            this.fileName = fileName;
+        }
+
+        /**
+         * Acquires a reference to the file, returns false if it has been released already
+         */
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count <= 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * Releases a reference to the file, deleting it if it was the last one
+         */
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                file.delete();
+            }
+        }
+
+        @Override
+        public Object invokeDirect(String operationName, Object[] parameters) {
+            return this;
+        }
+
+        /**
+         * Writes out the given byte range of the result
+         */
+        public void write(OutputStream output, long start, long length) throws IOException {
+            transfer(file, output, start, length);
+        }
+
+        public long getLength() {
+            return file.length();
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String[][] getHeaders() {
+            return headers;
+        }
+
+        public String getDisposition() {
+            return disposition;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+    }
+
+    /**
+     * The key of a GetCoverage whose result is not stored yet
+     */
+    static final class PendingResult {
+
+        final String key;
+
+        final String etag;
+
+        final long generation;
+
+        PendingResult(String key, String etag, long generation) {
+            this.key = key;
+            this.etag = etag;
+            this.generation = generation;
+        }
+    }
+
+    GeoServer geoServer;
+
+    volatile Cache<String, StoredResult> results;
+
+    /**
+     * The time in seconds the results are kept for, the cache is rebuilt when it changes
+     */
+    int timeout = DEFAULT_TIMEOUT;
+
+    File directory;
+
+    /**
+     * Incremented on each invalidation, results computed across it are not stored
+     */
+    AtomicLong generation = new AtomicLong();
+
+    /**
+     * The last modification time of the data access rules the stored results were computed with
+     */
+    long rulesModified;
+
+    public CoverageResultStore(GeoServer geoServer) {
+        this.geoServer = geoServer;
+        this.results = buildCache(timeout);
+        geoServer.getCatalog().addListener(new ResultStoreCatalogListener());
+        geoServer.addListener(new ConfigurationListenerAdapter() {
+            @Override
+            public void handlePostGlobalChange(GeoServerInfo global) {
+                invalidate();
+            }
+
+            @Override
+            public void handleSettingsPostModified(SettingsInfo settings) {
+                invalidate();
+            }
+
+            @Override
+            public void handlePostServiceChange(ServiceInfo service) {
+                if (service instanceof WCSInfo) {
+                    invalidate();
+                }
+            }
+
+            @Override
+            public void reloaded() {
+                invalidate();
+            }
+        });
+    }
+
+    Cache<String, StoredResult> buildCache(int timeout) {
+        // weights in KB, files can be larger than 2GB. A single segment, as the weight limit is
+        // split among the segments, and a result could then only take a fraction of it
+        return CacheBuilder.newBuilder().concurrencyLevel(1).maximumWeight(STORE_SIZE / 1024)
+                .<String, StoredResult> weigher(
+                        (k, v) -> (int) Math.min(Integer.MAX_VALUE, v.file.length() / 1024))
+                .expireAfterWrite(timeout, TimeUnit.SECONDS)
+                .removalListener((RemovalListener<String, StoredResult>) n -> n.getValue()
+                        .release())
+                .build();
+    }
+
+    /**
+     * Returns the stored results, rebuilding the cache if the timeout changed
+     */
+    synchronized Cache<String, StoredResult> getResults(int timeout) {
+        if (timeout != this.timeout) {
+            Cache<String, StoredResult> old = results;
+            generation.incrementAndGet();
+            this.results = buildCache(timeout);
+            this.timeout = timeout;
+            old.invalidateAll();
+        }
+        return results;
+    }
+
+    /**
+     * Drops the stored results if the data access rules changed since they were computed, the
+     * user name and roles in the key do not account for that
+     */
+    void checkAccessRules() {
+        DataAccessRuleDAO dao = DataAccessRuleDAO.get();
+        if (dao == null) {
+            return;
+        }
+        // reloads layers.properties if modified on disk
+        dao.getRules();
+        long modified = dao.getLastModified();
+        synchronized (this) {
+            if (modified != rulesModified) {
+                rulesModified = modified;
+                invalidate();
+            }
+        }
+    }
+
+    /**
+     * The directory holding the stored results of this instance, created on first use along
+     * with the removal of the directories left over by instances that did not shut down
+     */
+    synchronized File getDirectory() throws IOException {
+        if (directory == null) {
+            File parent = geoServer.getCatalog().getResourceLoader()
+                    .findOrCreateDirectory("temp", "wcs-results");
+            File[] children = parent.listFiles();
+            if (children != null) {
+                long stale = System.currentTimeMillis() - STALE_AGE;
+                for (File child : children) {
+                    if (child.lastModified() < stale) {
+                        FileUtils.deleteQuietly(child);
+                    }
+                }
+            }
+            directory = Files.createTempDirectory(parent.toPath(), "results").toFile();
+        } else if (!directory.isDirectory()) {
+            // removed as stale by another node after a long idle time
+            directory.mkdirs();
+        }
+        return directory;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        invalidate();
+        synchronized (this) {
+            if (directory != null) {
+                FileUtils.deleteQuietly(directory);
+                directory = null;
+            }
+        }
+    }
+
+    @Override
+    public Operation operationDispatched(Request request, Operation operation) {
+        PENDING.remove();
+        releaseHit();
+        Service service = operation.getService();
+        if (!"GetCoverage".equalsIgnoreCase(operation.getId()) || service == null
+                || !"wcs".equalsIgnoreCase(service.getId()) || request.isSOAP()
+                || request.getHttpRequest() == null
+                || !"GET".equalsIgnoreCase(request.getHttpRequest().getMethod())
+                || request.getRawKvp() == null) {
+            return operation;
+        }
+        WCSInfo wcs = geoServer.getService(WCSInfo.class);
+        if (wcs == null
+                || !Boolean.TRUE.equals(wcs.getMetadata().get(RESULT_STORE, Boolean.class))) {
+            return operation;
+        }
+        Integer timeout = wcs.getMetadata().get(RESULT_STORE_TIMEOUT, Integer.class);
+        if (timeout == null) {
+            timeout = DEFAULT_TIMEOUT;
+        } else if (timeout <= 0) {
+            return operation;
+        }
+
+        checkAccessRules();
+
+        Cache<String, StoredResult> results = getResults(timeout);
+        String key = getKey(request);
+        StoredResult stored = results.getIfPresent(key);
+        if (stored != null && stored.file.exists() && stored.retain()) {
+            // answer with the stored result instead of running the request, the file is
+            // released once the request is finished
+            HIT.set(stored);
+            Service storedService = new Service(service.getId(), service.getNamespace(), stored,
+                    service.getVersion(), service.getOperations());
+            return new Operation(operation.getId(), storedService, operation.getMethod(),
+                    operation.getParameters());
+        } else if (stored != null) {
+            results.asMap().remove(key, stored);
+        }
+        String etag = key + "-" + Long.toHexString(System.currentTimeMillis());
+        PENDING.set(new PendingResult(key, etag, generation.get()));
+        return operation;
+    }
+
+    /**
+     * Digests the request parameters, the local workspace and layer, the service version and
+     * the current user, as they all concur in determining the response
+     */
+    String getKey(Request request) {
+        List<Object> key = new ArrayList<>();
+        Map<String, Object> kvp = new TreeMap<>();
+        for (Object entry : request.getRawKvp().entrySet()) {
+            Map.Entry e = (Map.Entry) entry;
+            kvp.put(String.valueOf(e.getKey()).toUpperCase(), e.getValue());
+        }
+        key.add(kvp);
+        key.add(request.getPath());
+        WorkspaceInfo workspace = LocalWorkspace.get();
+        key.add(workspace == null ? null : workspace.getName());
+        if (LocalPublished.get() != null) {
+            key.add(LocalPublished.get().getName());
+        }
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        if (user != null) {
+            key.add(user.getName());
+            TreeSet<String> roles = new TreeSet<>();
+            for (GrantedAuthority authority : user.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            key.add(roles);
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        PendingResult pending = PENDING.get();
+        if (pending == null) {
+            return response;
+        }
+        PENDING.remove();
+        return new StoringResponse(response, pending);
+    }
+
+    @Override
+    public void finished(Request request) {
+        PENDING.remove();
+        releaseHit();
+    }
+
+    void releaseHit() {
+        StoredResult hit = HIT.get();
+        if (hit != null) {
+            HIT.remove();
+            hit.release();
+        }
+    }
+
+    void put(PendingResult pending, StoredResult result) {
+        // don't store results that might have been computed across an invalidation
+        if (generation.get() == pending.generation) {
+            results.put(pending.key, result);
+        } else {
+            result.release();
+        }
+    }
+
+    /**
+     * Returns the number of stored results
+     */
+    public long size() {
+        results.cleanUp();
+        return results.size();
+    }
+
+    /**
+     * Drops all the stored results
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        results.invalidateAll();
+    }
+
+    /**
+     * Invalidates the stored results on catalog changes
+     */
+    class ResultStoreCatalogListener implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) {
+            // new coverages cannot be part of stored results
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) {
+            handle(event.getSource());
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) {
+            // wait for the post modify event
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+            handle(event.getSource());
+        }
+
+        void handle(CatalogInfo source) {
+            if (source instanceof CoverageInfo || source instanceof CoverageStoreInfo
+                    || source instanceof LayerInfo || source instanceof NamespaceInfo
+                    || source instanceof WorkspaceInfo) {
+                invalidate();
+            }
+        }
+
+        public void reloaded() {
+            invalidate();
+        }
+    }
+
+    /**
+     * Adds the {@link #CACHE_HEADER}, the <code>ETag</code> and <code>Accept-Ranges</code>
+     * headers to the given ones
+     */
+    public static String[][] addHeaders(String[][] headers, String etag, String cache) {
+        int length = headers == null ? 0 : headers.length;
+        String[][] result = new String[length + 3][];
+        if (headers != null) {
+            System.arraycopy(headers, 0, result, 0, length);
+        }
+        result[length] = new String[] { CACHE_HEADER, cache };
+        result[length + 1] = new String[] { "ETag", "\"" + etag + "\"" };
+        result[length + 2] = new String[] { "Accept-Ranges", "bytes" };
+        return result;
+    }
+
+    /**
+     * Returns true if the header value, e.g. <code>If-Range</code> or <code>If-None-Match</code>,
+     * matches the given entity tag
+     */
+    public static boolean matches(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        for (String value : header.split(",")) {
+            value = value.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals("\"" + etag + "\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single byte range out of the <code>Range</code> header, returning its start and
+     * length, or null if the header is missing or not a single byte range. The start is negative
+     * if the range cannot be satisfied.
+     */
+    public static long[] getRange(HttpServletRequest request, long size, String etag) {
+        String range = request.getHeader("Range");
+        if (range == null || !range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+        if (request.getHeader("If-Range") != null
+                && !matches(request.getHeader("If-Range"), etag)) {
+            // the client copy is stale, send the whole result
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start, end;
+            if (first.isEmpty()) {
+                // suffix range, the last n bytes
+                long suffix = Long.parseLong(last);
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+                if (suffix == 0) {
+                    return new long[] { -1, 0 };
+                }
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            }
+            if (start >= size || end < start) {
+                return new long[] { -1, 0 };
+            }
+            return new long[] { start, end - start + 1 };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds the <code>Content-Range</code> and <code>Content-Length</code> headers answering the
+     * range requested by the current request, if any, to the given ones
+     */
+    public static String[][] addRangeHeaders(String[][] headers, long size, String etag) {
+        Request request = Dispatcher.REQUEST.get();
+        if (request == null || request.getHttpRequest() == null) {
+            return headers;
+        }
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        if (matches(httpRequest.getHeader("If-None-Match"), etag)) {
+            return headers;
+        }
+        long[] range = getRange(httpRequest, size, etag);
+        if (range == null) {
+            return headers;
+        } else if (range[0] < 0) {
+            return appendHeader(headers, "Content-Range", "bytes */" + size);
+        }
+        headers = appendHeader(headers, "Content-Range",
+                "bytes " + range[0] + "-" + (range[0] + range[1] - 1) + "/" + size);
+        return appendHeader(headers, "Content-Length", String.valueOf(range[1]));
+    }
+
+    static String[][] appendHeader(String[][] headers, String name, String value) {
+        int length = headers == null ? 0 : headers.length;
+        String[][] result = new String[length + 1][];
+        if (headers != null) {
+            System.arraycopy(headers, 0, result, 0, length);
+        }
+        result[length] = new String[] { name, value };
+        return result;
+    }
+
+    /**
+     * Sets the status of the current response according to the conditional and range headers
+     * of the request, returning the start and length of the bytes to write out, or null if
+     * there is no content to write. Meant to be called before writing out the response.
+     */
+    public static long[] setRangeStatus(long size, String etag) {
+        Request request = Dispatcher.REQUEST.get();
+        if (request == null || request.getHttpRequest() == null) {
+            return new long[] { 0, size };
+        }
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        HttpServletResponse httpResponse = request.getHttpResponse();
+        if (matches(httpRequest.getHeader("If-None-Match"), etag)) {
+            httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return null;
+        }
+        long[] range = getRange(httpRequest, size, etag);
+        if (range == null) {
+            return new long[] { 0, size };
+        } else if (range[0] < 0) {
+            httpResponse.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return null;
+        }
+        httpResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        return range;
+    }
+
+    /**
+     * Copies the given byte range of the file to the output, with a zero copy transfer when
+     * the output allows it
+     */
+    public static void transfer(File file, OutputStream output, long start, long length)
+            throws IOException {
+        try (FileInputStream fis = new FileInputStream(file);
+                FileChannel channel = fis.getChannel()) {
+            WritableByteChannel target = Channels.newChannel(output);
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * Wraps the response of a miss, spooling the encoded result to the store while it's
+     * written out
+     */
+    class StoringResponse extends Response {
+
+        final Response delegate;
+
+        final PendingResult pending;
+
+        StoringResponse(Response delegate, PendingResult pending) {
+            super(delegate.getBinding(), delegate.getOutputFormats());
+            this.delegate = delegate;
+            this.pending = pending;
+        }
+
+        @Override
+        public boolean canHandle(Operation operation) {
+            return delegate.canHandle(operation);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return delegate.getMimeType(value, operation);
+        }
+
+        @Override
+        public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+            return addHeaders(delegate.getHeaders(value, operation), pending.etag, "MISS");
+        }
+
+        @Override
+        public String getPreferredDisposition(Object value, Operation operation) {
+            return delegate.getPreferredDisposition(value, operation);
+        }
+
+        @Override
+        public String getAttachmentFileName(Object value, Operation operation) {
+            return delegate.getAttachmentFileName(value, operation);
+        }
+
+        @Override
+        public String getCharset(Operation operation) {
+            return delegate.getCharset(operation);
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            File file = null;
+            OutputStream spool = null;
+            try {
+                file = new File(getDirectory(), pending.etag);
+                spool = new FileOutputStream(file);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not spool the GetCoverage result", e);
+                delegate.write(value, output, operation);
+                return;
+            }
+
+            SpoolingOutputStream copy = new SpoolingOutputStream(output, spool, STORE_SIZE);
+            boolean written = false;
+            try {
+                delegate.write(value, copy, operation);
+                written = true;
+            } finally {
+                // closing the spool can fail too, check for failures once closed
+                copy.close();
+                if (written && !copy.failed) {
+                    put(pending, new StoredResult(file, pending.etag,
+                            delegate.getMimeType(value, operation),
+                            delegate.getHeaders(value, operation),
+                            delegate.getPreferredDisposition(value, operation),
+                            delegate.getAttachmentFileName(value, operation)));
+                } else {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the bytes written to the wrapped stream into the spool file. Failures writing the
+     * spool file do not affect the response, the result just won't be stored. Spooling stops
+     * once the result grows past the given limit, as it could not be stored anyways.
+     */
+    static class SpoolingOutputStream extends OutputStream {
+
+        final OutputStream delegate;
+
+        final OutputStream spool;
+
+        final long limit;
+
+        long written;
+
+        boolean failed;
+
+        SpoolingOutputStream(OutputStream delegate, OutputStream spool, long limit) {
+            this.delegate = delegate;
+            this.spool = spool;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            if (!failed && checkLimit(1)) {
+                try {
+                    spool.write(b);
+                } catch (IOException e) {
+                    spoolFailed(e);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            if (!failed && checkLimit(len)) {
+                try {
+                    spool.write(b, off, len);
+                } catch (IOException e) {
+                    spoolFailed(e);
+                }
+            }
+        }
+
+        boolean checkLimit(int length) {
+            written += length;
+            if (written > limit) {
+                LOGGER.fine("The GetCoverage result is larger than the store, not storing it");
+                failed = true;
+                try {
+                    // free the disk space right away
+                    spool.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close the spool file", e);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        void spoolFailed(IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to spool the GetCoverage result", e);
+            failed = true;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        /**
+         * Closes the spool file only, the response stream is managed by the dispatcher
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                spool.close();
+            } catch (IOException e) {
+                spoolFailed(e);
+            }
+        }
+    }
+}
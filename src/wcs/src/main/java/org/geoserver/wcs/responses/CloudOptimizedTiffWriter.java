@@ -0,0 +1,366 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assembles a full resolution TIFF and its overviews, each one written as a separate single
+ * image TIFF file, into a cloud optimized TIFF: all the image directories are placed right after
+ * the header, followed by the tile data, starting from the lowest resolution overview and
+ * ending with the full resolution image. A client can thus find out about the whole file
+ * structure reading its beginning, and then fetch only the tiles it needs with HTTP range
+ * requests.
+ * <p>
+ * Only classic TIFF files are supported, the directories are copied as-is, but for the tile
+ * offsets and the overviews subfile type.
+ * </p>
+ */
+class CloudOptimizedTiffWriter {
+
+    static final int TAG_NEW_SUBFILE_TYPE = 254;
+
+    static final int TAG_STRIP_OFFSETS = 273;
+
+    static final int TAG_STRIP_BYTE_COUNTS = 279;
+
+    static final int TAG_TILE_OFFSETS = 324;
+
+    static final int TAG_TILE_BYTE_COUNTS = 325;
+
+    static final int TAG_SUB_IFDS = 330;
+
+    static final int TAG_EXIF_IFD = 34665;
+
+    static final int TAG_GPS_IFD = 34853;
+
+    static final int TYPE_SHORT = 3;
+
+    static final int TYPE_LONG = 4;
+
+    /**
+     * Sizes of the TIFF field types, indexed by type
+     */
+    static final int[] TYPE_SIZES = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4 };
+
+    static final long MAX_CLASSIC_TIFF_SIZE = 0xFFFFFFFFL;
+
+    /**
+     * Thrown when the files cannot be assembled into a classic TIFF
+     */
+    static class UnsupportedTiffException extends IOException {
+        private static final long serialVersionUID = 6002487712960806226L;
+
+        public UnsupportedTiffException(String message) {
+            super(message);
+        }
+    }
+
+    static class Entry {
+        int tag;
+
+        int type;
+
+        long count;
+
+        byte[] value;
+
+        /**
+         * Position of the value in the output, if it does not fit in the entry
+         */
+        long valueOffset;
+
+        int size() {
+            return (int) (TYPE_SIZES[type] * count);
+        }
+    }
+
+    static class Directory {
+        File file;
+
+        List<Entry> entries = new ArrayList<>();
+
+        long[] offsets;
+
+        long[] byteCounts;
+
+        /**
+         * The new tile offsets, in the output
+         */
+        long[] targetOffsets;
+
+        long position;
+
+        int size() {
+            return 2 + 12 * entries.size() + 4;
+        }
+    }
+
+    final List<Directory> directories = new ArrayList<>();
+
+    ByteOrder order;
+
+    /**
+     * Where the image data starts, after the header and directories
+     */
+    long dataOffset;
+
+    /**
+     * @param image The full resolution image
+     * @param overviews The overviews, in decreasing resolution order
+     * @throws IOException
+     */
+    CloudOptimizedTiffWriter(File image, List<File> overviews) throws IOException {
+        directories.add(readDirectory(image));
+        for (File overview : overviews) {
+            Directory directory = readDirectory(overview);
+            setReducedResolution(directory);
+            directories.add(directory);
+        }
+        computeLayout();
+    }
+
+    Directory readDirectory(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] header = new byte[8];
+            raf.readFully(header);
+            ByteOrder fileOrder;
+            if (header[0] == 'I' && header[1] == 'I') {
+                fileOrder = ByteOrder.LITTLE_ENDIAN;
+            } else if (header[0] == 'M' && header[1] == 'M') {
+                fileOrder = ByteOrder.BIG_ENDIAN;
+            } else {
+                throw new UnsupportedTiffException(file + " is not a TIFF file");
+            }
+            ByteBuffer hb = ByteBuffer.wrap(header).order(fileOrder);
+            if (hb.getShort(2) != 42) {
+                throw new UnsupportedTiffException(file + " is not a classic TIFF file");
+            }
+            if (order == null) {
+                order = fileOrder;
+            }
+
+            Directory directory = new Directory();
+            directory.file = file;
+            raf.seek(hb.getInt(4) & 0xFFFFFFFFL);
+            byte[] countBytes = new byte[2];
+            raf.readFully(countBytes);
+            int count = ByteBuffer.wrap(countBytes).order(fileOrder).getShort() & 0xFFFF;
+            byte[] entriesBytes = new byte[count * 12];
+            raf.readFully(entriesBytes);
+            ByteBuffer eb = ByteBuffer.wrap(entriesBytes).order(fileOrder);
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry();
+                entry.tag = eb.getShort() & 0xFFFF;
+                entry.type = eb.getShort() & 0xFFFF;
+                entry.count = eb.getInt() & 0xFFFFFFFFL;
+                if (entry.type <= 0 || entry.type >= TYPE_SIZES.length || entry.type == 13
+                        || entry.tag == TAG_SUB_IFDS || entry.tag == TAG_EXIF_IFD
+                        || entry.tag == TAG_GPS_IFD) {
+                    throw new UnsupportedTiffException("Unsupported field type " + entry.type
+                            + " for tag " + entry.tag + " in " + file);
+                }
+                entry.value = new byte[entry.size()];
+                if (entry.value.length <= 4) {
+                    eb.get(entry.value);
+                    eb.position(eb.position() + 4 - entry.value.length);
+                } else {
+                    long offset = eb.getInt() & 0xFFFFFFFFL;
+                    long current = raf.getFilePointer();
+                    raf.seek(offset);
+                    raf.readFully(entry.value);
+                    raf.seek(current);
+                }
+                if (fileOrder != order) {
+                    swap(entry);
+                }
+                directory.entries.add(entry);
+
+                if (entry.tag == TAG_TILE_OFFSETS || entry.tag == TAG_STRIP_OFFSETS) {
+                    directory.offsets = toLongs(entry);
+                } else if (entry.tag == TAG_TILE_BYTE_COUNTS || entry.tag == TAG_STRIP_BYTE_COUNTS) {
+                    directory.byteCounts = toLongs(entry);
+                }
+            }
+            if (directory.offsets == null || directory.byteCounts == null
+                    || directory.offsets.length != directory.byteCounts.length) {
+                throw new UnsupportedTiffException("Could not find the image data in " + file);
+            }
+            return directory;
+        }
+    }
+
+    /**
+     * Swaps the bytes of each value, rationals are made of two separate integers
+     */
+    void swap(Entry entry) {
+        int unit = (entry.type == 5 || entry.type == 10) ? 4 : TYPE_SIZES[entry.type];
+        byte[] value = entry.value;
+        for (int i = 0; i + unit <= value.length; i += unit) {
+            for (int j = 0; j < unit / 2; j++) {
+                byte b = value[i + j];
+                value[i + j] = value[i + unit - 1 - j];
+                value[i + unit - 1 - j] = b;
+            }
+        }
+    }
+
+    long[] toLongs(Entry entry) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(entry.value).order(order);
+        long[] result = new long[(int) entry.count];
+        for (int i = 0; i < result.length; i++) {
+            if (entry.type == TYPE_SHORT) {
+                result[i] = bb.getShort() & 0xFFFF;
+            } else if (entry.type == TYPE_LONG) {
+                result[i] = bb.getInt() & 0xFFFFFFFFL;
+            } else {
+                throw new UnsupportedTiffException("Unexpected type " + entry.type
+                        + " for tag " + entry.tag);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Marks the directory as an overview of the full resolution image
+     */
+    void setReducedResolution(Directory directory) {
+        Entry subfileType = null;
+        for (Entry entry : directory.entries) {
+            if (entry.tag == TAG_NEW_SUBFILE_TYPE) {
+                subfileType = entry;
+            }
+        }
+        if (subfileType == null) {
+            subfileType = new Entry();
+            subfileType.tag = TAG_NEW_SUBFILE_TYPE;
+            // it's the lowest tag number in the baseline set, entries are sorted by tag
+            directory.entries.add(0, subfileType);
+        }
+        subfileType.type = TYPE_LONG;
+        subfileType.count = 1;
+        subfileType.value = ByteBuffer.allocate(4).order(order).putInt(1).array();
+    }
+
+    /**
+     * Places the directories and their values at the beginning of the file, and the image data
+     * after them, from the lowest resolution overview to the full resolution image
+     */
+    void computeLayout() throws IOException {
+        long position = 8;
+        for (Directory directory : directories) {
+            for (Entry entry : directory.entries) {
+                if (entry.tag == TAG_TILE_OFFSETS || entry.tag == TAG_STRIP_OFFSETS) {
+                    // offsets are going to change, make sure they can all be represented
+                    entry.type = TYPE_LONG;
+                    entry.count = directory.offsets.length;
+                    entry.value = new byte[entry.size()];
+                }
+            }
+            directory.position = position;
+            position += directory.size();
+            for (Entry entry : directory.entries) {
+                if (entry.size() > 4) {
+                    entry.valueOffset = position;
+                    position += entry.size();
+                    // values start on a word boundary
+                    position += position % 2;
+                }
+            }
+        }
+
+        dataOffset = position;
+        for (int i = directories.size() - 1; i >= 0; i--) {
+            Directory directory = directories.get(i);
+            directory.targetOffsets = new long[directory.offsets.length];
+            for (int j = 0; j < directory.offsets.length; j++) {
+                if (directory.byteCounts[j] > 0) {
+                    directory.targetOffsets[j] = position;
+                    position += directory.byteCounts[j];
+                }
+            }
+        }
+        if (position > MAX_CLASSIC_TIFF_SIZE) {
+            throw new UnsupportedTiffException(
+                    "Output would be too large for a classic TIFF: " + position + " bytes");
+        }
+
+        for (Directory directory : directories) {
+            for (Entry entry : directory.entries) {
+                if (entry.tag == TAG_TILE_OFFSETS || entry.tag == TAG_STRIP_OFFSETS) {
+                    ByteBuffer bb = ByteBuffer.wrap(entry.value).order(order);
+                    for (long offset : directory.targetOffsets) {
+                        bb.putInt((int) offset);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes out the cloud optimized TIFF
+     */
+    void write(OutputStream output) throws IOException {
+        // header and directories
+        ByteBuffer bb = ByteBuffer.allocate((int) dataOffset).order(order);
+        bb.put((byte) (order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M'));
+        bb.put((byte) (order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M'));
+        bb.putShort((short) 42);
+        bb.putInt((int) directories.get(0).position);
+        for (int i = 0; i < directories.size(); i++) {
+            Directory directory = directories.get(i);
+            bb.position((int) directory.position);
+            bb.putShort((short) directory.entries.size());
+            for (Entry entry : directory.entries) {
+                bb.putShort((short) entry.tag);
+                bb.putShort((short) entry.type);
+                bb.putInt((int) entry.count);
+                if (entry.value.length <= 4) {
+                    bb.put(entry.value);
+                    bb.position(bb.position() + 4 - entry.value.length);
+                } else {
+                    bb.putInt((int) entry.valueOffset);
+                }
+            }
+            long next = i < directories.size() - 1 ? directories.get(i + 1).position : 0;
+            bb.putInt((int) next);
+            for (Entry entry : directory.entries) {
+                if (entry.value.length > 4) {
+                    bb.position((int) entry.valueOffset);
+                    bb.put(entry.value);
+                }
+            }
+        }
+        output.write(bb.array());
+
+        // image data, lower resolutions first
+        byte[] buffer = new byte[64 * 1024];
+        for (int i = directories.size() - 1; i >= 0; i--) {
+            Directory directory = directories.get(i);
+            try (RandomAccessFile raf = new RandomAccessFile(directory.file, "r")) {
+                for (int j = 0; j < directory.offsets.length; j++) {
+                    long remaining = directory.byteCounts[j];
+                    raf.seek(directory.offsets[j]);
+                    while (remaining > 0) {
+                        int read = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (read < 0) {
+                            throw new IOException("Unexpected end of file reading the image "
+                                    + "data from " + directory.file);
+                        }
+                        output.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -96,6 +96,11 @@ public class GeoTIFFCoverageResponseDelegate extends BaseCoverageResponseDelegat
         // interleaving
         handleInterleaving(econdingParameters, sourceCoverage, writerHelper);
 
+        // cloud optimized layout, after tiling as it might need to adjust it
+        if (Boolean.valueOf(econdingParameters.get("cog"))) {
+            writerHelper.setCloudOptimized(true);
+        }
+
         if(geoserver.getService(WCSInfo.class).isLatLon()){
             final ParameterValueGroup gp = writerHelper.getGeotoolsWriteParams();
             gp.parameter(GeoTiffFormat.RETAIN_AXES_ORDER.getName().toString()).setValue(true);
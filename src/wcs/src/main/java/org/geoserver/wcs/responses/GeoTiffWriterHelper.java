@@ -8,12 +8,28 @@ import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import javax.media.jai.Interpolation;
 import javax.media.jai.OpImage;
 import javax.media.jai.RenderedOp;
 
 import org.apache.commons.io.FileUtils;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.util.SharedExecutors;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridCoverageWriter;
@@ -25,6 +41,7 @@ import org.geotools.gce.geotiff.GeoTiffWriteParams;
 import org.geotools.geometry.GeneralEnvelope;
 import org.geotools.image.ImageWorker;
 import org.geotools.resources.image.ImageUtilities;
+import org.geotools.util.logging.Logging;
 import org.opengis.coverage.grid.GridEnvelope;
 import org.opengis.geometry.Envelope;
 import org.opengis.parameter.GeneralParameterValue;
@@ -32,6 +49,8 @@ import org.opengis.parameter.ParameterValueGroup;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.crs.EngineeringCRS;
 
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriterSpi;
+
 /**
  * Support class setting up reasonable defaults on the write parameters and centralizing the write code and associated optimizations
  *
@@ -41,6 +60,23 @@ public class GeoTiffWriterHelper {
 
     private final static GeoTiffFormat TIFF_FORMAT = new GeoTiffFormat();
 
+    private final static ImageWriterSpi TIFF_WRITER_SPI = new TIFFImageWriterSpi();
+
+    private static final Logger LOGGER = Logging.getLogger(GeoTiffWriterHelper.class);
+
+    /**
+     * Tile size used for cloud optimized output, when the requested or native one is not usable
+     */
+    static final int COG_TILE_SIZE = 256;
+
+    static final int OVERVIEW_THREADS = Integer.getInteger(
+            "org.geoserver.wcs.cogOverviewThreads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Name of the shared pool computing and encoding the overviews of cloud optimized output
+     */
+    static final String OVERVIEW_POOL = "cog-overview";
+
     private GridCoverage2D coverage;
 
     private File sourceFile;
@@ -49,6 +85,8 @@ public class GeoTiffWriterHelper {
 
     private ParameterValueGroup geotoolsWriteParams;
 
+    private boolean cloudOptimized;
+
     public GeoTiffWriterHelper(GridCoverage2D coverage) throws IOException {
         this.coverage = coverage;
 
@@ -151,46 +189,188 @@ public class GeoTiffWriterHelper {
         this.sourceFile = null;
     }
 
+    /**
+     * Enables writing a cloud optimized GeoTIFF: the image is tiled, overviews are computed
+     * and written along with it, and the image directories are placed at the beginning of the
+     * file, followed by the tile data, lower resolutions first. This allows clients to extract
+     * portions of the image, at the resolution they need, using HTTP range requests.
+     */
+    public void setCloudOptimized(boolean cloudOptimized) {
+        this.cloudOptimized = cloudOptimized;
+        if (cloudOptimized) {
+            disableSourceCopyOptimization();
+            // the TIFF spec wants tile sizes to be multiples of 16
+            if (imageIoWriteParams.getTilingMode() != GeoToolsWriteParams.MODE_EXPLICIT
+                    || imageIoWriteParams.getTileWidth() % 16 != 0
+                    || imageIoWriteParams.getTileHeight() % 16 != 0) {
+                imageIoWriteParams.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
+                imageIoWriteParams.setTiling(COG_TILE_SIZE, COG_TILE_SIZE);
+            }
+        }
+    }
+
+    public boolean isCloudOptimized() {
+        return cloudOptimized;
+    }
+
     public void write(OutputStream stream) throws IOException {
         if(sourceFile != null) {
             FileUtils.copyFile(sourceFile, stream);
+        } else if (cloudOptimized) {
+            writeCloudOptimized(stream);
         } else {
-            CoordinateReferenceSystem crs = coverage.getCoordinateReferenceSystem();
-            boolean unreferenced = crs == null || crs instanceof EngineeringCRS;
-            
-            if(unreferenced) {
-                RenderedImage ri = coverage.getRenderedImage();
-                int tileWidth, tileHeight;
-                if(imageIoWriteParams.getTilingMode() == GeoToolsWriteParams.MODE_EXPLICIT) {
-                    tileWidth = imageIoWriteParams.getTileWidth();
-                    tileHeight = imageIoWriteParams.getTileHeight();
-                } else {
-                    tileWidth = ri.getTileWidth();
-                    tileHeight = ri.getTileHeight();
-                }
-                 
-                new ImageWorker(ri).writeTIFF(stream, null, 0.75f, tileWidth, tileHeight);
+            writeCoverage(stream);
+        } 
+    }
+
+    /**
+     * Writes the coverage as a plain GeoTIFF
+     * @param destination a stream or a file 
+     */
+    private void writeCoverage(Object destination) throws IOException {
+        CoordinateReferenceSystem crs = coverage.getCoordinateReferenceSystem();
+        boolean unreferenced = crs == null || crs instanceof EngineeringCRS;
+        
+        if(unreferenced) {
+            RenderedImage ri = coverage.getRenderedImage();
+            int tileWidth, tileHeight;
+            if(imageIoWriteParams.getTilingMode() == GeoToolsWriteParams.MODE_EXPLICIT) {
+                tileWidth = imageIoWriteParams.getTileWidth();
+                tileHeight = imageIoWriteParams.getTileHeight();
             } else {
-                final GeneralParameterValue[] wps = (GeneralParameterValue[]) geotoolsWriteParams.values()
-                        .toArray(new GeneralParameterValue[geotoolsWriteParams.values().size()]);
+                tileWidth = ri.getTileWidth();
+                tileHeight = ri.getTileHeight();
+            }
+             
+            new ImageWorker(ri).writeTIFF(destination, null, 0.75f, tileWidth, tileHeight);
+        } else {
+            final GeneralParameterValue[] wps = (GeneralParameterValue[]) geotoolsWriteParams.values()
+                    .toArray(new GeneralParameterValue[geotoolsWriteParams.values().size()]);
         
-                // write out the coverage
-                AbstractGridCoverageWriter writer = (AbstractGridCoverageWriter) TIFF_FORMAT
-                        .getWriter(stream);
-                if (writer == null)
-                    throw new ServiceException(
-                            "Could not find the GeoTIFF writer, please check it's in the classpath");
+            // write out the coverage
+            AbstractGridCoverageWriter writer = (AbstractGridCoverageWriter) TIFF_FORMAT
+                    .getWriter(destination);
+            if (writer == null)
+                throw new ServiceException(
+                        "Could not find the GeoTIFF writer, please check it's in the classpath");
+            try {
+                writer.write(coverage, wps);
+            } finally {
                 try {
-                    writer.write(coverage, wps);
-                } finally {
-                    try {
-                        writer.dispose();
-                    } catch (Exception e) {
-                        // swallow, silent close
+                    writer.dispose();
+                } catch (Exception e) {
+                    // swallow, silent close
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the coverage and its overviews in temporary files, then assembles them as a cloud
+     * optimized GeoTIFF
+     */
+    private void writeCloudOptimized(OutputStream stream) throws IOException {
+        File directory = Files.createTempDirectory("cog").toFile();
+        try {
+            File image = new File(directory, "image.tif");
+            writeCoverage(image);
+            List<File> overviews = writeOverviews(directory);
+            CloudOptimizedTiffWriter writer;
+            try {
+                writer = new CloudOptimizedTiffWriter(image, overviews);
+            } catch (CloudOptimizedTiffWriter.UnsupportedTiffException e) {
+                // e.g., BigTIFF, fall back on the plain GeoTIFF
+                LOGGER.log(Level.WARNING, "Could not write a cloud optimized GeoTIFF, "
+                        + "writing a plain GeoTIFF instead", e);
+                FileUtils.copyFile(image, stream);
+                return;
+            }
+            writer.write(stream);
+        } finally {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    /**
+     * Computes the overviews of the coverage image, halving the resolution at each level, until
+     * it fits in a single tile. The levels are independent of each other, and get computed and
+     * encoded in parallel
+     */
+    private List<File> writeOverviews(File directory) throws IOException {
+        final RenderedImage ri = coverage.getRenderedImage();
+        final int tileWidth = imageIoWriteParams.getTileWidth();
+        final int tileHeight = imageIoWriteParams.getTileHeight();
+        List<File> overviews = new ArrayList<>();
+        List<Future<File>> writes = new ArrayList<>();
+        try {
+            int width = ri.getWidth();
+            int height = ri.getHeight();
+            int factor = 1;
+            while (width > tileWidth || height > tileHeight) {
+                width = (width + 1) / 2;
+                height = (height + 1) / 2;
+                factor *= 2;
+                final float scale = 1f / factor;
+                final File file = new File(directory, "overview" + factor + ".tif");
+                FutureTask<File> write = new FutureTask<File>(() -> {
+                    RenderedImage overview = new ImageWorker(ri).scale(scale, scale, 0, 0,
+                            Interpolation.getInstance(Interpolation.INTERP_NEAREST))
+                            .getRenderedImage();
+                    writeOverview(overview, file, tileWidth, tileHeight);
+                    return file;
+                });
+                SharedExecutors.execute(OVERVIEW_POOL, OVERVIEW_THREADS, write);
+                writes.add(write);
+            }
+
+            for (Future<File> write : writes) {
+                try {
+                    overviews.add(write.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while writing the overviews", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
                     }
+                    throw new IOException(cause);
                 }
             }
-        } 
+        } finally {
+            // no need to complete the writes if we are bailing out
+            for (Future<File> write : writes) {
+                write.cancel(false);
+            }
+        }
+
+        return overviews;
+    }
+
+    private void writeOverview(RenderedImage overview, File file, int tileWidth, int tileHeight)
+            throws IOException {
+        ImageWriter writer = TIFF_WRITER_SPI.createWriterInstance();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(file)) {
+            // same compression as the full resolution image, the compressor objects
+            // are stateful and cannot be shared among writers
+            ImageWriteParam params = writer.getDefaultWriteParam();
+            params.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            params.setTiling(tileWidth, tileHeight, 0, 0);
+            if (imageIoWriteParams.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT) {
+                params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                params.setCompressionType(imageIoWriteParams.getCompressionType());
+                if (!imageIoWriteParams.isCompressionLossless()) {
+                    params.setCompressionQuality(imageIoWriteParams.getCompressionQuality());
+                }
+            }
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(overview, null, null), params);
+        } finally {
+            writer.dispose();
+            ImageUtilities.disposeImage(overview);
+        }
     }
 
     /**
@@ -0,0 +1,59 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs.responses;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wcs.CoverageResultStore;
+import org.geoserver.wcs.CoverageResultStore.StoredResult;
+
+/**
+ * Writes out a GetCoverage response found in the {@link CoverageResultStore}, honoring single
+ * byte range requests and conditional requests against its entity tag
+ */
+public class StoredResultResponse extends Response {
+
+    public StoredResultResponse() {
+        super(StoredResult.class);
+    }
+
+    @Override
+    public String getMimeType(Object value, Operation operation) throws ServiceException {
+        return ((StoredResult) value).getMimeType();
+    }
+
+    @Override
+    public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+        StoredResult result = (StoredResult) value;
+        String[][] headers = CoverageResultStore.addHeaders(result.getHeaders(),
+                result.getETag(), "HIT");
+        return CoverageResultStore.addRangeHeaders(headers, result.getLength(),
+                result.getETag());
+    }
+
+    @Override
+    public String getPreferredDisposition(Object value, Operation operation) {
+        return ((StoredResult) value).getDisposition();
+    }
+
+    @Override
+    public String getAttachmentFileName(Object value, Operation operation) {
+        return ((StoredResult) value).getFileName();
+    }
+
+    @Override
+    public void write(Object value, OutputStream output, Operation operation)
+            throws IOException, ServiceException {
+        StoredResult result = (StoredResult) value;
+        long[] range = CoverageResultStore.setRangeStatus(result.getLength(), result.getETag());
+        if (range != null) {
+            result.write(output, range[0], range[1]);
+        }
+    }
+}
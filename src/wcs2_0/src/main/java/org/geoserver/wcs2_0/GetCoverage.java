@@ -18,6 +18,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -40,7 +42,7 @@ import org.geoserver.wcs.WCSInfo;
 import org.geoserver.wcs2_0.exception.WCS20Exception;
 import org.geoserver.wcs2_0.exception.WCS20Exception.WCS20ExceptionCode;
 import org.geoserver.wcs2_0.response.DimensionBean;
-import org.geoserver.wcs2_0.response.GranuleStackImpl;
+import org.geoserver.wcs2_0.response.LazyGranuleStack;
 import org.geoserver.wcs2_0.response.MIMETypeMapper;
 import org.geoserver.wcs2_0.response.WCSDimensionsSubsetHelper;
 import org.geoserver.wcs2_0.util.EnvelopeAxesLabelsMapper;
@@ -165,6 +167,12 @@ public class GetCoverage {
 
     private static final double EPS = 1e-6;
 
+    /**
+     * WCS metadata key for the number of granules to be read ahead on a background thread while 
+     * encoding a multidimensional output, defaults to zero (granules are read as the encoder needs them)  
+     */
+    public static final String GRANULE_STACK_READ_AHEAD = "granuleStackReadAhead";
+
     public GetCoverage(WCSInfo serviceInfo, Catalog catalog, EnvelopeAxesLabelsMapper envelopeDimensionsMapper, MIMETypeMapper mimeMapper) {
         this.wcs = serviceInfo;
         this.catalog = catalog;
@@ -267,7 +275,6 @@ public class GetCoverage {
                 final List<DimensionBean> dimensions = helper.setupDimensions();
                 final String nativeName = cinfo.getNativeCoverageName();
                 final String coverageName = nativeName != null ? nativeName : reader.getGridCoverageNames()[0];
-                final GranuleStackImpl stack = new GranuleStackImpl(coverageName, reader.getCoordinateReferenceSystem(), dimensions);
                 // Geoserver max memory limit definition
                 long outputLimit = wcs.getMaxOutputMemory() * 1024;
                 long inputLimit = wcs.getMaxInputMemory() * 1024;
@@ -288,21 +295,33 @@ public class GetCoverage {
                 //Check if the estimated size is greater than that of the maximum output memory
                 // Limit check is performed only when the limit is defined
                 if(outputLimit > 0 && estimatedSize > outputLimit){
+                    CoverageCleanerCallback.disposeCoverage(firstCoverage);
                     throw new WcsException("This request is trying to generate too much data, " +
                             "the limit is " + formatBytes(outputLimit) + " but the estimated amount of bytes to be " +
                                     "written in the output is " + formatBytes(estimatedSize));
                 }
-                // If the estimated size does not exceed the limit, the first coverage is added to the GranuleStack
-                stack.addCoverage(firstCoverage);
 
-                // Get a coverage for each subrequest
+                // The other coverages are read while the encoder iterates over the stack, 
+                // instead of keeping all of them in memory at the same time. Encoders might iterate
+                // more than once, make sure each one is accounted only once against the limits
+                List<Callable<GridCoverage2D>> readers = new ArrayList<>();
+                // the dimension values are known upfront, encoders can use them without reading
+                List<Map<String, Object>> granuleProperties = new ArrayList<>();
+                granuleProperties.add(getDimensionProperties(helper, firstRequest, dimensions));
                 while (requestsIterator.hasNext()) {
                     GridCoverageRequest subRequest = requestsIterator.next();
-                    GridCoverage2D singleCoverage = setupCoverage(helper, subRequest, request, reader, hints, extensions, dimensions,
-                            incrementalOutputSize, incrementalInputSize, coverageFactory);
-                    stack.addCoverage(singleCoverage);
+                    granuleProperties.add(getDimensionProperties(helper, subRequest, dimensions));
+                    AtomicBoolean accounted = new AtomicBoolean();
+                    readers.add(() -> {
+                        boolean account = accounted.compareAndSet(false, true);
+                        return setupCoverage(helper, subRequest, request, reader, hints, extensions,
+                                dimensions, account ? incrementalOutputSize : null,
+                                account ? incrementalInputSize : null, coverageFactory);
+                    });
                 }
-                coverage = stack;
+                Integer readAhead = wcs.getMetadata().get(GRANULE_STACK_READ_AHEAD, Integer.class);
+                coverage = new LazyGranuleStack(coverageName, reader.getCoordinateReferenceSystem(), dimensions, 
+                        firstCoverage, readers, granuleProperties, readAhead != null ? readAhead : 0);
             } else {
                 // IncrementalSize not used
                 coverage = setupCoverage(helper, gcr, request, reader, hints, extensions, null, null, null, coverageFactory);
@@ -449,6 +468,19 @@ public class GetCoverage {
         return coverage;
     }
 
+    /**
+     * Returns the dimension properties that {@link #setupCoverage} sets on the coverage read for
+     * the given request
+     */
+    private Map<String, Object> getDimensionProperties(WCSDimensionsSubsetHelper helper,
+            GridCoverageRequest gridCoverageRequest, List<DimensionBean> coverageDimensions) {
+        Map<String, Object> properties = new HashMap<>();
+        for (DimensionBean coverageDimension : coverageDimensions) {
+            helper.setCoverageDimensionProperty(properties, gridCoverageRequest, coverageDimension);
+        }
+        return properties;
+    }
+
     private ScalingType extractScaling(Map<String, ExtensionItemType> extensions) {
         ScalingType scaling = null;
         // look for a scaling extension
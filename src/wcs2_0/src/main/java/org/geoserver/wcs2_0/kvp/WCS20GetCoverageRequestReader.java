@@ -77,7 +77,7 @@ public class WCS20GetCoverageRequestReader extends EMFKvpRequestReader {
 
     private void parseGeoTiffExtension(GetCoverageType gc, Map kvp) {
         List<String> geoTiffParams = Arrays.asList("compression", "jpeg_quality", "predictor",
-                "interleave", "tiling", "tileheight", "tilewidth");
+                "interleave", "tiling", "tileheight", "tilewidth", "cog");
         parseSimpleContentList(gc, kvp, geoTiffParams, GEOTIFF_NS);
     }
 
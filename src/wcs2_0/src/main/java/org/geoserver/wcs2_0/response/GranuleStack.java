@@ -21,7 +21,17 @@ public interface GranuleStack extends GridCoverage {
     // the list of dimensions
     public List<DimensionBean> getDimensions();
 
-    // the list of granules composing this stack
+    /**
+     * Returns the granules composing this stack.
+     * <p>
+     * Implementations may read the granules on demand, see {@link LazyGranuleStack}. Callers can
+     * only rely on {@link List#size()}, on <code>get(0)</code> to access the first granule, and
+     * on iterating over the list once per pass; other index based access may throw an
+     * {@link UnsupportedOperationException}. The granules returned while iterating, the first
+     * one excluded, may be disposed as soon as the iteration moves past them and should not be
+     * retained.
+     * </p>
+     */
     public List<GridCoverage2D> getGranules();
 
 }
@@ -0,0 +1,309 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.response;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.util.SharedExecutors;
+import org.geoserver.wcs.CoverageCleanerCallback;
+import org.geoserver.wcs2_0.exception.WCS20Exception;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * A {@link GranuleStack} reading its granules on demand, while the encoder iterates over them,
+ * so that the memory used does not grow with the number of granules.
+ * <p>
+ * The first granule is read upfront and kept for the whole life of the stack, it's the one
+ * returned by <code>getGranules().get(0)</code>, the only one that can be accessed by index.
+ * The others are read when the iterator reaches them, and disposed when the iterator moves past
+ * them, so they should not be retained by the caller. Whatever has not been disposed yet is
+ * disposed along with the stack. Optionally the next granules can be read ahead on the shared
+ * read pool while the current one is being encoded.
+ * </p>
+ * <p>
+ * The dimension values of each granule are known upfront, see {@link #getGranuleProperties()},
+ * encoders needing them before the data should use those instead of iterating twice.
+ * </p>
+ */
+public class LazyGranuleStack extends GranuleStackImpl {
+
+    private static final long serialVersionUID = -4829553740135812512L;
+
+    /**
+     * Name of the shared pool reading the granules ahead
+     */
+    static final String READ_POOL = "wcs-granule-read";
+
+    static final int READ_THREADS = Runtime.getRuntime().availableProcessors();
+
+    final GridCoverage2D first;
+
+    final List<Callable<GridCoverage2D>> readers;
+
+    final List<Map<String, Object>> granuleProperties;
+
+    final int readAhead;
+
+    boolean disposed;
+
+    /**
+     * Reads submitted to the read pool and not yet consumed
+     */
+    final Deque<Future<GridCoverage2D>> pending = new ArrayDeque<>();
+
+    /**
+     * Granules read and not yet disposed
+     */
+    final Set<GridCoverage2D> live = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param first The first granule
+     * @param readers The readers of the other granules, in order
+     * @param granuleProperties The dimension properties of all the granules, first included, as
+     *        they will be found in the granules properties
+     * @param readAhead How many granules to read ahead of the current one, zero reads them in the
+     *        iterating thread
+     */
+    public LazyGranuleStack(CharSequence name, CoordinateReferenceSystem crs,
+            List<DimensionBean> dimensions, GridCoverage2D first,
+            List<Callable<GridCoverage2D>> readers, List<Map<String, Object>> granuleProperties,
+            int readAhead) {
+        super(name, crs, dimensions);
+        if (granuleProperties.size() != readers.size() + 1) {
+            throw new IllegalArgumentException("Expected the properties of " + (readers.size() + 1)
+                    + " granules, got " + granuleProperties.size());
+        }
+        this.first = first;
+        this.readers = readers;
+        this.granuleProperties = granuleProperties;
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Returns the dimension properties of each granule, in order, without reading them
+     */
+    public List<Map<String, Object>> getGranuleProperties() {
+        return Collections.unmodifiableList(granuleProperties);
+    }
+
+    /**
+     * Returns a view of the granules that reads them while iterating. Only the first granule can
+     * be accessed by index, as allowed by the {@link GranuleStack#getGranules()} contract, the
+     * other index based methods, including the list iterators, throw an
+     * {@link UnsupportedOperationException}
+     */
+    @Override
+    public List<GridCoverage2D> getGranules() {
+        return new AbstractList<GridCoverage2D>() {
+
+            @Override
+            public GridCoverage2D get(int index) {
+                if (index == 0) {
+                    return first;
+                }
+                // reading here would leave the caller the burden of disposing the granule
+                throw new UnsupportedOperationException(
+                        "Granules past the first one can only be accessed through the iterator");
+            }
+
+            @Override
+            public int size() {
+                return readers.size() + 1;
+            }
+
+            @Override
+            public Iterator<GridCoverage2D> iterator() {
+                return new GranuleIterator();
+            }
+
+            @Override
+            public ListIterator<GridCoverage2D> listIterator(int index) {
+                // would read the granules by index, fail upfront rather than midway
+                throw new UnsupportedOperationException(
+                        "Granules can only be accessed through the iterator");
+            }
+        };
+    }
+
+    GridCoverage2D read(Callable<GridCoverage2D> reader) {
+        try {
+            return track(reader.call());
+        } catch (ServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new WCS20Exception("Failed to read the coverage granule", e);
+        }
+    }
+
+    Future<GridCoverage2D> submit(Callable<GridCoverage2D> reader) {
+        GranuleRead task = new GranuleRead(reader);
+        synchronized (this) {
+            if (disposed) {
+                throw new WCS20Exception("The granule stack has been disposed");
+            }
+            pending.add(task);
+        }
+        // the shared pool carries over the request thread locals, the reads might go
+        // against secured resources
+        SharedExecutors.execute(READ_POOL, READ_THREADS, task);
+        return task;
+    }
+
+    /**
+     * A read ahead that disposes the granule it returns if it has been cancelled meanwhile
+     */
+    static class GranuleRead extends FutureTask<GridCoverage2D> {
+
+        GranuleRead(Callable<GridCoverage2D> reader) {
+            super(reader);
+        }
+
+        @Override
+        protected void set(GridCoverage2D granule) {
+            super.set(granule);
+            if (isCancelled() && granule != null) {
+                CoverageCleanerCallback.disposeCoverage(granule);
+            }
+        }
+    }
+
+    synchronized void consumed(Future<GridCoverage2D> read) {
+        pending.remove(read);
+    }
+
+    synchronized GridCoverage2D track(GridCoverage2D granule) {
+        if (granule != null) {
+            live.add(granule);
+        }
+        return granule;
+    }
+
+    void disposeGranule(GridCoverage2D granule) {
+        synchronized (this) {
+            live.remove(granule);
+        }
+        CoverageCleanerCallback.disposeCoverage(granule);
+    }
+
+    GridCoverage2D get(Future<GridCoverage2D> read) {
+        try {
+            return track(read.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WCS20Exception("Interrupted while reading the coverage granules", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ServiceException) {
+                throw (ServiceException) e.getCause();
+            }
+            throw new WCS20Exception("Failed to read the coverage granule", e.getCause());
+        } finally {
+            consumed(read);
+        }
+    }
+
+    /**
+     * Iterates over the granules, disposing the previous one when moving to the next
+     */
+    class GranuleIterator implements Iterator<GridCoverage2D> {
+
+        int next;
+
+        GridCoverage2D current;
+
+        Deque<Future<GridCoverage2D>> reads = new ArrayDeque<>();
+
+        int submitted = 1;
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext = next <= readers.size();
+            if (!hasNext) {
+                disposeCurrent();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public GridCoverage2D next() {
+            if (next > readers.size()) {
+                throw new NoSuchElementException();
+            }
+            disposeCurrent();
+            if (next == 0) {
+                current = first;
+            } else if (readAhead <= 0) {
+                current = read(readers.get(next - 1));
+            } else {
+                // keep the read ahead window full
+                while (submitted <= readers.size() && submitted <= next + readAhead) {
+                    reads.add(submit(readers.get(submitted - 1)));
+                    submitted++;
+                }
+                current = get(reads.poll());
+            }
+            next++;
+            return current;
+        }
+
+        void disposeCurrent() {
+            if (current != null && current != first) {
+                disposeGranule(current);
+            }
+            current = null;
+        }
+    }
+
+    @Override
+    public void addCoverage(GridCoverage2D coverage) {
+        throw new UnsupportedOperationException("Granules are read on demand, cannot add more");
+    }
+
+    @Override
+    public boolean dispose(boolean force) {
+        synchronized (this) {
+            disposed = true;
+            // dispose what was read ahead but not consumed, the reads still running dispose
+            // their granule once done, see GranuleRead
+            for (Future<GridCoverage2D> read : pending) {
+                if (!read.cancel(false)) {
+                    try {
+                        CoverageCleanerCallback.disposeCoverage(read.get());
+                    } catch (Exception e) {
+                        // the failure has been reported elsewhere, or nobody cares anymore
+                    }
+                }
+            }
+            pending.clear();
+            // and what the caller did not get to release
+            for (GridCoverage2D granule : live) {
+                CoverageCleanerCallback.disposeCoverage(granule);
+            }
+            live.clear();
+        }
+        return first.dispose(force);
+    }
+
+    @Override
+    public String toString() {
+        return "LazyGranuleStack [dimensions=" + getDimensions() + ", granules="
+                + (readers.size() + 1) + "]";
+    }
+}
@@ -0,0 +1,179 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.AccessMode;
+import org.geoserver.security.impl.DataAccessRule;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geoserver.wcs.CoverageResultStore;
+import org.geoserver.wcs.WCSInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class CoverageResultStoreTest extends WCSTestSupport {
+
+    static final String TIFF_REQUEST = "wcs?request=GetCoverage&service=WCS&version=2.0.1"
+            + "&coverageId=wcs__BlueMarble&format=image/tiff";
+
+    @Before
+    public void enableStore() {
+        setStoreEnabled(true);
+    }
+
+    @After
+    public void disableStore() {
+        setStoreEnabled(false);
+    }
+
+    void setStoreEnabled(boolean enabled) {
+        WCSInfo wcs = getWCS();
+        if (enabled) {
+            wcs.getMetadata().put(CoverageResultStore.RESULT_STORE, true);
+        } else {
+            wcs.getMetadata().remove(CoverageResultStore.RESULT_STORE);
+            wcs.getMetadata().remove(CoverageResultStore.RESULT_STORE_TIMEOUT);
+        }
+        getGeoServer().save(wcs);
+    }
+
+    CoverageResultStore getStore() {
+        return GeoServerExtensions.bean(CoverageResultStore.class);
+    }
+
+    MockHttpServletResponse get(String path, String... headers) throws Exception {
+        MockHttpServletRequest request = createRequest(path);
+        request.setMethod("GET");
+        for (int i = 0; i < headers.length; i += 2) {
+            request.addHeader(headers[i], headers[i + 1]);
+        }
+        return dispatch(request);
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        MockHttpServletResponse response = get(TIFF_REQUEST);
+        assertEquals(200, response.getStatus());
+        assertEquals("MISS", response.getHeader(CoverageResultStore.CACHE_HEADER));
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        String etag = response.getHeader("ETag");
+        assertNotNull(etag);
+        byte[] first = getBinary(response);
+        assertEquals(1, getStore().size());
+
+        response = get(TIFF_REQUEST);
+        assertEquals(200, response.getStatus());
+        assertEquals("HIT", response.getHeader(CoverageResultStore.CACHE_HEADER));
+        assertEquals(etag, response.getHeader("ETag"));
+        assertEquals("image/tiff", response.getContentType());
+        assertArrayEquals(first, getBinary(response));
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        MockHttpServletResponse response = get(TIFF_REQUEST);
+        byte[] full = getBinary(response);
+        String etag = response.getHeader("ETag");
+
+        response = get(TIFF_REQUEST, "Range", "bytes=100-199");
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 100-199/" + full.length, response.getHeader("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(full, 100, 200), getBinary(response));
+
+        // suffix and open ended ranges
+        response = get(TIFF_REQUEST, "Range", "bytes=-10");
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(Arrays.copyOfRange(full, full.length - 10, full.length),
+                getBinary(response));
+        response = get(TIFF_REQUEST, "Range", "bytes=" + (full.length - 5) + "-");
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(Arrays.copyOfRange(full, full.length - 5, full.length),
+                getBinary(response));
+
+        // a stale If-Range gets the whole result
+        response = get(TIFF_REQUEST, "Range", "bytes=0-9", "If-Range", "\"stale\"");
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(full, getBinary(response));
+        response = get(TIFF_REQUEST, "Range", "bytes=0-9", "If-Range", etag);
+        assertEquals(206, response.getStatus());
+        assertEquals(10, getBinary(response).length);
+
+        // out of the result
+        response = get(TIFF_REQUEST, "Range", "bytes=" + full.length + "-");
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */" + full.length, response.getHeader("Content-Range"));
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        String etag = get(TIFF_REQUEST).getHeader("ETag");
+        MockHttpServletResponse response = get(TIFF_REQUEST, "If-None-Match", etag);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, getBinary(response).length);
+    }
+
+    @Test
+    public void testNotEnabled() throws Exception {
+        setStoreEnabled(false);
+        MockHttpServletResponse response = get(TIFF_REQUEST);
+        assertNull(response.getHeader(CoverageResultStore.CACHE_HEADER));
+    }
+
+    @Test
+    public void testCatalogChangeInvalidates() throws Exception {
+        get(TIFF_REQUEST);
+        assertEquals(1, getStore().size());
+
+        Catalog catalog = getCatalog();
+        CoverageInfo coverage = catalog.getCoverageByName("wcs:BlueMarble");
+        coverage.setTitle("Modified title");
+        catalog.save(coverage);
+        assertEquals(0, getStore().size());
+    }
+
+    @Test
+    public void testAccessRuleChangeInvalidates() throws Exception {
+        get(TIFF_REQUEST);
+        assertEquals("HIT", get(TIFF_REQUEST).getHeader(CoverageResultStore.CACHE_HEADER));
+
+        DataAccessRule rule = new DataAccessRule("cite", "*", AccessMode.READ, "ROLE_TEST");
+        DataAccessRuleDAO dao = DataAccessRuleDAO.get();
+        dao.addRule(rule);
+        dao.storeRules();
+        try {
+            MockHttpServletResponse response = get(TIFF_REQUEST);
+            assertEquals("MISS", response.getHeader(CoverageResultStore.CACHE_HEADER));
+            assertEquals(1, getStore().size());
+        } finally {
+            dao.removeRule(rule);
+            dao.storeRules();
+        }
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        WCSInfo wcs = getWCS();
+        wcs.getMetadata().put(CoverageResultStore.RESULT_STORE_TIMEOUT, 1);
+        getGeoServer().save(wcs);
+
+        get(TIFF_REQUEST);
+        assertEquals(1, getStore().size());
+        Thread.sleep(1100);
+        assertEquals(0, getStore().size());
+        assertEquals("MISS", get(TIFF_REQUEST).getHeader(CoverageResultStore.CACHE_HEADER));
+    }
+}
@@ -18,6 +18,8 @@ import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Map;
 
 import javax.imageio.IIOException;
@@ -267,6 +269,51 @@ public class GeoTiffKvpTest extends WCSKVPTestSupport {
         reader.dispose();
     }
     
+    @Test
+    public void cloudOptimized() throws Exception {
+        MockHttpServletResponse response = getAsServletResponse("wcs?request=GetCoverage&service=WCS&version=2.0.1" +
+                        "&coverageId=wcs__BlueMarble&compression=DEFLATE&tiling=true&tileheight=64&tilewidth=64&cog=true");
+        
+        assertEquals("image/tiff", response.getContentType());
+        byte[] tiffContents = getBinary(response);
+        File file = File.createTempFile("bm_gtiff", "bm_cog.tiff", new File("./target"));
+        FileUtils.writeByteArrayToFile(file, tiffContents);
+        
+        // tiled, with overviews halving the resolution down to a single tile
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi().createReaderInstance();
+        reader.setInput(new FileImageInputStream(file));
+        int images = reader.getNumImages(true);
+        assertTrue(images > 1);
+        for (int i = 0; i < images; i++) {
+            assertTrue(reader.isImageTiled(i));
+            assertEquals(64, reader.getTileHeight(i));
+            assertEquals(64, reader.getTileWidth(i));
+            if (i > 0) {
+                assertEquals((reader.getWidth(i - 1) + 1) / 2, reader.getWidth(i));
+            }
+        }
+        assertTrue(reader.getWidth(images - 1) <= 64 && reader.getHeight(images - 1) <= 64);
+        int width = reader.getWidth(0);
+        reader.dispose();
+
+        // all directories come before the image data, the first one right after the header
+        ByteBuffer header = ByteBuffer.wrap(tiffContents, 0, 8).order(
+                tiffContents[0] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        assertEquals(8, header.getInt(4));
+        
+        // still a valid GeoTIFF
+        GeoTiffReader gtReader = new GeoTiffReader(file);
+        try {
+            GridCoverage2D coverage = gtReader.read(null);
+            assertEquals(width, coverage.getRenderedImage().getWidth());
+            assertNotNull(coverage.getCoordinateReferenceSystem());
+            coverage.dispose(true);
+        } finally {
+            gtReader.dispose();
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
     @Test
     public void tiling() throws Exception {
         MockHttpServletResponse response = getAsServletResponse("wcs?request=GetCoverage&service=WCS&version=2.0.1" +
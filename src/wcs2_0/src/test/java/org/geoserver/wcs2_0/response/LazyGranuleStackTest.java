@@ -0,0 +1,188 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wcs2_0.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.platform.ServiceException;
+import org.geotools.coverage.CoverageFactoryFinder;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+public class LazyGranuleStackTest {
+
+    static class TrackedCoverage extends GridCoverage2D {
+        private static final long serialVersionUID = 1L;
+
+        boolean disposed;
+
+        TrackedCoverage(String name) {
+            super(name, CoverageFactoryFinder.getGridCoverageFactory(null).create(name,
+                    new float[][] { { 1, 2 }, { 3, 4 } },
+                    new ReferencedEnvelope(0, 2, 0, 2, DefaultGeographicCRS.WGS84)));
+        }
+
+        @Override
+        public boolean dispose(boolean force) {
+            disposed = true;
+            return super.dispose(force);
+        }
+    }
+
+    AtomicInteger reads = new AtomicInteger();
+
+    List<TrackedCoverage> read = Collections.synchronizedList(new ArrayList<>());
+
+    LazyGranuleStack buildStack(TrackedCoverage first, int granules, int readAhead) {
+        List<Callable<GridCoverage2D>> readers = new ArrayList<>();
+        for (int i = 1; i < granules; i++) {
+            String name = "granule" + i;
+            readers.add(() -> {
+                reads.incrementAndGet();
+                TrackedCoverage coverage = new TrackedCoverage(name);
+                read.add(coverage);
+                return coverage;
+            });
+        }
+        return new LazyGranuleStack("test", DefaultGeographicCRS.WGS84,
+                Collections.emptyList(), first, readers, properties(granules), readAhead);
+    }
+
+    List<Map<String, Object>> properties(int granules) {
+        List<Map<String, Object>> properties = new ArrayList<>();
+        for (int i = 0; i < granules; i++) {
+            properties.add(Collections.singletonMap("index", i));
+        }
+        return properties;
+    }
+
+    @Test
+    public void testReadOnDemand() throws Exception {
+        TrackedCoverage first = new TrackedCoverage("granule0");
+        LazyGranuleStack stack = buildStack(first, 4, 0);
+        List<GridCoverage2D> granules = stack.getGranules();
+        assertEquals(4, granules.size());
+        assertSame(first, granules.get(0));
+        assertEquals(0, reads.get());
+        // the dimension values are available without reading
+        assertEquals(2, stack.getGranuleProperties().get(2).get("index"));
+        assertEquals(0, reads.get());
+        try {
+            granules.get(1);
+            fail("Granules past the first should only be available through the iterator");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(0, reads.get());
+        }
+        try {
+            granules.indexOf(first);
+            fail("List iterators would read the granules by index");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(0, reads.get());
+        }
+
+        Iterator<GridCoverage2D> it = granules.iterator();
+        assertSame(first, it.next());
+        assertEquals(0, reads.get());
+        for (int i = 1; i < 4; i++) {
+            assertTrue(it.hasNext());
+            GridCoverage2D granule = it.next();
+            assertEquals("granule" + i, granule.getName().toString());
+            assertEquals(i, reads.get());
+            // the previous one has been disposed, but never the first one
+            if (i > 1) {
+                assertTrue(read.get(i - 2).disposed);
+            }
+            assertFalse(read.get(i - 1).disposed);
+        }
+        assertFalse(it.hasNext());
+        assertTrue(read.get(2).disposed);
+        assertFalse(first.disposed);
+
+        stack.dispose(true);
+        assertTrue(first.disposed);
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        TrackedCoverage first = new TrackedCoverage("granule0");
+        LazyGranuleStack stack = buildStack(first, 10, 2);
+        int count = 0;
+        for (GridCoverage2D granule : stack.getGranules()) {
+            assertEquals("granule" + count, granule.getName().toString());
+            count++;
+            if (count == 2) {
+                break;
+            }
+        }
+        assertTrue(reads.get() >= 1);
+        assertTrue(reads.get() <= 3);
+        // the granule still held by the iterator, and the ones read ahead, get disposed along
+        // with the stack
+        stack.dispose(true);
+        assertTrue(first.disposed);
+        for (TrackedCoverage coverage : read) {
+            assertTrue(coverage.disposed);
+        }
+        assertTrue(stack.pending.isEmpty());
+    }
+
+    @Test
+    public void testCancelledReadDisposesGranule() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        TrackedCoverage granule = new TrackedCoverage("granule1");
+        LazyGranuleStack.GranuleRead read = new LazyGranuleStack.GranuleRead(() -> {
+            reading.countDown();
+            release.await();
+            return granule;
+        });
+        Thread thread = new Thread(read);
+        thread.start();
+        reading.await();
+        // cancelled while running, nobody will get the granule, it disposes it on its own
+        assertTrue(read.cancel(false));
+        release.countDown();
+        thread.join();
+        assertTrue(granule.disposed);
+    }
+
+    @Test
+    public void testReadFailure() throws Exception {
+        List<Callable<GridCoverage2D>> readers = new ArrayList<>();
+        readers.add(() -> {
+            throw new RuntimeException("Read failed");
+        });
+        for (int readAhead : new int[] { 0, 1 }) {
+            LazyGranuleStack stack = new LazyGranuleStack("test", DefaultGeographicCRS.WGS84,
+                    Collections.emptyList(), new TrackedCoverage("granule0"), readers,
+                    properties(2), readAhead);
+            Iterator<GridCoverage2D> it = stack.getGranules().iterator();
+            it.next();
+            try {
+                it.next();
+                fail("Should have failed reading the second granule");
+            } catch (ServiceException e) {
+                assertEquals("Read failed", e.getCause().getMessage());
+            } finally {
+                stack.dispose(true);
+            }
+        }
+    }
+}
@@ -6,9 +6,12 @@
 package org.geoserver.wfs;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
+import org.geotools.factory.Hints;
 
 /**
  * A class executing a feature count, but also able to return a pre-computed one. Used as an accessory
@@ -36,6 +39,30 @@ class CountExecutor {
         this.providedCount = providedCount;
     }
     
+    /**
+     * Returns true if the count is known upfront, and does not need to be computed
+     */
+    public boolean isCountProvided() {
+        return providedCount != COUNT_UNSET;
+    }
+
+    /**
+     * Returns the elements identifying the count to be run, or null if the count cannot be
+     * reliably identified (e.g., join queries) and should not be cached
+     */
+    public List<Object> getCacheKey() {
+        if (source == null || (query.getJoins() != null && !query.getJoins().isEmpty())) {
+            return null;
+        }
+        List<Object> key = new ArrayList<>();
+        key.add(source.getName());
+        key.add(query.getTypeName());
+        key.add(query.getFilter());
+        key.add(query.getHints() == null ? null
+                : query.getHints().get(Hints.VIRTUAL_TABLE_PARAMETERS));
+        return key;
+    }
+
     public int getCount() throws IOException {
         if(providedCount != COUNT_UNSET) {
             return providedCount;
@@ -0,0 +1,258 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.geoserver.config.GeoServer;
+import org.geoserver.util.SharedExecutors;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Runs the {@link CountExecutor} needed to compute the WFS 2.0 numberMatched attribute.
+ * <p>
+ * The counts are started when the output format first asks for numberMatched, and run in
+ * parallel on the {@link #COUNT_POOL} pool of {@link SharedExecutors}. Two options in the WFS service metadata control them:
+ * <ul>
+ * <li>{@link #COUNT_TIMEOUT}, the time budget in milliseconds for the counts, past which
+ * numberMatched is reported as unknown. The counts keep on running in background to fill the
+ * cache. Zero, the default, waits for the counts to complete.</li>
+ * <li>{@link #COUNT_CACHE_TIMEOUT}, the time in seconds the counts are cached for, keyed by type,
+ * filter, view parameters and user. Zero, the default, disables caching.</li>
+ * </ul>
+ * Successful transactions drop the cached counts.
+ * </p>
+ */
+public class CountManager implements TransactionCallback {
+
+    static final Logger LOGGER = Logging.getLogger(CountManager.class);
+
+    /**
+     * Time budget in milliseconds for the numberMatched counts
+     */
+    public static final String COUNT_TIMEOUT = "numberMatchedTimeout";
+
+    /**
+     * Time in seconds the numberMatched counts are cached for
+     */
+    public static final String COUNT_CACHE_TIMEOUT = "numberMatchedCacheTimeout";
+
+    static final int COUNT_THREADS = Integer.getInteger("org.geoserver.wfs.countThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Name of the {@link SharedExecutors} pool running the counts
+     */
+    static final String COUNT_POOL = "wfs-count";
+
+    static final int MAX_CACHED_COUNTS = 10000;
+
+    /**
+     * The result of a set of counts, possibly still running
+     */
+    public class PendingCount {
+
+        final List<Future<Integer>> futures;
+
+        final long start;
+
+        PendingCount(List<Future<Integer>> futures) {
+            this.futures = futures;
+            this.start = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the sum of the counts, or -1 if any is unknown or could not be computed within
+         * the time budget
+         */
+        public long get() throws IOException {
+            int timeout = getMetadataValue(COUNT_TIMEOUT);
+            long total = 0;
+            for (Future<Integer> future : futures) {
+                int count;
+                try {
+                    if (timeout > 0) {
+                        long remaining = start + timeout - System.currentTimeMillis();
+                        count = future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+                    } else {
+                        count = future.get();
+                    }
+                } catch (TimeoutException e) {
+                    LOGGER.fine("numberMatched count took more than " + timeout
+                            + "ms, reporting it as unknown");
+                    return -1;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+                // if the count is unknown for one, we don't know the total, period
+                if (count == -1) {
+                    return -1;
+                }
+                total += count;
+            }
+            return total;
+        }
+    }
+
+    GeoServer geoServer;
+
+    /**
+     * Incremented on each transaction, counts started before are not cached
+     */
+    AtomicLong generation = new AtomicLong();
+
+    volatile Cache<List<Object>, Integer> counts;
+
+    volatile int cacheTimeout = -1;
+
+    public CountManager(GeoServer geoServer) {
+        this.geoServer = geoServer;
+    }
+
+    /**
+     * Starts the counts, returning a handle to their sum
+     *
+     * @param executors The counts to run
+     */
+    public PendingCount start(List<CountExecutor> executors) {
+        List<Future<Integer>> futures = new ArrayList<>();
+        Cache<List<Object>, Integer> cache = getCache();
+        for (CountExecutor counter : executors) {
+            if (counter.isCountProvided()) {
+                futures.add(Futures.immediateFuture(counter.providedCount));
+                continue;
+            }
+            List<Object> key = cache == null ? null : getKey(counter);
+            Integer cached = key == null ? null : cache.getIfPresent(key);
+            if (cached != null) {
+                futures.add(Futures.immediateFuture(cached));
+            } else {
+                FutureTask<Integer> task = new FutureTask<>(newCountTask(counter, cache, key));
+                SharedExecutors.execute(COUNT_POOL, COUNT_THREADS, task);
+                futures.add(task);
+            }
+        }
+        return new PendingCount(futures);
+    }
+
+    Callable<Integer> newCountTask(CountExecutor counter,
+            Cache<List<Object>, Integer> cache, List<Object> key) {
+        // the pool carries over the user, the local workspace/layer and the request, the count
+        // might run against secured and workspace specific sources
+        long startGeneration = generation.get();
+        return () -> {
+            int count = counter.getCount();
+            if (key != null && count >= 0 && generation.get() == startGeneration) {
+                cache.put(key, count);
+            }
+            return count;
+        };
+    }
+
+    /**
+     * Returns the cache key for the count, or null if the count cannot be cached
+     */
+    List<Object> getKey(CountExecutor counter) {
+        List<Object> key = counter.getCacheKey();
+        if (key == null) {
+            return null;
+        }
+        key = new ArrayList<>(key);
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        if (user != null) {
+            key.add(user.getName());
+            TreeSet<String> roles = new TreeSet<>();
+            for (GrantedAuthority authority : user.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            key.add(roles);
+        }
+        return key;
+    }
+
+    Cache<List<Object>, Integer> getCache() {
+        int timeout = getMetadataValue(COUNT_CACHE_TIMEOUT);
+        if (timeout <= 0) {
+            counts = null;
+            cacheTimeout = timeout;
+            return null;
+        }
+        if (counts == null || timeout != cacheTimeout) {
+            synchronized (this) {
+                if (counts == null || timeout != cacheTimeout) {
+                    counts = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_COUNTS)
+                            .expireAfterWrite(timeout, TimeUnit.SECONDS).build();
+                    cacheTimeout = timeout;
+                }
+            }
+        }
+        return counts;
+    }
+
+    int getMetadataValue(String key) {
+        WFSInfo wfs = geoServer.getService(WFSInfo.class);
+        if (wfs == null) {
+            return 0;
+        }
+        Integer value = wfs.getMetadata().get(key, Integer.class);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Drops all the cached counts
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        Cache<List<Object>, Integer> cache = counts;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public TransactionRequest beforeTransaction(TransactionRequest request) throws WFSException {
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionRequest request) throws WFSException {
+        // nothing to do
+    }
+
+    @Override
+    public void afterTransaction(TransactionRequest request, TransactionResponse result,
+            boolean committed) {
+        if (committed) {
+            // inserts do not declare their target type, drop everything
+            invalidate();
+        }
+    }
+}
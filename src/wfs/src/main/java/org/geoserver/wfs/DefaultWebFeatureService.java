@@ -52,6 +52,11 @@ public class DefaultWebFeatureService implements WebFeatureService, ApplicationC
      */
     protected FilterFactory2 filterFactory;
 
+    /**
+     * Runs the numberMatched counts
+     */
+    protected CountManager countManager;
+
     /**
      * The spring application context, used to look up transaction listeners, plugins and
      * element handlers
@@ -70,6 +75,13 @@ public class DefaultWebFeatureService implements WebFeatureService, ApplicationC
         this.filterFactory = filterFactory;
     }
 
+    /**
+     * Sets the manager running the counts needed for numberMatched.
+     */
+    public void setCountManager(CountManager countManager) {
+        this.countManager = countManager;
+    }
+
     public WFSInfo getServiceInfo() {
         return geoServer.getService(WFSInfo.class);
     }
@@ -118,6 +130,7 @@ public class DefaultWebFeatureService implements WebFeatureService, ApplicationC
         throws WFSException {
         GetFeature getFeature = new GetFeature(getServiceInfo(), catalog);
         getFeature.setFilterFactory(filterFactory);
+        getFeature.setCountManager(countManager);
 
         return getFeature.run(new GetFeatureRequest.WFS11(request));
     }
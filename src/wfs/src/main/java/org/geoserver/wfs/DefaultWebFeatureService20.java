@@ -61,6 +61,9 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
     /** filter factory */
     protected FilterFactory2 filterFactory;
 
+    /** runs the numberMatched counts */
+    protected CountManager countManager;
+
     /**
      * The spring application context, used to look up transaction listeners, plugins and
      * element handlers
@@ -74,6 +77,10 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
     public void setFilterFactory(FilterFactory2 filterFactory) {
         this.filterFactory = filterFactory;
     }
+
+    public void setCountManager(CountManager countManager) {
+        this.countManager = countManager;
+    }
     
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.context = applicationContext;
@@ -106,6 +113,7 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
         GetFeature gf = new GetFeature(getServiceInfo(), getCatalog());
         gf.setFilterFactory(filterFactory);
         gf.setStoredQueryProvider(getStoredQueryProvider());
+        gf.setCountManager(countManager);
         
         return gf.run(new GetFeatureRequest.WFS20(request));
     }
@@ -117,7 +125,10 @@ public class DefaultWebFeatureService20 implements WebFeatureService20, Applicat
 
     @Override
     public ValueCollectionType getPropertyValue(GetPropertyValueType request) throws WFSException {
-    	return new GetPropertyValue(getServiceInfo(), getCatalog(), filterFactory).run(request);
+        GetPropertyValue getPropertyValue = new GetPropertyValue(getServiceInfo(), getCatalog(),
+                filterFactory);
+        getPropertyValue.setCountManager(countManager);
+        return getPropertyValue.run(request);
     }
 
     public LockFeatureResponseType lockFeature(LockFeatureType request) throws WFSException {
@@ -197,6 +197,9 @@ public class GetFeature {
     /** stored query provider */
     StoredQueryProvider storedQueryProvider;
 
+    /** runs the numberMatched counts */
+    CountManager countManager;
+
     /**
      * Creates the WFS 1.0/1.1 GetFeature operation.
      */
@@ -242,6 +245,14 @@ public class GetFeature {
         this.storedQueryProvider = storedQueryProvider;
     }
 
+    /**
+     * Sets the manager running the counts needed for numberMatched, if null the counts are
+     * run serially, in the thread asking for the total count
+     */
+    public void setCountManager(CountManager countManager) {
+        this.countManager = countManager;
+    }
+
     public FeatureCollectionResponse run(GetFeatureRequest request)
         throws WFSException {
         List<Query> queries = request.getQueries();
@@ -369,6 +380,14 @@ public class GetFeature {
             // See GEOS-5085.
             totalOffset = 0;
         }
+        // keyset paging, the cursor replaces the start index
+        KeysetPaging.Cursor cursor = KeysetPaging.isEnabled(wfs)
+                ? KeysetPaging.getCursor(request) : null;
+        if (cursor != null) {
+            totalOffset = -1;
+        }
+        KeysetPaging.Cursor nextCursor = null;
+        int nextIndex = -1;
         int offset = totalOffset;
         
         // feature collection size, we may need to calculate it
@@ -561,7 +580,21 @@ public class GetFeature {
                     queryMaxFeatures = metaMaxFeatures;
                 }
                 Map<String, String> viewParam = viewParams != null ? viewParams.get(i) : null;
-                org.geotools.data.Query gtQuery = toDataQuery(query, filter, offset,
+                boolean keyset = KeysetPaging.isEnabled(wfs)
+                        && queryMaxFeatures < Integer.MAX_VALUE
+                        && KeysetPaging.isApplicable(request, queries, meta);
+                Filter pageFilter = filter;
+                if (cursor != null) {
+                    if (!keyset) {
+                        throw new WFSException(request,
+                                "Cursor paging requires a single type query sorted by attributes",
+                                ServiceException.INVALID_PARAMETER_VALUE)
+                                        .locator(KeysetPaging.CURSOR);
+                    }
+                    Filter following = KeysetPaging.toFilter(request, cursor, meta, sortBy);
+                    pageFilter = filter == null ? following : filterFactory.and(filter, following);
+                }
+                org.geotools.data.Query gtQuery = toDataQuery(query, pageFilter, offset,
                         queryMaxFeatures, source, request, allPropNames.get(0), viewParam,
                             joins, primaryTypeName, primaryAlias);
 
@@ -585,6 +618,15 @@ public class GetFeature {
 
                 FeatureCollection<? extends FeatureType, ? extends Feature> features = getFeatures(request, source, gtQuery);
 
+                if (keyset) {
+                    int position = cursor != null ? cursor.getPosition() : Math.max(offset, 0);
+                    KeysetPaging.Page page = KeysetPaging.nextPage(meta, source, gtQuery,
+                            features, queryMaxFeatures, position, cursor);
+                    features = page.getFeatures();
+                    nextCursor = page.getNext();
+                    nextIndex = page.getNextIndex();
+                }
+
                 // For complex features, we need the targetCrs and version in scenario where we have
                 // a top level feature that does not contain a geometry(therefore no crs) and has a
                 // nested feature that contains geometry as its property.Furthermore it is possible
@@ -638,7 +680,8 @@ public class GetFeature {
                 isNumberMatchedSkipped = meta.getSkipNumberMatched()
                         && !request.isResultTypeHits();
                 if (!isNumberMatchedSkipped) {
-                        if (calculateSize
+                        // cursor pages skip the features before the cursor, same as an offset
+                        if (calculateSize && cursor == null
                                 && (queryMaxFeatures == Integer.MAX_VALUE || size < queryMaxFeatures)
                                 && offset <= 0) {
                         totalCountExecutors.add(new CountExecutor(size));
@@ -693,19 +736,23 @@ public class GetFeature {
             // where the client has limited the result set size, so we compute it lazily
             if (isNumberMatchedSkipped) {
                 totalCount = BigInteger.valueOf(-1);
-            } else if(count < maxFeatures && calculateSize) {
+            } else if(count < maxFeatures && calculateSize && cursor == null) {
                  // optimization: if count < max features then total count == count
                  totalCount = BigInteger.valueOf(count);
             } else {
                 // ok, in this case we're forced to run the queries to discover the actual total count
                 // We do so lazily, not all output formats need it, leveraging the fact that BigInteger
-                // is not final to wrap it in a lazy loading proxy
+                // is not final to wrap it in a lazy loading proxy.
+                final CountManager manager = countManager;
                 Enhancer enhancer = new Enhancer();
                 enhancer.setSuperclass(BigInteger.class);
                 enhancer.setCallback(new LazyLoader() {
                     
                     @Override
                     public Object loadObject() throws Exception {
+                        if (manager != null) {
+                            return BigInteger.valueOf(manager.start(totalCountExecutors).get());
+                        }
                         long totalCount = 0;
                         for (CountExecutor q : totalCountExecutors) {
                             int result = q.getCount();
@@ -728,7 +775,41 @@ public class GetFeature {
             throw new WFSException(request, "Error occurred getting features", e, request.getHandle());
         }
         
-        return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId, getFeatureById);
+        FeatureCollectionResponse result = buildResults(request, totalOffset, maxFeatures, count,
+                totalCount, results, lockId, getFeatureById);
+        if (nextCursor != null) {
+            result.setNext(buildKeysetNext(request, nextCursor, -1, maxFeatures));
+        } else if (cursor != null && nextIndex >= 0) {
+            // cursor pages get no start index based next link from buildResults
+            result.setNext(buildKeysetNext(request, null, nextIndex, maxFeatures));
+        }
+        return result;
+    }
+
+    /**
+     * Builds the next link of a keyset paged request, same as the original request, but with
+     * either a cursor or a start index
+     */
+    String buildKeysetNext(GetFeatureRequest request, KeysetPaging.Cursor next, int nextIndex,
+            int maxFeatures) {
+        Request req = Dispatcher.REQUEST.get();
+        Map<String, String> kvp;
+        if (req != null && req.isGet()) {
+            kvp = new KvpMap(req.getRawKvp());
+        } else {
+            kvp = buildKvpFromRequest(request);
+            List<SortBy> sortBy = request.getQueries().get(0).getSortBy();
+            kvp.put("SORTBY", String.join(",", KeysetPaging.getSortSpec(sortBy)));
+        }
+        kvp.remove("STARTINDEX");
+        kvp.remove(KeysetPaging.CURSOR);
+        if (next != null) {
+            kvp.put(KeysetPaging.CURSOR, next.encode());
+        } else {
+            kvp.put("STARTINDEX", String.valueOf(nextIndex));
+        }
+        kvp.put("count", String.valueOf(maxFeatures));
+        return buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE);
     }
 
     private Filter toFeatureIdFilter(List<FeatureId> lockedFeatures) {
@@ -0,0 +1,637 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.DirectInvocationService;
+import org.geoserver.ows.LocalPublished;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.security.SecureCatalogImpl;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geoserver.wfs.request.GetFeatureRequest;
+import org.geoserver.wfs.request.Query;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wfs.request.TransactionResponse;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the encoded responses of GetFeature requests, so that identical requests, as issued
+ * over and over by dashboards, can be answered without reading and encoding the features again.
+ * <p>
+ * The cache is opt-in per layer, a request is cached only if all the feature types it queries
+ * have the {@link #RESULT_CACHE} metadata flag set. Entries expire after
+ * {@link #RESULT_CACHE_TIMEOUT} seconds, the lowest among the queried types, and are keyed by
+ * the parsed request (queries, output format, paging, format options, view parameters, base URL),
+ * the raw KVP parameters, which carry vendor parameters such as the keyset paging cursor, and by
+ * the data access limits of the requesting user on each type. Stored queries, lock
+ * requests and SOAP requests are not cached.
+ * </p>
+ * <p>
+ * Transactions drop the entries of the types they modify, catalog changes drop the entries of
+ * the modified types, or all of them when namespaces, stores or the service configuration
+ * change. Responses carry a <code>X-Cache</code> header set to either <code>HIT</code> or
+ * <code>MISS</code>.
+ * </p>
+ */
+public class GetFeatureCache extends AbstractDispatcherCallback
+        implements TransactionListener, TransactionCallback {
+
+    static final Logger LOGGER = Logging.getLogger(GetFeatureCache.class);
+
+    /**
+     * Feature type metadata flag enabling the result cache
+     */
+    public static final String RESULT_CACHE = "wfsResultCache";
+
+    /**
+     * Feature type metadata key for the time in seconds the results are cached for
+     */
+    public static final String RESULT_CACHE_TIMEOUT = "wfsResultCacheTimeout";
+
+    static final int DEFAULT_TIMEOUT = 60;
+
+    /**
+     * Response header reporting cache hits and misses
+     */
+    public static final String CACHE_HEADER = "X-Cache";
+
+    /**
+     * Maximum size in bytes of the cached responses
+     */
+    static final long CACHE_SIZE = Long.getLong("org.geoserver.wfs.resultCacheSize",
+            64 * 1024 * 1024);
+
+    /**
+     * Maximum size in bytes of a single cached response, larger ones are not cached
+     */
+    static final int MAX_RESULT_SIZE = Integer.getInteger("org.geoserver.wfs.resultCacheMaxSize",
+            4 * 1024 * 1024);
+
+    /**
+     * The cacheable GetFeature being executed by the current thread, on a cache miss
+     */
+    static final ThreadLocal<PendingResult> PENDING = new ThreadLocal<>();
+
+    /**
+     * The types modified by the transaction being executed by the current thread
+     */
+    static final ThreadLocal<Set<QName>> MODIFIED = new ThreadLocal<>();
+
+    /**
+     * A cached GetFeature response. It doubles as the service answering cache hits, returning
+     * itself as the operation result, which is then encoded by {@link CachedResultResponse}.
+     */
+    public static final class CachedResult implements DirectInvocationService {
+
+        final byte[] bytes;
+
+        final String mimeType;
+
+        final String charset;
+
+        final String[][] headers;
+
+        final String disposition;
+
+        final String fileName;
+
+        final Set<String> ids;
+
+        final Set<QName> names;
+
+        final long expires;
+
+        CachedResult(byte[] bytes, String mimeType, String charset, String[][] headers,
+                String disposition, String fileName, PendingResult pending) {
+            this.bytes = bytes;
+            this.mimeType = mimeType;
+            this.charset = charset;
+            this.headers = headers;
+            this.disposition = disposition;
+            this.fileName = fileName;
+            this.ids = pending.ids;
+            this.names = pending.names;
+            this.expires = System.currentTimeMillis() + pending.timeout * 1000L;
+        }
+
+        @Override
+        public Object invokeDirect(String operationName, Object[] parameters) {
+            return this;
+        }
+
+        public void write(OutputStream output) throws IOException {
+            output.write(bytes);
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String getCharset() {
+            return charset;
+        }
+
+        public String[][] getHeaders() {
+            return headers;
+        }
+
+        public String getDisposition() {
+            return disposition;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+    }
+
+    /**
+     * The key and validity of a GetFeature whose result is not cached yet
+     */
+    static final class PendingResult {
+
+        final List<Object> key;
+
+        final Set<String> ids;
+
+        final Set<QName> names;
+
+        final int timeout;
+
+        final long generation;
+
+        PendingResult(List<Object> key, Set<String> ids, Set<QName> names, int timeout,
+                long generation) {
+            this.key = key;
+            this.ids = ids;
+            this.names = names;
+            this.timeout = timeout;
+            this.generation = generation;
+        }
+    }
+
+    GeoServer geoServer;
+
+    Cache<List<Object>, CachedResult> results;
+
+    /**
+     * Incremented on each invalidation, results computed across it are not cached
+     */
+    AtomicLong generation = new AtomicLong();
+
+    public GetFeatureCache(GeoServer geoServer) {
+        this.geoServer = geoServer;
+        this.results = CacheBuilder.newBuilder().maximumWeight(CACHE_SIZE)
+                .<List<Object>, CachedResult> weigher((k, v) -> v.bytes.length).build();
+        geoServer.getCatalog().addListener(new ResultCacheCatalogListener());
+        geoServer.addListener(new ConfigurationListenerAdapter() {
+            @Override
+            public void handlePostGlobalChange(GeoServerInfo global) {
+                invalidate(r -> true);
+            }
+
+            @Override
+            public void handleSettingsPostModified(SettingsInfo settings) {
+                invalidate(r -> true);
+            }
+
+            @Override
+            public void handlePostServiceChange(ServiceInfo service) {
+                if (service instanceof WFSInfo) {
+                    invalidate(r -> true);
+                }
+            }
+
+            @Override
+            public void reloaded() {
+                invalidate(r -> true);
+            }
+        });
+    }
+
+    @Override
+    public Operation operationDispatched(Request request, Operation operation) {
+        PENDING.remove();
+        Service service = operation.getService();
+        if (!"GetFeature".equalsIgnoreCase(operation.getId()) || service == null
+                || !"wfs".equalsIgnoreCase(service.getId()) || request.isSOAP()
+                || operation.getParameters() == null || operation.getParameters().length == 0) {
+            return operation;
+        }
+        Object parameter = operation.getParameters()[0];
+        if (!(parameter instanceof net.opengis.wfs.GetFeatureType
+                || parameter instanceof net.opengis.wfs20.GetFeatureType)) {
+            return operation;
+        }
+
+        PendingResult pending;
+        try {
+            pending = getPendingResult(GetFeatureRequest.adapt(parameter), service,
+                    request.getRawKvp());
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not compute the GetFeature result cache key", e);
+            return operation;
+        }
+        if (pending == null) {
+            return operation;
+        }
+
+        CachedResult cached = results.getIfPresent(pending.key);
+        if (cached != null && cached.expires > System.currentTimeMillis()) {
+            // answer with the cached result instead of running the request
+            Service cachedService = new Service(service.getId(), service.getNamespace(), cached,
+                    service.getVersion(), service.getOperations());
+            return new Operation(operation.getId(), cachedService, operation.getMethod(),
+                    operation.getParameters());
+        } else if (cached != null) {
+            results.asMap().remove(pending.key, cached);
+        }
+        PENDING.set(pending);
+        return operation;
+    }
+
+    /**
+     * Returns the cache key and validity of the request, or null if it cannot be cached
+     */
+    PendingResult getPendingResult(GetFeatureRequest request, Service service,
+            Map<String, ?> rawKvp) {
+        if (request.isLockRequest()) {
+            return null;
+        }
+        List<Object> key = new ArrayList<>();
+        key.add(service.getVersion());
+        key.add(request.getOutputFormat());
+        key.add(request.isResultTypeHits());
+        key.add(request.getMaxFeatures());
+        key.add(request.getStartIndex());
+        key.add(request.getTraverseXlinkDepth());
+        key.add(request.getResolve());
+        key.add(request.getResolveTimeOut());
+        Map formatOptions = request.getFormatOptions();
+        key.add(formatOptions == null ? null : new HashMap<>(formatOptions));
+        key.add(request.getViewParams());
+        key.add(request.getBaseUrl());
+        WorkspaceInfo workspace = LocalWorkspace.get();
+        key.add(workspace == null ? null : workspace.getName());
+        PublishedInfo published = LocalPublished.get();
+        key.add(published == null ? null : published.getName());
+        // vendor parameters, like the keyset paging cursor, are not part of the parsed request
+        Map<String, Object> raw = new TreeMap<>();
+        if (rawKvp != null) {
+            for (Map.Entry<String, ?> entry : rawKvp.entrySet()) {
+                Object value = entry.getValue();
+                raw.put(entry.getKey().toUpperCase(),
+                        value instanceof Object[] ? Arrays.asList((Object[]) value) : value);
+            }
+        }
+        key.add(raw);
+
+        Set<String> ids = new HashSet<>();
+        Set<QName> names = new HashSet<>();
+        int timeout = Integer.MAX_VALUE;
+        Catalog catalog = geoServer.getCatalog();
+        for (Object adapted : request.getAdaptedQueries()) {
+            if (!(adapted instanceof net.opengis.wfs.QueryType
+                    || adapted instanceof net.opengis.wfs20.QueryType)) {
+                // stored queries do not tell which types they hit
+                return null;
+            }
+            Query query = Query.adapt(adapted);
+            if (query.getTypeNames().isEmpty() || !query.getXlinkPropertyNames().isEmpty()) {
+                return null;
+            }
+            key.add(query.getTypeNames());
+            key.add(query.getAliases());
+            key.add(query.getPropertyNames());
+            key.add(query.getFilter());
+            key.add(query.getSortBy());
+            key.add(query.getSrsName());
+            key.add(query.getFeatureVersion());
+            for (QName name : query.getTypeNames()) {
+                FeatureTypeInfo featureType = catalog.getFeatureTypeByName(
+                        name.getNamespaceURI(), name.getLocalPart());
+                if (featureType == null || !Boolean.TRUE.equals(
+                        featureType.getMetadata().get(RESULT_CACHE, Boolean.class))) {
+                    return null;
+                }
+                Integer typeTimeout = featureType.getMetadata().get(RESULT_CACHE_TIMEOUT,
+                        Integer.class);
+                timeout = Math.min(timeout, typeTimeout == null ? DEFAULT_TIMEOUT : typeTimeout);
+                ids.add(featureType.getId());
+                names.add(name);
+                key.add(getAccessLimits(featureType));
+            }
+        }
+        if (names.isEmpty() || timeout <= 0) {
+            return null;
+        }
+        return new PendingResult(key, ids, names, timeout, generation.get());
+    }
+
+    /**
+     * Returns what the current user can access of the feature type, as the data access limits
+     * or, when the access manager is not available, the user name and roles
+     */
+    Object getAccessLimits(FeatureTypeInfo featureType) {
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        SecureCatalogImpl secureCatalog = GeoServerExtensions.bean(SecureCatalogImpl.class);
+        if (secureCatalog != null) {
+            return Collections.singletonList(
+                    secureCatalog.getResourceAccessManager().getAccessLimits(user, featureType));
+        }
+        List<Object> limits = new ArrayList<>();
+        if (user != null) {
+            limits.add(user.getName());
+            Set<String> roles = new HashSet<>();
+            for (GrantedAuthority authority : user.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            limits.add(roles);
+        }
+        return limits;
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        PendingResult pending = PENDING.get();
+        if (pending == null || !(result instanceof FeatureCollectionResponse)) {
+            return response;
+        }
+        PENDING.remove();
+        return new CachingResponse(response, pending);
+    }
+
+    @Override
+    public void finished(Request request) {
+        PENDING.remove();
+        MODIFIED.remove();
+    }
+
+    void put(PendingResult pending, CachedResult result) {
+        // don't store results that might have been computed across an invalidation
+        if (generation.get() == pending.generation) {
+            results.put(pending.key, result);
+        }
+    }
+
+    /**
+     * Drops the cached results containing the given feature type
+     */
+    public void invalidate(QName name) {
+        invalidate(r -> r.names.contains(name));
+    }
+
+    void invalidate(Predicate<CachedResult> predicate) {
+        generation.incrementAndGet();
+        results.asMap().values().removeIf(predicate);
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        QName name = event.getLayerName();
+        if (name == null) {
+            return;
+        }
+        invalidate(name);
+        // invalidate again after commit, the changes were not visible to other requests yet
+        Set<QName> modified = MODIFIED.get();
+        if (modified == null) {
+            modified = new HashSet<>();
+            MODIFIED.set(modified);
+        }
+        modified.add(name);
+    }
+
+    @Override
+    public TransactionRequest beforeTransaction(TransactionRequest request) throws WFSException {
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionRequest request) throws WFSException {
+        // nothing to do
+    }
+
+    @Override
+    public void afterTransaction(TransactionRequest request, TransactionResponse result,
+            boolean committed) {
+        Set<QName> modified = MODIFIED.get();
+        MODIFIED.remove();
+        if (modified != null) {
+            invalidate(r -> !Collections.disjoint(r.names, modified));
+        }
+    }
+
+    /**
+     * Invalidates the cached results on catalog changes
+     */
+    class ResultCacheCatalogListener implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) {
+            // new types cannot be part of cached results
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) {
+            handle(event.getSource());
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) {
+            // wait for the post modify event
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+            handle(event.getSource());
+        }
+
+        void handle(CatalogInfo source) {
+            if (source instanceof FeatureTypeInfo) {
+                String id = source.getId();
+                invalidate(r -> r.ids.contains(id));
+            } else if (source instanceof LayerInfo
+                    && ((LayerInfo) source).getResource() instanceof FeatureTypeInfo) {
+                String id = ((LayerInfo) source).getResource().getId();
+                invalidate(r -> r.ids.contains(id));
+            } else if (source instanceof NamespaceInfo || source instanceof WorkspaceInfo
+                    || source instanceof DataStoreInfo) {
+                invalidate(r -> true);
+            }
+        }
+
+        public void reloaded() {
+            invalidate(r -> true);
+        }
+    }
+
+    /**
+     * Wraps the response of a cache miss, storing the encoded result while it's written out
+     */
+    class CachingResponse extends Response {
+
+        final Response delegate;
+
+        final PendingResult pending;
+
+        CachingResponse(Response delegate, PendingResult pending) {
+            super(delegate.getBinding(), delegate.getOutputFormats());
+            this.delegate = delegate;
+            this.pending = pending;
+        }
+
+        @Override
+        public boolean canHandle(Operation operation) {
+            return delegate.canHandle(operation);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return delegate.getMimeType(value, operation);
+        }
+
+        @Override
+        public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+            return addCacheHeader(delegate.getHeaders(value, operation), "MISS");
+        }
+
+        @Override
+        public String getPreferredDisposition(Object value, Operation operation) {
+            return delegate.getPreferredDisposition(value, operation);
+        }
+
+        @Override
+        public String getAttachmentFileName(Object value, Operation operation) {
+            return delegate.getAttachmentFileName(value, operation);
+        }
+
+        @Override
+        public String getCharset(Operation operation) {
+            return delegate.getCharset(operation);
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            BoundedOutputStream copy = new BoundedOutputStream(output);
+            delegate.write(value, copy, operation);
+            if (copy.buffer != null) {
+                put(pending, new CachedResult(copy.buffer.toByteArray(),
+                        delegate.getMimeType(value, operation), delegate.getCharset(operation),
+                        delegate.getHeaders(value, operation),
+                        delegate.getPreferredDisposition(value, operation),
+                        delegate.getAttachmentFileName(value, operation), pending));
+            }
+        }
+    }
+
+    /**
+     * Adds the {@link #CACHE_HEADER} to the given headers
+     */
+    public static String[][] addCacheHeader(String[][] headers, String value) {
+        int length = headers == null ? 0 : headers.length;
+        String[][] result = new String[length + 1][];
+        if (headers != null) {
+            System.arraycopy(headers, 0, result, 0, length);
+        }
+        result[length] = new String[] { CACHE_HEADER, value };
+        return result;
+    }
+
+    /**
+     * Copies the bytes written to the wrapped stream, up to {@link #MAX_RESULT_SIZE}
+     */
+    static class BoundedOutputStream extends OutputStream {
+
+        final OutputStream delegate;
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        BoundedOutputStream(OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            if (buffer != null) {
+                buffer.write(b);
+                checkSize();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            if (buffer != null) {
+                buffer.write(b, off, len);
+                checkSize();
+            }
+        }
+
+        void checkSize() {
+            if (buffer.size() > MAX_RESULT_SIZE) {
+                // too large to be cached
+                buffer = null;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
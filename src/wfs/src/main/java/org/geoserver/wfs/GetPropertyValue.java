@@ -22,6 +22,7 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geotools.wfs.PropertyValueCollection;
 import org.opengis.feature.type.AttributeDescriptor;
@@ -47,6 +48,13 @@ public class GetPropertyValue {
         this.filterFactory = filterFactory;
     }
 
+    /**
+     * Sets the manager running the counts needed for numberMatched
+     */
+    public void setCountManager(CountManager countManager) {
+        delegate.setCountManager(countManager);
+    }
+
     /**
      * @return NamespaceSupport from Catalog
      */
@@ -79,8 +87,8 @@ public class GetPropertyValue {
         getFeature.setResolveTimeout(request.getResolveTimeout());
         getFeature.setCount(request.getCount());
 
-        FeatureCollectionType fc = (FeatureCollectionType) delegate.run(
-                GetFeatureRequest.adapt(getFeature)).getAdaptee();
+        FeatureCollectionResponse response = delegate.run(GetFeatureRequest.adapt(getFeature));
+        FeatureCollectionType fc = (FeatureCollectionType) response.getAdaptee();
 
         QueryType query = (QueryType) request.getAbstractQueryExpression();
         QName typeName = (QName) query.getTypeNames().iterator().next();
@@ -103,7 +111,7 @@ public class GetPropertyValue {
             // create value collection type from feature collection
             ValueCollectionType vc = Wfs20Factory.eINSTANCE.createValueCollectionType();
             vc.setTimeStamp(fc.getTimeStamp());
-            vc.setNumberMatched(fc.getNumberMatched());
+            vc.setNumberMatched(response.getTotalNumberOfFeatures());
             vc.setNumberReturned(fc.getNumberReturned());
             vc.getMember().add(new PropertyValueCollection(fc.getMember().iterator().next(), descriptor, propertyName));
             return vc;
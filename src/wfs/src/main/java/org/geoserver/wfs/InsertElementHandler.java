@@ -6,6 +6,8 @@
 package org.geoserver.wfs;
 
 import com.vividsolutions.jts.geom.Geometry;
+import net.opengis.wfs.InsertElementType;
+import net.opengis.wfs.WfsFactory;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.feature.ReprojectingFeatureCollection;
@@ -14,6 +16,7 @@ import org.geoserver.wfs.request.Insert;
 import org.geoserver.wfs.request.TransactionElement;
 import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.request.TransactionResponse;
+import org.geoserver.wfs.xml.InsertSpool;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureStore;
 import org.geotools.data.collection.ListFeatureCollection;
@@ -35,8 +38,10 @@ import org.opengis.filter.identity.FeatureId;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import javax.xml.namespace.QName;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -57,6 +62,13 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
      * logger
      */
     static Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geoserver.wfs");
+
+    /**
+     * WFS metadata key enabling bulk inserts: runs of consecutive insert elements targeting the
+     * same feature type are added to the store with a single call
+     */
+    public static final String BULK_INSERT = "bulkInsert";
+
     private FilterFactory filterFactory;
 
     public InsertElementHandler(GeoServer gs, FilterFactory filterFactory) {
@@ -71,47 +83,80 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         }
     }
 
-    @SuppressWarnings("unchecked")
     public void execute(TransactionElement element, TransactionRequest request, Map featureStores, 
         TransactionResponse response, TransactionListener listener) throws WFSTransactionException {
-        
         Insert insert = (Insert) element;
-        LOGGER.finer("Transaction Insert:" + insert);
+        execute(Collections.singletonList(insert), request, featureStores, response, listener);
+
+        // features past the first batch are parsed and inserted one batch at a time
+        InsertSpool spool = InsertSpool.get(insert);
+        if (spool != null) {
+            try {
+                for (Insert batch = spool.next(); batch != null; batch = spool.next()) {
+                    execute(Collections.singletonList(batch), request, featureStores, response,
+                            listener);
+                }
+            } catch (IOException e) {
+                String msg = "Error reading the insert features: " + e.getMessage();
+                throw new WFSTransactionException(msg, e, insert.getHandle());
+            } finally {
+                spool.dispose();
+            }
+        }
+    }
+
+    /**
+     * Executes a run of consecutive inserts as a single one, adding the features to each store
+     * with a single call and firing a single pair of events per feature type. The fids are
+     * still reported with the handle of the insert they come from.
+     */
+    @SuppressWarnings("unchecked")
+    public void execute(List<Insert> inserts, TransactionRequest request, Map featureStores, 
+        TransactionResponse response, TransactionListener listener) throws WFSTransactionException {
+        
+        // the insert being processed, its handle is reported on failure
+        Insert insert = inserts.get(0);
+        LOGGER.finer("Transaction Insert:" + inserts);
 
         long inserted = response.getTotalInserted().longValue();
 
         try {
             // group features by their schema
             HashMap /* <SimpleFeatureType,FeatureCollection> */ schema2features = new HashMap();
+            // the first insert contributing features of each schema
+            Map<SimpleFeatureType, Insert> schema2insert = new HashMap<>();
+
+            for (Insert current : inserts) {
+                insert = current;
+                List featureList = current.getFeatures();
+                for (Iterator f = featureList.iterator(); f.hasNext();) {
+                    SimpleFeature feature = (SimpleFeature) f.next();
+                    SimpleFeatureType schema = feature.getFeatureType();
+                    ListFeatureCollection collection =
+                        (ListFeatureCollection) schema2features.get(schema);
+
+                    if (collection == null) {
+                        collection = new ListFeatureCollection(schema);
+                        schema2features.put(schema, collection);
+                        schema2insert.put(schema, current);
+                    }
 
-            
-            List featureList = insert.getFeatures();
-            for (Iterator f = featureList.iterator(); f.hasNext();) {
-                SimpleFeature feature = (SimpleFeature) f.next();
-                SimpleFeatureType schema = feature.getFeatureType();
-                ListFeatureCollection collection =
-                    (ListFeatureCollection) schema2features.get(schema);
-
-                if (collection == null) {
-                    collection = new ListFeatureCollection(schema);
-                    schema2features.put(schema, collection);
-                }
-
-                // do a check for idegen = useExisting, if set try to tell the datastore to use
-                // the provided fid
-                if (insert.isIdGenUseExisting()) {
-                    feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
-                } else {
-                    Object identifier = feature.getAttribute(new NameImpl(GML.NAMESPACE, "identifier"));
-                    if (WFSInfo.Version.V_20.compareTo(insert.getVersion()) >= 0 && identifier instanceof String) {
-                        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(feature.getFeatureType());
-                        fb.init(feature);
-                        feature = fb.buildFeature((String) identifier);
+                    // do a check for idegen = useExisting, if set try to tell the datastore to use
+                    // the provided fid
+                    if (current.isIdGenUseExisting()) {
                         feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
+                    } else {
+                        Object identifier = feature.getAttribute(new NameImpl(GML.NAMESPACE, "identifier"));
+                        if (WFSInfo.Version.V_20.compareTo(current.getVersion()) >= 0 && identifier instanceof String) {
+                            SimpleFeatureBuilder fb = new SimpleFeatureBuilder(feature.getFeatureType());
+                            fb.init(feature);
+                            feature = fb.buildFeature((String) identifier);
+                            feature.getUserData().put(Hints.USE_PROVIDED_FID, true);
+                        }
                     }
-                }
 
-                collection.add(feature);
+                    collection.add(feature);
+                }
             }
 
             // JD: change from set fo list because if inserting
@@ -125,6 +170,7 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
             for (Iterator c = schema2features.values().iterator(); c.hasNext();) {
                 SimpleFeatureCollection collection = (SimpleFeatureCollection) c.next();
                 SimpleFeatureType schema = collection.getSchema();
+                insert = schema2insert.get(schema);
 
                 final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
                 SimpleFeatureStore store;
@@ -183,9 +229,10 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
                     }
 
                     //fire pre insert event
+                    InsertElementType source = unadapt(inserts);
                     TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
                             request, elementName, collection);
-                    event.setSource(Insert.WFS11.unadapt(insert));
+                    event.setSource(source);
                     
                     listener.dataStoreChange( event );
                     fids.addAll(store.addFeatures(collection));
@@ -193,26 +240,30 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
                     //fire post insert event
                     SimpleFeatureCollection features = store.getFeatures(filterFactory.id(new HashSet<FeatureId>(fids)));
                     event = new TransactionEvent(TransactionEventType.POST_INSERT, request, 
-                        elementName, features, Insert.WFS11.unadapt(insert));
+                        elementName, features, source);
                     listener.dataStoreChange( event );
                 }
             }
 
             // report back fids, we need to keep the same order the
             // fids were reported in the original feature collection
-            for (Iterator f = featureList.iterator(); f.hasNext();) {
-                SimpleFeature feature = (SimpleFeature) f.next();
-                SimpleFeatureType schema = feature.getFeatureType();
-
-                // get the next fid
-                LinkedList<FeatureId> fids = (LinkedList<FeatureId>) schema2fids.get(schema.getTypeName());
-                FeatureId fid = fids.removeFirst();
+            for (Insert current : inserts) {
+                insert = current;
+                List featureList = current.getFeatures();
+                for (Iterator f = featureList.iterator(); f.hasNext();) {
+                    SimpleFeature feature = (SimpleFeature) f.next();
+                    SimpleFeatureType schema = feature.getFeatureType();
+
+                    // get the next fid
+                    LinkedList<FeatureId> fids = (LinkedList<FeatureId>) schema2fids.get(schema.getTypeName());
+                    FeatureId fid = fids.removeFirst();
+
+                    response.addInsertedFeature(current.getHandle(), fid);
+                }
 
-                response.addInsertedFeature(insert.getHandle(), fid);
+                // update the insert counter
+                inserted += featureList.size();
             }
-
-            // update the insert counter
-            inserted += featureList.size();
         } catch (Exception e) {
             String msg = "Error performing insert: " + e.getMessage();
             throw new WFSTransactionException(msg, e, insert.getHandle());
@@ -222,7 +273,45 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
         response.setTotalInserted(BigInteger.valueOf(inserted));
     }
 
-    
+
+    /**
+     * Returns the insert element to be used as the source of the transaction events
+     */
+    static InsertElementType unadapt(List<Insert> inserts) {
+        if (inserts.size() == 1) {
+            return Insert.WFS11.unadapt(inserts.get(0));
+        }
+        InsertElementType ie = WfsFactory.eINSTANCE.createInsertElementType();
+        ie.setHandle(inserts.get(0).getHandle());
+        for (Insert insert : inserts) {
+            ie.getFeature().addAll(insert.getFeatures());
+        }
+        return ie;
+    }
+
+    /**
+     * Returns the feature type of the features in the insert, or null if the insert is empty,
+     * contains several feature types, could not be parsed, or has spooled features
+     */
+    static SimpleFeatureType getFeatureType(Insert insert) {
+        if (InsertSpool.get(insert) != null) {
+            return null;
+        }
+        SimpleFeatureType result = null;
+        for (Object feature : insert.getFeatures()) {
+            if (!(feature instanceof SimpleFeature)) {
+                return null;
+            }
+            SimpleFeatureType type = ((SimpleFeature) feature).getFeatureType();
+            if (result == null) {
+                result = type;
+            } else if (result != type && !result.equals(type)) {
+                return null;
+            }
+        }
+        return result;
+    }
+
     /**
      * Checks that all features coordinates are within the expected coordinate range
      * @param collection
@@ -286,6 +375,16 @@ public class InsertElementHandler extends AbstractTransactionElementHandler {
             LOGGER.finer("Insert was empty - does not need a FeatureSource");
         }
 
+        // the spooled features have not been parsed yet, but their names are known
+        InsertSpool spool = InsertSpool.get(insert);
+        if (spool != null) {
+            for (QName name : spool.getTypeNames()) {
+                if (!typeNames.contains(name)) {
+                    typeNames.add(name);
+                }
+            }
+        }
+
         return (QName[]) typeNames.toArray(new QName[typeNames.size()]);
     }
 }
@@ -0,0 +1,480 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.request.GetFeatureRequest;
+import org.geoserver.wfs.request.Query;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.util.Converters;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.identity.FeatureId;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Keyset (seek) pagination support for GetFeature.
+ * <p>
+ * When the {@link #KEYSET_PAGING} flag is set in the WFS service metadata, paged requests on a
+ * single simple feature type sorted by one or more attributes get a next link carrying an opaque
+ * {@link #CURSOR} instead of a start index. The cursor holds the sort key of the last feature
+ * returned, along with the ids of the features sharing that same key, and the following page is
+ * extracted by adding a "sort key greater than the last one" filter to the query, which a store
+ * with an index on the sort attributes can answer at the same cost regardless of the page depth.
+ * </p>
+ * <p>
+ * The cursor is needed before the page is encoded. Pages up to {@link #MAX_BUFFERED_FEATURES}
+ * features returning the sort attributes are loaded once in memory and the cursor is computed
+ * from them, larger pages are scanned again with a query loading just the sort attributes.
+ * </p>
+ * <p>
+ * Stores disagree on where null values go in the sort order, and comparison filters never match
+ * them, so requests sorted by nillable attributes keep using the start index. Unsorted requests
+ * keep using it too, feature ids cannot be range compared in OGC filters. The cursor also tracks
+ * the position of the next page, when the ids of the features sharing the last sort key are not
+ * all known (the key spans the whole page and features before it) the next link falls back to a
+ * start index. Keyset paging is forward only, cursor pages have no previous link.
+ * </p>
+ */
+public class KeysetPaging {
+
+    /**
+     * WFS service metadata key enabling keyset paging
+     */
+    public static final String KEYSET_PAGING = "keysetPaging";
+
+    /**
+     * The GetFeature vendor parameter carrying the cursor
+     */
+    public static final String CURSOR = "CURSOR";
+
+    /**
+     * Largest page loaded in memory to compute the cursor
+     */
+    static final int MAX_BUFFERED_FEATURES = Integer
+            .getInteger("org.geoserver.wfs.keysetBufferSize", 10000);
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    /**
+     * The position of the last feature returned in a keyset paged sequence
+     */
+    public static class Cursor {
+
+        final String typeName;
+
+        final List<String> sortSpec;
+
+        final List<String> values;
+
+        final List<String> ids;
+
+        final int position;
+
+        Cursor(String typeName, List<String> sortSpec, List<String> values, List<String> ids,
+                int position) {
+            this.typeName = typeName;
+            this.sortSpec = sortSpec;
+            this.values = values;
+            this.ids = ids;
+            this.position = position;
+        }
+
+        /**
+         * The index of the first feature following the cursor
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * Builds the filter selecting the features following the cursor in the sort order, that
+         * is, those having a greater sort key, or the same key but not returned yet
+         */
+        Filter toFilter(List<SortBy> sortBy, SimpleFeatureType schema) throws IOException {
+            List<Filter> alternatives = new ArrayList<>();
+            List<Filter> equalities = new ArrayList<>();
+            for (int i = 0; i < sortBy.size(); i++) {
+                SortBy sort = sortBy.get(i);
+                PropertyName property = sort.getPropertyName();
+                Literal value = FF.literal(toValue(property, values.get(i), schema));
+                Filter following = sort.getSortOrder() == SortOrder.DESCENDING
+                        ? FF.less(property, value, true) : FF.greater(property, value, true);
+                alternatives.add(and(equalities, following));
+                equalities.add(FF.equal(property, value, true));
+            }
+            Set<FeatureId> returned = new HashSet<>();
+            for (String id : ids) {
+                returned.add(FF.featureId(id));
+            }
+            alternatives.add(and(equalities, FF.not(FF.id(returned))));
+            return FF.or(alternatives);
+        }
+
+        Filter and(List<Filter> equalities, Filter filter) {
+            if (equalities.isEmpty()) {
+                return filter;
+            }
+            List<Filter> terms = new ArrayList<>(equalities);
+            terms.add(filter);
+            return FF.and(terms);
+        }
+
+        Object toValue(PropertyName property, String value, SimpleFeatureType schema)
+                throws IOException {
+            AttributeDescriptor descriptor = (AttributeDescriptor) property.evaluate(schema);
+            if (descriptor == null) {
+                throw new IOException("Cursor references unknown attribute " + property);
+            }
+            Class<?> binding = descriptor.getType().getBinding();
+            Object converted;
+            if (Date.class.isAssignableFrom(binding)) {
+                // dates are stored as milliseconds, string conversions might lose precision
+                try {
+                    converted = toDate(binding, Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    converted = null;
+                }
+            } else {
+                converted = Converters.convert(value, binding);
+            }
+            if (converted == null) {
+                throw new IOException("Cannot convert cursor value " + value + " to "
+                        + binding.getSimpleName());
+            }
+            return converted;
+        }
+
+        Date toDate(Class<?> binding, long millis) {
+            if (Timestamp.class.isAssignableFrom(binding)) {
+                return new Timestamp(millis);
+            } else if (java.sql.Date.class.isAssignableFrom(binding)) {
+                return new java.sql.Date(millis);
+            } else if (Time.class.isAssignableFrom(binding)) {
+                return new Time(millis);
+            }
+            return new Date(millis);
+        }
+
+        /**
+         * Encodes the cursor as an opaque, URL safe string
+         */
+        public String encode() {
+            try {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                DataOutputStream dos = new DataOutputStream(bos);
+                dos.writeUTF(typeName);
+                writeList(dos, sortSpec);
+                writeList(dos, values);
+                writeList(dos, ids);
+                dos.writeInt(position);
+                dos.flush();
+                return Base64.getUrlEncoder().withoutPadding().encodeToString(bos.toByteArray());
+            } catch (IOException e) {
+                // cannot happen, we are writing in memory
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Decodes a cursor produced by {@link #encode()}
+         */
+        public static Cursor decode(String encoded) throws IOException {
+            byte[] bytes;
+            try {
+                bytes = Base64.getUrlDecoder().decode(encoded.getBytes(StandardCharsets.US_ASCII));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid cursor " + encoded, e);
+            }
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+            String typeName = dis.readUTF();
+            List<String> sortSpec = readList(dis);
+            List<String> values = readList(dis);
+            List<String> ids = readList(dis);
+            int position = dis.readInt();
+            if (values.size() != sortSpec.size() || ids.isEmpty() || position < 0) {
+                throw new IOException("Invalid cursor " + encoded);
+            }
+            return new Cursor(typeName, sortSpec, values, ids, position);
+        }
+
+        static void writeList(DataOutputStream dos, List<String> list) throws IOException {
+            dos.writeInt(list.size());
+            for (String value : list) {
+                dos.writeUTF(value);
+            }
+        }
+
+        static List<String> readList(DataInputStream dis) throws IOException {
+            int size = dis.readInt();
+            if (size < 0 || size > dis.available()) {
+                throw new IOException("Invalid cursor");
+            }
+            List<String> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(dis.readUTF());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns true if keyset paging is enabled in the WFS configuration
+     */
+    public static boolean isEnabled(WFSInfo wfs) {
+        Boolean enabled = wfs.getMetadata().get(KEYSET_PAGING, Boolean.class);
+        return enabled != null && enabled;
+    }
+
+    /**
+     * The features of a keyset paged query, along with the position of the next page
+     */
+    public static class Page {
+
+        final FeatureCollection<? extends FeatureType, ? extends Feature> features;
+
+        final Cursor next;
+
+        final int nextIndex;
+
+        Page(FeatureCollection<? extends FeatureType, ? extends Feature> features, Cursor next,
+                int nextIndex) {
+            this.features = features;
+            this.next = next;
+            this.nextIndex = nextIndex;
+        }
+
+        /**
+         * The page features, to be used in place of the ones originally passed in
+         */
+        public FeatureCollection<? extends FeatureType, ? extends Feature> getFeatures() {
+            return features;
+        }
+
+        /**
+         * The cursor pointing to the next page, or null if the page is the last one or the next
+         * page needs to be accessed by index
+         */
+        public Cursor getNext() {
+            return next;
+        }
+
+        /**
+         * The start index of the next page, or -1 if the page is the last one
+         */
+        public int getNextIndex() {
+            return nextIndex;
+        }
+    }
+
+    /**
+     * Returns true if the request can be keyset paged: a single query on a single simple feature
+     * type, returning results sorted by non nillable attributes
+     */
+    public static boolean isApplicable(GetFeatureRequest request, List<Query> queries,
+            FeatureTypeInfo meta) throws IOException {
+        if (request.isResultTypeHits() || queries.size() != 1) {
+            return false;
+        }
+        Query query = queries.get(0);
+        if (query.getTypeNames().size() != 1
+                || !(meta.getFeatureType() instanceof SimpleFeatureType)) {
+            return false;
+        }
+        List<SortBy> sortBy = query.getSortBy();
+        if (sortBy == null || sortBy.isEmpty()) {
+            return false;
+        }
+        FeatureType schema = meta.getFeatureType();
+        for (SortBy sort : sortBy) {
+            if (sort.getPropertyName() == null) {
+                return false;
+            }
+            // nulls cannot be compared, and their position in the order depends on the store
+            Object descriptor = sort.getPropertyName().evaluate(schema);
+            if (!(descriptor instanceof AttributeDescriptor)
+                    || ((AttributeDescriptor) descriptor).isNillable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the cursor sent along with the current request, if any
+     */
+    public static Cursor getCursor(GetFeatureRequest request) {
+        Request dispatched = Dispatcher.REQUEST.get();
+        Map<String, String> kvp = dispatched == null ? null : dispatched.getRawKvp();
+        Object encoded = kvp == null ? null : kvp.get(CURSOR);
+        if (encoded == null || "".equals(encoded)) {
+            return null;
+        }
+        try {
+            return Cursor.decode(String.valueOf(encoded));
+        } catch (IOException e) {
+            throw new WFSException(request, e.getMessage(), e,
+                    ServiceException.INVALID_PARAMETER_VALUE).locator(CURSOR);
+        }
+    }
+
+    /**
+     * Checks the cursor was generated for the same type and sort order as the query, and turns it
+     * into a filter
+     */
+    public static Filter toFilter(GetFeatureRequest request, Cursor cursor, FeatureTypeInfo meta,
+            List<SortBy> sortBy) throws IOException {
+        if (!cursor.typeName.equals(meta.prefixedName())
+                || !cursor.sortSpec.equals(getSortSpec(sortBy))) {
+            throw new WFSException(request,
+                    "Cursor does not match the requested type name and sort order",
+                    ServiceException.INVALID_PARAMETER_VALUE).locator(CURSOR);
+        }
+        return cursor.toFilter(sortBy, (SimpleFeatureType) meta.getFeatureType());
+    }
+
+    /**
+     * Locates the page following the one extracted by the query
+     *
+     * @param meta The feature type being paged
+     * @param source The feature source
+     * @param pageQuery The query extracting the page
+     * @param features The features extracted by the query
+     * @param pageSize The number of features in a full page
+     * @param position The index of the first feature of the page
+     * @param previous The cursor used to extract the page, if any
+     */
+    public static Page nextPage(FeatureTypeInfo meta,
+            FeatureSource<? extends FeatureType, ? extends Feature> source,
+            org.geotools.data.Query pageQuery,
+            FeatureCollection<? extends FeatureType, ? extends Feature> features, int pageSize,
+            int position, Cursor previous) throws IOException {
+        SortBy[] sortBy = pageQuery.getSortBy();
+        String[] keys = new String[sortBy.length];
+        for (int i = 0; i < sortBy.length; i++) {
+            String name = sortBy[i].getPropertyName().getPropertyName();
+            keys[i] = name.substring(name.indexOf(':') + 1);
+        }
+        FeatureCollection<? extends FeatureType, ? extends Feature> scanned;
+        if (pageSize <= MAX_BUFFERED_FEATURES && features instanceof SimpleFeatureCollection
+                && hasAttributes(((SimpleFeatureCollection) features).getSchema(), keys)) {
+            // small page, load it once and compute the cursor from it
+            SimpleFeatureCollection simple = (SimpleFeatureCollection) features;
+            features = new ListFeatureCollection(simple.getSchema(), DataUtilities.list(simple));
+            scanned = features;
+        } else {
+            // only load the sort keys, to keep the extra query cheap
+            org.geotools.data.Query probe = new org.geotools.data.Query(pageQuery);
+            probe.setPropertyNames(keys);
+            probe.setMaxFeatures(pageSize);
+            scanned = source.getFeatures(probe);
+        }
+
+        int count = 0;
+        List<Object> first = null;
+        List<Object> last = null;
+        List<String> ids = new ArrayList<>();
+        try (FeatureIterator<? extends Feature> fi = scanned.features()) {
+            while (fi.hasNext()) {
+                SimpleFeature feature = (SimpleFeature) fi.next();
+                count++;
+                List<Object> key = new ArrayList<>(keys.length);
+                for (String name : keys) {
+                    key.add(feature.getAttribute(name));
+                }
+                if (first == null) {
+                    first = key;
+                }
+                if (!key.equals(last)) {
+                    last = key;
+                    ids.clear();
+                }
+                ids.add(feature.getID());
+            }
+        }
+        if (count < pageSize || last == null) {
+            return new Page(features, null, -1);
+        }
+        int nextIndex = position + count;
+        if (last.contains(null)) {
+            return new Page(features, null, nextIndex);
+        }
+
+        List<String> values = new ArrayList<>(keys.length);
+        for (Object value : last) {
+            if (value instanceof Date) {
+                values.add(String.valueOf(((Date) value).getTime()));
+            } else {
+                values.add(Converters.convert(value, String.class));
+            }
+        }
+        // the ids need to cover all the features with the last key returned so far, which is
+        // the case only if the key first showed up in this page. Otherwise go by index rather
+        // than growing the cursor with the ids of the previous pages
+        boolean keyStarted = !last.equals(first)
+                || (previous == null ? position == 0 : !previous.values.equals(values));
+        if (!keyStarted) {
+            return new Page(features, null, nextIndex);
+        }
+        Cursor next = new Cursor(meta.prefixedName(), getSortSpec(sortBy), values, ids,
+                nextIndex);
+        return new Page(features, next, nextIndex);
+    }
+
+    static boolean hasAttributes(SimpleFeatureType schema, String[] names) {
+        for (String name : names) {
+            if (schema.getDescriptor(name) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static List<String> getSortSpec(List<SortBy> sortBy) {
+        return getSortSpec(sortBy.toArray(new SortBy[sortBy.size()]));
+    }
+
+    static List<String> getSortSpec(SortBy[] sortBy) {
+        List<String> result = new ArrayList<>(sortBy.length);
+        for (SortBy sort : sortBy) {
+            result.add(sort.getPropertyName().getPropertyName()
+                    + (sort.getSortOrder() == SortOrder.DESCENDING ? " D" : " A"));
+        }
+        return result;
+    }
+}
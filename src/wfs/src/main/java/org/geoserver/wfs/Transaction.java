@@ -15,6 +15,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,14 +28,17 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.request.Insert;
 import org.geoserver.wfs.request.TransactionElement;
 import org.geoserver.wfs.request.TransactionRequest;
 import org.geoserver.wfs.request.TransactionResponse;
+import org.geoserver.wfs.xml.InsertSpool;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.FeatureLockException;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
 import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.filter.FilterFactory;
 import org.springframework.context.ApplicationContext;
@@ -105,6 +109,7 @@ public class Transaction {
             throw new WFSException(request, "Transaction support is not enabled");
         }
 
+        List<InsertSpool> spools = InsertSpool.getSpools(request);
         try {
             return execute(request);
         } catch (WFSException e) {
@@ -113,6 +118,10 @@ public class Transaction {
         } catch (Throwable t) {
             abort(request); // release any locks
             throw new WFSException(request, t);
+        } finally {
+            for (InsertSpool spool : spools) {
+                spool.dispose();
+            }
         }
     }
 
@@ -158,6 +167,9 @@ public class Transaction {
             request.setReleaseActionAll();
         }
 
+        // the inserts whose features are parsed in batches while executing
+        List<InsertSpool> spools = InsertSpool.getSpools(request);
+
         // inform plugins we're about to start, and let them eventually
         // alter the request
         request = fireBeforeTransaction(request);
@@ -314,12 +326,25 @@ public class Transaction {
         Exception exception = null;
 
         try {
-            for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
-                Map.Entry entry = (Map.Entry) it.next();
-                TransactionElement element = (TransactionElement) entry.getKey();
-                TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
+            if (isBulkInsert()) {
+                executeBulk(elementHandlers, request, stores, result, multiplexer);
+            } else {
+                for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry entry = (Map.Entry) it.next();
+                    TransactionElement element = (TransactionElement) entry.getKey();
+                    TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
 
-                handler.execute(element, request, stores, result, multiplexer);
+                    handler.execute(element, request, stores, result, multiplexer);
+                }
+            }
+
+            // a callback replacing the inserts would leave their spooled features behind
+            for (InsertSpool spool : spools) {
+                if (!spool.isConsumed()) {
+                    throw new WFSTransactionException(
+                            "Transaction callbacks dropped the spooled insert features",
+                            (String) null, request.getHandle());
+                }
             }
         } catch (WFSTransactionException e) {
             LOGGER.log(Level.SEVERE, "Transaction failed", e);
@@ -438,6 +463,63 @@ public class Transaction {
         // response = build;
     }
 
+    boolean isBulkInsert() {
+        Boolean bulk = wfs.getMetadata().get(InsertElementHandler.BULK_INSERT, Boolean.class);
+        return bulk != null && bulk;
+    }
+
+    /**
+     * Executes the elements in order, grouping the runs of consecutive inserts of the same
+     * feature type in a single insert, and logs the insert throughput
+     */
+    void executeBulk(Map elementHandlers, TransactionRequest request, Map stores,
+            TransactionResponse result, TransactionListener multiplexer)
+            throws WFSTransactionException {
+        List<Map.Entry> entries = new ArrayList<Map.Entry>(elementHandlers.entrySet());
+        long insertTime = 0;
+        int batches = 0;
+        long start = result.getTotalInserted().longValue();
+        for (int i = 0; i < entries.size();) {
+            TransactionElement element = (TransactionElement) entries.get(i).getKey();
+            TransactionElementHandler handler = (TransactionElementHandler) entries.get(i)
+                    .getValue();
+            SimpleFeatureType featureType = null;
+            if (handler instanceof InsertElementHandler && element instanceof Insert) {
+                featureType = InsertElementHandler.getFeatureType((Insert) element);
+            }
+            if (featureType == null) {
+                handler.execute(element, request, stores, result, multiplexer);
+                i++;
+                continue;
+            }
+
+            List<Insert> batch = new ArrayList<Insert>();
+            batch.add((Insert) element);
+            int j = i + 1;
+            for (; j < entries.size(); j++) {
+                Object next = entries.get(j).getKey();
+                if (entries.get(j).getValue() != handler || !(next instanceof Insert)
+                        || !featureType.equals(InsertElementHandler.getFeatureType((Insert) next))) {
+                    break;
+                }
+                batch.add((Insert) next);
+            }
+            long batchStart = System.nanoTime();
+            ((InsertElementHandler) handler).execute(batch, request, stores, result, multiplexer);
+            insertTime += System.nanoTime() - batchStart;
+            batches++;
+            i = j;
+        }
+
+        if (batches > 0 && LOGGER.isLoggable(Level.FINE)) {
+            long inserted = result.getTotalInserted().longValue() - start;
+            long millis = TimeUnit.NANOSECONDS.toMillis(insertTime);
+            LOGGER.fine("Transaction " + (request.getHandle() == null ? "" : request.getHandle() + " ")
+                    + "inserted " + inserted + " features in " + batches + " batches, " + millis
+                    + "ms (" + (inserted * 1000 / Math.max(millis, 1)) + " features/s)");
+        }
+    }
+
     private TransactionRequest fireBeforeTransaction(TransactionRequest request) {
         TransactionType tx = TransactionRequest.WFS11.unadapt(request);
         if (tx != null) {
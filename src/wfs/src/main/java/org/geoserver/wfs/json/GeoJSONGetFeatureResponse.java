@@ -52,6 +52,16 @@ import java.util.logging.Logger;
 public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
     private final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(this.getClass());
 
+    static final char[] TYPE_KEY = GeoJSONWriter.escapeKey("type");
+
+    static final char[] ID_KEY = GeoJSONWriter.escapeKey("id");
+
+    static final char[] GEOMETRY_KEY = GeoJSONWriter.escapeKey("geometry");
+
+    static final char[] GEOMETRY_NAME_KEY = GeoJSONWriter.escapeKey("geometry_name");
+
+    static final char[] PROPERTIES_KEY = GeoJSONWriter.escapeKey("properties");
+
     // store the response type
     private final boolean jsonp;
 
@@ -144,7 +154,7 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
                 featureCount = null;
             }
             
-            final GeoJSONBuilder jsonWriter = new GeoJSONBuilder(outWriter);
+            final GeoJSONWriter jsonWriter = new GeoJSONWriter(outWriter);
             jsonWriter.setNumberOfDecimals(numDecimals);
             jsonWriter.object().key("type").value("FeatureCollection");
             if(featureCount != null) {
@@ -153,7 +163,6 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
                 jsonWriter.key("totalFeatures").value("unknown");
             }
             jsonWriter.key("features");
-            jsonWriter.array();
 
             // execute should of set all the header information
             // including the lockID
@@ -164,17 +173,23 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             boolean hasGeom = false;
             CoordinateReferenceSystem crs;
             if (!isComplex) {
+                jsonWriter.array();
                 FeaturesInfo featuresInfo = encodeSimpleFeatures(jsonWriter, resultsList, id_option, featureBounding);
                 hasGeom = featuresInfo.hasGeometry;
                 crs = featuresInfo.crs;
+                jsonWriter.endArray(); // end features
             } else {
-                // encode collection with complex features
-                ComplexGeoJsonWriter complexWriter = new ComplexGeoJsonWriter(jsonWriter);
+                // encode collection with complex features, the complex writer works
+                // against the JSONBuilder API
+                GeoJSONBuilder builder = new GeoJSONBuilder(jsonWriter.getWriter());
+                builder.setNumberOfDecimals(numDecimals);
+                builder.array();
+                ComplexGeoJsonWriter complexWriter = new ComplexGeoJsonWriter(builder);
                 complexWriter.write(resultsList);
                 hasGeom = complexWriter.geometryFound();
                 crs = complexWriter.foundCrs();
+                builder.endArray(); // end features
             }
-            jsonWriter.endArray(); // end features
 
             // Coordinate Reference System
             try {
@@ -208,6 +223,7 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             }
 
             jsonWriter.endObject(); // end featurecollection
+            jsonWriter.flush();
 
             if (jsonp) {
                 outWriter.write(")");
@@ -237,60 +253,71 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         }
     }
 
-    private FeaturesInfo encodeSimpleFeatures(GeoJSONBuilder jsonWriter, List<FeatureCollection> resultsList,
-                                              String id_option, boolean featureBounding) {
+    private FeaturesInfo encodeSimpleFeatures(GeoJSONWriter jsonWriter, List<FeatureCollection> resultsList,
+                                              String id_option, boolean featureBounding) throws IOException {
         CoordinateReferenceSystem crs = null;
         boolean hasGeom = false;
+        // per feature type state, computed once as most collections are homogeneous
+        SimpleFeatureType fType = null;
+        List<AttributeDescriptor> types = null;
+        char[][] keys = null;
+        GeometryDescriptor defaultGeomType = null;
+        CRS.AxisOrder axisOrder = CRS.AxisOrder.EAST_NORTH;
         for (FeatureCollection collection : resultsList) {
             try (FeatureIterator iterator = collection.features()) {
-                SimpleFeatureType fType;
-                List<AttributeDescriptor> types;
                 // encode each simple feature
                 while (iterator.hasNext()) {
                     // get next simple feature
                     SimpleFeature simpleFeature = (SimpleFeature) iterator.next();
+                    if (simpleFeature.getFeatureType() != fType) {
+                        fType = simpleFeature.getFeatureType();
+                        types = fType.getAttributeDescriptors();
+                        keys = new char[types.size()][];
+                        for (int j = 0; j < types.size(); j++) {
+                            keys[j] = GeoJSONWriter.escapeKey(types.get(j).getLocalName());
+                        }
+                        defaultGeomType = fType.getGeometryDescriptor();
+                        if (defaultGeomType != null) {
+                            CoordinateReferenceSystem featureCrs =
+                                    defaultGeomType.getCoordinateReferenceSystem();
+                            axisOrder = CRS.getAxisOrder(featureCrs);
+                            if (crs == null) {
+                                crs = featureCrs;
+                            }
+                        } else {
+                            // If we don't know, assume EAST_NORTH so that no swapping occurs
+                            axisOrder = CRS.AxisOrder.EAST_NORTH;
+                        }
+                    }
                     // start writing the JSON feature object
                     jsonWriter.object();
-                    jsonWriter.key("type").value("Feature");
-                    fType = simpleFeature.getFeatureType();
-                    types = fType.getAttributeDescriptors();
+                    jsonWriter.key(TYPE_KEY).value("Feature");
                     // write the simple feature id
                     if (id_option == null) {
                         // no specific attribute nominated, use the simple feature id
-                        jsonWriter.key("id").value(simpleFeature.getID());
+                        jsonWriter.key(ID_KEY).value(simpleFeature.getID());
                     } else if (id_option.length() != 0) {
                         // a specific attribute was nominated to be used as id
                         Object value = simpleFeature.getAttribute(id_option);
-                        jsonWriter.key("id").value(value);
+                        jsonWriter.key(ID_KEY).value(value);
                     }
                     // set that axis order that should be used to write geometries
-                    GeometryDescriptor defaultGeomType = fType.getGeometryDescriptor();
-                    if (defaultGeomType != null) {
-                        CoordinateReferenceSystem featureCrs =
-                                defaultGeomType.getCoordinateReferenceSystem();
-                        jsonWriter.setAxisOrder(CRS.getAxisOrder(featureCrs));
-                        if (crs == null) {
-                            crs = featureCrs;
-                        }
-                    } else {
-                        // If we don't know, assume EAST_NORTH so that no swapping occurs
-                        jsonWriter.setAxisOrder(CRS.AxisOrder.EAST_NORTH);
-                    }
+                    jsonWriter.setAxisOrder(axisOrder);
                     // start writing the simple feature geometry JSON object
-                    jsonWriter.key("geometry");
+                    jsonWriter.key(GEOMETRY_KEY);
                     Geometry aGeom = (Geometry) simpleFeature.getDefaultGeometry();
                     // Write the geometry, whether it is a null or not
                     if (aGeom != null) {
                         jsonWriter.writeGeom(aGeom);
                         hasGeom = true;
                     } else {
-                        jsonWriter.value(null);
+                        jsonWriter.value((Object) null);
                     }
                     if (defaultGeomType != null) {
-                        jsonWriter.key("geometry_name").value(defaultGeomType.getLocalName());
+                        jsonWriter.key(GEOMETRY_NAME_KEY).value(defaultGeomType.getLocalName());
                     }
                     // start writing feature properties JSON object
-                    jsonWriter.key("properties");
+                    jsonWriter.key(PROPERTIES_KEY);
                     jsonWriter.object();
                     for (int j = 0; j < types.size(); j++) {
                         Object value = simpleFeature.getAttribute(j);
@@ -310,21 +337,24 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
                                 // Do nothing, we wrote it above
                                 // jsonWriter.value("geometry_name");
                             } else if (value == null) {
-                                jsonWriter.key(ad.getLocalName());
-                                jsonWriter.value(null);
+                                jsonWriter.key(keys[j]);
+                                jsonWriter.value((Object) null);
                             } else {
-                                jsonWriter.key(ad.getLocalName());
+                                jsonWriter.key(keys[j]);
                                 jsonWriter.writeGeom((Geometry) value);
                             }
                         } else {
-                            jsonWriter.key(ad.getLocalName());
+                            jsonWriter.key(keys[j]);
                             jsonWriter.value(value);
                         }
                     }
                     // Bounding box for feature in properties
-                    ReferencedEnvelope refenv = ReferencedEnvelope.reference(simpleFeature.getBounds());
-                    if (featureBounding && !refenv.isEmpty())
-                        jsonWriter.writeBoundingBox(refenv);
+                    if (featureBounding) {
+                        ReferencedEnvelope refenv = ReferencedEnvelope.reference(simpleFeature.getBounds());
+                        if (!refenv.isEmpty()) {
+                            jsonWriter.writeBoundingBox(refenv);
+                        }
+                    }
                     jsonWriter.endObject(); // end the properties
                     jsonWriter.endObject(); // end the feature
                 }
@@ -333,8 +363,8 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         return new FeaturesInfo(crs, hasGeom);
     }
 
-    private void writeCrs(final GeoJSONBuilder jsonWriter,
-            CoordinateReferenceSystem crs) throws FactoryException {
+    private void writeCrs(final GeoJSONWriter jsonWriter,
+            CoordinateReferenceSystem crs) throws FactoryException, IOException {
         if (crs != null) {
             String identifier = null;
             Integer code = CRS.lookupEpsgCode(crs, true);
@@ -357,13 +387,13 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             jsonWriter.endObject(); // end crs
         } else {
             jsonWriter.key("crs");
-            jsonWriter.value(null);
+            jsonWriter.value((Object) null);
         }
     }
     
     // Doesn't follow spec, but GeoServer used to do this.
-    private void writeCrsLegacy(final GeoJSONBuilder jsonWriter,
-            CoordinateReferenceSystem crs) {
+    private void writeCrsLegacy(final GeoJSONWriter jsonWriter,
+            CoordinateReferenceSystem crs) throws IOException {
         // Coordinate Reference System, currently only if the namespace is
         // EPSG
         if (crs != null) {
@@ -0,0 +1,598 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.geometry.jts.coordinatesequence.CoordinateSequences;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import net.sf.json.JSONException;
+
+/**
+ * Streaming GeoJSON writer, a lean alternative to {@link GeoJSONBuilder} for the encoding of
+ * large feature collections.
+ * <p>
+ * The output is the same as {@link GeoJSONBuilder}, but values are written straight into an
+ * internal character buffer: coordinates are read from the {@link CoordinateSequence} and rounded
+ * numbers are formatted without going through strings, and keys can be escaped once and reused
+ * via {@link #key(char[])}. Nesting is tracked on a small stack, the writer does not validate the
+ * call sequence, it's up to the caller to issue a well formed one.
+ * </p>
+ */
+public class GeoJSONWriter {
+
+    static final char[] NULL = "null".toCharArray();
+
+    static final char[] TRUE = "true".toCharArray();
+
+    static final char[] FALSE = "false".toCharArray();
+
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static final long[] POWERS = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+            100000000L };
+
+    /**
+     * Plain notation range of {@link Double#toString(double)}, outside of it the scientific
+     * notation is used
+     */
+    static final double PLAIN_MIN = 1e-3;
+
+    static final double PLAIN_MAX = 1e7;
+
+    final Writer writer;
+
+    final char[] buffer = new char[8192];
+
+    int position;
+
+    /**
+     * Per nesting level, whether no element has been written yet
+     */
+    boolean[] empty = new boolean[32];
+
+    int depth;
+
+    boolean afterKey;
+
+    final char[] digits = new char[20];
+
+    CRS.AxisOrder axisOrder = CRS.AxisOrder.EAST_NORTH;
+
+    int numDecimals = 6;
+
+    public GeoJSONWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Escapes a key, returning a token that can be passed to {@link #key(char[])}
+     */
+    public static char[] escapeKey(String key) {
+        StringWriter token = new StringWriter(key.length() + 3);
+        GeoJSONWriter writer = new GeoJSONWriter(token);
+        try {
+            writer.writeQuoted(key);
+            writer.write(':');
+            writer.flushBuffer();
+        } catch (IOException e) {
+            // cannot happen, we are writing in memory
+            throw new IllegalStateException(e);
+        }
+        return token.toString().toCharArray();
+    }
+
+    public GeoJSONWriter object() throws IOException {
+        separator();
+        write('{');
+        push();
+        return this;
+    }
+
+    public GeoJSONWriter endObject() throws IOException {
+        depth--;
+        write('}');
+        return this;
+    }
+
+    public GeoJSONWriter array() throws IOException {
+        separator();
+        write('[');
+        push();
+        return this;
+    }
+
+    public GeoJSONWriter endArray() throws IOException {
+        depth--;
+        write(']');
+        return this;
+    }
+
+    /**
+     * Writes a key in the current object
+     */
+    public GeoJSONWriter key(String key) throws IOException {
+        elementSeparator();
+        writeQuoted(key);
+        write(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Writes a key in the current object, using a token built by {@link #escapeKey(String)}
+     */
+    public GeoJSONWriter key(char[] escapedKey) throws IOException {
+        elementSeparator();
+        write(escapedKey, 0, escapedKey.length);
+        afterKey = true;
+        return this;
+    }
+
+    public GeoJSONWriter value(String value) throws IOException {
+        separator();
+        if (value == null) {
+            write(NULL, 0, NULL.length);
+        } else {
+            writeQuoted(value);
+        }
+        return this;
+    }
+
+    public GeoJSONWriter value(long value) throws IOException {
+        separator();
+        writeLong(value);
+        return this;
+    }
+
+    public GeoJSONWriter value(boolean value) throws IOException {
+        separator();
+        char[] token = value ? TRUE : FALSE;
+        write(token, 0, token.length);
+        return this;
+    }
+
+    /**
+     * Writes a number, without rounding it
+     */
+    public GeoJSONWriter value(double value) throws IOException {
+        separator();
+        writeDouble(value);
+        return this;
+    }
+
+    /**
+     * Writes a generic value, handling the same types as {@link GeoJSONBuilder#value(Object)}
+     */
+    public GeoJSONWriter value(Object value) throws IOException {
+        if (value == null) {
+            separator();
+            write(NULL, 0, NULL.length);
+        } else if (value instanceof String) {
+            value((String) value);
+        } else if (value instanceof Geometry) {
+            writeGeom((Geometry) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            value(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            value(((Double) value).doubleValue());
+        } else if (value instanceof Float) {
+            // widening to double would add spurious digits
+            float f = (Float) value;
+            if (Float.isNaN(f) || Float.isInfinite(f)) {
+                throw new JSONException("JSON does not allow non-finite numbers");
+            }
+            separator();
+            writeNumber(Float.toString(f));
+        } else if (value instanceof Number) {
+            separator();
+            writeNumber(value.toString());
+        } else if (value instanceof Boolean) {
+            value(((Boolean) value).booleanValue());
+        } else if (value instanceof Date || value instanceof Calendar) {
+            value(Converters.convert(value, String.class));
+        } else if (value instanceof List) {
+            array();
+            for (Object o : (List<?>) value) {
+                value(o);
+            }
+            endArray();
+        } else if (value instanceof Map) {
+            object();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                key(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            endObject();
+        } else {
+            value(value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Writes any geometry object, same as {@link GeoJSONBuilder#writeGeom(Geometry)}
+     */
+    public GeoJSONWriter writeGeom(Geometry geometry) throws IOException {
+        object();
+        key("type");
+        value(GeoJSONBuilder.getGeometryName(geometry));
+
+        final int geometryType = GeoJSONBuilder.getGeometryType(geometry);
+        if (geometryType == GeoJSONBuilder.MULTIGEOMETRY) {
+            key("geometries");
+            array();
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                writeGeom(geometry.getGeometryN(i));
+            }
+            endArray();
+        } else {
+            key("coordinates");
+            switch (geometryType) {
+            case GeoJSONBuilder.POINT:
+                writePoint((Point) geometry);
+                break;
+            case GeoJSONBuilder.LINESTRING:
+                writeCoordinates(((LineString) geometry).getCoordinateSequence());
+                break;
+            case GeoJSONBuilder.MULTIPOINT:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writePoint((Point) ((MultiPoint) geometry).getGeometryN(i));
+                }
+                endArray();
+                break;
+            case GeoJSONBuilder.POLYGON:
+                writePolygon((Polygon) geometry);
+                break;
+            case GeoJSONBuilder.MULTILINESTRING:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writeCoordinates(
+                            ((LineString) geometry.getGeometryN(i)).getCoordinateSequence());
+                }
+                endArray();
+                break;
+            case GeoJSONBuilder.MULTIPOLYGON:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writePolygon((Polygon) geometry.getGeometryN(i));
+                }
+                endArray();
+                break;
+            }
+        }
+        return endObject();
+    }
+
+    void writePoint(Point point) throws IOException {
+        CoordinateSequence cs = point.getCoordinateSequence();
+        if (cs.size() == 0) {
+            array();
+            endArray();
+        } else {
+            double z = cs.getDimension() > 2 ? cs.getOrdinate(0, 2) : Double.NaN;
+            writeCoordinate(cs.getX(0), cs.getY(0), z);
+        }
+    }
+
+    void writePolygon(Polygon polygon) throws IOException {
+        array();
+        writeCoordinates(polygon.getExteriorRing().getCoordinateSequence());
+        for (int i = 0, n = polygon.getNumInteriorRing(); i < n; i++) {
+            writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence());
+        }
+        endArray();
+    }
+
+    void writeCoordinates(CoordinateSequence coords) throws IOException {
+        array();
+        int dim = CoordinateSequences.coordinateDimension(coords);
+        for (int i = 0, n = coords.size(); i < n; i++) {
+            double z = dim > 2 ? coords.getOrdinate(i, 2) : Double.NaN;
+            writeCoordinate(coords.getX(i), coords.getY(i), z);
+        }
+        endArray();
+    }
+
+    void writeCoordinate(double x, double y, double z) throws IOException {
+        array();
+        if (axisOrder == CRS.AxisOrder.NORTH_EAST) {
+            roundedValue(y);
+            roundedValue(x);
+        } else {
+            roundedValue(x);
+            roundedValue(y);
+        }
+        if (!Double.isNaN(z)) {
+            roundedValue(z);
+        }
+        endArray();
+    }
+
+    /**
+     * Writes the envelope as a "bbox" key, same as {@link GeoJSONBuilder#writeBoundingBox}
+     */
+    public GeoJSONWriter writeBoundingBox(Envelope env) throws IOException {
+        key("bbox");
+        array();
+        if (axisOrder == CRS.AxisOrder.NORTH_EAST) {
+            roundedValue(env.getMinY());
+            roundedValue(env.getMinX());
+            roundedValue(env.getMaxY());
+            roundedValue(env.getMaxX());
+        } else {
+            roundedValue(env.getMinX());
+            roundedValue(env.getMinY());
+            roundedValue(env.getMaxX());
+            roundedValue(env.getMaxY());
+        }
+        return endArray();
+    }
+
+    void roundedValue(double value) throws IOException {
+        separator();
+        double rounded = RoundingUtil.round(value, numDecimals);
+        if (!writePlainDecimal(rounded)) {
+            writeDouble(rounded);
+        }
+    }
+
+    /**
+     * Writes a value already rounded to {@link #numDecimals} digits with integer arithmetic,
+     * returns false if the value cannot be represented that way
+     */
+    boolean writePlainDecimal(double value) throws IOException {
+        if (numDecimals < 0 || numDecimals >= POWERS.length) {
+            return false;
+        }
+        double abs = Math.abs(value);
+        if (abs == 0) {
+            writeLong(0);
+            return true;
+        }
+        if (abs < PLAIN_MIN || abs >= PLAIN_MAX) {
+            return false;
+        }
+        long power = POWERS[numDecimals];
+        long units = Math.round(abs * power);
+        // make sure the decimal digits are an exact representation of the value
+        if ((double) units / power != abs) {
+            return false;
+        }
+        if (value < 0) {
+            write('-');
+        }
+        writeLong(units / power);
+        long fraction = units % power;
+        if (fraction != 0) {
+            int length = numDecimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                length--;
+            }
+            write('.');
+            for (int i = length - 1; i >= 0; i--) {
+                digits[i] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            write(digits, 0, length);
+        }
+        return true;
+    }
+
+    void writeDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers");
+        }
+        if (value == (long) value && Math.abs(value) < PLAIN_MAX) {
+            writeLong((long) value);
+        } else {
+            writeNumber(Double.toString(value));
+        }
+    }
+
+    /**
+     * Writes a number string, removing trailing zeroes from the decimal part
+     */
+    void writeNumber(String number) throws IOException {
+        int end = number.length();
+        if (number.indexOf('.') > 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+            while (number.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (number.charAt(end - 1) == '.') {
+                end--;
+            }
+        }
+        for (int i = 0; i < end; i++) {
+            write(number.charAt(i));
+        }
+    }
+
+    void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeNumber(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        write(digits, i, digits.length - i);
+    }
+
+    /**
+     * Writes the value as a JSON string, escaping it like <code>JSONUtils.quote</code>, that is,
+     * besides the control characters, also the C1 controls (<code>\u0080-\u009f</code>) and the
+     * general punctuation block (<code>\u2000-\u20ff</code>) are written as unicode escapes
+     */
+    void writeQuoted(String value) throws IOException {
+        write('"');
+        char previous = 0;
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\' && c != '/' && !isEscapedRange(c)) {
+                write(c);
+            } else {
+                switch (c) {
+                case '"':
+                case '\\':
+                    write('\\');
+                    write(c);
+                    break;
+                case '/':
+                    if (previous == '<') {
+                        write('\\');
+                    }
+                    write(c);
+                    break;
+                case '\b':
+                    write('\\');
+                    write('b');
+                    break;
+                case '\t':
+                    write('\\');
+                    write('t');
+                    break;
+                case '\n':
+                    write('\\');
+                    write('n');
+                    break;
+                case '\f':
+                    write('\\');
+                    write('f');
+                    break;
+                case '\r':
+                    write('\\');
+                    write('r');
+                    break;
+                default:
+                    write('\\');
+                    write('u');
+                    write(HEX[(c >> 12) & 0xF]);
+                    write(HEX[(c >> 8) & 0xF]);
+                    write(HEX[(c >> 4) & 0xF]);
+                    write(HEX[c & 0xF]);
+                }
+            }
+            previous = c;
+        }
+        write('"');
+    }
+
+    static boolean isEscapedRange(char c) {
+        return (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100');
+    }
+
+    /**
+     * Writes the comma before a value, unless it follows a key or is the first in its array
+     */
+    void separator() throws IOException {
+        if (afterKey) {
+            afterKey = false;
+        } else {
+            elementSeparator();
+        }
+    }
+
+    void elementSeparator() throws IOException {
+        if (depth > 0) {
+            if (empty[depth - 1]) {
+                empty[depth - 1] = false;
+            } else {
+                write(',');
+            }
+        }
+    }
+
+    void push() {
+        if (depth == empty.length) {
+            boolean[] expanded = new boolean[depth * 2];
+            System.arraycopy(empty, 0, expanded, 0, depth);
+            empty = expanded;
+        }
+        empty[depth++] = true;
+    }
+
+    void write(char c) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = c;
+    }
+
+    void write(char[] chars, int offset, int length) throws IOException {
+        if (length > buffer.length - position) {
+            flushBuffer();
+            if (length > buffer.length) {
+                writer.write(chars, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(chars, offset, buffer, position, length);
+        position += length;
+    }
+
+    void flushBuffer() throws IOException {
+        if (position > 0) {
+            writer.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Writes the buffered contents and returns the underlying writer, allowing other code to
+     * append a value directly to it, e.g. after a {@link #key(String)}. The writer state does
+     * not change, the caller is responsible for writing a complete value.
+     */
+    public Writer getWriter() throws IOException {
+        flushBuffer();
+        afterKey = false;
+        return writer;
+    }
+
+    /**
+     * Writes the buffered contents to the underlying writer and flushes it
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        writer.flush();
+    }
+
+    /**
+     * Set the axis order to assume all input will be provided in. Has no effect on geometries
+     * that have already been written.
+     */
+    public void setAxisOrder(CRS.AxisOrder axisOrder) {
+        this.axisOrder = axisOrder;
+    }
+
+    public void setNumberOfDecimals(int numberOfDecimals) {
+        this.numDecimals = numberOfDecimals;
+    }
+}
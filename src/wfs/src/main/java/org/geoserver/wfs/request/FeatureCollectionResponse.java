@@ -193,11 +193,17 @@ public abstract class FeatureCollectionResponse extends RequestObject {
 
         @Override
         public BigInteger getTotalNumberOfFeatures() {
-            return eGet(adaptee, "numberMatched", BigInteger.class);
+            BigInteger n = eGet(adaptee, "numberMatched", BigInteger.class);
+            return (n == null || n.signum() < 0) ? null : n;
         }
         @Override
         public void setTotalNumberOfFeatures(BigInteger n) {
-            eSet(adaptee, "numberMatched", (n.longValue() < 0) ? null : n);
+            // lazily computed totals are subclasses of BigInteger, don't force them here,
+            // the getter will drop them if they turn out to be unknown
+            if (n != null && n.getClass() == BigInteger.class && n.signum() < 0) {
+                n = null;
+            }
+            eSet(adaptee, "numberMatched", n);
         }
 
         @Override
@@ -5,15 +5,15 @@
  */
 package org.geoserver.wfs.response;
 
-import com.google.common.escape.Escaper;
-import com.google.common.escape.Escapers;
 import org.eclipse.xsd.XSDElementDeclaration;
 import org.eclipse.xsd.impl.XSDElementDeclarationImpl;
 import org.geoserver.config.GeoServer;
 import org.geoserver.feature.FlatteningFeatureCollection;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.util.SharedExecutors;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
+import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -28,16 +28,25 @@ import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.PropertyDescriptor;
 
+import com.vividsolutions.jts.geom.Geometry;
+
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * WFS output format for a GetFeature operation in which the outputFormat is "csv".
@@ -50,7 +59,28 @@ import java.util.regex.Pattern;
  */
 public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
 
-    static final Pattern CSV_ESCAPES = Pattern.compile("[\"\n,\r]");
+    /**
+     * Format option compressing the output on the fly, returning a csv.gz file
+     */
+    public static final String GZIP = "GZIP";
+
+    /**
+     * WFS metadata key enabling the encoding of geometries to WKT in parallel
+     */
+    public static final String PARALLEL_WKT = "csvParallelWKT";
+
+    static final int WKT_THREADS = Math.max(1, Integer.getInteger(
+            "org.geoserver.wfs.csvThreads", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Number of features read and encoded at once when encoding WKT in parallel
+     */
+    static final int BATCH_SIZE = 1024;
+
+    /**
+     * Name of the {@link SharedExecutors} pool encoding the geometries
+     */
+    static final String WKT_POOL = "csv-wkt";
 
     public CSVOutputFormat(GeoServer gs) {
         //this is the name of your output format, it is the string
@@ -68,7 +98,7 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
                throws ServiceException {
         // won't allow browsers to open it directly, but that's the mime
         // state in the RFC
-        return "text/csv";
+        return isGzip(operation) ? "application/gzip" : "text/csv";
     }
 
     @Override
@@ -80,7 +110,19 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
     public String getAttachmentFileName(Object value, Operation operation) {
         GetFeatureRequest request = GetFeatureRequest.adapt(operation.getParameters()[0]);
         String outputFileName = request.getQueries().get(0).getTypeNames().get(0).getLocalPart();
-        return outputFileName + ".csv";
+        return outputFileName + (isGzip(operation) ? ".csv.gz" : ".csv");
+    }
+
+    /**
+     * Returns true if the GZIP format option is set
+     */
+    boolean isGzip(Operation operation) {
+        GetFeatureRequest request = GetFeatureRequest.adapt(operation.getParameters()[0]);
+        if (request == null || request.getFormatOptions() == null) {
+            return false;
+        }
+        Object gzip = ((Map<?, ?>) request.getFormatOptions()).get(GZIP);
+        return gzip != null && Boolean.valueOf(gzip.toString());
     }
     
     /**
@@ -92,8 +134,14 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
             ServiceException {
     	   //write out content here
 
+        GZIPOutputStream gzip = null;
+        if (isGzip(getFeature)) {
+            gzip = new GZIPOutputStream(output, 8192);
+            output = gzip;
+        }
+
         //create a writer
-        BufferedWriter w = new BufferedWriter( new OutputStreamWriter( output, gs.getGlobal().getSettings().getCharset() ) );
+        BufferedWriter w = new BufferedWriter( new OutputStreamWriter( output, gs.getGlobal().getSettings().getCharset() ), 64 * 1024 );
                    
         //get the feature collection
         FeatureCollection<?, ?> fc = 
@@ -151,6 +199,15 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
         AttrFormatter[] formatters = getFormatters(fc.getSchema());
            
         //write out the features
+        if (formatters != null) {
+            if (isParallelWKT(formatters)) {
+                writeParallel((SimpleFeatureCollection) fc, formatters, w);
+            } else {
+                writeSimple((SimpleFeatureCollection) fc, formatters, w);
+            }
+            finish(w, gzip);
+            return;
+        }
         FeatureIterator<?> i = fc.features();
         try {
             while( i.hasNext() ) {                
@@ -158,52 +215,38 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
                 // dump fid
                 w.write(prepCSVField(f.getIdentifier().getID()));
                 w.write(",");
-                if (f instanceof SimpleFeature) {
-                    // dump attributes
-                    for ( int j = 0; j < ((SimpleFeature) f).getAttributeCount(); j++ ) {
-                        Object att = ((SimpleFeature) f).getAttribute( j );
-                        if ( att != null ) {
-                            String value = formatters[j].format(att);
-                            w.write( value );
-                        }
-                        if ( j < ((SimpleFeature) f).getAttributeCount()-1 ) {
-                            w.write(",");    
-                        }
-                    }
-                } else {
-                    // complex feature
-                    Iterator<PropertyDescriptor> descriptors = fc.getSchema().getDescriptors().iterator();
+                // complex feature
+                Iterator<PropertyDescriptor> descriptors = fc.getSchema().getDescriptors().iterator();
+                
+                // dump attributes
+                int j = 0;
+                while (descriptors.hasNext()) {
+                    PropertyDescriptor desc = descriptors.next();
                     
-                    // dump attributes
-                    int j = 0;
-                    while (descriptors.hasNext()) {
-                        PropertyDescriptor desc = descriptors.next();
-                        
-                        if (desc.getName().getLocalPart().startsWith("FEATURE_LINK")) {
-                            // skip temporary attributes
-                            continue;
-                        }
-                        if (j > 0) {
-                            w.write(",");
-                        }
-                        j++;
-                        // Multi valued properties aren't supported, only for SF0 for now
-                        Collection<Property> values = f.getProperties(desc.getName());
-                        if (values.size() > 1) {
-                            throw new UnsupportedOperationException(
-                                    "Multi valued properties aren't supported with CSV format!");
-                        }
-
-                        Object att = null;
-                        if (!values.isEmpty()) {
-                            att = values.iterator().next().getValue();
-                        }
+                    if (desc.getName().getLocalPart().startsWith("FEATURE_LINK")) {
+                        // skip temporary attributes
+                        continue;
+                    }
+                    if (j > 0) {
+                        w.write(",");
+                    }
+                    j++;
+                    // Multi valued properties aren't supported, only for SF0 for now
+                    Collection<Property> values = f.getProperties(desc.getName());
+                    if (values.size() > 1) {
+                        throw new UnsupportedOperationException(
+                                "Multi valued properties aren't supported with CSV format!");
+                    }
 
-                        if (att != null) {
-                            String value = formatToString(att, coordFormatter);
-                            w.write(prepCSVField(value));
-                        }     
+                    Object att = null;
+                    if (!values.isEmpty()) {
+                        att = values.iterator().next().getValue();
                     }
+
+                    if (att != null) {
+                        String value = formatToString(att, coordFormatter);
+                        w.write(prepCSVField(value));
+                    }     
                 }
                 // by RFC each line is terminated by CRLF
                 w.write("\r\n");
@@ -212,7 +255,170 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
             i.close();
         }
            
+        finish(w, gzip);
+    }
+
+    private void finish(Writer w, GZIPOutputStream gzip) throws IOException {
         w.flush();
+        if (gzip != null) {
+            gzip.finish();
+        }
+    }
+
+    /**
+     * Returns true if WKT should be encoded in parallel, as configured in the WFS metadata, and
+     * there is at least a geometry to encode
+     */
+    private boolean isParallelWKT(AttrFormatter[] formatters) {
+        Boolean parallel = gs.getService(WFSInfo.class).getMetadata().get(PARALLEL_WKT,
+                Boolean.class);
+        if (!Boolean.TRUE.equals(parallel) || WKT_THREADS < 2) {
+            return false;
+        }
+        for (AttrFormatter formatter : formatters) {
+            if (formatter == geometryFormatter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeSimple(SimpleFeatureCollection fc, AttrFormatter[] formatters, Writer w)
+            throws IOException {
+        final int last = formatters.length - 1;
+        try (FeatureIterator<SimpleFeature> i = fc.features()) {
+            while (i.hasNext()) {
+                SimpleFeature f = i.next();
+                // dump fid
+                w.write(prepCSVField(f.getID()));
+                w.write(",");
+                // dump attributes
+                for (int j = 0; j <= last; j++) {
+                    Object att = f.getAttribute(j);
+                    if (att != null) {
+                        w.write(formatters[j].format(att));
+                    }
+                    if (j < last) {
+                        w.write(",");
+                    }
+                }
+                // by RFC each line is terminated by CRLF
+                w.write("\r\n");
+            }
+        }
+    }
+
+    /**
+     * Reads the features in batches, encoding the geometries of each batch in parallel while the
+     * next one is being read, and writes them out in the original order
+     */
+    private void writeParallel(SimpleFeatureCollection fc, AttrFormatter[] formatters, Writer w)
+            throws IOException {
+        WKTBatch pending = null;
+        try (FeatureIterator<SimpleFeature> i = fc.features()) {
+            while (i.hasNext()) {
+                WKTBatch batch = new WKTBatch(formatters);
+                while (i.hasNext() && batch.features.size() < BATCH_SIZE) {
+                    batch.features.add(i.next());
+                }
+                batch.encode();
+                if (pending != null) {
+                    pending.write(w);
+                }
+                pending = batch;
+            }
+            if (pending != null) {
+                pending.write(w);
+                pending = null;
+            }
+        } finally {
+            if (pending != null) {
+                pending.cancel();
+            }
+        }
+    }
+
+    /**
+     * A batch of features whose geometries are encoded to WKT in background
+     */
+    private static class WKTBatch {
+
+        final AttrFormatter[] formatters;
+
+        final List<SimpleFeature> features = new ArrayList<>(BATCH_SIZE);
+
+        final List<Future<?>> futures = new ArrayList<>();
+
+        String[][] encoded;
+
+        WKTBatch(AttrFormatter[] formatters) {
+            this.formatters = formatters;
+        }
+
+        void encode() {
+            final int size = features.size();
+            encoded = new String[size][];
+            int sliceSize = (size + WKT_THREADS - 1) / WKT_THREADS;
+            for (int start = 0; start < size; start += sliceSize) {
+                final int from = start;
+                final int to = Math.min(size, start + sliceSize);
+                FutureTask<Void> task = new FutureTask<Void>(() -> {
+                    for (int k = from; k < to; k++) {
+                        SimpleFeature f = features.get(k);
+                        String[] values = new String[formatters.length];
+                        for (int j = 0; j < formatters.length; j++) {
+                            Object att = f.getAttribute(j);
+                            if (att != null && formatters[j] == geometryFormatter) {
+                                values[j] = geometryFormatter.format(att);
+                            }
+                        }
+                        encoded[k] = values;
+                    }
+                }, null);
+                futures.add(task);
+                SharedExecutors.execute(WKT_POOL, WKT_THREADS, task);
+            }
+        }
+
+        void write(Writer w) throws IOException {
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while encoding geometries", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Failed to encode geometries", e.getCause());
+                }
+            }
+            final int last = formatters.length - 1;
+            for (int k = 0; k < features.size(); k++) {
+                SimpleFeature f = features.get(k);
+                String[] values = encoded[k];
+                w.write(prepCSVField(f.getID()));
+                w.write(",");
+                for (int j = 0; j <= last; j++) {
+                    if (values[j] != null) {
+                        w.write(values[j]);
+                    } else {
+                        Object att = f.getAttribute(j);
+                        if (att != null) {
+                            w.write(formatters[j].format(att));
+                        }
+                    }
+                    if (j < last) {
+                        w.write(",");
+                    }
+                }
+                w.write("\r\n");
+            }
+        }
+
+        void cancel() {
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
     }
 
     private AttrFormatter[] getFormatters(FeatureType schema) {
@@ -227,7 +433,9 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
             int i = 0;
             for (AttributeDescriptor attributeDescriptor : sft.getAttributeDescriptors()) {
                 Class<?> binding = attributeDescriptor.getType().getBinding();
-                if(Number.class.isAssignableFrom(binding)) {
+                if (Geometry.class.isAssignableFrom(binding)) {
+                    formatters[i] = geometryFormatter;
+                } else if(Number.class.isAssignableFrom(binding)) {
                     formatters[i] = new NumberFormatter(coordFormatter);
                 } else if (java.sql.Date.class.isAssignableFrom(binding)) {
                     formatters[i] = sqlDateFormatter;
@@ -299,6 +507,15 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
 
     private static AttrFormatter defaultFormatter = new DefaultFormatter();
 
+    private static class GeometryFormatter implements AttrFormatter {
+        @Override
+        public String format(Object att) {
+            return prepCSVField(att.toString());
+        }
+    }
+
+    private static AttrFormatter geometryFormatter = new GeometryFormatter();
+
     private String formatToString(Object att, NumberFormat coordFormatter) {
         String value;
         if (att instanceof Number) {
@@ -320,27 +537,45 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
         return value;
     }
 
-    private static Escaper escaper =  Escapers.builder().addEscape('"', "\"\"").build();
-
     /*
      * The CSV "spec" explains that fields with certain properties must be
      * delimited by double quotes, and also that double quotes within fields
      * must be escaped.  This method takes a field and returns one that
      * obeys the CSV spec.
      */    
-    private static String prepCSVField(String field){
-    	// "embedded double-quote characters must be represented by a pair of double-quote characters."
-        String mod = escaper.escape(field);
-
-    	/*
-    	 * Enclose string in double quotes if it contains double quotes, commas, or newlines
-    	 */
-        if (CSV_ESCAPES.matcher(mod).find()) {
-            mod = "\"" + mod + "\"";
-    	}
-    	
-		return mod;
-    	
+    static String prepCSVField(String field){
+        // scan once, most fields need no quoting at all
+        boolean quotes = false;
+        boolean escape = false;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') {
+                quotes = true;
+                escape = true;
+                break;
+            } else if (c == ',' || c == '\n' || c == '\r') {
+                escape = true;
+            }
+        }
+        if (!escape) {
+            return field;
+        }
+
+        // "embedded double-quote characters must be represented by a pair of double-quote characters."
+        StringBuilder sb = new StringBuilder(field.length() + 8);
+        sb.append('"');
+        if (quotes) {
+            for (int i = 0; i < field.length(); i++) {
+                char c = field.charAt(i);
+                if (c == '"') {
+                    sb.append('"');
+                }
+                sb.append(c);
+            }
+        } else {
+            sb.append(field);
+        }
+        return sb.append('"').toString();
     }
     
     @Override
@@ -350,6 +585,10 @@ public class CSVOutputFormat extends WFSGetFeatureOutputFormat {
     
     @Override
     public String getCharset(Operation operation){
+        if (isGzip(operation)) {
+            // binary output
+            return null;
+        }
         return gs.getGlobal().getSettings().getCharset();
     }
 
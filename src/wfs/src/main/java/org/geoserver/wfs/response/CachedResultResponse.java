@@ -0,0 +1,60 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.GetFeatureCache;
+import org.geoserver.wfs.GetFeatureCache.CachedResult;
+
+/**
+ * Writes out a GetFeature response found in the {@link GetFeatureCache}
+ */
+public class CachedResultResponse extends Response {
+
+    public CachedResultResponse() {
+        super(CachedResult.class);
+    }
+
+    @Override
+    public String getMimeType(Object value, Operation operation) throws ServiceException {
+        return ((CachedResult) value).getMimeType();
+    }
+
+    @Override
+    public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+        return GetFeatureCache.addCacheHeader(((CachedResult) value).getHeaders(), "HIT");
+    }
+
+    @Override
+    public String getPreferredDisposition(Object value, Operation operation) {
+        return ((CachedResult) value).getDisposition();
+    }
+
+    @Override
+    public String getAttachmentFileName(Object value, Operation operation) {
+        return ((CachedResult) value).getFileName();
+    }
+
+    @Override
+    public String getCharset(Operation operation) {
+        // the cached result is the service answering the operation
+        Object service = operation.getService().getService();
+        if (service instanceof CachedResult) {
+            return ((CachedResult) service).getCharset();
+        }
+        return null;
+    }
+
+    @Override
+    public void write(Object value, OutputStream output, Operation operation)
+            throws IOException, ServiceException {
+        ((CachedResult) value).write(output);
+    }
+}
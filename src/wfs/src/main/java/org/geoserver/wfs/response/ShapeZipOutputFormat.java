@@ -28,12 +28,14 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.SimpleTimeZone;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.namespace.QName;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogBuilder;
 import org.geoserver.catalog.FeatureTypeInfo;
@@ -68,6 +70,7 @@ import org.geotools.wfs.v1_1.WFSConfiguration;
 import org.geotools.xml.Encoder;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -90,6 +93,11 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private static final Logger LOGGER = Logging.getLogger(ShapeZipOutputFormat.class);
     public static final String GS_SHAPEFILE_CHARSET = "GS-SHAPEFILE-CHARSET";
     public static final String SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI = "SHAPE-ZIP_DEFAULT_PRJ_IS_ESRI";
+    /**
+     * WFS metadata key enabling the direct writing of the shapefiles into the zip, without
+     * going through a temporary directory
+     */
+    public static final String SHAPE_ZIP_STREAMING = "SHAPE-ZIP_STREAMING";
     
     private static final Configuration templateConfig = new Configuration();
     
@@ -186,6 +194,16 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
      */
     public void write(List<SimpleFeatureCollection> collections, Charset charset, OutputStream output, 
         final GetFeatureRequest request) throws IOException, ServiceException {
+        if (isStreaming()) {
+            ZipOutputStream zipOut = new ZipOutputStream(output);
+            ShapefileZipStreamer streamer = new ShapefileZipStreamer(zipOut, charset, maxShpSize,
+                    maxDbfSize);
+            if (streamer.canStream(collections)) {
+                writeStreaming(collections, streamer, zipOut, request);
+                return;
+            }
+        }
+
         //We might get multiple featurecollections in our response (multiple queries?) so we need to
         //write out multiple shapefile sets, one for each query response.
         final File tempDir = IOUtils.createTempDirectory("shpziptemp");
@@ -259,54 +277,94 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         }
     }
 
+    /**
+     * Writes the shapefiles directly in the zip, the collections must have been checked with
+     * {@link ShapefileZipStreamer#canStream(List)}
+     */
+    private void writeStreaming(List<SimpleFeatureCollection> collections,
+            ShapefileZipStreamer streamer, ZipOutputStream zipOut, GetFeatureRequest request)
+            throws IOException {
+        for (SimpleFeatureCollection collection : collections) {
+            SimpleFeatureType schema = collection.getSchema();
+            FeatureTypeInfo ftInfo = getFeatureTypeInfo(schema);
+            String fileName = new FileNameSource(getClass()).getShapeName(ftInfo, null);
+            String prj = null;
+            CoordinateReferenceSystem crs = schema.getCoordinateReferenceSystem();
+            if (crs != null) {
+                try {
+                    if (isEsriFormatRequested(request)) {
+                        prj = getESRIWKT(schema);
+                    }
+                } catch (FactoryException e) {
+                    throw new IOException("Failed to write out the ESRI style prj file", e);
+                }
+                if (prj == null) {
+                    prj = crs.toWKT();
+                }
+            }
+            streamer.write(collection, fileName, prj);
+        }
+
+        // dump the request
+        String dumpName = getRequestDumpName(request, collections.get(0));
+        if (dumpName != null) {
+            zipOut.putNextEntry(new ZipEntry(dumpName));
+            try {
+                writeRequestDump(request, new CloseShieldOutputStream(zipOut));
+            } catch (IOException e) {
+                throw new WFSException(request, "Failed to dump the WFS request");
+            }
+            zipOut.closeEntry();
+        }
+        zipOut.finish();
+    }
+
+    /**
+     * Returns true if the shapefiles should be written directly in the zip output, as
+     * configured by the {@link #SHAPE_ZIP_STREAMING} key in the WFS metadata
+     */
+    private boolean isStreaming() {
+        if (gs == null) {
+            return false;
+        }
+        Boolean streaming = gs.getService(WFSInfo.class).getMetadata().get(SHAPE_ZIP_STREAMING,
+                Boolean.class);
+        return Boolean.TRUE.equals(streaming);
+    }
+
+    /**
+     * Returns the name of the request dump file, or null if there is no request to dump
+     */
+    private String getRequestDumpName(GetFeatureRequest gft, SimpleFeatureCollection fc) {
+        if(Dispatcher.REQUEST.get() == null || gft == null) {
+            // we're probably running in a unit test
+            return null;
+        }
+        FeatureTypeInfo ftInfo = getFeatureTypeInfo(fc.getSchema());
+        return new FileNameSource(getClass()).getRequestDumpName(ftInfo) + ".txt";
+    }
+
     /**
      * Dumps the request
      * @param simpleFeatureCollection
      */
     private void createRequestDump(File tempDir, GetFeatureRequest gft, SimpleFeatureCollection fc) {
-        final Request request = Dispatcher.REQUEST.get();
-        if(request == null || gft == null) {
-            // we're probably running in a unit test
+        String fileName = getRequestDumpName(gft, fc);
+        if (fileName == null) {
             return;
         }
         
         // build the target file
-        FeatureTypeInfo ftInfo = getFeatureTypeInfo(fc.getSchema());
-        String fileName = new FileNameSource(getClass()).getRequestDumpName(ftInfo) + ".txt";
         File target = new File(tempDir, fileName);
         
         try {
-            if(request.isGet()) {
-                final HttpServletRequest httpRequest = request.getHttpRequest();
-                String baseUrl = ResponseUtils.baseURL(httpRequest);
-                String path = request.getPath();
-                //encode proxy url if existing
-                String mangledUrl = ResponseUtils.buildURL(baseUrl, path, null, URLType.SERVICE);
-                StringBuilder url = new StringBuilder();
-                String parameters = httpRequest.getQueryString();
-                url.append(mangledUrl).append("?").append(parameters);
-                FileUtils.writeStringToFile(target, url.toString());
-            } else {
-                org.geotools.xml.Configuration cfg = null;
-                QName elementName = null;
-                if(gft.getVersion().equals("1.1.0")) {
-                    cfg = new WFSConfiguration();
-                    elementName = WFS.GetFeature;
-                } else {
-                    cfg = new org.geotools.wfs.v1_0.WFSConfiguration();
-                    elementName = org.geotools.wfs.v1_0.WFS.GetFeature;
-                }
-                FileOutputStream fos = null;
-                try {
-                    fos = new FileOutputStream(target);
-                    Encoder encoder = new Encoder(cfg);
-                    encoder.setIndenting(true);
-                    encoder.setIndentSize(2);
-                    encoder.encode(gft, elementName, fos);
-                } finally {
-                    if(fos != null)
-                        fos.close();
-                }
+            FileOutputStream fos = null;
+            try {
+                fos = new FileOutputStream(target);
+                writeRequestDump(gft, fos);
+            } finally {
+                if(fos != null)
+                    fos.close();
             }
         } catch(IOException e) {
             throw new WFSException(gft, "Failed to dump the WFS request");
@@ -314,6 +372,38 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         
     }
 
+    /**
+     * Writes the request, either as a GET url or as a XML document
+     */
+    private void writeRequestDump(GetFeatureRequest gft, OutputStream os) throws IOException {
+        final Request request = Dispatcher.REQUEST.get();
+        if(request.isGet()) {
+            final HttpServletRequest httpRequest = request.getHttpRequest();
+            String baseUrl = ResponseUtils.baseURL(httpRequest);
+            String path = request.getPath();
+            //encode proxy url if existing
+            String mangledUrl = ResponseUtils.buildURL(baseUrl, path, null, URLType.SERVICE);
+            StringBuilder url = new StringBuilder();
+            String parameters = httpRequest.getQueryString();
+            url.append(mangledUrl).append("?").append(parameters);
+            os.write(url.toString().getBytes());
+        } else {
+            org.geotools.xml.Configuration cfg = null;
+            QName elementName = null;
+            if(gft.getVersion().equals("1.1.0")) {
+                cfg = new WFSConfiguration();
+                elementName = WFS.GetFeature;
+            } else {
+                cfg = new org.geotools.wfs.v1_0.WFSConfiguration();
+                elementName = org.geotools.wfs.v1_0.WFS.GetFeature;
+            }
+            Encoder encoder = new Encoder(cfg);
+            encoder.setIndenting(true);
+            encoder.setIndentSize(2);
+            encoder.encode(gft, elementName, os);
+        }
+    }
+
     private void createEmptyZipWarning(File tempDir) throws IOException {
         PrintWriter pw = null;
         try {
@@ -361,12 +451,17 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private void changeWKTFormatIfFileFormatIsESRI(File tempDir, GetFeatureRequest request,
             String fileName, SimpleFeatureType remappedSchema) throws FactoryException,
             IOException, FileNotFoundException {
-        
+        if (isEsriFormatRequested(request)) {
+            replaceOGCPrjFileByESRIPrjFile(tempDir, fileName, remappedSchema);
+        }
+    }
+
+    private boolean isEsriFormatRequested(GetFeatureRequest request) {
         boolean useEsriFormat = false;
         
         // if the request originates from the WPS we won't actually have any GetFeatureType request
         if(request == null) {
-            return;
+            return false;
         }
         
         Map<String, ?> formatOptions = request.getFormatOptions();
@@ -379,20 +474,36 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         }else{
             useEsriFormat = "ESRI".equalsIgnoreCase(requestedPrjFileFormat);
         }
-        
-        if (useEsriFormat) {
-            replaceOGCPrjFileByESRIPrjFile(tempDir, fileName, remappedSchema);
-        }
+        return useEsriFormat;
     }
 
     private void replaceOGCPrjFileByESRIPrjFile(File tempDir, String fileName,
             SimpleFeatureType remappedSchema) throws FactoryException, IOException,
             FileNotFoundException {
-        final Integer epsgCode = CRS.lookupEpsgCode(remappedSchema.getGeometryDescriptor()
+        String data = getESRIWKT(remappedSchema);
+        if (data != null) {
+            File prjShapeFile = new File(tempDir, fileName + ".prj");
+            prjShapeFile.delete();
+
+            BufferedWriter out = new BufferedWriter(new FileWriter(prjShapeFile));
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Looks up the ESRI WKT for the schema CRS in user_projections/esri.properties, returns null
+     * if it cannot be found
+     */
+    private String getESRIWKT(SimpleFeatureType schema) throws FactoryException, IOException {
+        final Integer epsgCode = CRS.lookupEpsgCode(schema.getGeometryDescriptor()
                 .getCoordinateReferenceSystem(), true);
         if(epsgCode == null){
             LOGGER.info("Can't find the EPSG code for the shapefile CRS");
-            return;
+            return null;
         }
         Resource file = resourceLoader.get("user_projections/esri.properties");
 
@@ -409,22 +520,14 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
 
             String data = (String) properties.get(epsgCode.toString());
 
-            if (data != null) {
-                File prjShapeFile = new File(tempDir, fileName + ".prj");
-                prjShapeFile.delete();
-
-                BufferedWriter out = new BufferedWriter(new FileWriter(prjShapeFile));
-                try {
-                    out.write(data);
-                } finally {
-                    out.close();
-                }
-            } else {
+            if (data == null) {
                 LOGGER.info("Requested shapefile with ESRI WKT .prj format but couldn't find an entry for ESPG code "
                         + epsgCode + " in esri.properties");
             }
+            return data;
         } else {
             LOGGER.info("Requested shapefile with ESRI WKT .prj format but the esri.properties file does not exist in the user_projections directory");
+            return null;
         }
     }
 
@@ -0,0 +1,375 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.geotools.data.shapefile.dbf.DbaseFileWriter;
+import org.geotools.data.shapefile.shp.JTSUtilities;
+import org.geotools.data.shapefile.shp.ShapeHandler;
+import org.geotools.data.shapefile.shp.ShapeType;
+import org.geotools.data.shapefile.shp.ShapefileHeader;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureTypes;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes shapefiles straight into a {@link ZipOutputStream}, without going through a temporary
+ * directory.
+ * <p>
+ * The collection is read once, so that geometries and attributes cannot get out of step even if
+ * the source returns the features in no particular order. The .dbf is written straight into the
+ * zip, while the .shp records are spooled, in memory up to {@link #SPOOL_THRESHOLD} bytes and in
+ * a temporary file past it, since the .shp header needs the file length and the bounds before
+ * the first record. The .shx is then written from the record lengths, the only per feature state
+ * kept in memory.
+ * <p>
+ * Only non empty collections with a single, concrete geometry type and attributes that map
+ * straight to dbf columns are supported, see {@link #canStream(SimpleFeatureCollection)}; the
+ * others still need the {@link org.geotools.data.shapefile.ShapefileDumper}. The collection size,
+ * needed up front by the .dbf header, is computed only once by the check and reused when
+ * writing.
+ */
+class ShapefileZipStreamer {
+
+    static final int SHP_HEADER_LENGTH = 100;
+
+    /** Header words in a .shp/.shx file, lengths and offsets are expressed in 16 bit words */
+    static final int HEADER_WORDS = SHP_HEADER_LENGTH / 2;
+
+    static final int NULL_SHAPE_WORDS = 2;
+
+    /** Size past which the .shp records are spooled on disk */
+    static final int SPOOL_THRESHOLD = 4 * 1024 * 1024;
+
+    ZipOutputStream zip;
+
+    Charset charset;
+
+    long maxShpSize;
+
+    long maxDbfSize;
+
+    GeometryFactory geometryFactory = new GeometryFactory();
+
+    /** The collection sizes computed while checking them */
+    Map<SimpleFeatureCollection, Integer> counts = new IdentityHashMap<>();
+
+    ShapefileZipStreamer(ZipOutputStream zip, Charset charset, long maxShpSize,
+            long maxDbfSize) {
+        this.zip = zip;
+        this.charset = charset;
+        this.maxShpSize = maxShpSize;
+        this.maxDbfSize = maxDbfSize;
+    }
+
+    /**
+     * Returns true if all the collections can be streamed
+     */
+    boolean canStream(List<SimpleFeatureCollection> collections) throws IOException {
+        for (SimpleFeatureCollection collection : collections) {
+            if (!canStream(collection)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the collection is not empty, has a single, concrete geometry type, only
+     * attributes that can be written as dbf columns without renaming, and its .dbf is not going
+     * to be split because of the maximum dbf size. Empty results are left to the dumper, which
+     * adds a warning to the zip when needed.
+     */
+    boolean canStream(SimpleFeatureCollection collection) throws IOException {
+        SimpleFeatureType schema = collection.getSchema();
+        if (getBaseShapeType(schema) == null) {
+            return false;
+        }
+        DbaseFileHeader header = createDbaseHeader(schema);
+        if (header == null) {
+            return false;
+        }
+        int count = getCount(collection);
+        if (count <= 0) {
+            return false;
+        }
+        long dbfSize = header.getHeaderLength() + (long) header.getRecordLength() * count + 1;
+        return dbfSize <= maxDbfSize;
+    }
+
+    /**
+     * Writes the .dbf, .shp, .shx, .prj and .cst entries for the collection
+     *
+     * @param fileName The entry names, without extension
+     * @param prj The contents of the .prj, or null if it should not be written
+     */
+    void write(SimpleFeatureCollection collection, String fileName, String prj)
+            throws IOException {
+        SimpleFeatureType schema = collection.getSchema();
+        GeometryDescriptor gd = schema.getGeometryDescriptor();
+        ShapeType baseType = getBaseShapeType(schema);
+        DbaseFileHeader header = createDbaseHeader(schema);
+        int count = getCount(collection);
+        header.setNumRecords(count);
+
+        // write the dbf and spool the shp records, collecting the shx index and the bounds
+        int[] lengths = new int[count];
+        ShapeType shapeType = null;
+        ShapeHandler handler = null;
+        Envelope bounds = new Envelope();
+        long shpWords = HEADER_WORDS;
+        Object[] record = new Object[header.getNumFields()];
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        DeferredFileOutputStream spool = new DeferredFileOutputStream(SPOOL_THRESHOLD,
+                "shapezip", ".shp", null);
+        try {
+            zip.putNextEntry(new ZipEntry(fileName + ".dbf"));
+            DbaseFileWriter dbf = new DbaseFileWriter(header,
+                    Channels.newChannel(new CloseShieldOutputStream(zip)), charset);
+            try (SimpleFeatureIterator it = collection.features()) {
+                int i = 0;
+                while (it.hasNext()) {
+                    SimpleFeature f = it.next();
+                    if (i == count) {
+                        throw countChanged(collection);
+                    }
+                    Geometry g = (Geometry) f.getDefaultGeometry();
+                    if (g != null && shapeType == null) {
+                        shapeType = getShapeType(baseType, g);
+                        handler = shapeType.getShapeHandler(geometryFactory);
+                    }
+                    int length = NULL_SHAPE_WORDS;
+                    if (g != null) {
+                        g = JTSUtilities.convertToCollection(g, shapeType);
+                        length = handler.getLength(g) / 2;
+                        bounds.expandToInclude(g.getEnvelopeInternal());
+                    }
+                    lengths[i] = length;
+                    shpWords += length + 4;
+                    if (shpWords * 2 > maxShpSize) {
+                        throw new IOException("The shapefile for " + schema.getTypeName()
+                                + " would be larger than the maximum allowed size of "
+                                + maxShpSize + " bytes");
+                    }
+
+                    if (buffer.capacity() < length * 2 + 8) {
+                        buffer = ByteBuffer
+                                .allocate(Math.max(length * 2 + 8, buffer.capacity() * 2));
+                    }
+                    buffer.clear();
+                    buffer.order(ByteOrder.BIG_ENDIAN);
+                    buffer.putInt(i + 1);
+                    buffer.putInt(length);
+                    buffer.order(ByteOrder.LITTLE_ENDIAN);
+                    if (g == null) {
+                        buffer.putInt(ShapeType.NULL.id);
+                    } else {
+                        buffer.putInt(shapeType.id);
+                        handler.write(buffer, g);
+                    }
+                    spool.write(buffer.array(), 0, buffer.position());
+
+                    int field = 0;
+                    for (AttributeDescriptor ad : schema.getAttributeDescriptors()) {
+                        if (ad != gd) {
+                            record[field++] = f.getAttribute(ad.getName());
+                        }
+                    }
+                    dbf.write(record);
+                    i++;
+                }
+                if (i != count) {
+                    throw countChanged(collection);
+                }
+            } finally {
+                dbf.close();
+            }
+            zip.closeEntry();
+            spool.close();
+            if (shpWords > Integer.MAX_VALUE) {
+                throw new IOException("The shapefile for " + schema.getTypeName()
+                        + " would be larger than the maximum shapefile size");
+            }
+            if (shapeType == null) {
+                shapeType = baseType;
+            }
+
+            // the shp, header and spooled records
+            OutputStream out = new CloseShieldOutputStream(zip);
+            zip.putNextEntry(new ZipEntry(fileName + ".shp"));
+            out.write(createHeader(shapeType, count, (int) shpWords, bounds));
+            spool.writeTo(out);
+            zip.closeEntry();
+        } finally {
+            spool.close();
+            if (spool.getFile() != null) {
+                spool.getFile().delete();
+            }
+        }
+
+        // the shx, straight from the collected record lengths
+        OutputStream out = new CloseShieldOutputStream(zip);
+        zip.putNextEntry(new ZipEntry(fileName + ".shx"));
+        out.write(createHeader(shapeType, count, HEADER_WORDS + 4 * count, bounds));
+        buffer = ByteBuffer.allocate(8 * 1024);
+        int offset = HEADER_WORDS;
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(offset);
+            buffer.putInt(lengths[i]);
+            offset += lengths[i] + 4;
+            if (!buffer.hasRemaining()) {
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        }
+        out.write(buffer.array(), 0, buffer.position());
+        zip.closeEntry();
+
+        if (prj != null) {
+            zip.putNextEntry(new ZipEntry(fileName + ".prj"));
+            out.write(prj.getBytes());
+            zip.closeEntry();
+        }
+        zip.putNextEntry(new ZipEntry(fileName + ".cst"));
+        out.write(charset.name().getBytes());
+        zip.closeEntry();
+    }
+
+    /**
+     * Returns the collection size, computing it only the first time
+     */
+    int getCount(SimpleFeatureCollection collection) {
+        return counts.computeIfAbsent(collection, c -> c.size());
+    }
+
+    IOException countChanged(SimpleFeatureCollection collection) {
+        return new IOException("The contents of " + collection.getSchema().getTypeName()
+                + " changed while writing the shapefile");
+    }
+
+    byte[] createHeader(ShapeType type, int count, int words, Envelope bounds)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SHP_HEADER_LENGTH);
+        if (bounds.isNull()) {
+            new ShapefileHeader().write(buffer, type, count, words, 0, 0, 0, 0);
+        } else {
+            new ShapefileHeader().write(buffer, type, count, words, bounds.getMinX(),
+                    bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Returns the 2D shape type for the schema geometry, or null if the geometry type is missing
+     * or generic
+     */
+    static ShapeType getBaseShapeType(SimpleFeatureType schema) {
+        GeometryDescriptor gd = schema.getGeometryDescriptor();
+        if (gd == null) {
+            return null;
+        }
+        Class<?> binding = gd.getType().getBinding();
+        if (Point.class.equals(binding)) {
+            return ShapeType.POINT;
+        } else if (MultiPoint.class.equals(binding)) {
+            return ShapeType.MULTIPOINT;
+        } else if (LineString.class.equals(binding) || MultiLineString.class.equals(binding)) {
+            return ShapeType.ARC;
+        } else if (Polygon.class.equals(binding) || MultiPolygon.class.equals(binding)) {
+            return ShapeType.POLYGON;
+        }
+        return null;
+    }
+
+    /**
+     * Picks the 3D variant of the base type if the first geometry has a z
+     */
+    static ShapeType getShapeType(ShapeType baseType, Geometry first) {
+        if (JTSUtilities.guessCoorinateDims(first.getCoordinates()) < 3) {
+            return baseType;
+        }
+        if (baseType == ShapeType.POINT) {
+            return ShapeType.POINTZ;
+        } else if (baseType == ShapeType.MULTIPOINT) {
+            return ShapeType.MULTIPOINTZ;
+        } else if (baseType == ShapeType.ARC) {
+            return ShapeType.ARCZ;
+        } else {
+            return ShapeType.POLYGONZ;
+        }
+    }
+
+    /**
+     * Builds the dbf header the same way the shapefile datastore does, returns null if an
+     * attribute cannot be mapped to a dbf column without renaming it or skipping it
+     */
+    static DbaseFileHeader createDbaseHeader(SimpleFeatureType schema) throws IOException {
+        GeometryDescriptor gd = schema.getGeometryDescriptor();
+        DbaseFileHeader header = new DbaseFileHeader();
+        for (AttributeDescriptor ad : schema.getAttributeDescriptors()) {
+            if (ad == gd) {
+                continue;
+            }
+            String name = ad.getLocalName();
+            if (name.length() > 10) {
+                return null;
+            }
+            Class<?> binding = ad.getType().getBinding();
+            int fieldLen = FeatureTypes.getFieldLength(ad);
+            if (fieldLen == FeatureTypes.ANY_LENGTH) {
+                fieldLen = 255;
+            }
+            if (binding == Integer.class || binding == Short.class || binding == Byte.class) {
+                header.addColumn(name, 'N', Math.min(fieldLen, 9), 0);
+            } else if (binding == Long.class) {
+                header.addColumn(name, 'N', Math.min(fieldLen, 19), 0);
+            } else if (binding == BigInteger.class) {
+                header.addColumn(name, 'N', Math.min(fieldLen, 33), 0);
+            } else if (Number.class.isAssignableFrom(binding)) {
+                int l = Math.min(fieldLen, 33);
+                header.addColumn(name, 'N', l, Math.max(l - 2, 0));
+            } else if (java.util.Date.class.isAssignableFrom(binding)
+                    && !Boolean.getBoolean("org.geotools.shapefile.datetime")) {
+                header.addColumn(name, 'D', fieldLen, 0);
+            } else if (binding == Boolean.class) {
+                header.addColumn(name, 'L', 1, 0);
+            } else if (CharSequence.class.isAssignableFrom(binding)) {
+                header.addColumn(name, 'C', Math.min(254, fieldLen), 0);
+            } else {
+                return null;
+            }
+        }
+        return header;
+    }
+}
@@ -0,0 +1,105 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.wfs.xml.SimpleFeatureGML3Writer.FeatureTypePlan;
+import org.geotools.gml2.SrsSyntax;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the {@link SimpleFeatureGML3Writer} encoding plans of the feature types, the direct
+ * encoding counterpart of the schemas built by {@link FeatureTypeSchemaBuilder}. The plans are
+ * dropped when feature types, namespaces, workspaces or stores change, and when the catalog is
+ * reloaded.
+ */
+public class FeatureTypePlanCache implements CatalogListener {
+
+    static final int MAX_PLANS = 1000;
+
+    Cache<List<Object>, FeatureTypePlan> plans = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PLANS).build();
+
+    public FeatureTypePlanCache(Catalog catalog) {
+        catalog.addListener(this);
+    }
+
+    /**
+     * Returns the plan for the given feature type, or null if the type contains attributes that
+     * cannot be encoded as simple content or geometries, or clash with the GML feature properties
+     */
+    FeatureTypePlan getPlan(SimpleFeatureType schema, String prefix, SrsSyntax srsSyntax) {
+        List<Object> key = Arrays.asList(schema, prefix, srsSyntax);
+        try {
+            FeatureTypePlan plan = plans.get(key, () -> {
+                FeatureTypePlan result = SimpleFeatureGML3Writer.compilePlan(schema, prefix,
+                        srsSyntax);
+                // the cache cannot hold nulls
+                return result == null ? new FeatureTypePlan() : result;
+            });
+            return plan.names == null ? null : plan;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to compile the GML encoding plan for "
+                    + schema.getTypeName(), e.getCause());
+        }
+    }
+
+    /**
+     * Drops all the cached plans
+     */
+    public void clear() {
+        plans.invalidateAll();
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        handle(event.getSource());
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        handle(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        handle(event.getSource());
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        handle(event.getSource());
+    }
+
+    void handle(CatalogInfo source) {
+        // the plans are keyed by feature type, not by id, drop them all
+        if (source instanceof FeatureTypeInfo || source instanceof NamespaceInfo
+                || source instanceof WorkspaceInfo || source instanceof DataStoreInfo) {
+            clear();
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+}
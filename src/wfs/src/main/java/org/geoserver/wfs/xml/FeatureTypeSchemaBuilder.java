@@ -7,9 +7,11 @@ package org.geoserver.wfs.xml;
 
 import static org.geoserver.ows.util.ResponseUtils.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -18,10 +20,15 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 
 import org.eclipse.xsd.XSDComplexTypeDefinition;
@@ -40,12 +47,26 @@ import org.eclipse.xsd.XSDSchemaContent;
 import org.eclipse.xsd.XSDTypeDefinition;
 import org.eclipse.xsd.impl.XSDSchemaImpl;
 import org.eclipse.xsd.util.XSDConstants;
+import org.eclipse.xsd.util.XSDResourceImpl;
 import org.eclipse.xsd.util.XSDSchemaLocator;
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourcePool;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
 import org.geoserver.ows.LocalWorkspace;
 import org.geoserver.ows.URLMangler.URLType;
 import org.geoserver.ows.util.ResponseUtils;
@@ -54,6 +75,7 @@ import org.geoserver.platform.resource.Resource;
 import org.geoserver.platform.resource.Resource.Type;
 import org.geoserver.wfs.GMLInfo;
 import org.geoserver.wfs.WFSInfo;
+import org.geotools.data.DataAccess;
 import org.geotools.feature.NameImpl;
 import org.geotools.gml2.GMLConfiguration;
 import org.geotools.gml3.v3_2.GML;
@@ -61,6 +83,7 @@ import org.geotools.wfs.v2_0.WFS;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.Schemas;
 import org.geotools.xs.XS;
+import org.opengis.coverage.grid.GridCoverageReader;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.AttributeType;
@@ -112,6 +135,17 @@ public abstract class FeatureTypeSchemaBuilder {
     protected Configuration xmlConfiguration;
     protected volatile XSDElementDeclaration featureSubGroupElement;
 
+    /**
+     * Maximum size in bytes of the serialized schema cache
+     */
+    static final long SCHEMA_CACHE_SIZE = Long.getLong("org.geoserver.wfs.schemaCacheSize",
+            32 * 1024 * 1024);
+
+    /**
+     * The serialized schemas, null until {@link #enableSchemaCache()} is called
+     */
+    volatile Cache<SchemaKey, byte[]> schemaCache;
+
     protected FeatureTypeSchemaBuilder(GeoServer gs) {
         this.gs = gs;
         this.catalog = gs.getCatalog();
@@ -129,6 +163,204 @@ public abstract class FeatureTypeSchemaBuilder {
         return xmlConfiguration;
     }
     
+    /**
+     * Enables the cache used by {@link #buildSerialized(FeatureTypeInfo[], String, String)}. The
+     * cache is kept up to date with catalog and configuration listeners, so it should be enabled
+     * only on long lived builders.
+     */
+    public synchronized void enableSchemaCache() {
+        if (schemaCache != null) {
+            return;
+        }
+        schemaCache = CacheBuilder.newBuilder().maximumWeight(SCHEMA_CACHE_SIZE)
+                .<SchemaKey, byte[]> weigher((k, v) -> v.length).build();
+        catalog.addListener(new SchemaCacheCatalogListener());
+        catalog.getResourcePool().addListener(new ResourcePool.Listener() {
+
+            public void disposed(FeatureTypeInfo featureType, FeatureType ft) {
+                invalidateSchemas(featureType);
+            }
+
+            public void disposed(CoverageStoreInfo coverageStore, GridCoverageReader gcr) {
+            }
+
+            public void disposed(DataStoreInfo dataStore, DataAccess da) {
+                invalidateSchemas(null);
+            }
+        });
+        gs.addListener(new ConfigurationListenerAdapter() {
+            @Override
+            public void handlePostGlobalChange(GeoServerInfo global) {
+                invalidateSchemas(null);
+            }
+
+            @Override
+            public void handleSettingsPostModified(SettingsInfo settings) {
+                invalidateSchemas(null);
+            }
+
+            @Override
+            public void handlePostServiceChange(ServiceInfo service) {
+                if (service instanceof WFSInfo) {
+                    invalidateSchemas(null);
+                }
+            }
+
+            @Override
+            public void reloaded() {
+                invalidateSchemas(null);
+            }
+        });
+    }
+
+    /**
+     * Builds the schema for the given feature types and serializes it. When the schema cache is
+     * enabled the serialized schema is reused until the feature types, their namespaces and
+     * stores, or the service configuration change.
+     */
+    public byte[] buildSerialized(FeatureTypeInfo[] featureTypeInfos, String baseUrl,
+            String encoding) throws IOException {
+        Cache<SchemaKey, byte[]> cache = schemaCache;
+        SchemaKey key = cache == null ? null : SchemaKey.create(featureTypeInfos, baseUrl,
+                encoding);
+        if (key == null) {
+            return serialize(build(featureTypeInfos, baseUrl), encoding);
+        }
+        try {
+            return cache.get(key, () -> serialize(build(featureTypeInfos, baseUrl), encoding));
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw new IOException(e.getCause());
+        }
+    }
+
+    byte[] serialize(XSDSchema schema, String encoding) {
+        schema.updateElement();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XSDResourceImpl.serialize(bytes, schema.getElement(), encoding);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Drops the cached schemas containing the given feature type, or all of them if null
+     */
+    void invalidateSchemas(FeatureTypeInfo featureType) {
+        Cache<SchemaKey, byte[]> cache = schemaCache;
+        if (cache == null) {
+            return;
+        } else if (featureType == null || featureType.getId() == null) {
+            cache.invalidateAll();
+        } else {
+            String id = featureType.getId();
+            cache.asMap().keySet().removeIf(k -> k.ids.contains(id));
+        }
+    }
+
+    /**
+     * Invalidates the schema cache on catalog changes
+     */
+    class SchemaCacheCatalogListener implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) {
+            handle(event.getSource());
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) {
+            handle(event.getSource());
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) {
+            handle(event.getSource());
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+            handle(event.getSource());
+        }
+
+        void handle(CatalogInfo source) {
+            if (source instanceof FeatureTypeInfo) {
+                invalidateSchemas((FeatureTypeInfo) source);
+            } else if (source instanceof NamespaceInfo || source instanceof WorkspaceInfo
+                    || source instanceof DataStoreInfo) {
+                invalidateSchemas(null);
+            }
+        }
+
+        public void reloaded() {
+            invalidateSchemas(null);
+        }
+    }
+
+    /**
+     * Key of the schema cache. Besides the feature type ids it holds the feature types
+     * themselves, as secured catalogs can return different views of the same type to
+     * different users.
+     */
+    static final class SchemaKey {
+
+        final List<String> ids;
+
+        final List<FeatureType> featureTypes;
+
+        final String baseUrl;
+
+        final String encoding;
+
+        final String workspace;
+
+        SchemaKey(List<String> ids, List<FeatureType> featureTypes, String baseUrl,
+                String encoding, String workspace) {
+            this.ids = ids;
+            this.featureTypes = featureTypes;
+            this.baseUrl = baseUrl;
+            this.encoding = encoding;
+            this.workspace = workspace;
+        }
+
+        /**
+         * Returns the key for the given types, or null if the types cannot be cached
+         */
+        static SchemaKey create(FeatureTypeInfo[] featureTypeInfos, String baseUrl,
+                String encoding) {
+            String[] ids = new String[featureTypeInfos.length];
+            FeatureType[] featureTypes = new FeatureType[featureTypeInfos.length];
+            for (int i = 0; i < featureTypeInfos.length; i++) {
+                ids[i] = featureTypeInfos[i].getId();
+                if (ids[i] == null) {
+                    return null;
+                }
+                try {
+                    featureTypes[i] = featureTypeInfos[i].getFeatureType();
+                } catch (IOException e) {
+                    // broken types get logged while building the schema, don't cache them
+                    return null;
+                }
+            }
+            WorkspaceInfo workspace = LocalWorkspace.get();
+            return new SchemaKey(Arrays.asList(ids), Arrays.asList(featureTypes), baseUrl,
+                    encoding, workspace == null ? null : workspace.getName());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ids, baseUrl, encoding, workspace);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof SchemaKey)) {
+                return false;
+            }
+            SchemaKey other = (SchemaKey) obj;
+            return ids.equals(other.ids) && Objects.equals(baseUrl, other.baseUrl)
+                    && Objects.equals(encoding, other.encoding)
+                    && Objects.equals(workspace, other.workspace)
+                    && featureTypes.equals(other.featureTypes);
+        }
+    }
+
     public XSDSchema build(FeatureTypeInfo featureTypeInfo, String baseUrl)
         throws IOException {
         return build(new FeatureTypeInfo[] { featureTypeInfo }, baseUrl);
@@ -18,6 +18,7 @@ import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geoserver.wfs.xml.v1_1_0.WFSConfiguration;
 import org.geotools.data.DataUtilities;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.gml2.SrsSyntax;
 import org.geotools.gml3.v3_2.GML;
 import org.geotools.gml3.v3_2.GMLConfiguration;
 import org.geotools.wfs.v2_0.WFS;
@@ -30,8 +31,10 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.dom.DOMSource;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -89,8 +92,7 @@ public class GML32OutputFormat extends GML3OutputFormat {
         xsd.setResources(resources);
 
         org.geotools.wfs.v2_0.WFSConfiguration wfs = new org.geotools.wfs.v2_0.WFSConfiguration();
-        wfs.getDependency(GMLConfiguration.class).setSrsSyntax(
-            getInfo().getGML().get(WFSInfo.Version.V_20).getSrsNameStyle().toSrsSyntax());
+        wfs.getDependency(GMLConfiguration.class).setSrsSyntax(getSrsSyntax(getInfo()));
         ApplicationSchemaConfiguration2 config = new ApplicationSchemaConfiguration2(xsd, wfs);
         // adding properties from original configuration to allow
         // hints handling
@@ -99,11 +101,29 @@ public class GML32OutputFormat extends GML3OutputFormat {
     }
 
     @Override
-    protected void setAdditionalSchemaLocations(Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
+    protected Map<String, String> getAdditionalSchemaLocations(GetFeatureRequest request,
+            WFSInfo wfs) {
         //since wfs 2.0 schema does not depend on gml 3.2 schema we register it manually
         String loc = wfs.isCanonicalSchemaLocation() ? GML.CANONICAL_SCHEMA_LOCATION : 
             ResponseUtils.buildSchemaURL(request.getBaseUrl(), "gml/3.2.1/gml.xsd");
-        encoder.setSchemaLocation(GML.NAMESPACE, loc);
+        return Collections.singletonMap(GML.NAMESPACE, loc);
+    }
+
+    @Override
+    protected boolean canWriteDirect(FeatureCollectionResponse results) {
+        // GetFeatureById has no collection wrapper, multiple queries need nested collections
+        return !results.isGetFeatureById() && results.getFeature().size() == 1;
+    }
+
+    @Override
+    SimpleFeatureGML3Writer createDirectWriter(OutputStream output, Charset charset,
+            int numDecimals) throws IOException {
+        return new SimpleFeatureGML3Writer(output, charset, true, numDecimals);
+    }
+
+    @Override
+    protected SrsSyntax getSrsSyntax(WFSInfo wfs) {
+        return wfs.getGML().get(WFSInfo.Version.V_20).getSrsNameStyle().toSrsSyntax();
     }
 
     @Override
@@ -121,6 +141,9 @@ public class GML32OutputFormat extends GML3OutputFormat {
                 encoder.encode(next, GML.AbstractFeature, output);
             }
         } else {
+            // the encoder reads numberMatched straight from the collection, resolve the
+            // lazily computed total before handing it over
+            results.setTotalNumberOfFeatures(results.getTotalNumberOfFeatures());
             encoder.encode(results.unadapt(FeatureCollectionType.class), WFS.FeatureCollection, output);
         }
     }
@@ -20,10 +20,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,11 +46,13 @@ import net.opengis.wfs.FeatureCollectionType;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSException;
@@ -56,14 +61,17 @@ import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geoserver.wfs.request.Query;
+import org.geoserver.wfs.xml.SimpleFeatureGML3Writer.FeatureTypePlan;
 import org.geoserver.wfs.xml.v1_1_0.WFS;
 import org.geoserver.wfs.xml.v1_1_0.WFSConfiguration;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.NameImpl;
 import org.geotools.feature.simple.SimpleFeatureTypeImpl;
+import org.geotools.gml2.SrsSyntax;
 import org.geotools.gml3.GMLConfiguration;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.Encoder;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.Name;
 import org.w3c.dom.Document;
@@ -76,6 +84,13 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
     public static final boolean OPTIMIZED_ENCODING = Boolean.parseBoolean(System.getProperty(
             "GML_OPTIMIZED_ENCODING", "true"));
 
+    /**
+     * WFS metadata key enabling the direct encoding of simple features with
+     * {@link SimpleFeatureGML3Writer}, skipping the XSD based encoder. Falls back on the encoder
+     * for complex features and for the outputs the direct writer cannot handle
+     */
+    public static final String DIRECT_ENCODING = "directGMLEncoding";
+
     GeoServer geoServer;
     Catalog catalog;
     WFSConfiguration configuration;
@@ -219,52 +234,76 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
 
         //declare wfs schema location
         Object gft = getFeature.getParameters()[0];
-        
-        Encoder encoder = createEncoder(configuration, ns2metas, gft);
-        encoder.setEncoding(Charset.forName( geoServer.getSettings().getCharset() ));
+        Charset charset = Charset.forName(geoServer.getSettings().getCharset());
         Request dispatcherRequest = Dispatcher.REQUEST.get();
-        if (dispatcherRequest != null) {
-            encoder.setOmitXMLDeclaration(dispatcherRequest.isSOAP());
+        boolean omitXMLDeclaration = dispatcherRequest != null && dispatcherRequest.isSOAP();
+        String wfsSchemaLocation = wfs.isCanonicalSchemaLocation() ? getCanonicalWfsSchemaLocation()
+                : buildSchemaURL(request.getBaseURL(), getRelativeWfsSchemaLocation());
+
+        if (isDirectEncoding(wfs) && writeDirect(results, ns2metas, request, wfs, numDecimals,
+                charset, omitXMLDeclaration, wfsSchemaLocation, output)) {
+            return;
         }
 
-        if (wfs.isCanonicalSchemaLocation()) {
-            encoder.setSchemaLocation(getWfsNamespace(), getCanonicalWfsSchemaLocation());
-        } else {
-            encoder.setSchemaLocation(getWfsNamespace(),
-                    buildSchemaURL(request.getBaseURL(), getRelativeWfsSchemaLocation()));
+        Encoder encoder = createEncoder(configuration, ns2metas, gft);
+        encoder.setEncoding(charset);
+        if (dispatcherRequest != null) {
+            encoder.setOmitXMLDeclaration(omitXMLDeclaration);
         }
+        encoder.setSchemaLocation(getWfsNamespace(), wfsSchemaLocation);
 
         //declare application schema namespaces
+        for (Map.Entry<String, String> entry : getApplicationSchemaLocations(ns2metas, request)
+                .entrySet()) {
+            encoder.setSchemaLocation(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Set<ResourceInfo>> entry : ns2metas.entrySet()) {
+            for (ResourceInfo ri : entry.getValue()) {
+                if (!(ri instanceof FeatureTypeInfo)) {
+                    encoder.getNamespaces().declarePrefix(ri.getStore().getWorkspace().getName(),
+                            entry.getKey());
+                }
+            }
+        }
+
+        setAdditionalSchemaLocations(encoder, request, wfs);
+        if (this.isComplexFeature(results)) {
+            complexFeatureStreamIntercept(results, output, encoder);
+        } else {
+            encode(results, output, encoder);
+        }
         
+    }
+    
+    /**
+     * Returns the schema locations of the feature types being encoded, either the ones provided
+     * by the user in the "schemaURI" user data, or DescribeFeatureType requests
+     */
+    protected Map<String, String> getApplicationSchemaLocations(
+            Map<String, Set<ResourceInfo>> ns2metas, GetFeatureRequest request) throws IOException {
+        Map<String, String> locations = new LinkedHashMap<String, String>();
         Map<String, String> params = params("service", "WFS", "version", request.getVersion(), 
                 "request", "DescribeFeatureType");
-        for (Iterator i = ns2metas.entrySet().iterator(); i.hasNext();) {
-            Map.Entry entry = (Map.Entry) i.next();
-
-            String namespaceURI = (String) entry.getKey();
-            Set metas = (Set) entry.getValue();
+        for (Map.Entry<String, Set<ResourceInfo>> entry : ns2metas.entrySet()) {
+            String namespaceURI = entry.getKey();
+            Set<ResourceInfo> metas = entry.getValue();
 
             StringBuffer typeNames = new StringBuffer();
-            for (Iterator m = metas.iterator(); m.hasNext();) {
-                ResourceInfo ri = (ResourceInfo) m.next();
+            for (Iterator<ResourceInfo> m = metas.iterator(); m.hasNext();) {
+                ResourceInfo ri = m.next();
                 if(ri instanceof FeatureTypeInfo) {
                     FeatureTypeInfo meta = (FeatureTypeInfo) ri;
                     FeatureType featureType = meta.getFeatureType();
                     Object userSchemaLocation = featureType.getUserData().get("schemaURI");
                     if (userSchemaLocation != null && userSchemaLocation instanceof Map) {
                         Map<String, String> schemaURIs = (Map<String, String>) userSchemaLocation;
-                        for (String namespace : schemaURIs.keySet()) {
-                            encoder.setSchemaLocation(namespace, schemaURIs.get(namespace));
-                        }
+                        locations.putAll(schemaURIs);
                     } else {
                         typeNames.append(meta.getPrefixedName());
                         if (m.hasNext()) {
                             typeNames.append(",");
                         }
                     }
-                } else {
-                    encoder.getNamespaces().declarePrefix(ri.getStore().getWorkspace().getName(),
-                            namespaceURI);
                 }
             }
 
@@ -274,19 +313,98 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                 String schemaLocation = buildURL(request.getBaseURL(), "wfs", params, URLType.SERVICE);
                 LOGGER.finer("Unable to find user-defined schema location for: " + namespaceURI
                         + ". Using a built schema location by default: " + schemaLocation);
-                encoder.setSchemaLocation(namespaceURI, schemaLocation);
+                locations.put(namespaceURI, schemaLocation);
             }
         }
+        return locations;
+    }
 
-        setAdditionalSchemaLocations(encoder, request, wfs);
-        if (this.isComplexFeature(results)) {
-            complexFeatureStreamIntercept(results, output, encoder);
-        } else {
-            encode(results, output, encoder);
+    boolean isDirectEncoding(WFSInfo wfs) {
+        Boolean direct = wfs.getMetadata().get(DIRECT_ENCODING, Boolean.class);
+        return direct != null && direct;
+    }
+
+    /**
+     * Writes the response with {@link SimpleFeatureGML3Writer}, returns false without writing
+     * anything if the response cannot be encoded that way, that is, for complex features, lock
+     * responses, and types with circular arcs
+     */
+    boolean writeDirect(FeatureCollectionResponse results, Map<String, Set<ResourceInfo>> ns2metas,
+            GetFeatureRequest request, WFSInfo wfs, int numDecimals, Charset charset,
+            boolean omitXMLDeclaration, String wfsSchemaLocation, OutputStream output)
+            throws IOException {
+        // the direct writer does not know about the lockId of GetFeatureWithLock
+        if (isComplexFeature(results) || results.getLockId() != null
+                || !canWriteDirect(results)) {
+            return false;
         }
-        
+        for (Set<ResourceInfo> metas : ns2metas.values()) {
+            for (ResourceInfo ri : metas) {
+                if (!(ri instanceof FeatureTypeInfo)
+                        || ((FeatureTypeInfo) ri).isCircularArcPresent()) {
+                    return false;
+                }
+            }
+        }
+        SrsSyntax srsSyntax = getSrsSyntax(wfs);
+        List<FeatureTypePlan> plans = new ArrayList<FeatureTypePlan>();
+        Map<String, String> namespaces = new LinkedHashMap<String, String>();
+        for (FeatureCollection fc : results.getFeature()) {
+            SimpleFeatureType schema = (SimpleFeatureType) fc.getSchema();
+            String namespaceURI = schema.getName().getNamespaceURI();
+            NamespaceInfo ns = namespaceURI == null ? null : catalog.getNamespaceByURI(namespaceURI);
+            if (ns == null) {
+                return false;
+            }
+            FeatureTypePlan plan = getPlan(schema, ns.getPrefix(), srsSyntax);
+            if (plan == null) {
+                return false;
+            }
+            plans.add(plan);
+            namespaces.put(namespaceURI, ns.getPrefix());
+        }
+
+        Map<String, String> schemaLocations = new LinkedHashMap<String, String>();
+        schemaLocations.put(getWfsNamespace(), wfsSchemaLocation);
+        schemaLocations.putAll(getApplicationSchemaLocations(ns2metas, request));
+        schemaLocations.putAll(getAdditionalSchemaLocations(request, wfs));
+
+        SimpleFeatureGML3Writer writer = createDirectWriter(output, charset, numDecimals);
+        writer.setSrsDimension(!wfs.isCiteCompliant());
+        writer.setFeatureBounding(wfs.isFeatureBounding());
+        writer.write(results, plans, getWfsNamespace(), namespaces, schemaLocations,
+                wfs.isEncodeFeatureMember(), omitXMLDeclaration);
+        return true;
     }
-    
+
+    /**
+     * Returns the encoding plan from the shared {@link FeatureTypePlanCache}, or compiles a new
+     * one if the cache is not available
+     */
+    FeatureTypePlan getPlan(SimpleFeatureType schema, String prefix, SrsSyntax srsSyntax) {
+        FeatureTypePlanCache plans = GeoServerExtensions.bean(FeatureTypePlanCache.class);
+        if (plans == null) {
+            return SimpleFeatureGML3Writer.compilePlan(schema, prefix, srsSyntax);
+        }
+        return plans.getPlan(schema, prefix, srsSyntax);
+    }
+
+    /**
+     * Hook for subclasses restricting the responses handled by the direct writer
+     */
+    protected boolean canWriteDirect(FeatureCollectionResponse results) {
+        return true;
+    }
+
+    SimpleFeatureGML3Writer createDirectWriter(OutputStream output, Charset charset,
+            int numDecimals) throws IOException {
+        return new SimpleFeatureGML3Writer(output, charset, false, numDecimals);
+    }
+
+    protected SrsSyntax getSrsSyntax(WFSInfo wfs) {
+        return wfs.getGML().get(WFSInfo.Version.V_11).getSrsNameStyle().toSrsSyntax();
+    }
+
     protected void setNumDecimals(int numDecimals) {
         GMLConfiguration gml = configuration.getDependency(GMLConfiguration.class);
         if (gml != null) {
@@ -321,7 +439,16 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
     }
 
     protected void setAdditionalSchemaLocations(Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
+        for (Map.Entry<String, String> entry : getAdditionalSchemaLocations(request, wfs)
+                .entrySet()) {
+            encoder.setSchemaLocation(entry.getKey(), entry.getValue());
+        }
+    }
+
+    protected Map<String, String> getAdditionalSchemaLocations(GetFeatureRequest request,
+            WFSInfo wfs) {
         //hook for subclasses
+        return Collections.emptyMap();
     }
     
     protected void encode(FeatureCollectionResponse results, OutputStream output, Encoder encoder)
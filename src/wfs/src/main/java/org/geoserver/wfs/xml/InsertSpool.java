@@ -0,0 +1,179 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import javax.xml.namespace.QName;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.request.Insert;
+import org.geoserver.wfs.request.TransactionElement;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geotools.xml.Parser;
+import org.xml.sax.InputSource;
+
+/**
+ * The features of a Transaction Insert element that were not parsed along with the request, but
+ * spooled to disk in batches while reading it, see {@link TransactionSpooler}. The batches are
+ * parsed one at a time, as the insert handler asks for them, so that the memory used does not
+ * depend on the number of features in the request.
+ * <p>
+ * The spool is attached to the parsed insert element as an EMF adapter.
+ * </p>
+ * <p>
+ * The spooled features are not part of the parsed request: the {@link
+ * org.geoserver.wfs.TransactionCallback}s, the {@link org.geoserver.wfs.TransactionPlugin}s and
+ * the checks run on the request before execution only see the first batch of each insert. The
+ * spooled batches are checked for validation errors as they are parsed.
+ * </p>
+ */
+public class InsertSpool extends AdapterImpl {
+
+    /**
+     * WFS metadata key for the number of features of a Transaction Insert parsed and inserted at
+     * a time, streaming is disabled if not set
+     */
+    public static final String BATCH_SIZE = "insertBatchSize";
+
+    File file;
+
+    /**
+     * The name of the request root element, used to check the validation errors of the batches
+     */
+    QName element;
+
+    /**
+     * The end offsets of the batches in the spool file
+     */
+    List<Long> ends = new ArrayList<>();
+
+    /**
+     * The names of the features found in the spooled batches
+     */
+    Set<QName> typeNames = new LinkedHashSet<>();
+
+    Callable<Parser> parsers;
+
+    InputStream input;
+
+    int next;
+
+    InsertSpool(File file, Callable<Parser> parsers, QName element) {
+        this.file = file;
+        this.parsers = parsers;
+        this.element = element;
+    }
+
+    /**
+     * Returns the configured batch size, or zero if streaming inserts are disabled
+     */
+    public static int getBatchSize(WFSInfo wfs) {
+        Integer size = wfs.getMetadata().get(BATCH_SIZE, Integer.class);
+        return size == null ? 0 : Math.max(0, size);
+    }
+
+    /**
+     * Returns the spool attached to the insert, or null if all its features have been parsed
+     * along with the request
+     */
+    public static InsertSpool get(Insert insert) {
+        for (Adapter adapter : insert.getAdaptee().eAdapters()) {
+            if (adapter instanceof InsertSpool) {
+                return (InsertSpool) adapter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the spools attached to the inserts of the request
+     */
+    public static List<InsertSpool> getSpools(TransactionRequest request) {
+        List<InsertSpool> spools = new ArrayList<>();
+        for (TransactionElement element : request.getElements()) {
+            InsertSpool spool = element instanceof Insert ? get((Insert) element) : null;
+            if (spool != null) {
+                spools.add(spool);
+            }
+        }
+        return spools;
+    }
+
+    /**
+     * The qualified names of the features in the spooled batches
+     */
+    public Set<QName> getTypeNames() {
+        return typeNames;
+    }
+
+    /**
+     * Returns true if all the batches have been read
+     */
+    public boolean isConsumed() {
+        return next >= ends.size();
+    }
+
+    /**
+     * Parses the next batch of features, returned as an insert element with the same attributes
+     * as the original one, or returns null if there are no more batches
+     */
+    public Insert next() throws IOException {
+        if (isConsumed()) {
+            return null;
+        }
+        if (input == null) {
+            input = new BufferedInputStream(new FileInputStream(file));
+        }
+        long start = next == 0 ? 0 : ends.get(next - 1);
+        BoundedInputStream batch = new BoundedInputStream(input, ends.get(next) - start);
+        batch.setPropagateClose(false);
+        next++;
+        try (Reader reader = new InputStreamReader(batch, StandardCharsets.UTF_8)) {
+            Parser parser = parsers.call();
+            TransactionRequest request = TransactionRequest.adapt(parser
+                    .parse(new InputSource(reader)));
+            // same checks as the request the batch was spooled from
+            WFSXmlUtils.checkValidationErrors(parser, element);
+            return (Insert) request.getElements().get(0);
+        } catch (IOException | WFSException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to parse the features of batch " + next + " of "
+                    + ends.size(), e);
+        }
+    }
+
+    /**
+     * Releases the spool file
+     */
+    public void dispose() {
+        IOUtils.closeQuietly(input);
+        input = null;
+        file.delete();
+    }
+
+    @Override
+    public boolean isAdapterForType(Object type) {
+        return type == InsertSpool.class;
+    }
+}
@@ -0,0 +1,594 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.type.DateUtil;
+import org.geotools.geometry.jts.CurvedGeometry;
+import org.geotools.geometry.jts.MultiCurvedGeometry;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.gml2.SrsSyntax;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes GML 3.1 and GML 3.2 feature collections of simple features directly to a
+ * {@link XMLStreamWriter}, without going through the XSD based {@link org.geotools.xml.Encoder}.
+ * <p>
+ * Each feature type is compiled once into a {@link FeatureTypePlan} listing the element names,
+ * geometry properties and srsName, which is cached by the {@link FeatureTypePlanCache} and
+ * reused by all the following requests.
+ * <p>
+ * Types declaring curved geometries are left to the generic encoder, as are the ones flagged with
+ * circular arcs by {@link GML3OutputFormat}. Curves found at runtime in other types are linearized.
+ * </p>
+ */
+class SimpleFeatureGML3Writer {
+
+    static final String GML31_NAMESPACE = "http://www.opengis.net/gml";
+
+    static final String GML32_NAMESPACE = "http://www.opengis.net/gml/3.2";
+
+    static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+    static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    /**
+     * Attributes with these names are encoded as the gml:AbstractFeatureType properties, the
+     * types using them are left to the generic encoder
+     */
+    static final Set<String> GML_PROPERTIES = new HashSet<String>(Arrays.asList(
+            "metaDataProperty", "description", "descriptionReference", "identifier", "name",
+            "boundedBy", "location"));
+
+    static final long[] POW10 = { 1, 10, 100, 1000, 10000, 100000, 1000000, 10000000,
+            100000000 };
+
+    /**
+     * The encoding plan of a simple feature type
+     */
+    static class FeatureTypePlan {
+
+        String namespaceURI;
+
+        String prefix;
+
+        String localName;
+
+        String[] names;
+
+        boolean[] geometry;
+
+        boolean[] optional;
+
+        String[] srsNames;
+
+        String srsName;
+    }
+
+    /**
+     * Compiles the plan for the given feature type, returns null if the type contains attributes
+     * that cannot be encoded as simple content or linear geometries, or clash with the GML feature
+     * properties
+     */
+    static FeatureTypePlan compilePlan(SimpleFeatureType schema, String prefix,
+            SrsSyntax srsSyntax) {
+        int count = schema.getAttributeCount();
+        FeatureTypePlan plan = new FeatureTypePlan();
+        plan.namespaceURI = schema.getName().getNamespaceURI();
+        plan.prefix = prefix;
+        plan.localName = schema.getTypeName();
+        plan.names = new String[count];
+        plan.geometry = new boolean[count];
+        plan.optional = new boolean[count];
+        plan.srsNames = new String[count];
+        plan.srsName = getSrsName(schema.getCoordinateReferenceSystem(), srsSyntax);
+        for (int i = 0; i < count; i++) {
+            AttributeDescriptor ad = schema.getDescriptor(i);
+            Class<?> binding = ad.getType().getBinding();
+            plan.names[i] = ad.getLocalName();
+            if (GML_PROPERTIES.contains(plan.names[i])) {
+                return null;
+            }
+            plan.optional[i] = ad.getMinOccurs() == 0;
+            if (ad instanceof GeometryDescriptor) {
+                if (CurvedGeometry.class.isAssignableFrom(binding)
+                        || MultiCurvedGeometry.class.isAssignableFrom(binding)) {
+                    return null;
+                }
+                plan.geometry[i] = true;
+                CoordinateReferenceSystem crs = ((GeometryDescriptor) ad)
+                        .getCoordinateReferenceSystem();
+                plan.srsNames[i] = crs == null ? plan.srsName : getSrsName(crs, srsSyntax);
+            } else if (!isSimpleContent(binding)) {
+                return null;
+            }
+        }
+        return plan;
+    }
+
+    static boolean isSimpleContent(Class<?> binding) {
+        return CharSequence.class.isAssignableFrom(binding)
+                || Number.class.isAssignableFrom(binding) || Boolean.class.equals(binding)
+                || Character.class.equals(binding) || Date.class.isAssignableFrom(binding)
+                || Calendar.class.isAssignableFrom(binding)
+                || java.util.UUID.class.equals(binding);
+    }
+
+    static String getSrsName(CoordinateReferenceSystem crs, SrsSyntax srsSyntax) {
+        if (crs == null) {
+            return null;
+        }
+        try {
+            Integer code = CRS.lookupEpsgCode(crs, false);
+            return code == null ? null : srsSyntax.getPrefix() + code;
+        } catch (FactoryException e) {
+            return null;
+        }
+    }
+
+    XMLStreamWriter w;
+
+    String encoding;
+
+    boolean gml32;
+
+    String gmlNamespace;
+
+    int numDecimals;
+
+    boolean srsDimension = true;
+
+    boolean featureBounding;
+
+    StringBuilder sb = new StringBuilder();
+
+    NumberFormat fallbackFormat;
+
+    SimpleFeatureGML3Writer(OutputStream output, Charset charset, boolean gml32,
+            int numDecimals) throws IOException {
+        try {
+            this.w = OUTPUT_FACTORY.createXMLStreamWriter(output, charset.name());
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        this.encoding = charset.name();
+        this.gml32 = gml32;
+        this.gmlNamespace = gml32 ? GML32_NAMESPACE : GML31_NAMESPACE;
+        this.numDecimals = numDecimals;
+        this.fallbackFormat = NumberFormat.getInstance(Locale.US);
+        fallbackFormat.setMaximumFractionDigits(numDecimals);
+        fallbackFormat.setGroupingUsed(false);
+    }
+
+    /**
+     * Enables/disables the srsDimension attribute on geometries
+     */
+    void setSrsDimension(boolean srsDimension) {
+        this.srsDimension = srsDimension;
+    }
+
+    /**
+     * Enables/disables the gml:boundedBy element on features and collections
+     */
+    void setFeatureBounding(boolean featureBounding) {
+        this.featureBounding = featureBounding;
+    }
+
+    /**
+     * Writes out the whole feature collection document
+     *
+     * @param results The collections to write
+     * @param plans The plans for the collections, in the same order
+     * @param wfsNamespace The WFS namespace of the FeatureCollection element
+     * @param namespaces The namespace prefixes to declare, by URI
+     * @param schemaLocations The schema locations, by namespace URI
+     * @param encodeFeatureMember Use gml:featureMember instead of gml:featureMembers (GML 3.1)
+     * @param omitDeclaration Skip the XML declaration
+     */
+    void write(FeatureCollectionResponse results, List<FeatureTypePlan> plans,
+            String wfsNamespace, Map<String, String> namespaces,
+            Map<String, String> schemaLocations, boolean encodeFeatureMember,
+            boolean omitDeclaration) throws IOException {
+        try {
+            if (!omitDeclaration) {
+                w.writeStartDocument(encoding, "1.0");
+            }
+            w.writeStartElement("wfs", "FeatureCollection", wfsNamespace);
+            w.writeNamespace("wfs", wfsNamespace);
+            w.writeNamespace("gml", gmlNamespace);
+            w.writeNamespace("xsi", XSI_NAMESPACE);
+            for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+                w.writeNamespace(entry.getValue(), entry.getKey());
+            }
+            if (gml32) {
+                if (results.getTimeStamp() != null) {
+                    w.writeAttribute("timeStamp", formatTimeStamp(results.getTimeStamp()));
+                }
+                BigInteger matched = results.getTotalNumberOfFeatures();
+                w.writeAttribute("numberMatched", matched == null ? "unknown"
+                        : matched.toString());
+                BigInteger returned = results.getNumberOfFeatures();
+                w.writeAttribute("numberReturned", returned == null ? "0" : returned.toString());
+                if (results.getNext() != null) {
+                    w.writeAttribute("next", results.getNext());
+                }
+                if (results.getPrevious() != null) {
+                    w.writeAttribute("previous", results.getPrevious());
+                }
+            } else {
+                if (results.getNumberOfFeatures() != null) {
+                    w.writeAttribute("numberOfFeatures",
+                            results.getNumberOfFeatures().toString());
+                }
+                if (results.getTimeStamp() != null) {
+                    w.writeAttribute("timeStamp", formatTimeStamp(results.getTimeStamp()));
+                }
+            }
+            StringBuilder locations = new StringBuilder();
+            for (Map.Entry<String, String> entry : schemaLocations.entrySet()) {
+                if (locations.length() > 0) {
+                    locations.append(' ');
+                }
+                locations.append(entry.getKey()).append(' ').append(entry.getValue());
+            }
+            w.writeAttribute("xsi", XSI_NAMESPACE, "schemaLocation", locations.toString());
+
+            if (!gml32 && featureBounding) {
+                writeCollectionBounds(results, plans);
+            }
+
+            boolean members = !gml32 && !encodeFeatureMember;
+            if (members) {
+                w.writeStartElement("gml", "featureMembers", gmlNamespace);
+            }
+            List<FeatureCollection> collections = results.getFeature();
+            for (int i = 0; i < collections.size(); i++) {
+                FeatureTypePlan plan = plans.get(i);
+                SimpleFeatureCollection collection = DataUtilities.simple(collections.get(i));
+                try (SimpleFeatureIterator it = collection.features()) {
+                    while (it.hasNext()) {
+                        SimpleFeature f = it.next();
+                        if (gml32) {
+                            w.writeStartElement("wfs", "member", wfsNamespace);
+                        } else if (!members) {
+                            w.writeStartElement("gml", "featureMember", gmlNamespace);
+                        }
+                        writeFeature(f, plan);
+                        if (!members) {
+                            w.writeEndElement();
+                        }
+                    }
+                }
+            }
+            if (members) {
+                w.writeEndElement();
+            }
+            w.writeEndElement();
+            w.writeEndDocument();
+            w.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    String formatTimeStamp(Calendar timeStamp) {
+        return DateUtil.serializeDateTime(timeStamp.getTime());
+    }
+
+    void writeCollectionBounds(FeatureCollectionResponse results, List<FeatureTypePlan> plans)
+            throws XMLStreamException {
+        ReferencedEnvelope bounds = null;
+        List<FeatureCollection> collections = results.getFeature();
+        for (FeatureCollection collection : collections) {
+            ReferencedEnvelope env = collection.getBounds();
+            if (env == null) {
+                continue;
+            } else if (bounds == null) {
+                bounds = new ReferencedEnvelope(env);
+            } else {
+                bounds.expandToInclude(env);
+            }
+        }
+        if (bounds != null && !bounds.isEmpty()) {
+            writeBoundedBy(bounds, plans.get(0).srsName);
+        }
+    }
+
+    void writeFeature(SimpleFeature f, FeatureTypePlan plan) throws XMLStreamException {
+        w.writeStartElement(plan.prefix, plan.localName, plan.namespaceURI);
+        w.writeAttribute("gml", gmlNamespace, "id", f.getID());
+        if (featureBounding) {
+            ReferencedEnvelope bounds = ReferencedEnvelope.reference(f.getBounds());
+            if (bounds != null && !bounds.isEmpty()) {
+                writeBoundedBy(bounds, plan.srsName);
+            }
+        }
+        for (int i = 0; i < plan.names.length; i++) {
+            Object value = f.getAttribute(i);
+            if (value == null) {
+                if (!plan.optional[i]) {
+                    w.writeEmptyElement(plan.prefix, plan.names[i], plan.namespaceURI);
+                    w.writeAttribute("xsi", XSI_NAMESPACE, "nil", "true");
+                }
+                continue;
+            }
+            w.writeStartElement(plan.prefix, plan.names[i], plan.namespaceURI);
+            if (plan.geometry[i]) {
+                Geometry g = (Geometry) value;
+                writeGeometry(g, plan.srsNames[i], gml32 ? f.getID() + "." + plan.names[i]
+                        : null, getDimension(g));
+            } else {
+                w.writeCharacters(formatValue(value));
+            }
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+
+    void writeBoundedBy(ReferencedEnvelope bounds, String srsName) throws XMLStreamException {
+        w.writeStartElement("gml", "boundedBy", gmlNamespace);
+        w.writeStartElement("gml", "Envelope", gmlNamespace);
+        if (srsDimension) {
+            w.writeAttribute("srsDimension", "2");
+        }
+        if (srsName != null) {
+            w.writeAttribute("srsName", srsName);
+        }
+        sb.setLength(0);
+        appendOrdinate(bounds.getMinX());
+        sb.append(' ');
+        appendOrdinate(bounds.getMinY());
+        writeTextElement("lowerCorner");
+        sb.setLength(0);
+        appendOrdinate(bounds.getMaxX());
+        sb.append(' ');
+        appendOrdinate(bounds.getMaxY());
+        writeTextElement("upperCorner");
+        w.writeEndElement();
+        w.writeEndElement();
+    }
+
+    /**
+     * Writes a geometry, the srsName and dimension attributes are written only when a srsName is
+     * provided, that is, on the root geometry
+     */
+    void writeGeometry(Geometry g, String srsName, String id, int dimension)
+            throws XMLStreamException {
+        if (g instanceof CurvedGeometry) {
+            g = ((CurvedGeometry<?>) g).linearize();
+        }
+        if (g instanceof Point) {
+            startGeometry("Point", srsName, id, dimension);
+            sb.setLength(0);
+            if (!g.isEmpty()) {
+                appendCoordinates(((Point) g).getCoordinateSequence(), dimension);
+            }
+            writeTextElement("pos");
+        } else if (g instanceof LinearRing) {
+            startGeometry("LinearRing", srsName, id, dimension);
+            writePosList((LineString) g, dimension);
+        } else if (g instanceof LineString) {
+            startGeometry("LineString", srsName, id, dimension);
+            writePosList((LineString) g, dimension);
+        } else if (g instanceof Polygon) {
+            Polygon polygon = (Polygon) g;
+            startGeometry("Polygon", srsName, id, dimension);
+            if (!polygon.isEmpty()) {
+                writeRing("exterior", polygon.getExteriorRing(), dimension);
+                for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                    writeRing("interior", polygon.getInteriorRingN(i), dimension);
+                }
+            }
+        } else if (g instanceof MultiPoint) {
+            writeMembers((GeometryCollection) g, "MultiPoint", "pointMember", srsName, id,
+                    dimension);
+        } else if (g instanceof MultiLineString) {
+            if (gml32) {
+                writeMembers((GeometryCollection) g, "MultiCurve", "curveMember", srsName, id,
+                        dimension);
+            } else {
+                writeMembers((GeometryCollection) g, "MultiLineString", "lineStringMember",
+                        srsName, id, dimension);
+            }
+            return;
+        } else if (g instanceof MultiPolygon) {
+            writeMembers((GeometryCollection) g, "MultiSurface", "surfaceMember", srsName, id,
+                    dimension);
+            return;
+        } else if (g instanceof GeometryCollection) {
+            writeMembers((GeometryCollection) g, "MultiGeometry", "geometryMember", srsName, id,
+                    dimension);
+            return;
+        } else {
+            throw new IllegalArgumentException("Unsupported geometry type "
+                    + g.getGeometryType());
+        }
+        w.writeEndElement();
+    }
+
+    void startGeometry(String name, String srsName, String id, int dimension)
+            throws XMLStreamException {
+        w.writeStartElement("gml", name, gmlNamespace);
+        if (id != null) {
+            w.writeAttribute("gml", gmlNamespace, "id", id);
+        }
+        if (srsName != null) {
+            if (srsDimension) {
+                w.writeAttribute("srsDimension", String.valueOf(dimension));
+            }
+            w.writeAttribute("srsName", srsName);
+        }
+    }
+
+    void writeMembers(GeometryCollection collection, String name, String memberName,
+            String srsName, String id, int dimension) throws XMLStreamException {
+        startGeometry(name, srsName, id, dimension);
+        for (int i = 0; i < collection.getNumGeometries(); i++) {
+            w.writeStartElement("gml", memberName, gmlNamespace);
+            writeGeometry(collection.getGeometryN(i), null, id == null ? null : id + "." + (i + 1),
+                    dimension);
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+
+    void writeRing(String name, LineString ring, int dimension) throws XMLStreamException {
+        w.writeStartElement("gml", name, gmlNamespace);
+        w.writeStartElement("gml", "LinearRing", gmlNamespace);
+        writePosList(ring, dimension);
+        w.writeEndElement();
+        w.writeEndElement();
+    }
+
+    void writePosList(LineString line, int dimension) throws XMLStreamException {
+        sb.setLength(0);
+        appendCoordinates(line.getCoordinateSequence(), dimension);
+        writeTextElement("posList");
+    }
+
+    void writeTextElement(String name) throws XMLStreamException {
+        w.writeStartElement("gml", name, gmlNamespace);
+        // avoid the string copy, the writer escapes directly from the buffer
+        char[] chars = new char[sb.length()];
+        sb.getChars(0, chars.length, chars, 0);
+        w.writeCharacters(chars, 0, chars.length);
+        w.writeEndElement();
+    }
+
+    void appendCoordinates(CoordinateSequence cs, int dimension) {
+        boolean z = dimension > 2 && cs.getDimension() > 2;
+        for (int i = 0; i < cs.size(); i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            appendOrdinate(cs.getX(i));
+            sb.append(' ');
+            appendOrdinate(cs.getY(i));
+            if (dimension > 2) {
+                sb.append(' ');
+                double value = z ? cs.getOrdinate(i, CoordinateSequence.Z) : Double.NaN;
+                appendOrdinate(Double.isNaN(value) ? 0 : value);
+            }
+        }
+    }
+
+    /**
+     * Appends the value with at most numDecimals decimals and no trailing zeroes, using integer
+     * arithmetic for the common ranges and a {@link NumberFormat} for the others
+     */
+    void appendOrdinate(double value) {
+        double abs = Math.abs(value);
+        if (numDecimals < 0 || numDecimals >= POW10.length || !(abs < 1e7)) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                sb.append(value);
+            } else {
+                sb.append(fallbackFormat.format(value));
+            }
+            return;
+        }
+        long scale = POW10[numDecimals];
+        long scaled = Math.round(abs * scale);
+        if (scaled == 0) {
+            sb.append('0');
+            return;
+        }
+        if (value < 0) {
+            sb.append('-');
+        }
+        sb.append(scaled / scale);
+        long fraction = scaled % scale;
+        if (fraction != 0) {
+            int digits = numDecimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            sb.append('.');
+            for (long p = POW10[digits - 1]; p > fraction; p /= 10) {
+                sb.append('0');
+            }
+            sb.append(fraction);
+        }
+    }
+
+    /**
+     * Returns 3 if the first coordinate of the geometry has a z, 2 otherwise
+     */
+    static int getDimension(Geometry g) {
+        if (g instanceof Point) {
+            return getDimension(((Point) g).getCoordinateSequence());
+        } else if (g instanceof LineString) {
+            return getDimension(((LineString) g).getCoordinateSequence());
+        } else if (g instanceof Polygon) {
+            return getDimension(((Polygon) g).getExteriorRing().getCoordinateSequence());
+        } else if (g instanceof GeometryCollection && g.getNumGeometries() > 0) {
+            return getDimension(g.getGeometryN(0));
+        }
+        return 2;
+    }
+
+    static int getDimension(CoordinateSequence cs) {
+        if (cs.size() > 0 && cs.getDimension() > 2
+                && !Double.isNaN(cs.getOrdinate(0, CoordinateSequence.Z))) {
+            return 3;
+        }
+        return 2;
+    }
+
+    static String formatValue(Object value) {
+        if (value instanceof java.sql.Date) {
+            return DateUtil.serializeSqlDate((java.sql.Date) value);
+        } else if (value instanceof java.sql.Time) {
+            return DateUtil.serializeSqlTime((java.sql.Time) value);
+        } else if (value instanceof Date) {
+            return DateUtil.serializeDateTime((Date) value);
+        } else if (value instanceof Calendar) {
+            return DateUtil.serializeDateTime(((Calendar) value).getTime());
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        return value.toString();
+    }
+}
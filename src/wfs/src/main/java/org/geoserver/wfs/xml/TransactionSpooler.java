@@ -0,0 +1,255 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.geoserver.wfs.request.Insert;
+import org.geoserver.wfs.request.TransactionElement;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geotools.xml.Parser;
+import org.xml.sax.InputSource;
+
+/**
+ * Parses a Transaction request keeping only the first batch of features of each Insert element
+ * in memory. The request is read once with a StAX reader: the features past the first batch are
+ * copied to a {@link InsertSpool}, one small Transaction document per batch, and the rest of the
+ * request is parsed as usual.
+ */
+class TransactionSpooler {
+
+    static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newFactory();
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+
+    final Callable<Parser> parsers;
+
+    final int batchSize;
+
+    /**
+     * The spools of the inserts, by position of the insert among the request inserts
+     */
+    Map<Integer, InsertSpool> spools = new HashMap<>();
+
+    StartElement root;
+
+    StartElement insert;
+
+    InsertSpool spool;
+
+    CountingOutputStream counter;
+
+    Writer writer;
+
+    XMLEventWriter batch;
+
+    int batchFeatures;
+
+    TransactionSpooler(Callable<Parser> parsers, int batchSize) {
+        this.parsers = parsers;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Parses the Transaction request, attaching a {@link InsertSpool} to the inserts having more
+     * than batchSize features
+     */
+    static Object parse(Parser parser, Reader reader, Callable<Parser> parsers, int batchSize)
+            throws Exception {
+        TransactionSpooler spooler = new TransactionSpooler(parsers, batchSize);
+        try {
+            String request = spooler.split(reader);
+            Object parsed = parser.parse(new InputSource(new StringReader(request)));
+            spooler.attach(parsed);
+            return parsed;
+        } catch (Exception e) {
+            spooler.dispose();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the request, spooling the features past the first batch of each insert, and returns
+     * the rest of it
+     */
+    String split(Reader reader) throws XMLStreamException, IOException {
+        XMLEventReader events = INPUT_FACTORY.createXMLEventReader(reader);
+        StringWriter request = new StringWriter();
+        XMLEventWriter out = OUTPUT_FACTORY.createXMLEventWriter(request);
+        int depth = 0;
+        int inserts = 0;
+        int features = 0;
+        boolean spooling = false;
+        while (events.hasNext()) {
+            XMLEvent event = events.nextEvent();
+            int type = event.getEventType();
+            if (type == XMLStreamConstants.START_DOCUMENT || type == XMLStreamConstants.END_DOCUMENT
+                    || type == XMLStreamConstants.DTD) {
+                continue;
+            }
+
+            if (event.isStartElement()) {
+                depth++;
+                StartElement start = event.asStartElement();
+                if (depth == 1) {
+                    root = start;
+                } else if (depth == 2 && isInsert(start)) {
+                    insert = start;
+                    features = 0;
+                } else if (depth == 3 && insert != null) {
+                    // a feature, the ones past the first batch go to the spool
+                    spooling = features++ >= batchSize;
+                    if (spooling) {
+                        if (batch == null) {
+                            openBatch();
+                        }
+                        QName name = start.getName();
+                        spool.typeNames.add(new QName(name.getNamespaceURI(), name.getLocalPart()));
+                    }
+                }
+            }
+
+            if (depth == 2 && event.isEndElement() && insert != null) {
+                // end of an insert
+                closeBatch();
+                closeSpool(inserts++);
+                insert = null;
+                spooling = false;
+                out.add(event);
+            } else if (spooling) {
+                // whitespace and comments between the batches are dropped
+                if (batch != null) {
+                    batch.add(event);
+                }
+            } else {
+                out.add(event);
+            }
+
+            if (event.isEndElement()) {
+                if (depth == 3 && spooling && ++batchFeatures >= batchSize) {
+                    closeBatch();
+                }
+                depth--;
+            }
+        }
+        out.flush();
+        events.close();
+
+        return request.toString();
+    }
+
+    boolean isInsert(StartElement start) {
+        QName name = start.getName();
+        return "Insert".equals(name.getLocalPart())
+                && root.getName().getNamespaceURI().equals(name.getNamespaceURI());
+    }
+
+    /**
+     * Starts a new batch, a Transaction with a single Insert, both with the attributes and
+     * namespace declarations of the originals
+     */
+    void openBatch() throws IOException, XMLStreamException {
+        if (spool == null) {
+            File file = File.createTempFile("insert", ".xml");
+            spool = new InsertSpool(file, parsers, root.getName());
+            counter = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            writer = new OutputStreamWriter(counter, StandardCharsets.UTF_8);
+        }
+        batch = OUTPUT_FACTORY.createXMLEventWriter(writer);
+        batch.add(root);
+        batch.add(insert);
+        batchFeatures = 0;
+    }
+
+    void closeBatch() throws IOException, XMLStreamException {
+        if (batch == null) {
+            return;
+        }
+        batch.add(EVENT_FACTORY.createEndElement(insert.getName(), null));
+        batch.add(EVENT_FACTORY.createEndElement(root.getName(), null));
+        batch.flush();
+        writer.flush();
+        spool.ends.add(counter.getByteCount());
+        batch = null;
+    }
+
+    void closeSpool(int index) throws IOException {
+        if (spool == null) {
+            return;
+        }
+        writer.close();
+        writer = null;
+        spools.put(index, spool);
+        spool = null;
+    }
+
+    /**
+     * Attaches the spools to the parsed inserts
+     */
+    void attach(Object parsed) {
+        TransactionRequest request = TransactionRequest.adapt(parsed);
+        if (request == null) {
+            dispose();
+            return;
+        }
+        int index = 0;
+        for (TransactionElement element : request.getElements()) {
+            if (element instanceof Insert) {
+                InsertSpool spool = spools.remove(index++);
+                if (spool != null) {
+                    element.getAdaptee().eAdapters().add(spool);
+                }
+            }
+        }
+        if (!spools.isEmpty()) {
+            throw new IllegalStateException("Found " + index + " inserts in the request, "
+                    + "but features were spooled for insert " + spools.keySet());
+        }
+    }
+
+    void dispose() {
+        IOUtils.closeQuietly(writer);
+        if (spool != null) {
+            spool.dispose();
+        }
+        for (InsertSpool spool : spools.values()) {
+            spool.dispose();
+        }
+        spools.clear();
+    }
+}
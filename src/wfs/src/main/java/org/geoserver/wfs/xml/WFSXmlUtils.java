@@ -10,6 +10,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 
 import javax.xml.namespace.QName;
@@ -70,16 +71,46 @@ public class WFSXmlUtils {
     }
     
     public static Object parseRequest(Parser parser, Reader reader, WFSInfo wfs) throws Exception {
-        //set the input source with the correct encoding
-        InputSource source = new InputSource(reader);
-        source.setEncoding(wfs.getGeoServer().getSettings().getCharset());
+        return parseRequest(parser, reader, wfs, null);
+    }
+
+    /**
+     * Parses the request, enforcing the request limits while parsing.
+     * 
+     * @param insertParsers Provides the parsers for the features of a Transaction request
+     *        that are spooled in batches, see {@link InsertSpool}. If null, or if no batch size is
+     *        configured, the request is parsed as a whole.
+     */
+    public static Object parseRequest(Parser parser, Reader reader, WFSInfo wfs,
+            Callable<Parser> insertParsers) throws Exception {
+        Reader limited = XmlRequestLimitReader.wrap(reader, wfs);
+        int batchSize = InsertSpool.getBatchSize(wfs);
+        try {
+            if (insertParsers != null && batchSize > 0) {
+                return TransactionSpooler.parse(parser, limited, insertParsers, batchSize);
+            }
 
-        return parser.parse(source);
+            //set the input source with the correct encoding
+            InputSource source = new InputSource(limited);
+            source.setEncoding(wfs.getGeoServer().getSettings().getCharset());
+            return parser.parse(source);
+        } catch (Exception e) {
+            XmlRequestLimitReader.checkLimitExceeded(e);
+            throw e;
+        }
     }
 
     public static void checkValidationErrors(Parser parser, XmlRequestReader requestReader) {
+        checkValidationErrors(parser, requestReader.getElement());
+    }
+
+    /**
+     * Checks the validation errors of a request with the given root element, the spooled insert
+     * batches of a Transaction are checked the same way as the request they were spooled from
+     */
+    public static void checkValidationErrors(Parser parser, QName element) {
         //TODO: HACK, disabling validation for transaction
-        if (!"Transaction".equalsIgnoreCase(requestReader.getElement().getLocalPart())) {
+        if (!"Transaction".equalsIgnoreCase(element.getLocalPart())) {
             if (!parser.getValidationErrors().isEmpty()) {
                 WFSException exception = new WFSException("Invalid request", "InvalidParameterValue");
 
@@ -0,0 +1,217 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.WFSInfo;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Reader enforcing the maximum number of elements and characters of a XML request while it's
+ * being parsed, so that oversized requests are rejected as soon as the limit is crossed, before
+ * the rest of the document is read and turned into objects.
+ * <p>
+ * Elements are counted with a light scan of the markup that skips comments, CDATA sections,
+ * processing instructions and declarations.
+ */
+public class XmlRequestLimitReader extends FilterReader {
+
+    /**
+     * WFS metadata key for the maximum number of elements in a XML request
+     */
+    public static final String MAX_ELEMENTS = "maxRequestElements";
+
+    /**
+     * WFS metadata key for the maximum number of characters in a XML request
+     */
+    public static final String MAX_CHARACTERS = "maxRequestCharacters";
+
+    /**
+     * Thrown when a limit is exceeded, the parser passes it along as any other I/O error
+     */
+    static class LimitExceededException extends IOException {
+        private static final long serialVersionUID = -2424236424036582389L;
+
+        LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    static final int TEXT = 0;
+
+    static final int TAG_OPEN = 1;
+
+    static final int BANG = 2;
+
+    static final int SKIP = 3;
+
+    static final int TAG = 4;
+
+    final long maxElements;
+
+    final long maxCharacters;
+
+    long elements;
+
+    long characters;
+
+    int state = TEXT;
+
+    /**
+     * The terminator of the markup being skipped, and how much of it has been matched
+     */
+    String terminator;
+
+    int matched;
+
+    /**
+     * Wraps the reader, limits lower or equal than zero are ignored
+     */
+    public XmlRequestLimitReader(Reader in, long maxElements, long maxCharacters) {
+        super(in);
+        this.maxElements = maxElements;
+        this.maxCharacters = maxCharacters;
+    }
+
+    /**
+     * Wraps the reader with the limits configured in the WFS service, returns it unchanged if no
+     * limit is configured
+     */
+    public static Reader wrap(Reader reader, WFSInfo wfs) {
+        long maxElements = getLimit(wfs, MAX_ELEMENTS);
+        long maxCharacters = getLimit(wfs, MAX_CHARACTERS);
+        if (maxElements <= 0 && maxCharacters <= 0) {
+            return reader;
+        }
+        return new XmlRequestLimitReader(reader, maxElements, maxCharacters);
+    }
+
+    static long getLimit(WFSInfo wfs, String key) {
+        Long limit = wfs.getMetadata().get(key, Long.class);
+        return limit == null ? 0 : limit;
+    }
+
+    /**
+     * Turns a parse failure caused by an exceeded limit into a {@link WFSException}, does nothing
+     * otherwise
+     */
+    public static void checkLimitExceeded(Throwable t) {
+        for (Throwable cause : Throwables.getCausalChain(t)) {
+            if (cause instanceof LimitExceededException) {
+                throw new WFSException(cause.getMessage(), cause);
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int c = super.read();
+        if (c >= 0) {
+            scan((char) c);
+            checkLimits(1);
+        }
+        return c;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int read = super.read(cbuf, off, len);
+        if (read > 0) {
+            for (int i = off; i < off + read; i++) {
+                scan(cbuf[i]);
+            }
+            checkLimits(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // skipped characters still need to be scanned
+        long skipped = 0;
+        while (skipped < n && read() >= 0) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    void checkLimits(int read) throws LimitExceededException {
+        characters += read;
+        if (maxCharacters > 0 && characters > maxCharacters) {
+            throw new LimitExceededException("The request exceeds the maximum size of "
+                    + maxCharacters + " characters");
+        }
+        if (maxElements > 0 && elements > maxElements) {
+            throw new LimitExceededException("The request exceeds the maximum of " + maxElements
+                    + " XML elements");
+        }
+    }
+
+    void scan(char c) {
+        switch (state) {
+        case TEXT:
+            if (c == '<') {
+                state = TAG_OPEN;
+            }
+            break;
+        case TAG_OPEN:
+            if (c == '!') {
+                state = BANG;
+            } else if (c == '?') {
+                skip("?>");
+            } else {
+                if (c != '/') {
+                    elements++;
+                }
+                state = TAG;
+            }
+            break;
+        case BANG:
+            if (c == '-') {
+                skip("-->");
+                // the first dash of the opening is not part of the terminator
+                matched = 0;
+            } else if (c == '[') {
+                skip("]]>");
+            } else {
+                skip(">");
+            }
+            break;
+        case TAG:
+            // well formed attribute values cannot contain '<', and a '>' ends the tag
+            if (c == '>') {
+                state = TEXT;
+            }
+            break;
+        case SKIP:
+            if (c == terminator.charAt(matched)) {
+                matched++;
+                if (matched == terminator.length()) {
+                    state = TEXT;
+                }
+            } else if (!(matched == 2 && c == terminator.charAt(1))) {
+                // "--->" and "]]]>" keep the partial match
+                matched = c == terminator.charAt(0) ? 1 : 0;
+            }
+            break;
+        }
+    }
+
+    void skip(String terminator) {
+        this.terminator = terminator;
+        this.matched = 0;
+        this.state = SKIP;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
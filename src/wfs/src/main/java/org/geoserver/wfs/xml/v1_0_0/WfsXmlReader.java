@@ -18,7 +18,9 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.ows.XmlRequestReader;
 import org.geoserver.wfs.CatalogNamespaceSupport;
 import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.xml.WFSURIHandler;
+import org.geoserver.wfs.xml.XmlRequestLimitReader;
 import org.geoserver.util.EntityResolverProvider;
 import org.geotools.util.Version;
 import org.geotools.xml.Configuration;
@@ -75,8 +77,15 @@ public class WfsXmlReader extends XmlRequestReader {
         parser.setValidating(strict.booleanValue());
         WFSURIHandler.addToParser(geoServer, parser);
 
-        //parse
-        Object parsed = parser.parse(reader); 
+        //parse, enforcing the request limits
+        Object parsed;
+        try {
+            parsed = parser.parse(
+                    XmlRequestLimitReader.wrap(reader, geoServer.getService(WFSInfo.class)));
+        } catch (Exception e) {
+            XmlRequestLimitReader.checkLimitExceeded(e);
+            throw e;
+        }
         
         //if strict was set, check for validation errors and throw an exception 
         if (strict.booleanValue() && !parser.getValidationErrors().isEmpty()) {
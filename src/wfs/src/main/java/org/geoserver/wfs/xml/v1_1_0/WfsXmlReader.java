@@ -7,6 +7,7 @@ package org.geoserver.wfs.xml.v1_1_0;
 
 import java.io.Reader;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.xml.namespace.QName;
 
@@ -59,6 +60,21 @@ public class WfsXmlReader extends XmlRequestReader {
     }
     
     public Object read(Object request, Reader reader, Map kvp) throws Exception {
+        Parser parser = createParser(kvp);
+        
+        // the features of transaction inserts can be parsed in batches
+        Callable<Parser> insertParsers = null;
+        if ("Transaction".equals(getElement().getLocalPart())) {
+            insertParsers = () -> createParser(kvp);
+        }
+        Object parsed = WFSXmlUtils.parseRequest(parser, reader, wfs, insertParsers);
+        
+        WFSXmlUtils.checkValidationErrors(parser, this);
+        
+        return parsed;
+    }
+
+    Parser createParser(Map kvp) {
         //TODO: make this configurable?
         configuration.getProperties().add(Parser.Properties.PARSE_UNKNOWN_ELEMENTS);
 
@@ -66,10 +82,6 @@ public class WfsXmlReader extends XmlRequestReader {
         parser.setEntityResolver(entityResolverProvider.getEntityResolver());
         
         WFSXmlUtils.initRequestParser(parser, wfs, geoServer, kvp);
-        Object parsed = WFSXmlUtils.parseRequest(parser, reader, wfs);
-        
-        WFSXmlUtils.checkValidationErrors(parser, this);
-        
-        return parsed;
+        return parser;
     }
 }
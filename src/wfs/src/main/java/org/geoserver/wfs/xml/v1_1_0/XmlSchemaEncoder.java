@@ -18,8 +18,6 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.apache.commons.codec.binary.Base64;
-import org.eclipse.xsd.XSDSchema;
-import org.eclipse.xsd.util.XSDResourceImpl;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
@@ -104,12 +102,18 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
         Object request = describeFeatureType.getParameters()[0];
         DescribeFeatureTypeRequest req = DescribeFeatureTypeRequest.adapt(request);
         
-        XSDSchema schema = schemaBuilder.build(featureTypeInfos, req.getBaseURL());
-
-        //serialize
-        schema.updateElement();
+        //build and serialize, or grab the cached copy
         final String encoding = gs.getSettings().getCharset();
-        XSDResourceImpl.serialize(output, schema.getElement(), encoding);
+        output.write(schemaBuilder.buildSerialized(featureTypeInfos, req.getBaseURL(), encoding));
+    }
+
+    /**
+     * Enables the cache of the serialized schemas in the schema builder
+     */
+    public void setSchemaCache(boolean schemaCache) {
+        if (schemaCache) {
+            schemaBuilder.enableSchemaCache();
+        }
     }
     
     public static class V20 extends XmlSchemaEncoder {
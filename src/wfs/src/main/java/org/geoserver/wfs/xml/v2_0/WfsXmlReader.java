@@ -7,6 +7,7 @@ package org.geoserver.wfs.xml.v2_0;
 
 import java.io.Reader;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.xml.namespace.QName;
 
@@ -45,15 +46,17 @@ public class WfsXmlReader extends XmlRequestReader {
         WFSConfiguration config = new WFSConfiguration();
         WFSXmlUtils.initWfsConfiguration(config, gs, new FeatureTypeSchemaBuilder.GML32(gs));
         
-        Parser parser = new Parser(config);
-        parser.setEntityResolver(entityResolverProvider.getEntityResolver());
-        
         WFSInfo wfs = wfs();
+        Parser parser = createParser(config, wfs, kvp);
         
-        WFSXmlUtils.initRequestParser(parser, wfs, gs, kvp);
+        // the features of transaction inserts can be parsed in batches
+        Callable<Parser> insertParsers = null;
+        if ("Transaction".equals(getElement().getLocalPart())) {
+            insertParsers = () -> createParser(config, wfs, kvp);
+        }
         Object parsed = null;
         try {
-            parsed = WFSXmlUtils.parseRequest(parser, reader, wfs);    
+            parsed = WFSXmlUtils.parseRequest(parser, reader, wfs, insertParsers);    
         }
         catch(Exception e) {
             //check the exception, and set code to OperationParsingFailed if code not set
@@ -68,6 +71,14 @@ public class WfsXmlReader extends XmlRequestReader {
         return parsed;
     }
 
+    Parser createParser(WFSConfiguration config, WFSInfo wfs, Map kvp) {
+        Parser parser = new Parser(config);
+        parser.setEntityResolver(entityResolverProvider.getEntityResolver());
+        
+        WFSXmlUtils.initRequestParser(parser, wfs, gs, kvp);
+        return parser;
+    }
+
     WFSInfo wfs() {
         return gs.getService(WFSInfo.class);
     }
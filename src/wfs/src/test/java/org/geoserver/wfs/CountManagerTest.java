@@ -0,0 +1,147 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.opengis.wfs20.GetFeatureType;
+import net.opengis.wfs20.QueryType;
+import net.opengis.wfs20.Wfs20Factory;
+
+import org.geoserver.config.GeoServer;
+import org.geoserver.data.test.MockData;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geoserver.wfs.request.GetFeatureRequest;
+import org.geotools.factory.CommonFactoryFinder;
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class CountManagerTest extends WFSTestSupport {
+
+    static final String PAGED_REQUEST = "wfs?request=GetFeature&typenames=cdf:Fifteen"
+            + "&version=2.0.0&service=wfs&count=5";
+
+    @After
+    public void resetOptions() {
+        setOption(CountManager.COUNT_TIMEOUT, null);
+        setOption(CountManager.COUNT_CACHE_TIMEOUT, null);
+    }
+
+    void setOption(String key, Integer value) {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        if (value == null) {
+            wfs.getMetadata().remove(key);
+        } else {
+            wfs.getMetadata().put(key, value);
+        }
+        gs.save(wfs);
+    }
+
+    CountManager getManager() {
+        return GeoServerExtensions.bean(CountManager.class);
+    }
+
+    @Test
+    public void testPagedCount() throws Exception {
+        Document dom = getAsDOM(PAGED_REQUEST);
+        assertEquals("15", dom.getDocumentElement().getAttribute("numberMatched"));
+        assertEquals("5", dom.getDocumentElement().getAttribute("numberReturned"));
+        assertNull(getManager().getCache());
+    }
+
+    @Test
+    public void testCachedCount() throws Exception {
+        setOption(CountManager.COUNT_CACHE_TIMEOUT, 60);
+        CountManager manager = getManager();
+        Document dom = getAsDOM(PAGED_REQUEST);
+        assertEquals("15", dom.getDocumentElement().getAttribute("numberMatched"));
+        assertEquals(1, manager.getCache().size());
+
+        dom = getAsDOM(PAGED_REQUEST + "&startIndex=5");
+        assertEquals("15", dom.getDocumentElement().getAttribute("numberMatched"));
+        assertEquals(1, manager.getCache().size());
+
+        // a different type is a different count
+        dom = getAsDOM(PAGED_REQUEST.replace("Fifteen", "Seven"));
+        assertEquals("7", dom.getDocumentElement().getAttribute("numberMatched"));
+        assertEquals(2, manager.getCache().size());
+
+        // transactions drop the cache
+        manager.afterTransaction(null, null, true);
+        assertEquals(0, manager.getCache().size());
+    }
+
+    @Test
+    public void testCountResolvedOnEncoding() throws Exception {
+        AtomicBoolean started = new AtomicBoolean();
+        AtomicBoolean resolved = new AtomicBoolean();
+        CountManager manager = new CountManager(getGeoServer()) {
+            @Override
+            public PendingCount start(List<CountExecutor> executors) {
+                started.set(true);
+                return new PendingCount(super.start(executors).futures) {
+                    @Override
+                    public long get() throws IOException {
+                        resolved.set(true);
+                        return super.get();
+                    }
+                };
+            }
+        };
+        Request request = new Request();
+        request.setGet(true);
+        request.setRawKvp(new HashMap<>());
+        Dispatcher.REQUEST.set(request);
+        try {
+            QueryType query = Wfs20Factory.eINSTANCE.createQueryType();
+            query.getTypeNames().add(MockData.FIFTEEN);
+            GetFeatureType gft = Wfs20Factory.eINSTANCE.createGetFeatureType();
+            gft.setVersion("2.0.0");
+            gft.setBaseUrl("http://localhost:8080/geoserver");
+            gft.setCount(BigInteger.valueOf(5));
+            gft.getAbstractQueryExpression().add(query);
+
+            GetFeature getFeature = new GetFeature(getWFS(), getCatalog());
+            getFeature.setFilterFactory(CommonFactoryFinder.getFilterFactory2());
+            getFeature.setCountManager(manager);
+            FeatureCollectionResponse response = getFeature.run(GetFeatureRequest.adapt(gft));
+            // building the response must neither start nor wait for the count
+            assertFalse(started.get());
+            assertFalse(resolved.get());
+
+            // the output format resolves it while encoding
+            assertEquals(15, response.getTotalNumberOfFeatures().intValue());
+            assertTrue(started.get());
+            assertTrue(resolved.get());
+        } finally {
+            Dispatcher.REQUEST.remove();
+        }
+    }
+
+    @Test
+    public void testTimeBudget() throws Exception {
+        setOption(CountManager.COUNT_TIMEOUT, 10);
+        // a count that never completes
+        FutureTask<Integer> never = new FutureTask<>(() -> 10);
+        CountManager manager = getManager();
+        assertEquals(-1, manager.new PendingCount(Arrays.asList(never)).get());
+    }
+}
@@ -0,0 +1,122 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.custommonkey.xmlunit.XMLAssert;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.CiteTestData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.gml3.GML;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.w3c.dom.Document;
+
+public class GetFeatureCacheTest extends WFSTestSupport {
+
+    static final String POINTS_REQUEST = "wfs?request=GetFeature&typename=cgf:Points"
+            + "&version=1.1.0&service=wfs";
+
+    @Before
+    public void enableCache() {
+        setCacheEnabled(true);
+    }
+
+    @After
+    public void disableCache() {
+        setCacheEnabled(false);
+    }
+
+    void setCacheEnabled(boolean enabled) {
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo points = catalog.getFeatureTypeByName(getLayerId(CiteTestData.POINTS));
+        if (enabled) {
+            points.getMetadata().put(GetFeatureCache.RESULT_CACHE, true);
+        } else {
+            points.getMetadata().remove(GetFeatureCache.RESULT_CACHE);
+        }
+        catalog.save(points);
+    }
+
+    GetFeatureCache getCache() {
+        return GeoServerExtensions.bean(GetFeatureCache.class);
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        MockHttpServletResponse response = getAsServletResponse(POINTS_REQUEST);
+        assertEquals("MISS", response.getHeader(GetFeatureCache.CACHE_HEADER));
+        String first = response.getContentAsString();
+        String contentType = response.getContentType();
+        assertEquals(1, getCache().results.size());
+
+        response = getAsServletResponse(POINTS_REQUEST);
+        assertEquals("HIT", response.getHeader(GetFeatureCache.CACHE_HEADER));
+        assertEquals(first, response.getContentAsString());
+        assertEquals(contentType, response.getContentType());
+
+        // a different query is a different entry
+        response = getAsServletResponse(POINTS_REQUEST + "&propertyName=id");
+        assertEquals("MISS", response.getHeader(GetFeatureCache.CACHE_HEADER));
+        assertEquals(2, getCache().results.size());
+
+        // and so is a different output format
+        response = getAsServletResponse(POINTS_REQUEST + "&outputFormat=application/json");
+        assertEquals("MISS", response.getHeader(GetFeatureCache.CACHE_HEADER));
+        response = getAsServletResponse(POINTS_REQUEST + "&outputFormat=application/json");
+        assertEquals("HIT", response.getHeader(GetFeatureCache.CACHE_HEADER));
+    }
+
+    @Test
+    public void testNotEnabled() throws Exception {
+        MockHttpServletResponse response = getAsServletResponse(
+                POINTS_REQUEST.replace("Points", "Lines"));
+        assertNull(response.getHeader(GetFeatureCache.CACHE_HEADER));
+    }
+
+    @Test
+    public void testTransactionInvalidates() throws Exception {
+        getAsServletResponse(POINTS_REQUEST);
+        assertEquals("HIT",
+                getAsServletResponse(POINTS_REQUEST).getHeader(GetFeatureCache.CACHE_HEADER));
+
+        String xml = "<wfs:Transaction service='WFS' version='1.1.0' "
+                + "xmlns:cgf='" + CiteTestData.CGF_URI + "' "
+                + "xmlns:wfs='http://www.opengis.net/wfs' "
+                + "xmlns:gml='" + GML.NAMESPACE + "'>"
+                + "<wfs:Insert><cgf:Points><cgf:pointProperty><gml:Point>"
+                + "<gml:pos>500050 500050</gml:pos></gml:Point></cgf:pointProperty>"
+                + "<cgf:id>cached</cgf:id></cgf:Points></wfs:Insert></wfs:Transaction>";
+        try {
+            Document dom = postAsDOM("wfs", xml);
+            XMLAssert.assertXpathEvaluatesTo("1", "//wfs:totalInserted", dom);
+
+            MockHttpServletResponse response = getAsServletResponse(POINTS_REQUEST);
+            assertEquals("MISS", response.getHeader(GetFeatureCache.CACHE_HEADER));
+            dom = dom(response, true);
+            XMLAssert.assertXpathEvaluatesTo("1", "count(//cgf:Points[cgf:id = 'cached'])",
+                    dom);
+        } finally {
+            revertLayer(CiteTestData.POINTS);
+        }
+    }
+
+    @Test
+    public void testCatalogChangeInvalidates() throws Exception {
+        getAsServletResponse(POINTS_REQUEST);
+        assertEquals(1, getCache().results.size());
+
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo points = catalog.getFeatureTypeByName(getLayerId(CiteTestData.POINTS));
+        points.setTitle("Modified title");
+        catalog.save(points);
+        assertEquals(0, getCache().results.size());
+    }
+}
@@ -0,0 +1,203 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.output.NullWriter;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeoJSONWriterTest {
+
+    static final String[] GEOMETRIES = { "POINT(2 0)", "POINT(2.1234 0.1234 20.9999)",
+            "POINT EMPTY", "MULTIPOINT((1 2), (3.5 4.25))",
+            "LINESTRING(1E-3 1E-4 1E-5, 0 10.12312321 1.000002, 10.1 10.2 2.0, 10 0 3, 0 0 0)",
+            "LINESTRING(-12345678.123 1234567.5, 0.0004 -0.00012, 99999.999999999 1)",
+            "MULTILINESTRING((0 0, 1 1), (2 2, 3 3))",
+            "POLYGON((0.1 0.2 0.3, 0.1 10.1 1.1, 10.2 10.3 2.4, 9.5 0.4 3, 0.1 0.2 0.3),"
+                    + "(1 1 4, 1 2 5, 2 2 6, 2 1 7, 1 1 4))",
+            "MULTIPOLYGON(((0 0, 0 1, 1 1, 0 0)), ((10 10, 10 11, 11 11, 10 10)))",
+            "GEOMETRYCOLLECTION(POINT(2 0),LINESTRING(7 1, 8 2))" };
+
+    @Test
+    public void testGeometriesMatchBuilder() throws Exception {
+        WKTReader reader = new WKTReader();
+        for (int decimals : new int[] { 0, 2, 3, 6, 8, 10 }) {
+            for (String wkt : GEOMETRIES) {
+                Geometry g = reader.read(wkt);
+                StringWriter expected = new StringWriter();
+                GeoJSONBuilder builder = new GeoJSONBuilder(expected);
+                builder.setNumberOfDecimals(decimals);
+                if (!g.isEmpty()) {
+                    builder.writeGeom(g);
+                }
+
+                StringWriter actual = new StringWriter();
+                GeoJSONWriter writer = new GeoJSONWriter(actual);
+                writer.setNumberOfDecimals(decimals);
+                if (!g.isEmpty()) {
+                    writer.writeGeom(g);
+                }
+                writer.flush();
+                assertEquals(wkt + " with " + decimals + " decimals", expected.toString(),
+                        actual.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testRandomCoordinatesMatchBuilder() throws Exception {
+        Random random = new Random(0);
+        GeometryFactory gf = new GeometryFactory();
+        for (int decimals = 0; decimals < 9; decimals++) {
+            Coordinate[] coordinates = new Coordinate[1000];
+            for (int i = 0; i < coordinates.length; i++) {
+                double scale = Math.pow(10, random.nextInt(12) - 4);
+                coordinates[i] = new Coordinate((random.nextDouble() - 0.5) * scale,
+                        (random.nextDouble() - 0.5) * scale);
+            }
+            Geometry line = gf.createLineString(coordinates);
+
+            StringWriter expected = new StringWriter();
+            GeoJSONBuilder builder = new GeoJSONBuilder(expected);
+            builder.setNumberOfDecimals(decimals);
+            builder.writeGeom(line);
+
+            StringWriter actual = new StringWriter();
+            GeoJSONWriter writer = new GeoJSONWriter(actual);
+            writer.setNumberOfDecimals(decimals);
+            writer.writeGeom(line);
+            writer.flush();
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void testValuesMatchBuilder() throws Exception {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(2011, 9, 25, 15, 48, 5);
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("a", 1);
+        map.put("b", Arrays.asList("x", 2.5));
+        Object[] values = { "plain", "quote\" backslash\\ tab\t newline\n </script> \u0001",
+                "c1 \u0080\u0085\u009f\u00a0 punctuation \u1fff\u2000\u2028\u20ac\u20ff\u2100",
+                "", 0, -15, Long.MAX_VALUE, Long.MIN_VALUE, 1.5, 2.0, -0.25, 1e-5, 1.5e12,
+                3.25f, new BigDecimal("10.500"), new BigInteger("12345678901234567890"), true,
+                false, new java.sql.Timestamp(cal.getTimeInMillis()), cal,
+                Arrays.asList(1, "two", null), map, 'c' };
+        for (Object value : values) {
+            StringWriter expected = new StringWriter();
+            GeoJSONBuilder builder = new GeoJSONBuilder(expected);
+            builder.object().key("key \"quoted\"").value(value).key("next").value(null)
+                    .endObject();
+
+            StringWriter actual = new StringWriter();
+            GeoJSONWriter writer = new GeoJSONWriter(actual);
+            writer.object().key(GeoJSONWriter.escapeKey("key \"quoted\"")).value(value)
+                    .key("next").value((Object) null).endObject();
+            writer.flush();
+            assertEquals(String.valueOf(value), expected.toString(), actual.toString());
+        }
+    }
+
+    @Test
+    public void testNesting() throws Exception {
+        StringWriter actual = new StringWriter();
+        GeoJSONWriter writer = new GeoJSONWriter(actual);
+        writer.object().key("a").array();
+        for (int i = 0; i < 3; i++) {
+            writer.object().key("i").value(i).key("empty").array().endArray().endObject();
+        }
+        writer.endArray().key("b").object().endObject().endObject();
+        writer.flush();
+        assertEquals("{\"a\":[{\"i\":0,\"empty\":[]},{\"i\":1,\"empty\":[]},"
+                + "{\"i\":2,\"empty\":[]}],\"b\":{}}", actual.toString());
+    }
+
+    @Test
+    public void testAxisOrderAndBoundingBox() throws Exception {
+        Geometry g = new WKTReader().read("POINT(1.23456789 2.5)");
+        StringWriter actual = new StringWriter();
+        GeoJSONWriter writer = new GeoJSONWriter(actual);
+        writer.setNumberOfDecimals(3);
+        writer.setAxisOrder(CRS.AxisOrder.NORTH_EAST);
+        writer.object().key("geometry").writeGeom(g);
+        writer.writeBoundingBox(g.getEnvelopeInternal()).endObject();
+        writer.flush();
+        assertEquals("{\"geometry\":{\"type\":\"Point\",\"coordinates\":[2.5,1.235]},"
+                + "\"bbox\":[2.5,1.235,2.5,1.235]}", actual.toString());
+    }
+
+    /**
+     * Compares the encoding speed with {@link GeoJSONBuilder}, only runs with the
+     * <code>benchmarkTests</code> profile
+     */
+    @Test
+    public void testBenchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarkTests"));
+        Random random = new Random(0);
+        GeometryFactory gf = new GeometryFactory();
+        Geometry[] lines = new Geometry[10000];
+        for (int i = 0; i < lines.length; i++) {
+            Coordinate[] coordinates = new Coordinate[100];
+            for (int j = 0; j < coordinates.length; j++) {
+                coordinates[j] = new Coordinate(random.nextDouble() * 360 - 180,
+                        random.nextDouble() * 180 - 90);
+            }
+            lines[i] = gf.createLineString(coordinates);
+        }
+        Logger logger = Logging.getLogger(GeoJSONWriterTest.class);
+        for (int run = 0; run < 10; run++) {
+            Writer out = new NullWriter();
+            long start = System.nanoTime();
+            GeoJSONBuilder builder = new GeoJSONBuilder(out);
+            builder.array();
+            for (Geometry line : lines) {
+                builder.object().key("name").value("feature").key("geometry");
+                builder.writeGeom(line);
+                builder.endObject();
+            }
+            builder.endArray();
+            long builderTime = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            GeoJSONWriter writer = new GeoJSONWriter(out);
+            char[] name = GeoJSONWriter.escapeKey("name");
+            char[] geometry = GeoJSONWriter.escapeKey("geometry");
+            writer.array();
+            for (Geometry line : lines) {
+                writer.object().key(name).value("feature").key(geometry);
+                writer.writeGeom(line);
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.flush();
+            long writerTime = (System.nanoTime() - start) / 1000000;
+            logger.info("Encoded " + lines.length + " lines, builder: " + builderTime
+                    + "ms, writer: " + writerTime + "ms");
+        }
+    }
+}
@@ -9,11 +9,14 @@ import au.com.bytecode.opencsv.CSVReader;
 import org.springframework.mock.web.MockHttpServletResponse;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
 import net.opengis.wfs.GetFeatureType;
 import net.opengis.wfs.WfsFactory;
 import org.geoserver.data.test.MockData;
 import org.geoserver.platform.Operation;
+import org.apache.commons.io.IOUtils;
+import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geotools.data.FeatureSource;
@@ -27,6 +30,7 @@ import org.junit.Test;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
@@ -34,6 +38,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
 
@@ -140,6 +145,74 @@ public class CSVOutputFormatTest extends WFSTestSupport {
         assertEquals(f2.getAttribute("d"), Double.parseDouble(lines.get(2)[5]));
     }
     
+    @Test
+    public void testGzip() throws Exception {
+        MockHttpServletResponse resp = getAsServletResponse("wfs?version=1.1.0&request=GetFeature"
+                + "&typeName=sf:PrimitiveGeoFeature&outputFormat=csv&format_options=gzip:true");
+        assertEquals("application/gzip", resp.getContentType());
+        assertEquals("attachment; filename=PrimitiveGeoFeature.csv.gz",
+                resp.getHeader("Content-Disposition"));
+
+        String csv = IOUtils.toString(new GZIPInputStream(
+                new ByteArrayInputStream(resp.getContentAsByteArray())), "UTF-8");
+        FeatureSource fs = getFeatureSource(MockData.PRIMITIVEGEOFEATURE);
+        assertEquals(fs.getCount(Query.ALL) + 1, readLines(csv).size());
+    }
+
+    @Test
+    public void testParallelWKT() throws Exception {
+        // enough features to need more than one batch
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.add("label", String.class);
+        builder.add("geom", LineString.class);
+        builder.setName("lines");
+        SimpleFeatureType type = builder.buildFeatureType();
+        GeometryFactory gf = new GeometryFactory();
+        MemoryDataStore data = new MemoryDataStore();
+        int count = CSVOutputFormat.BATCH_SIZE * 2 + 10;
+        for (int i = 0; i < count; i++) {
+            LineString line = gf.createLineString(new Coordinate[] { new Coordinate(i, 0),
+                    new Coordinate(i, i + 0.5) });
+            data.addFeature(SimpleFeatureBuilder.build(type,
+                    new Object[] { "line " + i, i % 7 == 0 ? null : line }, "lines." + i));
+        }
+        SimpleFeatureSource fs = data.getFeatureSource("lines");
+
+        String sequential = writeCSV(fs);
+        WFSInfo wfs = getGeoServer().getService(WFSInfo.class);
+        wfs.getMetadata().put(CSVOutputFormat.PARALLEL_WKT, true);
+        getGeoServer().save(wfs);
+        try {
+            String parallel = writeCSV(fs);
+            assertEquals(sequential, parallel);
+        } finally {
+            wfs.getMetadata().remove(CSVOutputFormat.PARALLEL_WKT);
+            getGeoServer().save(wfs);
+        }
+
+        List<String[]> lines = readLines(sequential);
+        assertEquals(count + 1, lines.size());
+        for (String[] line : lines.subList(1, lines.size())) {
+            if (line[0].equals("lines.0")) {
+                assertEquals("", line[2]);
+            } else if (line[0].equals("lines.1")) {
+                assertEquals("line 1", line[1]);
+                assertEquals("LINESTRING (1 0, 1 1.5)", line[2]);
+            }
+        }
+    }
+
+    private String writeCSV(SimpleFeatureSource fs) throws IOException {
+        GetFeatureType gft = WfsFactory.eINSTANCE.createGetFeatureType();
+        Operation op = new Operation("GetFeature", getServiceDescriptor10(), null, new Object[] {gft});
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FeatureCollectionResponse fct = 
+            FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+        fct.getFeature().add(fs.getFeatures());
+        new CSVOutputFormat(getGeoServer()).write(fct, bos, op);
+        return bos.toString("UTF-8");
+    }
+
     /**
      * Convenience to read the csv content and 
      * @param csvContent
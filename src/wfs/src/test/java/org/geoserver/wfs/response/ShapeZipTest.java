@@ -20,10 +20,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -42,7 +45,9 @@ import org.geoserver.platform.Operation;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.shapefile.ShapefileDumper;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -489,6 +494,225 @@ public class ShapeZipTest extends WFSTestSupport {
                 get4326_ESRI_WKTContent());
     }
     
+    @Test
+    public void testStreaming() throws Exception {
+        setupStreaming(true);
+        try {
+            byte[] zip = writeOut(getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures());
+            checkShapefileIntegrity(new String[] { "BasicPolygons" },
+                    new ByteArrayInputStream(zip));
+            SimpleFeatureType schema = checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
+            assertEquals(MultiPolygon.class, schema.getGeometryDescriptor().getType().getBinding());
+            assertEquals(getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures().size(),
+                    countFeatures(new ByteArrayInputStream(zip)));
+
+            // geometry in the middle of the attributes, and points
+            zip = writeOut(getFeatureSource(GEOMMID).getFeatures());
+            checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
+            zip = writeOut(getFeatureSource(SystemTestData.BRIDGES).getFeatures());
+            checkShapefileIntegrity(new String[] { "Bridges" }, new ByteArrayInputStream(zip));
+            checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
+        } finally {
+            setupStreaming(false);
+        }
+    }
+
+    @Test
+    public void testStreamingNullGeometries() throws Exception {
+        setupStreaming(true);
+        try {
+            byte[] zip = writeOut(getFeatureSource(NULLGEOM).getFeatures());
+            checkShapefileIntegrity(new String[] { "nullgeom" }, new ByteArrayInputStream(zip));
+            assertEquals(2, countFeatures(new ByteArrayInputStream(zip)));
+        } finally {
+            setupStreaming(false);
+        }
+    }
+
+    @Test
+    public void testStreamingEmptyResult() throws Exception {
+        SimpleFeatureCollection empty = (SimpleFeatureCollection) getFeatureSource(
+                SystemTestData.BASIC_POLYGONS).getFeatures(Filter.EXCLUDE);
+        Set<String> expected = getEntryNames(writeOut(empty));
+        setupStreaming(true);
+        try {
+            // empty results are left to the shapefile dumper
+            byte[] zip = writeOut(empty);
+            assertEquals(expected, getEntryNames(zip));
+            checkShapefileIntegrity(new String[] { "BasicPolygons" },
+                    new ByteArrayInputStream(zip));
+            assertEquals(0, countFeatures(new ByteArrayInputStream(zip)));
+        } finally {
+            setupStreaming(false);
+        }
+    }
+
+    @Test
+    public void testStreamingSizeComputedOnce() throws Exception {
+        setupStreaming(true);
+        try {
+            SimpleFeatureCollection source = (SimpleFeatureCollection) getFeatureSource(
+                    SystemTestData.BASIC_POLYGONS).getFeatures();
+            AtomicInteger sizeCalls = new AtomicInteger();
+            SimpleFeatureCollection counted = new ListFeatureCollection(source.getSchema(),
+                    DataUtilities.list(source)) {
+                @Override
+                public int size() {
+                    sizeCalls.incrementAndGet();
+                    return super.size();
+                }
+            };
+            byte[] zip = writeOut(counted);
+            assertEquals(source.size(), countFeatures(new ByteArrayInputStream(zip)));
+            assertEquals(1, sizeCalls.get());
+        } finally {
+            setupStreaming(false);
+        }
+    }
+
+    @Test
+    public void testStreamingUnstableOrder() throws Exception {
+        setupStreaming(true);
+        try {
+            // a source returning the features in a different order at each read
+            SimpleFeatureCollection source = (SimpleFeatureCollection) getFeatureSource(
+                    SystemTestData.BASIC_POLYGONS).getFeatures();
+            List<SimpleFeature> features = DataUtilities.list(source);
+            SimpleFeatureCollection unstable = new ListFeatureCollection(source.getSchema(),
+                    features) {
+                @Override
+                public SimpleFeatureIterator features() {
+                    Collections.reverse(features);
+                    return super.features();
+                }
+            };
+            Map<Object, Geometry> expected = new HashMap<>();
+            for (SimpleFeature f : features) {
+                expected.put(f.getAttribute("ID"), (Geometry) f.getDefaultGeometry());
+            }
+
+            byte[] zip = writeOut(unstable);
+            List<SimpleFeature> written = readFeatures(new ByteArrayInputStream(zip));
+            assertEquals(features.size(), written.size());
+            for (SimpleFeature f : written) {
+                Geometry g = (Geometry) f.getDefaultGeometry();
+                assertTrue(g.equals(expected.get(f.getAttribute("ID"))));
+            }
+        } finally {
+            setupStreaming(false);
+        }
+    }
+
+    @Test
+    public void testStreamingFallback() throws Exception {
+        setupStreaming(true);
+        try {
+            // mixed geometry types and long attribute names need the shapefile dumper
+            byte[] zip = writeOut(getFeatureSource(ALL_TYPES).getFeatures());
+            checkShapefileIntegrity(new String[] { "AllTypesPoint", "AllTypesMPoint",
+                    "AllTypesPolygon", "AllTypesLine" }, new ByteArrayInputStream(zip));
+            zip = writeOut(getFeatureSource(LONGNAMES).getFeatures());
+            checkLongNamesSchema(checkFieldsAreNotEmpty(new ByteArrayInputStream(zip)));
+        } finally {
+            setupStreaming(false);
+        }
+    }
+
+    @Test
+    public void testStreamingESRIFormatAndCharset() throws Exception {
+        setupESRIPropertyFile();
+        setupStreaming(true);
+        try {
+            ShapeZipOutputFormat zip = new ShapeZipOutputFormat(getGeoServer(), getCatalog(),
+                    getResourceLoader());
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            FeatureCollectionResponse fct = 
+                FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+            fct.getFeature().add(getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures());
+            Map options = new HashMap();
+            options.put("PRJFILEFORMAT", "ESRI");
+            options.put("CHARSET", Charset.forName("ISO-8859-15"));
+            gft.setFormatOptions(options);
+            zip.write(fct, bos, op);
+
+            byte[] byteArrayZip = bos.toByteArray();
+            checkShapefileIntegrity(new String[] { "BasicPolygons" }, new ByteArrayInputStream(
+                    byteArrayZip));
+            checkFileContent("BasicPolygons.prj", new ByteArrayInputStream(byteArrayZip),
+                    get4326_ESRI_WKTContent());
+            assertEquals("ISO-8859-15", getCharset(new ByteArrayInputStream(byteArrayZip)));
+        } finally {
+            setupStreaming(false);
+        }
+    }
+
+    @Test
+    public void testStreamingRequestUrl() throws Exception {
+        setupStreaming(true);
+        try {
+            MockHttpServletResponse response = getAsServletResponse("wfs?service=WFS&version=1.0.0" +
+                    "&request=GetFeature&typeName=" + getLayerId(SystemTestData.BASIC_POLYGONS) + "&outputFormat=SHAPE-ZIP");
+            assertEquals("application/zip", response.getContentType());
+            checkShapefileIntegrity(new String[] { "BasicPolygons" }, getBinaryInputStream(response));
+            assertEquals("http://localhost:8080/geoserver/wfs?service=WFS&version=1.0.0&request=GetFeature&typeName=cite:BasicPolygons&outputFormat=SHAPE-ZIP", 
+                    getRequest(getBinaryInputStream(response)));
+        } finally {
+            setupStreaming(false);
+        }
+    }
+
+    private void setupStreaming(boolean streaming) {
+        GeoServer geoServer = getGeoServer();
+        WFSInfo wfsInfo = geoServer.getService(WFSInfo.class);
+        wfsInfo.getMetadata().put(ShapeZipOutputFormat.SHAPE_ZIP_STREAMING, streaming);
+        geoServer.save(wfsInfo);
+    }
+
+    private Set<String> getEntryNames(byte[] zip) throws IOException {
+        Set<String> names = new HashSet<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    private int countFeatures(InputStream in) throws IOException {
+        return readFeatures(in).size();
+    }
+
+    private List<SimpleFeature> readFeatures(InputStream in) throws IOException {
+        ZipInputStream zis = new ZipInputStream(in);
+        ZipEntry entry = null;
+
+        File tempFolder = createTempFolder("shp_");
+        File shapeFile = null;
+        try {
+            while ((entry = zis.getNextEntry()) != null) {
+                File target = new File(tempFolder, entry.getName());
+                if (entry.getName().toLowerCase().endsWith("shp")) {
+                    shapeFile = target;
+                }
+                FileOutputStream outFile = new FileOutputStream(target);
+                copyStream(zis, outFile);
+                outFile.close();
+                zis.closeEntry();
+            }
+            zis.close();
+
+            ShapefileDataStore ds = new ShapefileDataStore(shapeFile.toURI().toURL());
+            try {
+                return DataUtilities.list(ds.getFeatureSource().getFeatures());
+            } finally {
+                ds.dispose();
+            }
+        } finally {
+            FileUtils.deleteQuietly(tempFolder);
+        }
+    }
+
     /**
      * Saves the feature source contents into a zipped shapefile, returns the output as a byte array
      */
@@ -7,8 +7,12 @@ package org.geoserver.wfs.v1_1;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import org.geoserver.config.GeoServer;
+import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.GML3OutputFormat;
 import org.junit.Test;
 import org.w3c.dom.Document;
 
@@ -30,4 +34,28 @@ public class GetFeatureWithLockTest extends WFSTestSupport {
         assertEquals( "wfs:FeatureCollection", dom.getDocumentElement().getNodeName() );
         assertNotNull( dom.getDocumentElement().getAttribute("lockId") );
     }
+
+    @Test
+    public void testDirectEncoding() throws Exception {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        wfs.getMetadata().put(GML3OutputFormat.DIRECT_ENCODING, true);
+        gs.save(wfs);
+        try {
+            String xml = "<wfs:GetFeatureWithLock service=\"WFS\" version=\"1.1.0\" "
+                    + "  expiry=\"5\" resultType=\"results\""
+                    + "  xmlns:wfs=\"http://www.opengis.net/wfs\""
+                    + "  xmlns:sf=\"http://cite.opengeospatial.org/gmlsf\">"
+                    + "  <wfs:Query typeName=\"sf:AggregateGeoFeature\" />"
+                    + "</wfs:GetFeatureWithLock>";
+
+            // lock responses are left to the encoder, which writes the lock id
+            Document dom = postAsDOM("wfs", xml);
+            assertEquals("wfs:FeatureCollection", dom.getDocumentElement().getNodeName());
+            assertTrue(dom.getDocumentElement().getAttribute("lockId").length() > 0);
+        } finally {
+            wfs.getMetadata().remove(GML3OutputFormat.DIRECT_ENCODING);
+            gs.save(wfs);
+        }
+    }
 }
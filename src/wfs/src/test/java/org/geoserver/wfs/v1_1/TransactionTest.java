@@ -21,9 +21,14 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogBuilder;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.config.GeoServer;
 import org.geoserver.data.test.CiteTestData;
 import org.geoserver.data.test.SystemTestData;
+import org.geoserver.wfs.InsertElementHandler;
+import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.InsertSpool;
+import org.geoserver.wfs.xml.XmlRequestLimitReader;
 import org.geoserver.wfs.xml.v1_1_0.WFS;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
@@ -952,5 +957,139 @@ public class TransactionTest extends WFSTestSupport {
         Document dom = dom(new ByteArrayInputStream(response.getContentAsByteArray()));
         checkOws10Exception(dom, "InvalidParameterValue");
     }
-}
 
+    @Test
+    public void testBulkInsert() throws Exception {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        wfs.getMetadata().put(InsertElementHandler.BULK_INSERT, true);
+        gs.save(wfs);
+        try {
+            StringBuilder xml = new StringBuilder("<wfs:Transaction service='WFS' version='1.1.0' "
+                    + "xmlns:cgf='" + CiteTestData.CGF_URI + "' "
+                    + "xmlns:wfs='" + WFS.NAMESPACE + "' "
+                    + "xmlns:gml='" + GML.NAMESPACE + "'>");
+            // two runs of point inserts, split by a line insert
+            String[] handles = { "p1", "p2", "l1", "p3" };
+            for (String handle : handles) {
+                xml.append("<wfs:Insert handle='" + handle + "'>");
+                if (handle.startsWith("p")) {
+                    xml.append("<cgf:Points><cgf:pointProperty><gml:Point>"
+                            + "<gml:pos>500050 500050</gml:pos></gml:Point></cgf:pointProperty>"
+                            + "<cgf:id>" + handle + "</cgf:id><cgf:altitude>10</cgf:altitude>"
+                            + "</cgf:Points>");
+                } else {
+                    xml.append("<cgf:Lines><cgf:lineStringProperty><gml:LineString>"
+                            + "<gml:posList>500050 500050 500100 500100</gml:posList>"
+                            + "</gml:LineString></cgf:lineStringProperty>"
+                            + "<cgf:id>" + handle + "</cgf:id></cgf:Lines>");
+                }
+                xml.append("</wfs:Insert>");
+            }
+            xml.append("</wfs:Transaction>");
+
+            Document dom = postAsDOM("wfs", xml.toString());
+            assertEquals("wfs:TransactionResponse", dom.getDocumentElement().getNodeName());
+            XMLAssert.assertXpathEvaluatesTo("4", "//wfs:totalInserted", dom);
+            for (int i = 0; i < handles.length; i++) {
+                XMLAssert.assertXpathEvaluatesTo(handles[i],
+                        "//wfs:InsertResults/wfs:Feature[" + (i + 1) + "]/@handle", dom);
+            }
+            XMLAssert.assertXpathEvaluatesTo("4", "count(//wfs:InsertResults//ogc:FeatureId)",
+                    dom);
+
+            dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&typeName=cgf:Points");
+            XMLAssert.assertXpathEvaluatesTo("4", "count(//cgf:Points)", dom);
+            XMLAssert.assertXpathEvaluatesTo("1", "count(//cgf:Points[cgf:id = 'p3'])", dom);
+        } finally {
+            wfs.getMetadata().remove(InsertElementHandler.BULK_INSERT);
+            gs.save(wfs);
+            revertLayer(CiteTestData.POINTS);
+            revertLayer(CiteTestData.LINES);
+        }
+    }
+
+    @Test
+    public void testStreamingInsert() throws Exception {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        wfs.getMetadata().put(InsertSpool.BATCH_SIZE, 2);
+        gs.save(wfs);
+        try {
+            StringBuilder xml = new StringBuilder("<wfs:Transaction service='WFS' version='1.1.0' "
+                    + "xmlns:cgf='" + CiteTestData.CGF_URI + "' "
+                    + "xmlns:wfs='" + WFS.NAMESPACE + "' "
+                    + "xmlns:gml='" + GML.NAMESPACE + "'>");
+            // five points and a line, the line type is found only in the spooled batches
+            xml.append("<wfs:Insert handle='big'>");
+            for (int i = 0; i < 5; i++) {
+                xml.append("<cgf:Points><cgf:pointProperty><gml:Point>"
+                        + "<gml:pos>500050 500050</gml:pos></gml:Point></cgf:pointProperty>"
+                        + "<cgf:id>s" + i + "</cgf:id><cgf:altitude>10</cgf:altitude>"
+                        + "</cgf:Points>");
+            }
+            xml.append("<cgf:Lines><cgf:lineStringProperty><gml:LineString>"
+                    + "<gml:posList>500050 500050 500100 500100</gml:posList>"
+                    + "</gml:LineString></cgf:lineStringProperty>"
+                    + "<cgf:id>s5</cgf:id></cgf:Lines>");
+            xml.append("</wfs:Insert><wfs:Insert handle='small'>");
+            xml.append("<cgf:Points><cgf:pointProperty><gml:Point>"
+                    + "<gml:pos>500050 500050</gml:pos></gml:Point></cgf:pointProperty>"
+                    + "<cgf:id>s6</cgf:id><cgf:altitude>10</cgf:altitude></cgf:Points>");
+            xml.append("</wfs:Insert></wfs:Transaction>");
+
+            Document dom = postAsDOM("wfs", xml.toString());
+            assertEquals("wfs:TransactionResponse", dom.getDocumentElement().getNodeName());
+            XMLAssert.assertXpathEvaluatesTo("7", "//wfs:totalInserted", dom);
+            XMLAssert.assertXpathEvaluatesTo("7", "count(//wfs:InsertResults//ogc:FeatureId)",
+                    dom);
+            XMLAssert.assertXpathEvaluatesTo("6",
+                    "count(//wfs:InsertResults/wfs:Feature[@handle = 'big'])", dom);
+            XMLAssert.assertXpathEvaluatesTo("small",
+                    "//wfs:InsertResults/wfs:Feature[7]/@handle", dom);
+
+            dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&typeName=cgf:Points");
+            XMLAssert.assertXpathEvaluatesTo("6",
+                    "count(//cgf:Points[starts-with(cgf:id, 's')])", dom);
+            dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&typeName=cgf:Lines");
+            XMLAssert.assertXpathEvaluatesTo("1", "count(//cgf:Lines[cgf:id = 's5'])", dom);
+        } finally {
+            wfs.getMetadata().remove(InsertSpool.BATCH_SIZE);
+            gs.save(wfs);
+            revertLayer(CiteTestData.POINTS);
+            revertLayer(CiteTestData.LINES);
+        }
+    }
+
+    @Test
+    public void testRequestElementLimit() throws Exception {
+        StringBuilder xml = new StringBuilder("<wfs:Transaction service='WFS' version='1.1.0' "
+                + "xmlns:cgf='" + CiteTestData.CGF_URI + "' "
+                + "xmlns:wfs='" + WFS.NAMESPACE + "' "
+                + "xmlns:gml='" + GML.NAMESPACE + "'>");
+        // each insert contains 6 elements
+        for (int i = 0; i < 100; i++) {
+            xml.append("<wfs:Insert><cgf:Points><cgf:pointProperty><gml:Point>"
+                    + "<gml:pos>500050 500050</gml:pos></gml:Point></cgf:pointProperty>"
+                    + "<cgf:id>t" + i + "</cgf:id></cgf:Points></wfs:Insert>");
+        }
+        xml.append("</wfs:Transaction>");
+
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        wfs.getMetadata().put(XmlRequestLimitReader.MAX_ELEMENTS, 500);
+        gs.save(wfs);
+        try {
+            Document dom = postAsDOM("wfs", xml.toString());
+            checkOws10Exception(dom);
+            XMLAssert.assertXpathEvaluatesTo("true",
+                    "contains(//ows:ExceptionText, 'maximum of 500 XML elements')", dom);
+
+            dom = getAsDOM("wfs?request=GetFeature&version=1.1.0&service=wfs&typeName=cgf:Points");
+            XMLAssert.assertXpathEvaluatesTo("0", "count(//cgf:Points[cgf:id = 't0'])", dom);
+        } finally {
+            wfs.getMetadata().remove(XmlRequestLimitReader.MAX_ELEMENTS);
+            gs.save(wfs);
+        }
+    }
+}
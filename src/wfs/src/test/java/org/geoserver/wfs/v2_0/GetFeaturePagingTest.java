@@ -9,9 +9,11 @@ import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -20,8 +22,13 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogBuilder;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.config.GeoServer;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.GetFeatureCache;
+import org.geoserver.wfs.KeysetPaging;
+import org.geoserver.wfs.WFSInfo;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -40,7 +47,9 @@ import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory;
 import org.opengis.filter.Id;
 import org.opengis.filter.identity.Identifier;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
 
 public class GetFeaturePagingTest extends WFS20TestSupport {
 
@@ -66,7 +75,7 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
         
         tb.init((SimpleFeatureType) fs1.getSchema());
-        tb.add("num", Integer.class);
+        tb.nillable(false).add("num", Integer.class);
         tb.remove("boundedBy");
         store.createSchema(tb.buildFeatureType());
         
@@ -579,4 +588,128 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         XMLAssert.assertXpathEvaluatesTo("0", "/wfs:FeatureCollection/@numberReturned", doc);
     }
 
+
+    @Test
+    public void testKeysetPagingGET() throws Exception {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        wfs.getMetadata().put(KeysetPaging.KEYSET_PAGING, true);
+        gs.save(wfs);
+        try {
+            List<String> nums = new ArrayList<>();
+            String next = "wfs?request=GetFeature&version=2.0.0&service=wfs"
+                    + "&typename=gs:Fifteen&sortBy=num ASC&count=4";
+            int pages = 0;
+            while (next != null) {
+                Document doc = getAsDOM(next);
+                pages++;
+                XMLAssert.assertXpathEvaluatesTo("15", "/wfs:FeatureCollection/@numberMatched",
+                        doc);
+                assertFalse(doc.getDocumentElement().hasAttribute("previous"));
+                NodeList values = doc.getElementsByTagName("gs:num");
+                for (int i = 0; i < values.getLength(); i++) {
+                    nums.add(values.item(i).getTextContent());
+                }
+                if (doc.getDocumentElement().hasAttribute("next")) {
+                    next = doc.getDocumentElement().getAttribute("next");
+                    Map kvp = toKvpMap(next);
+                    assertTrue(kvp.containsKey(KeysetPaging.CURSOR));
+                    assertFalse(kvp.containsKey("startIndex"));
+                    next = next.substring(next.indexOf("wfs"));
+                } else {
+                    next = null;
+                }
+            }
+            assertEquals(4, pages);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 15; i++) {
+                expected.add(String.valueOf(i));
+            }
+            assertEquals(expected, nums);
+        } finally {
+            wfs.getMetadata().remove(KeysetPaging.KEYSET_PAGING);
+            gs.save(wfs);
+        }
+    }
+
+    @Test
+    public void testKeysetPagingCached() throws Exception {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        wfs.getMetadata().put(KeysetPaging.KEYSET_PAGING, true);
+        gs.save(wfs);
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo fifteen = catalog.getFeatureTypeByName("gs:Fifteen");
+        fifteen.getMetadata().put(GetFeatureCache.RESULT_CACHE, true);
+        catalog.save(fifteen);
+        try {
+            // twice, the second time from the cache, each page has its own entry
+            for (int run = 0; run < 2; run++) {
+                List<String> nums = new ArrayList<>();
+                String next = "wfs?request=GetFeature&version=2.0.0&service=wfs"
+                        + "&typename=gs:Fifteen&sortBy=num ASC&count=4";
+                int pages = 0;
+                while (next != null && pages < 5) {
+                    MockHttpServletResponse response = getAsServletResponse(next);
+                    assertEquals(run == 0 ? "MISS" : "HIT",
+                            response.getHeader(GetFeatureCache.CACHE_HEADER));
+                    Document doc = dom(response, true);
+                    pages++;
+                    NodeList values = doc.getElementsByTagName("gs:num");
+                    for (int i = 0; i < values.getLength(); i++) {
+                        nums.add(values.item(i).getTextContent());
+                    }
+                    next = doc.getDocumentElement().getAttribute("next");
+                    next = next.isEmpty() ? null : next.substring(next.indexOf("wfs"));
+                }
+                assertEquals(4, pages);
+                assertEquals(15, nums.size());
+                assertEquals("14", nums.get(14));
+            }
+        } finally {
+            fifteen = catalog.getFeatureTypeByName("gs:Fifteen");
+            fifteen.getMetadata().remove(GetFeatureCache.RESULT_CACHE);
+            catalog.save(fifteen);
+            wfs.getMetadata().remove(KeysetPaging.KEYSET_PAGING);
+            gs.save(wfs);
+        }
+    }
+
+    @Test
+    public void testKeysetPagingNillableKey() throws Exception {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        wfs.getMetadata().put(KeysetPaging.KEYSET_PAGING, true);
+        gs.save(wfs);
+        try {
+            // nulls cannot be compared, sorting on a nillable attribute keeps using the index
+            Document doc = getAsDOM("wfs?request=GetFeature&version=2.0.0&service=wfs"
+                    + "&typename=gs:Fifteen&sortBy=name ASC&count=4");
+            String next = doc.getDocumentElement().getAttribute("next");
+            Map kvp = toKvpMap(next);
+            assertFalse(kvp.containsKey(KeysetPaging.CURSOR));
+            assertEquals("4", kvp.get("STARTINDEX"));
+        } finally {
+            wfs.getMetadata().remove(KeysetPaging.KEYSET_PAGING);
+            gs.save(wfs);
+        }
+    }
+
+    @Test
+    public void testKeysetPagingInvalidCursor() throws Exception {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        wfs.getMetadata().put(KeysetPaging.KEYSET_PAGING, true);
+        gs.save(wfs);
+        try {
+            Document doc = getAsDOM("wfs?request=GetFeature&version=2.0.0&service=wfs"
+                    + "&typename=gs:Fifteen&sortBy=num ASC&count=4&cursor=abc");
+            checkOws11Exception(doc, "2.0.0", ServiceException.INVALID_PARAMETER_VALUE,
+                    KeysetPaging.CURSOR);
+        } finally {
+            wfs.getMetadata().remove(KeysetPaging.KEYSET_PAGING);
+            gs.save(wfs);
+        }
+    }
+
 }
@@ -36,6 +36,7 @@ import org.geoserver.wfs.GMLInfo;
 import org.geoserver.wfs.StoredQuery;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.xml.GML3OutputFormat;
 import org.geotools.filter.v2_0.FES;
 import org.geotools.gml3.v3_2.GML;
 import org.geotools.wfs.v2_0.WFS;
@@ -1365,4 +1366,38 @@ public class GetFeatureTest extends WFS20TestSupport {
         checkPropertyIsLikeMatchCase(false, 2);
     }
 
+    @Test
+    public void testDirectEncoding() throws Exception {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        wfs.getMetadata().put(GML3OutputFormat.DIRECT_ENCODING, true);
+        gs.save(wfs);
+        try {
+            Document dom = getAsDOM("wfs?request=GetFeature&version=2.0.0&service=wfs"
+                    + "&typenames=cgf:MLines");
+            XMLAssert.assertXpathEvaluatesTo("1", "/wfs:FeatureCollection/@numberMatched", dom);
+            XMLAssert.assertXpathEvaluatesTo("1", "/wfs:FeatureCollection/@numberReturned", dom);
+            XMLAssert.assertXpathEvaluatesTo("1",
+                    "count(/wfs:FeatureCollection/wfs:member/cgf:MLines)", dom);
+            String geometry = "/wfs:FeatureCollection/wfs:member/cgf:MLines"
+                    + "/cgf:multiLineStringProperty/gml:MultiCurve";
+            XMLAssert.assertXpathEvaluatesTo("MLines.0.multiLineStringProperty",
+                    geometry + "/@gml:id", dom);
+            XMLAssert.assertXpathEvaluatesTo("2", "count(" + geometry
+                    + "/gml:curveMember/gml:LineString)", dom);
+            XMLAssert.assertXpathEvaluatesTo("500425 500025 500475 500075", geometry
+                    + "/gml:curveMember[1]/gml:LineString/gml:posList", dom);
+
+            // GetFeatureById has no collection wrapper, left to the encoder
+            dom = getAsDOM("wfs?request=GetFeature&version=2.0.0&storedQueryId="
+                    + StoredQuery.DEFAULT.getName() + "&ID=PrimitiveGeoFeature.f001");
+            XMLAssert.assertXpathNotExists("//wfs:FeatureCollection", dom);
+            XMLAssert.assertXpathExists(
+                    "/sf:PrimitiveGeoFeature[@gml:id = 'PrimitiveGeoFeature.f001']", dom);
+        } finally {
+            wfs.getMetadata().remove(GML3OutputFormat.DIRECT_ENCODING);
+            gs.save(wfs);
+        }
+    }
+
 }
@@ -5,8 +5,11 @@
  */
 package org.geoserver.wfs.xml;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import javax.xml.namespace.QName;
@@ -17,6 +20,7 @@ import org.eclipse.xsd.XSDComplexTypeDefinition;
 import org.eclipse.xsd.XSDElementDeclaration;
 import org.eclipse.xsd.XSDSchema;
 import org.eclipse.xsd.XSDTypeDefinition;
+import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
@@ -70,6 +74,38 @@ public class FeatureTypeInfoSchemaBuilderTest extends WFSTestSupport {
                 geometryAssociationType.getName());
     }
 	
+    @Test
+    public void testSchemaCache() throws Exception {
+        FeatureTypeSchemaBuilder builder = new FeatureTypeSchemaBuilder.GML3(getGeoServer());
+        builder.enableSchemaCache();
+
+        String baseUrl = "http://localhost:8080/geoserver";
+        FeatureTypeInfo[] lines = { getFeatureTypeInfo(SystemTestData.LINES) };
+        byte[] schema = builder.buildSerialized(lines, baseUrl, "UTF-8");
+        assertSame(schema, builder.buildSerialized(lines, baseUrl, "UTF-8"));
+
+        // the base url is part of the key
+        byte[] other = builder.buildSerialized(lines, "http://example.com/geoserver", "UTF-8");
+        assertNotSame(schema, other);
+        assertTrue(new String(other, "UTF-8").contains("http://example.com/geoserver"));
+
+        // modifying the feature type drops the cached copy
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo info = catalog.getFeatureTypeByName(getLayerId(SystemTestData.LINES));
+        String title = info.getTitle();
+        info.setTitle("Modified lines");
+        catalog.save(info);
+        try {
+            byte[] rebuilt = builder.buildSerialized(lines, baseUrl, "UTF-8");
+            assertNotSame(schema, rebuilt);
+            assertArrayEquals(schema, rebuilt);
+        } finally {
+            info = catalog.getFeatureTypeByName(getLayerId(SystemTestData.LINES));
+            info.setTitle(title);
+            catalog.save(info);
+        }
+    }
+
     @Override
     protected void setUpInternal(SystemTestData testData) throws Exception {
         super.setUpInternal(testData);
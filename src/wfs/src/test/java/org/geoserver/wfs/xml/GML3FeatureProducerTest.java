@@ -6,10 +6,16 @@
 package org.geoserver.wfs.xml;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
@@ -19,19 +25,32 @@ import net.opengis.wfs.GetFeatureType;
 import net.opengis.wfs.QueryType;
 import net.opengis.wfs.WfsFactory;
 
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.config.GeoServer;
 import org.geoserver.data.test.MockData;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.Service;
+import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geoserver.wfs.xml.SimpleFeatureGML3Writer.FeatureTypePlan;
 import org.geoserver.wfs.xml.v1_1_0.WFS;
 import org.geoserver.wfs.xml.v1_1_0.WFSConfiguration;
 import org.geotools.data.FeatureSource;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.CircularString;
+import org.geotools.gml2.SrsSyntax;
 import org.junit.Test;
 import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 public class GML3FeatureProducerTest extends WFSTestSupport {
     
@@ -123,4 +142,120 @@ public class GML3FeatureProducerTest extends WFSTestSupport {
                 + document.getElementsByTagName("cgf:Polygons").getLength());
     }
 
+    @Test
+    public void testDirectEncoding() throws Exception {
+        Document document = encode(true, MockData.POINTS, MockData.POLYGONS, MockData.BUILDINGS);
+        assertEquals(1, document.getElementsByTagName("gml:featureMembers").getLength());
+        int npoints = getFeatureSource(MockData.POINTS).getFeatures().size();
+        assertEquals(npoints, document.getElementsByTagName("cgf:Points").getLength());
+        int npolys = getFeatureSource(MockData.POLYGONS).getFeatures().size();
+        assertEquals(npolys, document.getElementsByTagName("cgf:Polygons").getLength());
+        int nbuildings = getFeatureSource(MockData.BUILDINGS).getFeatures().size();
+        assertEquals(nbuildings, document.getElementsByTagName("cite:Buildings").getLength());
+        Element point = (Element) document.getElementsByTagName("cgf:Points").item(0);
+        assertEquals("Points.0", point.getAttribute("gml:id"));
+    }
+
+    @Test
+    public void testDirectEncodingPlans() throws Exception {
+        SrsSyntax syntax = SrsSyntax.OGC_URN_EXPERIMENTAL;
+        SimpleFeatureType points = (SimpleFeatureType) getFeatureSource(MockData.POINTS)
+                .getSchema();
+        FeatureTypePlanCache plans = GeoServerExtensions.bean(FeatureTypePlanCache.class);
+        FeatureTypePlan plan = plans.getPlan(points, "cgf", syntax);
+        assertNotNull(plan);
+        assertEquals("urn:x-ogc:def:crs:EPSG:32615", plan.srsName);
+        assertSame(plan, plans.getPlan(points, "cgf", syntax));
+        // boundedBy clashes with the gml:boundedBy feature property, left to the encoder
+        SimpleFeatureType seven = (SimpleFeatureType) getFeatureSource(MockData.SEVEN)
+                .getSchema();
+        assertNull(plans.getPlan(seven, "cdf", syntax));
+        // curves are left to the encoder too
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("curves");
+        tb.add("geom", CircularString.class);
+        assertNull(SimpleFeatureGML3Writer.compilePlan(tb.buildFeatureType(), "cgf", syntax));
+
+        // catalog changes drop the plans
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo info = catalog.getFeatureTypeByName(getLayerId(MockData.POINTS));
+        catalog.save(info);
+        assertNotSame(plan, plans.getPlan(points, "cgf", syntax));
+        plan = plans.getPlan(points, "cgf", syntax);
+        plans.reloaded();
+        assertNotSame(plan, plans.getPlan(points, "cgf", syntax));
+    }
+
+    @Test
+    public void testDirectEncodingMatchesEncoder() throws Exception {
+        QName[] names = { MockData.POINTS, MockData.LINES, MockData.POLYGONS, MockData.MPOINTS,
+                MockData.MLINES, MockData.MPOLYGONS, MockData.BUILDINGS };
+        for (QName name : names) {
+            Document expected = encode(false, name);
+            Document actual = encode(true, name);
+            String tag = name.getPrefix() + ":" + name.getLocalPart();
+            NodeList expectedFeatures = expected.getElementsByTagName(tag);
+            NodeList actualFeatures = actual.getElementsByTagName(tag);
+            assertEquals(tag, expectedFeatures.getLength(), actualFeatures.getLength());
+            for (int i = 0; i < expectedFeatures.getLength(); i++) {
+                Element e = (Element) expectedFeatures.item(i);
+                Element a = (Element) actualFeatures.item(i);
+                assertEquals(e.getAttribute("gml:id"), a.getAttribute("gml:id"));
+                assertEquals(tag, elementNames(e), elementNames(a));
+                assertEquals(tag, ordinates(e), ordinates(a));
+            }
+        }
+    }
+
+    /**
+     * Encodes the named types, with or without the direct writer
+     */
+    Document encode(boolean direct, QName... names) throws Exception {
+        GeoServer gs = getGeoServer();
+        WFSInfo wfs = gs.getService(WFSInfo.class);
+        wfs.getMetadata().put(GML3OutputFormat.DIRECT_ENCODING, direct);
+        gs.save(wfs);
+        try {
+            FeatureCollectionResponse fcType = FeatureCollectionResponse
+                    .adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+            for (QName name : names) {
+                fcType.getFeature().add(getFeatureSource(name).getFeatures());
+            }
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            producer().write(fcType, output, request(names));
+
+            DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder();
+            return docBuilder.parse(new ByteArrayInputStream(output.toByteArray()));
+        } finally {
+            wfs.getMetadata().remove(GML3OutputFormat.DIRECT_ENCODING);
+            gs.save(wfs);
+        }
+    }
+
+    List<String> elementNames(Element element) {
+        List<String> names = new ArrayList<String>();
+        NodeList children = element.getElementsByTagName("*");
+        for (int i = 0; i < children.getLength(); i++) {
+            names.add(children.item(i).getNodeName());
+        }
+        return names;
+    }
+
+    List<Double> ordinates(Element element) {
+        List<Double> ordinates = new ArrayList<Double>();
+        NodeList children = element.getElementsByTagName("*");
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if ("gml:pos".equals(child.getNodeName())
+                    || "gml:posList".equals(child.getNodeName())) {
+                for (String ordinate : child.getTextContent().trim().split("\\s+")) {
+                    ordinates.add(Double.valueOf(ordinate));
+                }
+            }
+        }
+        return ordinates;
+    }
+
 }
@@ -0,0 +1,66 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import javax.xml.namespace.QName;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+public class TransactionSpoolerTest {
+
+    static final String XML = "<wfs:Transaction xmlns:wfs='http://www.opengis.net/wfs' "
+            + "service='WFS'>"
+            + "<wfs:Insert handle='i1' xmlns:t='http://test'>"
+            + "<t:a>1</t:a> <t:a>2</t:a> <!-- c --> <t:a>3</t:a> <t:b><t:c>4</t:c></t:b> "
+            + "<t:a>5</t:a></wfs:Insert>"
+            + "<wfs:Delete typeName='t:a'/>"
+            + "<wfs:Insert><t:a xmlns:t='http://test'>6</t:a></wfs:Insert>"
+            + "</wfs:Transaction>";
+
+    @Test
+    public void testSplit() throws Exception {
+        TransactionSpooler spooler = new TransactionSpooler(null, 2);
+        try {
+            String request = spooler.split(new StringReader(XML));
+
+            // the first batch stays in the request, along with the other elements
+            assertEquals(3, StringUtils.countMatches(request, "<t:a"));
+            assertTrue(request.contains("<wfs:Delete"));
+            assertFalse(request.contains(">3<"));
+            assertTrue(request.contains(">6<"));
+
+            // the other features are spooled for the first insert only
+            assertEquals(Collections.singleton(0), spooler.spools.keySet());
+            InsertSpool spool = spooler.spools.get(0);
+            assertEquals(2, spool.ends.size());
+            assertEquals(2, spool.typeNames.size());
+            assertTrue(spool.typeNames.contains(new QName("http://test", "b")));
+
+            // each batch is a transaction with a single insert
+            String spooled = FileUtils.readFileToString(spool.file, StandardCharsets.UTF_8);
+            String second = spooled.substring(spool.ends.get(0).intValue());
+            assertTrue(second.startsWith("<wfs:Transaction"));
+            assertTrue(second.contains("handle=\"i1\""));
+            assertTrue(second.contains("xmlns:t=\"http://test\""));
+            assertTrue(second.contains(">5<"));
+            assertFalse(second.contains(">4<"));
+        } finally {
+            File file = spooler.spools.get(0).file;
+            spooler.dispose();
+            assertFalse(file.exists());
+        }
+    }
+}
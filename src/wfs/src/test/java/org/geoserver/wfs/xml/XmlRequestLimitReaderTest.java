@@ -0,0 +1,62 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.wfs.xml.XmlRequestLimitReader.LimitExceededException;
+import org.junit.Test;
+
+public class XmlRequestLimitReaderTest {
+
+    static final String XML = "<?xml version=\"1.0\"?>\n"
+            + "<!DOCTYPE a [<!ENTITY x \"y\">]>\n"
+            + "<a b=\"1\" c='2'><!-- <not> <counted/> --->"
+            + "<d/><![CDATA[ <not/> ]]]><e>text &amp; more</e><?pi <not/> ?></a>";
+
+    @Test
+    public void testCountElements() throws Exception {
+        XmlRequestLimitReader reader = new XmlRequestLimitReader(new StringReader(XML), 0, 0);
+        assertEquals(XML, IOUtils.toString(reader));
+        assertEquals(3, reader.elements);
+        assertEquals(XML.length(), reader.characters);
+    }
+
+    @Test
+    public void testCountSingleCharacterReads() throws Exception {
+        XmlRequestLimitReader reader = new XmlRequestLimitReader(new StringReader(XML), 0, 0);
+        while (reader.read() >= 0)
+            ;
+        assertEquals(3, reader.elements);
+    }
+
+    @Test
+    public void testElementLimit() throws Exception {
+        IOUtils.toString(new XmlRequestLimitReader(new StringReader(XML), 3, 0));
+        try {
+            IOUtils.toString(new XmlRequestLimitReader(new StringReader(XML), 2, 0));
+            fail("Should have failed, too many elements");
+        } catch (LimitExceededException e) {
+            assertTrue(e.getMessage().contains("2 XML elements"));
+        }
+    }
+
+    @Test
+    public void testCharacterLimit() throws Exception {
+        IOUtils.toString(new XmlRequestLimitReader(new StringReader(XML), 0, XML.length()));
+        try {
+            IOUtils.toString(new XmlRequestLimitReader(new StringReader(XML), 0, 10));
+            fail("Should have failed, too many characters");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("10 characters"));
+        }
+    }
+}
@@ -117,6 +117,11 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     public static ExecutorService RENDERING_POOL;
 
+    /**
+     * Bounded pool used to encode images in parallel
+     */
+    public static ExecutorService IMAGE_ENCODING_POOL;
+
     /**
      * default for 'bbox' paramter
      */
@@ -148,6 +153,16 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     private static Boolean USE_GLOBAL_RENDERING_POOL = null;
 
+    /**
+     * Enables parallel rendering of the layers in a GetMap request
+     */
+    private static Boolean PARALLEL_LAYER_RENDERING = null;
+
+    /**
+     * Number of threads used for parallel layer rendering
+     */
+    private static Integer PARALLEL_LAYER_RENDERING_THREADS = null;
+
     private GetCapabilities getCapabilities;
 
     private DescribeLayer describeLayer;
@@ -247,6 +262,20 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             else
                 USE_GLOBAL_RENDERING_POOL = Boolean.valueOf(usePool);
         }
+
+        // control parallel layer rendering, off by default
+        if (PARALLEL_LAYER_RENDERING == null) {
+            String enabled = GeoServerExtensions.getProperty("PARALLEL_LAYER_RENDERING", context);
+            PARALLEL_LAYER_RENDERING = Boolean.valueOf(enabled);
+        }
+        if (PARALLEL_LAYER_RENDERING_THREADS == null) {
+            String threads = GeoServerExtensions.getProperty("PARALLEL_LAYER_RENDERING_THREADS",
+                    context);
+            if (threads == null)
+                PARALLEL_LAYER_RENDERING_THREADS = Runtime.getRuntime().availableProcessors();
+            else
+                PARALLEL_LAYER_RENDERING_THREADS = Math.max(1, Integer.valueOf(threads));
+        }
     }
 
     /**
@@ -269,6 +298,38 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return MAX_FILTER_RULES;
     }
     
+    /**
+     * If true the layers of a GetMap request can be rendered in parallel (defaults to false
+     * unless the user sets the PARALLEL_LAYER_RENDERING property to true, can be turned off on a
+     * request basis with the <code>parallelRendering</code> format option)
+     *
+     */
+    public static boolean isParallelLayerRenderingEnabled() {
+        return Boolean.TRUE.equals(PARALLEL_LAYER_RENDERING);
+    }
+
+    /**
+     * Enables or disables parallel layer rendering, overriding the PARALLEL_LAYER_RENDERING
+     * property
+     *
+     * @param enabled
+     */
+    public static void setParallelLayerRenderingEnabled(boolean enabled) {
+        PARALLEL_LAYER_RENDERING = enabled;
+    }
+
+    /**
+     * Returns the maximum number of threads used to render the layers of a single request, as well
+     * as the size of the layer rendering pool
+     *
+     */
+    public static int getParallelLayerRenderingThreads() {
+        if (PARALLEL_LAYER_RENDERING_THREADS == null) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return PARALLEL_LAYER_RENDERING_THREADS;
+    }
+
     /**
      * If true (default) the direct raster rendering path is enabled
      *
@@ -687,12 +748,36 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return RENDERING_POOL;
     }
 
+    /**
+     * Returns a app wide bounded pool used to encode images in parallel, sized after the number of
+     * available processors
+     * 
+     *
+     */
+    public static ExecutorService getImageEncodingPool() {
+        if (IMAGE_ENCODING_POOL == null) {
+            synchronized (DefaultWebMapService.class) {
+                if (IMAGE_ENCODING_POOL == null) {
+                    IMAGE_ENCODING_POOL = Executors
+                            .newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                }
+            }
+        }
+
+        return IMAGE_ENCODING_POOL;
+    }
+
     public void destroy() throws Exception {
         if (RENDERING_POOL != null) {
             RENDERING_POOL.shutdown();
             RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
             RENDERING_POOL = null;
         }
+        if (IMAGE_ENCODING_POOL != null) {
+            IMAGE_ENCODING_POOL.shutdown();
+            IMAGE_ENCODING_POOL.awaitTermination(10, TimeUnit.SECONDS);
+            IMAGE_ENCODING_POOL = null;
+        }
     }
 
 }
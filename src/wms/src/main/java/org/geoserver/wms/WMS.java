@@ -116,6 +116,18 @@ public class WMS implements ApplicationContextAware {
 
     public static final int PNG_COMPRESSION_DEFAULT = 25;
 
+    public static final String PNG_PARALLEL_ENCODING = "pngParallelEncoding";
+
+    public static final Boolean PNG_PARALLEL_ENCODING_DEFAULT = Boolean.FALSE;
+
+    public static final String CAPABILITIES_CACHE = "capabilitiesCache";
+
+    public static final Boolean CAPABILITIES_CACHE_DEFAULT = Boolean.FALSE;
+
+    public static final String CAPABILITIES_CACHE_TIMEOUT = "capabilitiesCacheTimeout";
+
+    public static final int CAPABILITIES_CACHE_TIMEOUT_DEFAULT = 600;
+
     public static final String MAX_ALLOWED_FRAMES = "maxAllowedFrames";
 
     public static final int MAX_ALLOWED_FRAMES_DEFAULT = Integer.MAX_VALUE;
@@ -539,6 +551,33 @@ public class WMS implements ApplicationContextAware {
                 PNG_COMPRESSION_DEFAULT);
     }
 
+    /**
+     * Returns true if PNG images should be compressed in parallel by default
+     * 
+     */
+    public boolean isPngParallelEncodingEnabled() {
+        return getMetadataValue(PNG_PARALLEL_ENCODING, PNG_PARALLEL_ENCODING_DEFAULT,
+                Boolean.class);
+    }
+
+    /**
+     * Returns true if the encoded capabilities documents should be cached
+     * 
+     */
+    public boolean isCapabilitiesCacheEnabled() {
+        return getMetadataValue(CAPABILITIES_CACHE, CAPABILITIES_CACHE_DEFAULT, Boolean.class);
+    }
+
+    /**
+     * Returns the time in seconds after which a cached capabilities document is discarded,
+     * regardless of catalog and configuration changes
+     * 
+     */
+    public int getCapabilitiesCacheTimeout() {
+        return getMetadataValue(CAPABILITIES_CACHE_TIMEOUT, CAPABILITIES_CACHE_TIMEOUT_DEFAULT,
+                Integer.class);
+    }
+
     public int getJpegCompression() {
         WMSInfo serviceInfo = getServiceInfo();
         return getMetadataPercentage(serviceInfo.getMetadata(), JPEG_COMPRESSION,
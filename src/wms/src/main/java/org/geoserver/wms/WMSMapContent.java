@@ -107,7 +107,7 @@ public class WMSMapContent extends MapContent {
         this.transparent = other.transparent;
         this.tileSize = other.tileSize;
         this.angle = other.angle;
-        this.callbacks = new ArrayList<>(other.callbacks);
+        this.callbacks = other.callbacks == null ? null : new ArrayList<>(other.callbacks);
         this.buffer = other.buffer;
         this.icm = other.icm;
         this.request = other.request;
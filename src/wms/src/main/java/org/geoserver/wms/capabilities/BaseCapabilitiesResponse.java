@@ -5,9 +5,14 @@
  */
 package org.geoserver.wms.capabilities;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.geoserver.wms.capabilities.CapabilitiesCache.CapabilitiesEncoder;
 
 /**
  * Base class that handles common behavior between 1.1.1 and 1.3.0
@@ -19,6 +24,8 @@ public abstract class BaseCapabilitiesResponse extends Response {
 
     private String mime;
 
+    private CapabilitiesCache capabilitiesCache;
+
     /**
      * @param binding
      */
@@ -27,6 +34,30 @@ public abstract class BaseCapabilitiesResponse extends Response {
         this.mime=mime;
     }
 
+    /**
+     * Sets the cache of the encoded documents, if not set the documents are encoded on each
+     * request
+     */
+    public void setCapabilitiesCache(CapabilitiesCache capabilitiesCache) {
+        this.capabilitiesCache = capabilitiesCache;
+    }
+
+    public CapabilitiesCache getCapabilitiesCache() {
+        return capabilitiesCache;
+    }
+
+    /**
+     * Writes the document, going through the capabilities cache if available
+     */
+    protected void write(GetCapabilitiesRequest request, OutputStream output,
+            CapabilitiesEncoder encoder) throws IOException, ServiceException {
+        if (capabilitiesCache == null) {
+            encoder.encode(output);
+        } else {
+            capabilitiesCache.write(request, mime, output, encoder);
+        }
+    }
+
     @Override
     public String getAttachmentFileName(Object value, Operation operation) {
         return "getcapabilities_"+operation.getService().getVersion().toString()+".xml";
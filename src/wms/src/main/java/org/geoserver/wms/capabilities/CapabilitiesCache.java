@@ -0,0 +1,243 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.ows.LocalPublished;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.geoserver.wms.WMS;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Caches the encoded WMS capabilities documents, when enabled in the WMS configuration (see
+ * {@link WMS#isCapabilitiesCacheEnabled()}).
+ * <p>
+ * Documents are cached by output format, service version, request parameters and base URL,
+ * virtual service, and user name and roles, since the security subsystem can hide different
+ * layers to different users. The whole cache is dropped on any catalog or configuration change,
+ * and each document is discarded anyway after {@link WMS#getCapabilitiesCacheTimeout()} seconds,
+ * to pick up changes the catalog does not notify about, such as dimension values read from the
+ * data or security rules.
+ * </p>
+ */
+public class CapabilitiesCache implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCache.class);
+
+    /**
+     * Maximum total size of the cached documents
+     */
+    static final long MAX_CACHED_BYTES = 128 * 1024 * 1024;
+
+    /**
+     * Encodes a capabilities document
+     */
+    @FunctionalInterface
+    public interface CapabilitiesEncoder {
+        void encode(OutputStream output) throws IOException, ServiceException;
+    }
+
+    WMS wms;
+
+    volatile Cache<List<Object>, byte[]> documents;
+
+    volatile int timeout = -1;
+
+    public CapabilitiesCache(WMS wms) {
+        this.wms = wms;
+        wms.getCatalog().addListener(this);
+        wms.getGeoServer().addListener(new ConfigurationListenerAdapter() {
+
+            @Override
+            public void handlePostGlobalChange(GeoServerInfo global) {
+                invalidate();
+            }
+
+            @Override
+            public void handleSettingsPostModified(SettingsInfo settings) {
+                invalidate();
+            }
+
+            @Override
+            public void handleSettingsAdded(SettingsInfo settings) {
+                invalidate();
+            }
+
+            @Override
+            public void handleSettingsRemoved(SettingsInfo settings) {
+                invalidate();
+            }
+
+            @Override
+            public void handlePostServiceChange(ServiceInfo service) {
+                invalidate();
+            }
+
+            @Override
+            public void handleServiceRemove(ServiceInfo service) {
+                invalidate();
+            }
+
+            @Override
+            public void reloaded() {
+                invalidate();
+            }
+        });
+    }
+
+    /**
+     * Writes the capabilities document to the output, encoding it only if a copy for the same
+     * request is not already cached
+     *
+     * @param request The capabilities request
+     * @param mimeType The document mime type
+     * @param output The destination
+     * @param encoder Encodes the document when needed
+     */
+    public void write(GetCapabilitiesRequest request, String mimeType, OutputStream output,
+            CapabilitiesEncoder encoder) throws IOException, ServiceException {
+        if (!wms.isCapabilitiesCacheEnabled()) {
+            encoder.encode(output);
+            return;
+        }
+
+        byte[] document;
+        try {
+            document = getDocuments().get(getKey(request, mimeType), () -> {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                encoder.encode(bos);
+                return bos.toByteArray();
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new ServiceException(e.getCause());
+        }
+        output.write(document);
+    }
+
+    /**
+     * Drops all the cached documents
+     */
+    public void invalidate() {
+        if (documents != null) {
+            LOGGER.fine("Dropping the cached capabilities documents");
+            // replace the cache instead of clearing it, documents being encoded
+            // while the change occurs will be stored in the old one
+            synchronized (this) {
+                documents = buildCache(timeout);
+            }
+        }
+    }
+
+    Cache<List<Object>, byte[]> getDocuments() {
+        int configuredTimeout = wms.getCapabilitiesCacheTimeout();
+        if (documents == null || configuredTimeout != timeout) {
+            synchronized (this) {
+                if (documents == null || configuredTimeout != timeout) {
+                    documents = buildCache(configuredTimeout);
+                    timeout = configuredTimeout;
+                }
+            }
+        }
+        return documents;
+    }
+
+    Cache<List<Object>, byte[]> buildCache(int timeout) {
+        CacheBuilder<List<Object>, byte[]> builder = CacheBuilder.newBuilder()
+                .maximumWeight(MAX_CACHED_BYTES)
+                .weigher((List<Object> key, byte[] document) -> document.length);
+        if (timeout > 0) {
+            builder.expireAfterWrite(timeout, TimeUnit.SECONDS);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Collects everything the document contents depend on, besides the catalog and configuration
+     */
+    List<Object> getKey(GetCapabilitiesRequest request, String mimeType) {
+        List<Object> key = new ArrayList<>();
+        key.add(mimeType);
+        key.add(request.getVersion());
+        key.add(request.getBaseUrl());
+        key.add(request.getNamespace());
+        Map<String, String> rawKvp = request.getRawKvp();
+        key.add(rawKvp == null ? null : new TreeMap<>(rawKvp));
+
+        WorkspaceInfo workspace = LocalWorkspace.get();
+        key.add(workspace == null ? null : workspace.getId());
+        PublishedInfo published = LocalPublished.get();
+        key.add(published == null ? null : published.getId());
+
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        if (user != null) {
+            key.add(user.getName());
+            TreeSet<String> roles = new TreeSet<>();
+            for (GrantedAuthority authority : user.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            key.add(roles);
+        }
+        return key;
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        invalidate();
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        invalidate();
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify event
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        invalidate();
+    }
+
+    @Override
+    public void reloaded() {
+        invalidate();
+    }
+}
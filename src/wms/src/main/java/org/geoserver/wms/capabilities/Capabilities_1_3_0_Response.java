@@ -10,6 +10,7 @@ import java.io.OutputStream;
 
 import javax.xml.transform.TransformerException;
 
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
@@ -43,13 +44,19 @@ public class Capabilities_1_3_0_Response extends BaseCapabilitiesResponse {
             throws IOException, ServiceException {
 
         Capabilities_1_3_0_Transformer transformer = (Capabilities_1_3_0_Transformer) value;
-
-        try {
-            GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
-            transformer.transform(request, output);
-        } catch (TransformerException e) {
-            throw new ServiceException(e);
-        }
+        GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
+
+        write(request, output, out -> {
+            try {
+                // capabilities generation only reads the catalog
+                ModificationProxy.readOnly(() -> {
+                    transformer.transform(request, out);
+                    return null;
+                });
+            } catch (TransformerException e) {
+                throw new ServiceException(e);
+            }
+        });
     }
 
 }
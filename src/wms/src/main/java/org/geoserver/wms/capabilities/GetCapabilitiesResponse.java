@@ -27,6 +27,7 @@ import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
@@ -110,12 +111,22 @@ public class GetCapabilitiesResponse extends BaseCapabilitiesResponse {
         final GetCapabilitiesTransformer transformer = (GetCapabilitiesTransformer) value;
         final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
 
+        write(request, output, out -> encode(transformer, request, out));
+    }
+
+    private void encode(final GetCapabilitiesTransformer transformer,
+            final GetCapabilitiesRequest request, final OutputStream output)
+            throws IOException, ServiceException {
         final String internalDTDDeclaration = getInternalDTDDeclaration(request);
 
         if (internalDTDDeclaration == null) {
             // transform directly to output
             try {
-                transformer.transform(request, output);
+                // capabilities generation only reads the catalog
+                ModificationProxy.readOnly(() -> {
+                    transformer.transform(request, output);
+                    return null;
+                });
             } catch (TransformerException e) {
                 throw new ServiceException(e);
             }
@@ -127,7 +138,10 @@ public class GetCapabilitiesResponse extends BaseCapabilitiesResponse {
             {
                 ByteArrayOutputStream target = new ByteArrayOutputStream();
                 try {
-                    transformer.transform(request, target);
+                    ModificationProxy.readOnly(() -> {
+                        transformer.transform(request, target);
+                        return null;
+                    });
                 } catch (TransformerException e) {
                     throw new ServiceException(e);
                 }
@@ -6,9 +6,11 @@
 package org.geoserver.wms.map;
 
 import java.awt.Point;
-import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
@@ -29,15 +31,20 @@ import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
+import org.geoserver.wms.kvp.PaletteManager;
+import org.geoserver.wms.map.PNGMapResponse.QuantizeMethod;
 import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.filter.function.EnvFunction;
+import org.geotools.image.ImageWorker;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
 import org.geotools.resources.i18n.ErrorKeys;
 import org.geotools.resources.i18n.Errors;
 import org.geotools.util.logging.Logging;
 
 import it.geosolutions.jaiext.BufferedImageAdapter;
+import it.geosolutions.jaiext.colorindexer.ColorIndexer;
+import it.geosolutions.jaiext.colorindexer.Quantizer;
 
 /**
  * Wrapping map producer that performs on the fly meta tiling wrapping another map producer. It will
@@ -53,6 +60,9 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
     /** A logger for this class. */
     private static final Logger LOGGER = Logging.getLogger(MetatileMapOutputFormat.class);
 
+    /** The paletted PNG format, whose palette is computed once for the whole meta tile */
+    static final String PNG8_FORMAT = "image/png8";
+
     /** Small number for double equality comparison */
     public static final double EPS = 1E-6;
     
@@ -163,7 +173,7 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
 
                 RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
 
-                RenderedImage metaTile = metaTileMap.getImage();
+                RenderedImage metaTile = applyPalette(metaTileMap.getImage(), mapContent);
                 RenderedImage[] tiles = split(key, metaTile);
                 tileCache.storeTiles(key, tiles);
                 tile = tileCache.getTile(key, request, tiles);
@@ -223,6 +233,9 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
      *    0 1 2
      * </pre>
      * 
+     * The tiles share the same backing data, which is copied from the meta tile only once when
+     * the latter is not a {@link BufferedImage} already.
+     * 
      * @param key
      * @param metaTile
      *
@@ -244,6 +257,7 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
         }
 
         // now do the splitting
+        WritableRaster metaRaster = null;
         try {
             if (DEBUG) {
                 writeRenderedImage(metaTile, "metaTile");
@@ -267,23 +281,15 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
                         if (LOGGER.isLoggable(Level.FINER)) {
                             LOGGER.finer("Metatile split on PlanarImage");
                         }
-                        final PlanarImage pImage = (PlanarImage) metaTile;
-                        final WritableRaster wTile = WritableRaster.createWritableRaster(pImage
-                                .getSampleModel().createCompatibleSampleModel(tileSize, tileSize),
-                                new Point(x, y));
-                        Rectangle sourceArea = new Rectangle(x, y, tileSize, tileSize);
-                        sourceArea = sourceArea.intersection(pImage.getBounds());
-
-                        // copying the data to ensure we don't have side effects when we clean the cache
-                        pImage.copyData(wTile);
-                        if (wTile.getMinX() != 0 || wTile.getMinY() != 0) {
-                            tile = new BufferedImage(pImage.getColorModel(),
-                                    (WritableRaster) wTile.createWritableTranslatedChild(0, 0),
-                                    pImage.getColorModel().isAlphaPremultiplied(), null);
-                        } else {
-                            tile = new BufferedImage(pImage.getColorModel(), wTile,
-                                    pImage.getColorModel().isAlphaPremultiplied(), null);
+                        // copying the data once to ensure we don't have side effects when we
+                        // clean the cache, the tiles are then just views on the copy
+                        if (metaRaster == null) {
+                            metaRaster = copyMetaTile((PlanarImage) metaTile, metaFactor * tileSize);
                         }
+                        final ColorModel cm = metaTile.getColorModel();
+                        tile = new BufferedImage(cm,
+                                metaRaster.createWritableChild(x, y, tileSize, tileSize, 0, 0, null),
+                                cm.isAlphaPremultiplied(), null);
                         break;
                     case 2:
                         // BUFFERED IMAGE
@@ -313,6 +319,53 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
         return tiles;
     }
 
+    /**
+     * If the request asks for a paletted PNG, builds a single palette for the whole meta tile and
+     * applies it before the split, so that the tiles are not quantized one by one when encoded
+     * (and share the same colors, avoiding visible seams between adjacent tiles). Mirrors the
+     * logic of {@link RenderedImageMapResponse#applyPalette}
+     *
+     * @param metaTile
+     * @param mapContent
+     *
+     */
+    static RenderedImage applyPalette(RenderedImage metaTile, WMSMapContent mapContent) {
+        final GetMapRequest request = mapContent.getRequest();
+        final String format = request.getFormat().split(";")[0];
+        if (!PNG8_FORMAT.equalsIgnoreCase(format) || mapContent.getPalette() != null
+                || metaTile.getColorModel() instanceof IndexColorModel) {
+            return metaTile;
+        }
+
+        QuantizeMethod method = (QuantizeMethod) request.getFormatOptions().get(
+                PaletteManager.QUANTIZER);
+        boolean useBitmaskQuantizer = method == QuantizeMethod.Octree || (method == null
+                && metaTile.getColorModel().getTransparency() != Transparency.TRANSLUCENT);
+        if (useBitmaskQuantizer) {
+            return ImageUtils.forceIndexed8Bitmask(metaTile, null);
+        } else {
+            RenderedImage image = new ImageWorker(metaTile).rescaleToBytes()
+                    .forceComponentColorModel().getRenderedImage();
+            ColorIndexer indexer = new Quantizer(256).subsample().buildColorIndexer(image);
+            return new ImageWorker(image).colorIndex(indexer).getRenderedImage();
+        }
+    }
+
+    /**
+     * Copies the meta tile data into a single raster of the given size, the area not covered by
+     * the meta tile (if any) is left empty
+     *
+     * @param metaTile
+     * @param size
+     *
+     */
+    static WritableRaster copyMetaTile(PlanarImage metaTile, int size) {
+        final WritableRaster raster = WritableRaster.createWritableRaster(
+                metaTile.getSampleModel().createCompatibleSampleModel(size, size), new Point(0, 0));
+        metaTile.copyData(raster);
+        return raster;
+    }
+
     public MapProducerCapabilities getCapabilities(String format) {
         throw new RuntimeException("The meta-tile output format should never be invoked directly!");
     }
@@ -41,6 +41,11 @@ public class PNGMapResponse extends RenderedImageMapResponse {
 
     private static final String[] OUTPUT_FORMATS = { MIME_TYPE, MIME_TYPE_8BIT, "image/png8" };
 
+    /**
+     * Format option enabling/disabling parallel compression of the PNG image
+     */
+    public static final String PARALLEL_ENCODING = "parallelEncoding";
+
     /**
      * The two quantizers available for PNG images
      */
@@ -101,7 +106,8 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         float quality = (100 - wms.getPngCompression()) / 100.0f;
         JAIInfo.PngEncoderType encoder = wms.getPNGEncoderType();
         if(encoder == JAIInfo.PngEncoderType.PNGJ) {
-            image = new PNGJWriter().writePNG(image, outStream, quality, mapContent);
+            boolean parallel = isParallelEncoding(mapContent);
+            image = new PNGJWriter().writePNG(image, outStream, quality, mapContent, parallel);
             RasterCleaner.addImage(image);
         } else {
             Boolean PNGNativeAcc = (encoder == JAIInfo.PngEncoderType.NATIVE);
@@ -119,6 +125,24 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         }
     }
     
+    /**
+     * Checks if the PNG should be compressed in parallel, the {@link #PARALLEL_ENCODING} format
+     * option takes precedence over the WMS configuration
+     * 
+     * @param mapContent
+     *
+     */
+    boolean isParallelEncoding(WMSMapContent mapContent) {
+        GetMapRequest request = mapContent.getRequest();
+        if (request != null && request.getFormatOptions() != null) {
+            Object value = request.getFormatOptions().get(PARALLEL_ENCODING);
+            if (value != null) {
+                return Boolean.valueOf(String.valueOf(value));
+            }
+        }
+        return wms.isPngParallelEncodingEnabled();
+    }
+
     @Override
     public MapProducerCapabilities getCapabilities(String outputFormat) {
         return CAPABILITIES;
@@ -0,0 +1,341 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.util.SharedExecutors;
+import org.geoserver.wms.DefaultWebMapService;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.filter.function.EnvFunction;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.Layer;
+import org.geotools.map.StyleLayer;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.Symbolizer;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * A {@link StreamingRenderer} that splits the layers of the map content in contiguous groups,
+ * renders each group on its own transparent raster using the {@link #RENDERING_POOL} pool of
+ * {@link SharedExecutors}, and finally composites the rasters in z-order on the target graphics.
+ * <p>
+ * The renderer behaves as a single one towards the outside world: render listeners attached to it
+ * get notified of the events of all the group renderers, and a call to {@link #stopRendering()}
+ * stops all of them, so that {@link MaxErrorEnforcer}, {@link RenderExceptionStrategy} and
+ * {@link RenderingTimeoutEnforcer} keep on working as they do with a plain renderer.
+ * </p>
+ * <p>
+ * Only maps whose layers do not interact with each other can be rendered this way, see
+ * {@link #canRenderInParallel(List)}
+ * </p>
+ */
+public class ParallelLayerRenderer extends StreamingRenderer {
+
+    static final Logger LOGGER = Logging.getLogger(ParallelLayerRenderer.class);
+
+    /**
+     * Format option disabling parallel rendering on a request basis
+     */
+    public static final String FORMAT_OPTION = "parallelRendering";
+
+    /**
+     * Name of the {@link SharedExecutors} pool rendering the groups of layers
+     */
+    static final String RENDERING_POOL = "wms-layer-rendering";
+
+    private final Supplier<StreamingRenderer> rendererFactory;
+
+    private final int maxGroups;
+
+    private final List<RenderListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final List<StreamingRenderer> renderers = new CopyOnWriteArrayList<>();
+
+    private ExecutorService painterPool;
+
+    private volatile boolean stopped;
+
+    /**
+     * Builds a new parallel renderer
+     *
+     * @param rendererFactory Builds the renderers used for each group of layers
+     * @param maxGroups The maximum number of groups the layers will be split into
+     */
+    public ParallelLayerRenderer(Supplier<StreamingRenderer> rendererFactory, int maxGroups) {
+        this.rendererFactory = rendererFactory;
+        this.maxGroups = Math.max(1, maxGroups);
+    }
+
+    /**
+     * Returns true if parallel layer rendering is enabled in the global configuration, and the
+     * request does not turn it off via the {@link #FORMAT_OPTION} format option. The format option
+     * cannot enable it on its own, so that clients cannot use the extra threads and memory unless
+     * the administrator allowed it
+     *
+     * @param request
+     *
+     */
+    public static boolean isParallelRenderingRequested(GetMapRequest request) {
+        if (!DefaultWebMapService.isParallelLayerRenderingEnabled()) {
+            return false;
+        }
+        Object value = request.getFormatOptions().get(FORMAT_OPTION);
+        if (value != null) {
+            return Boolean.valueOf(String.valueOf(value));
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the layers can be rendered independently of each other. This is not the case when
+     * there is a single layer, when the styles use labels (label conflict resolution works across
+     * all layers), when they use composition and blending (the result depends on what has been
+     * painted below) or z-ordering across layers, or when some layers are not style based
+     *
+     * @param layers
+     *
+     */
+    public static boolean canRenderInParallel(List<Layer> layers) {
+        if (layers.size() < 2) {
+            return false;
+        }
+        for (Layer layer : layers) {
+            if (!(layer instanceof StyleLayer)) {
+                return false;
+            }
+            Style style = ((StyleLayer) layer).getStyle();
+            if (style == null) {
+                return false;
+            }
+            for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+                Map<String, String> options = fts.getOptions();
+                if (options != null && (options.containsKey(FeatureTypeStyle.COMPOSITE)
+                        || options.containsKey(FeatureTypeStyle.COMPOSITE_BASE)
+                        || options.containsKey(FeatureTypeStyle.SORT_BY_GROUP))) {
+                    return false;
+                }
+                for (Rule rule : fts.rules()) {
+                    for (Symbolizer symbolizer : rule.symbolizers()) {
+                        if (symbolizer instanceof TextSymbolizer) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Splits the layers in at most <code>maxGroups</code> contiguous groups of similar size,
+     * preserving the z-order
+     *
+     * @param layers
+     * @param maxGroups
+     *
+     */
+    static List<List<Layer>> groupLayers(List<Layer> layers, int maxGroups) {
+        int groupCount = Math.min(maxGroups, layers.size());
+        List<List<Layer>> groups = new ArrayList<>(groupCount);
+        int start = 0;
+        for (int i = 0; i < groupCount; i++) {
+            int end = start + (layers.size() - start) / (groupCount - i);
+            groups.add(new ArrayList<>(layers.subList(start, end)));
+            start = end;
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the extra memory, in bytes, used by the group rasters for the given map size
+     *
+     * @param layers
+     * @param maxGroups
+     * @param width
+     * @param height
+     *
+     */
+    public static long getGroupsMemory(int layers, int maxGroups, int width, int height) {
+        // 4 bytes per pixel, one raster per group
+        return Math.min(layers, maxGroups) * 4L * width * height;
+    }
+
+    @Override
+    public void setThreadPool(ExecutorService threadPool) {
+        super.setThreadPool(threadPool);
+        this.painterPool = threadPool;
+    }
+
+    @Override
+    public void addRenderListener(RenderListener listener) {
+        super.addRenderListener(listener);
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeRenderListener(RenderListener listener) {
+        super.removeRenderListener(listener);
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void stopRendering() {
+        stopped = true;
+        super.stopRendering();
+        for (StreamingRenderer renderer : renderers) {
+            renderer.stopRendering();
+        }
+    }
+
+    @Override
+    public void paint(final Graphics2D graphics, final Rectangle paintArea,
+            final ReferencedEnvelope mapArea, final AffineTransform worldToScreen) {
+        List<List<Layer>> groups = groupLayers(getMapContent().layers(), maxGroups);
+        final BufferedImage[] images = new BufferedImage[groups.size()];
+
+        // the pool carries over the request thread locals, the environment variables need to be
+        // available in the rendering threads too. Groups run in the calling thread when the pool
+        // is saturated, in that case the environment is already there
+        final Thread caller = Thread.currentThread();
+        final Map<String, Object> env = EnvFunction.getLocalValues();
+        final int threads = DefaultWebMapService.getParallelLayerRenderingThreads();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 1; i < groups.size(); i++) {
+            final int idx = i;
+            final List<Layer> group = groups.get(i);
+            FutureTask<Void> task = new FutureTask<>(() -> {
+                boolean pooled = Thread.currentThread() != caller;
+                if (pooled) {
+                    EnvFunction.setLocalValues(env);
+                }
+                try {
+                    images[idx] = paintGroup(group, graphics, paintArea, mapArea, worldToScreen);
+                } finally {
+                    if (pooled) {
+                        EnvFunction.clearLocalValues();
+                    }
+                }
+            }, null);
+            futures.add(task);
+            SharedExecutors.execute(RENDERING_POOL, threads, task);
+        }
+
+        // the calling thread paints the first group while waiting
+        try {
+            images[0] = paintGroup(groups.get(0), graphics, paintArea, mapArea, worldToScreen);
+        } catch (RuntimeException e) {
+            fireError(e);
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                // give up on the groups still being painted, and the ones not yet started
+                stopRendering();
+                for (Future<?> f : futures) {
+                    f.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                fireError(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            }
+        }
+
+        // composite in z-order
+        for (BufferedImage image : images) {
+            if (image != null) {
+                graphics.drawImage(image, paintArea.x, paintArea.y, null);
+            }
+        }
+    }
+
+    BufferedImage paintGroup(List<Layer> layers, Graphics2D graphics, Rectangle paintArea,
+            ReferencedEnvelope mapArea, AffineTransform worldToScreen) {
+        StreamingRenderer renderer = rendererFactory.get();
+        renderers.add(renderer);
+        if (stopped) {
+            return null;
+        }
+
+        // the layers are shared with the parent map content, a view holding just
+        // the group layers is enough for the renderer
+        WMSMapContent parent = (WMSMapContent) getMapContent();
+        WMSMapContent content = new WMSMapContent(parent, false);
+        content.layers().addAll(layers);
+        BufferedImage image = new BufferedImage(paintArea.width, paintArea.height,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHints(graphics.getRenderingHints());
+            g.translate(-paintArea.x, -paintArea.y);
+            renderer.setThreadPool(painterPool);
+            renderer.setMapContent(content);
+            renderer.setJava2DHints(getJava2DHints());
+            renderer.setRendererHints(getRendererHints());
+            renderer.addRenderListener(new RenderListener() {
+
+                @Override
+                public void featureRenderer(SimpleFeature feature) {
+                    for (RenderListener listener : listeners) {
+                        synchronized (listener) {
+                            listener.featureRenderer(feature);
+                        }
+                    }
+                }
+
+                @Override
+                public void errorOccurred(Exception e) {
+                    fireError(e);
+                }
+            });
+            renderer.paint(g, paintArea, mapArea, worldToScreen);
+        } finally {
+            g.dispose();
+            // detach the shared layers, they will be disposed along with the parent map content
+            for (Layer layer : layers) {
+                content.removeLayer(layer);
+            }
+            content.dispose();
+        }
+
+        return image;
+    }
+
+    void fireError(Exception e) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Error occurred during parallel layer rendering", e);
+        }
+        for (RenderListener listener : listeners) {
+            synchronized (listener) {
+                listener.errorOccurred(e);
+            }
+        }
+    }
+
+}
@@ -8,34 +8,67 @@ package org.geoserver.wms.map;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
 import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * In memory cache of the meta-tiles built by {@link MetatileMapOutputFormat}. The cache is bounded
+ * by the estimated size in bytes of the cached tiles (configurable via the
+ * {@link #MAX_SIZE_KEY} system/context/environment variable, in megabytes) and evicts the least
+ * recently used meta-tiles once the limit is reached. Entries are invalidated on a per layer basis
+ * when a WFS transaction modifies the data backing them.
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /**
+     * Name of the property controlling the maximum size of the cache, in megabytes
+     */
+    public static final String MAX_SIZE_KEY = "org.geoserver.wms.metaTileCache.maxSize";
+
+    /**
+     * Default maximum size of the cache, in megabytes
+     */
+    public static final int DEFAULT_MAX_SIZE = 64;
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -59,22 +92,23 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      */
     private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    private final Cache<MetaTileKey, CacheElement> tileCache;
 
     public QuickTileCache(GeoServer geoServer) {
+        this(getConfiguredMaxSize());
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                tileCache.invalidateAll();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                tileCache.invalidateAll();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                tileCache.invalidateAll();
             }
         });
     }
@@ -83,6 +117,43 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * For testing only
      */
     QuickTileCache() {
+        this(DEFAULT_MAX_SIZE * 1024L * 1024L);
+    }
+
+    /**
+     * Builds a cache holding at most <code>maxSize</code> bytes worth of tiles
+     * 
+     * @param maxSize
+     */
+    QuickTileCache(long maxSize) {
+        // writes happen once per rendered meta-tile, a single segment keeps the LRU
+        // eviction order and the size bound exact without slowing down reads
+        tileCache = CacheBuilder.newBuilder().concurrencyLevel(1).maximumWeight(maxSize)
+                .weigher(new Weigher<MetaTileKey, CacheElement>() {
+
+                    @Override
+                    public int weigh(MetaTileKey key, CacheElement value) {
+                        return value.size;
+                    }
+                }).recordStats().build();
+    }
+
+    /**
+     * Reads the maximum cache size, in bytes, out of the {@link #MAX_SIZE_KEY} property
+     *
+     */
+    static long getConfiguredMaxSize() {
+        int maxSize = DEFAULT_MAX_SIZE;
+        String value = GeoServerExtensions.getProperty(MAX_SIZE_KEY);
+        if (value != null) {
+            try {
+                maxSize = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid value for " + MAX_SIZE_KEY + ": " + value
+                        + ", using the default of " + DEFAULT_MAX_SIZE + "MB instead");
+            }
+        }
+        return Math.max(0, maxSize) * 1024L * 1024L;
     }
 
     /**
@@ -111,7 +182,8 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point tileCoords = getTileCoordinates(bbox, origin);
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
-        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
+        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope,
+                getLayerNames(request));
 
         // since this will be used for thread synchronization, we have to make
         // sure two thread asking for the same meta tile will get the same key
@@ -119,6 +191,26 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         return metaTileKeys.unique(key);
     }
 
+    /**
+     * Returns the qualified names of the resources painted by the request, or null if any of them
+     * cannot be identified (e.g., remote layers), in which case the meta-tile will be invalidated
+     * by any transaction
+     * 
+     * @param request
+     *
+     */
+    private Set<QName> getLayerNames(GetMapRequest request) {
+        Set<QName> names = new HashSet<>();
+        for (MapLayerInfo layer : request.getLayers()) {
+            ResourceInfo resource = layer.getResource();
+            if (resource == null || resource.getNamespace() == null) {
+                return null;
+            }
+            names.add(new QName(resource.getNamespace().getURI(), resource.getName()));
+        }
+        return names;
+    }
+
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
         double minx = bbox.getMinX() + (metaTileCoords.x - tileCoords.x) * bbox.getWidth();
         double miny = bbox.getMinY() + (metaTileCoords.y - tileCoords.y) * bbox.getHeight();
@@ -281,11 +373,23 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
         ReferencedEnvelope metaTileEnvelope;
 
+        /**
+         * The layers painted in the meta-tile, not part of the key identity as they are derived
+         * from the map definition. A null value means the layers are not known.
+         */
+        Set<QName> layerNames;
+
         public MetaTileKey(MapKey mapKey, Point metaTileCoords, ReferencedEnvelope metaTileEnvelope) {
+            this(mapKey, metaTileCoords, metaTileEnvelope, null);
+        }
+
+        public MetaTileKey(MapKey mapKey, Point metaTileCoords,
+                ReferencedEnvelope metaTileEnvelope, Set<QName> layerNames) {
             super();
             this.mapKey = mapKey;
             this.metaTileCoords = metaTileCoords;
             this.metaTileEnvelope = metaTileEnvelope;
+            this.layerNames = layerNames == null ? null : Collections.unmodifiableSet(layerNames);
         }
 
         public ReferencedEnvelope getMetaTileEnvelope() {
@@ -323,6 +427,28 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
             return 256;
         }
 
+        /**
+         * Returns true if the meta-tile might contain data from the specified layer
+         * 
+         * @param layerName
+         *
+         */
+        boolean dependsOn(QName layerName) {
+            if (layerNames == null || layerName == null) {
+                return true;
+            }
+            for (QName name : layerNames) {
+                // the transaction layer name might not have a namespace
+                if (name.getLocalPart().equals(layerName.getLocalPart())
+                        && (layerName.getNamespaceURI() == null
+                                || layerName.getNamespaceURI().isEmpty()
+                                || layerName.getNamespaceURI().equals(name.getNamespaceURI()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         public String toString() {
             return mapKey + "\nmtc:" + metaTileCoords.x + "," + metaTileCoords.y;
         }
@@ -335,8 +461,8 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param request
      *
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        CacheElement ce = tileCache.getIfPresent(key);
 
         if (ce == null) {
             return null;
@@ -371,35 +497,104 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param tiles
      *
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
         tileCache.put(key, new CacheElement(tiles));
     }
 
-    class CacheElement {
+    /**
+     * Returns the tiles cached for the specified key, without affecting the statistics. For
+     * testing only
+     * 
+     * @param key
+     *
+     */
+    RenderedImage[] getCachedTiles(MetaTileKey key) {
+        CacheElement ce = tileCache.asMap().get(key);
+        return ce == null ? null : ce.tiles;
+    }
+
+    /**
+     * Returns the cache hit/miss/eviction statistics
+     *
+     */
+    public CacheStats getStatistics() {
+        return tileCache.stats();
+    }
+
+    /**
+     * Returns the number of meta-tiles currently in the cache
+     *
+     */
+    public long getCachedMetaTileCount() {
+        return tileCache.size();
+    }
+
+    /**
+     * Returns the estimated size in bytes of the tiles currently in the cache
+     *
+     */
+    public long getCachedSize() {
+        long size = 0;
+        for (CacheElement ce : tileCache.asMap().values()) {
+            size += ce.size;
+        }
+        return size;
+    }
+
+    static class CacheElement {
         RenderedImage[] tiles;
 
+        int size;
+
         public CacheElement(RenderedImage[] tiles) {
             this.tiles = tiles;
+            long total = 0;
+            for (RenderedImage tile : tiles) {
+                total += estimateSize(tile);
+            }
+            this.size = (int) Math.min(Integer.MAX_VALUE, total);
+        }
+
+        static long estimateSize(RenderedImage tile) {
+            if (tile == null) {
+                return 0;
+            }
+            SampleModel sm = tile.getSampleModel();
+            long pixelBits = 0;
+            for (int bits : sm.getSampleSize()) {
+                pixelBits += bits;
+            }
+            return (long) tile.getWidth() * tile.getHeight() * pixelBits / 8;
         }
     }
 
     public void dataStoreChange(TransactionEvent event) throws WFSException {
-        // if anything changes we just wipe out the cache. the mapkey
-        // contains a string with part of the map request where the layer
-        // name is included, but we would have to parse it and consider
-        // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        // drop only the meta-tiles that have been painted using the modified layer
+        QName layerName = event.getLayerName();
+        if (layerName == null) {
+            tileCache.invalidateAll();
+            return;
+        }
+        for (Iterator<MetaTileKey> it = tileCache.asMap().keySet().iterator(); it.hasNext();) {
+            if (it.next().dependsOn(layerName)) {
+                it.remove();
+            }
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Invalidated meta-tiles depending on " + layerName + ", cache stats: "
+                    + tileCache.stats());
+        }
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        tileCache.invalidateAll();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        tileCache.invalidateAll();
     }
 
     public void beforeReload() {
@@ -408,6 +603,6 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        tileCache.invalidateAll();
     }
 }
@@ -336,6 +336,15 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         StreamingRenderer testRenderer = buildRenderer();
         testRenderer.setMapContent(mapContent);
         memory += testRenderer.getMaxBackBufferMemory(paintArea.width, paintArea.height);
+        // ... and the extra rasters used to render groups of layers in parallel
+        final boolean parallel = isParallelRenderingSupported() && labelCache == null
+                && ParallelLayerRenderer.isParallelRenderingRequested(request)
+                && ParallelLayerRenderer.canRenderInParallel(mapContent.layers());
+        final int parallelThreads = DefaultWebMapService.getParallelLayerRenderingThreads();
+        if (parallel) {
+            memory += ParallelLayerRenderer.getGroupsMemory(mapContent.layers().size(),
+                    parallelThreads, paintArea.width, paintArea.height);
+        }
         if (maxMemory > 0 && memory > maxMemory) {
             long kbUsed = memory / KB;
             long kbMax = maxMemory / KB;
@@ -433,7 +442,12 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         graphic.setRenderingHints(hintsMap);
 
         RenderingHints hints = new RenderingHints(hintsMap);
-        StreamingRenderer renderer = buildRenderer();
+        StreamingRenderer renderer;
+        if (parallel) {
+            renderer = new ParallelLayerRenderer(this::buildRenderer, parallelThreads);
+        } else {
+            renderer = buildRenderer();
+        }
         renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
         renderer.setMapContent(mapContent);
         renderer.setJava2DHints(hints);
@@ -640,6 +654,17 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return new StreamingRenderer();
     }
 
+    /**
+     * Returns true if the layers can be rendered in parallel by a {@link ParallelLayerRenderer}.
+     * Subclasses customizing the renderer via {@link #buildRenderer()} or
+     * {@link #onBeforeRender(StreamingRenderer)} need to opt in explicitly, as the customizations
+     * would not be applied to the renderers painting the single groups of layers
+     *
+     */
+    protected boolean isParallelRenderingSupported() {
+        return getClass() == RenderedImageMapOutputFormat.class;
+    }
+
     private boolean getFormatOptionAsBoolean(final GetMapRequest request, final String formatOptionKey) {
         if (request.getFormatOptions().get(formatOptionKey) != null) {
             String formatOptionValue = (String)request.getFormatOptions().get(formatOptionKey);
@@ -13,6 +13,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.WMSMapContent;
 import org.geotools.image.ImageWorker;
 import org.geotools.map.Layer;
@@ -34,6 +35,23 @@ public class PNGJWriter {
 
     public RenderedImage writePNG(RenderedImage image, OutputStream outStream, float quality,
             WMSMapContent mapContent) {
+        return writePNG(image, outStream, quality, mapContent, false);
+    }
+
+    /**
+     * Encodes the image in PNG, optionally compressing it in parallel with a
+     * {@link ParallelPNGEncoder} (if the image is not supported by it, the standard PNGJ encoder
+     * will be used instead)
+     * 
+     * @param image
+     * @param outStream
+     * @param quality
+     * @param mapContent
+     * @param parallel
+     *
+     */
+    public RenderedImage writePNG(RenderedImage image, OutputStream outStream, float quality,
+            WMSMapContent mapContent, boolean parallel) {
         // what kind of scaline filtering are we going to use?
         FilterType filterType = getFilterType(mapContent);
         // Creation of a new PNGWriter object
@@ -47,6 +65,18 @@ public class PNGJWriter {
         
         RenderedImage output = null;
         // Image writing
+        if (parallel && ParallelPNGEncoder.isSupported(image)) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ParallelPNGEncoder encoder = new ParallelPNGEncoder(
+                    DefaultWebMapService.getImageEncodingPool(), threads * 2);
+            try {
+                encoder.writePNG(image, outStream, getCompressionLevel(quality), filterType);
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to encode the PNG", e);
+                throw new ServiceException(e);
+            }
+            return image;
+        }
         try {
             output =  writer.writePNG(image, outStream, quality, filterType);
         } catch (Exception e) {
@@ -57,6 +87,17 @@ public class PNGJWriter {
         return output;
     }
 
+    /**
+     * Maps the quality, between 0 and 1, to a deflate compression level, between 9 and 0
+     * 
+     * @param quality
+     *
+     */
+    static int getCompressionLevel(float quality) {
+        int level = Math.round((1 - quality) * 9);
+        return Math.max(0, Math.min(9, level));
+    }
+
     /**
      * SUB filtering is useful for raster images with "high" variation, otherwise we go for NONE,
      * empirically it provides better compression at lower effort
@@ -0,0 +1,381 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import ar.com.hjg.pngj.FilterType;
+
+/**
+ * Encodes images with 8 bits per sample in PNG, splitting them in strips of rows that are filtered
+ * and deflated in parallel, in the same spirit as <a href="https://zlib.net/pigz/">pigz</a>.
+ * <p>
+ * Each strip is compressed as an independent raw deflate stream terminated by a sync flush (the
+ * last one is finished instead), so that the concatenation of the strips is a valid deflate
+ * stream. The strips are written directly to the output stream, as separate IDAT chunks, as soon as
+ * they are available and in order, so that neither the raw image nor the whole compressed one are
+ * ever held in memory. The zlib checksum is computed by combining the checksums of the single
+ * strips.
+ * </p>
+ * <p>
+ * The calling thread runs the strips that have not been picked up by the executor yet, so the
+ * encoder makes progress even if the executor is saturated.
+ * </p>
+ */
+public class ParallelPNGEncoder {
+
+    static final byte[] PNG_SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final int COLOR_TYPE_GRAY = 0;
+
+    static final int COLOR_TYPE_RGB = 2;
+
+    static final int COLOR_TYPE_PALETTE = 3;
+
+    static final int COLOR_TYPE_GRAY_ALPHA = 4;
+
+    static final int COLOR_TYPE_RGBA = 6;
+
+    /**
+     * Target size of the raw data in a strip. Smaller strips compress slightly worse since the
+     * deflate window is reset at the beginning of each strip
+     */
+    static final int STRIP_SIZE = 256 * 1024;
+
+    static final int ADLER_BASE = 65521;
+
+    private final Executor executor;
+
+    private final int maxStripsInFlight;
+
+    /**
+     * Builds a new encoder
+     *
+     * @param executor The executor used to compress the strips
+     * @param maxStripsInFlight The maximum number of strips being compressed at any given time,
+     *        which bounds the memory used by the encoder
+     */
+    public ParallelPNGEncoder(Executor executor, int maxStripsInFlight) {
+        this.executor = executor;
+        this.maxStripsInFlight = Math.max(1, maxStripsInFlight);
+    }
+
+    /**
+     * Returns true if the image can be encoded, that is, if it has 8 bits per sample, no
+     * premultiplied alpha, and either a palette, or a gray or RGB color space
+     *
+     * @param image
+     *
+     */
+    public static boolean isSupported(RenderedImage image) {
+        return getColorType(image) >= 0;
+    }
+
+    static int getColorType(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        if (cm == null || sm == null || cm.isAlphaPremultiplied()) {
+            return -1;
+        }
+        for (int size : sm.getSampleSize()) {
+            if (size != 8) {
+                return -1;
+            }
+        }
+        int bands = sm.getNumBands();
+        if (cm instanceof IndexColorModel) {
+            return bands == 1 ? COLOR_TYPE_PALETTE : -1;
+        }
+        int csType = cm.getColorSpace().getType();
+        if (csType == ColorSpace.TYPE_GRAY) {
+            if (bands == 1) {
+                return COLOR_TYPE_GRAY;
+            } else if (bands == 2 && cm.hasAlpha()) {
+                return COLOR_TYPE_GRAY_ALPHA;
+            }
+        } else if (csType == ColorSpace.TYPE_RGB) {
+            if (bands == 3) {
+                return COLOR_TYPE_RGB;
+            } else if (bands == 4 && cm.hasAlpha()) {
+                return COLOR_TYPE_RGBA;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes the image in PNG
+     *
+     * @param image The image to be encoded, must be {@link #isSupported(RenderedImage) supported}
+     * @param out The destination stream, will not be closed
+     * @param compressionLevel The deflate compression level, between 0 and 9
+     * @param filterType The scanline filter, only {@link FilterType#FILTER_SUB} and
+     *        {@link FilterType#FILTER_NONE} are supported, any other value falls back on the latter
+     * @throws IOException
+     */
+    public void writePNG(RenderedImage image, OutputStream out, int compressionLevel,
+            FilterType filterType) throws IOException {
+        final int colorType = getColorType(image);
+        if (colorType < 0) {
+            throw new IllegalArgumentException("Unsupported image, sample model "
+                    + image.getSampleModel() + " and color model " + image.getColorModel());
+        }
+        final int level = Math.max(0, Math.min(9, compressionLevel));
+        final boolean sub = filterType == FilterType.FILTER_SUB;
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int bands = image.getSampleModel().getNumBands();
+        final int rowBytes = width * bands + 1;
+        final int rowsPerStrip = Math.max(1, Math.min(height, STRIP_SIZE / rowBytes));
+
+        out.write(PNG_SIGNATURE);
+        writeHeader(out, width, height, colorType);
+        if (colorType == COLOR_TYPE_PALETTE) {
+            writePalette(out, (IndexColorModel) image.getColorModel());
+        }
+
+        // schedule the strips, keeping only a bounded number of them in memory
+        Deque<FutureTask<Strip>> pending = new ArrayDeque<>();
+        int nextRow = 0;
+        long adler = 1;
+        boolean first = true;
+        try {
+            while (nextRow < height || !pending.isEmpty()) {
+                while (nextRow < height && pending.size() < maxStripsInFlight) {
+                    final int y = nextRow;
+                    final int rows = Math.min(rowsPerStrip, height - y);
+                    final boolean last = y + rows == height;
+                    FutureTask<Strip> task = new FutureTask<>(
+                            () -> encodeStrip(image, y, rows, rowBytes, bands, level, sub, last));
+                    try {
+                        executor.execute(task);
+                    } catch (RejectedExecutionException e) {
+                        // will be run by the calling thread
+                    }
+                    pending.add(task);
+                    nextRow += rows;
+                }
+
+                // run the head task ourselves if no thread picked it up yet, then write it out
+                FutureTask<Strip> head = pending.poll();
+                head.run();
+                Strip strip = head.get();
+                adler = combineAdler32(adler, strip.adler, strip.rawLength);
+                byte[] prefix = first ? getZlibHeader(level) : null;
+                byte[] suffix = strip.last ? toBytes((int) adler) : null;
+                writeChunk(out, "IDAT", prefix, strip.data, suffix);
+                first = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding the PNG image", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to encode the PNG image", cause);
+        } finally {
+            for (FutureTask<Strip> task : pending) {
+                task.cancel(false);
+            }
+        }
+
+        writeChunk(out, "IEND", null, new byte[0], null);
+    }
+
+    /**
+     * Filters and compresses a strip of rows
+     */
+    static Strip encodeStrip(RenderedImage image, int y, int rows, int rowBytes, int bands,
+            int level, boolean sub, boolean last) {
+        final int minX = image.getMinX();
+        final int minY = image.getMinY() + y;
+        final int width = image.getWidth();
+        Raster raster = image.getData(new Rectangle(minX, minY, width, rows));
+        int[] samples = new int[width * bands];
+        byte[] filtered = new byte[rowBytes * rows];
+        for (int r = 0; r < rows; r++) {
+            raster.getPixels(minX, minY + r, width, 1, samples);
+            int offset = r * rowBytes;
+            if (sub) {
+                filtered[offset] = 1;
+                for (int i = 0; i < samples.length; i++) {
+                    int left = i >= bands ? samples[i - bands] : 0;
+                    filtered[offset + 1 + i] = (byte) (samples[i] - left);
+                }
+            } else {
+                filtered[offset] = 0;
+                for (int i = 0; i < samples.length; i++) {
+                    filtered[offset + 1 + i] = (byte) samples[i];
+                }
+            }
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(filtered, 0, filtered.length);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(filtered.length / 4 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            deflater.setInput(filtered);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    bos.write(buffer, 0, count);
+                }
+            } else {
+                // a sync flush aligns the output to a byte boundary without ending the stream
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    bos.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return new Strip(bos.toByteArray(), adler.getValue(), filtered.length, last);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive blocks of data, same as zlib
+     * adler32_combine
+     *
+     * @param adler1 The checksum of the first block
+     * @param adler2 The checksum of the second block
+     * @param len2 The length of the second block
+     *
+     */
+    static long combineAdler32(long adler1, long adler2, long len2) {
+        long rem = len2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE)
+            sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE)
+            sum1 -= ADLER_BASE;
+        if (sum2 >= (ADLER_BASE << 1))
+            sum2 -= (ADLER_BASE << 1);
+        if (sum2 >= ADLER_BASE)
+            sum2 -= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    static byte[] getZlibHeader(int level) {
+        int cmf = 0x78; // deflate with a 32k window
+        int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+        int flg = flevel << 6;
+        int check = (cmf * 256 + flg) % 31;
+        if (check != 0) {
+            flg += 31 - check;
+        }
+        return new byte[] { (byte) cmf, (byte) flg };
+    }
+
+    void writeHeader(OutputStream out, int width, int height, int colorType) throws IOException {
+        byte[] header = new byte[13];
+        System.arraycopy(toBytes(width), 0, header, 0, 4);
+        System.arraycopy(toBytes(height), 0, header, 4, 4);
+        header[8] = 8; // bit depth
+        header[9] = (byte) colorType;
+        header[10] = 0; // deflate
+        header[11] = 0; // adaptive filtering
+        header[12] = 0; // no interlace
+        writeChunk(out, "IHDR", null, header, null);
+    }
+
+    void writePalette(OutputStream out, IndexColorModel icm) throws IOException {
+        int size = icm.getMapSize();
+        byte[] palette = new byte[size * 3];
+        byte[] alpha = new byte[size];
+        int lastTranslucent = -1;
+        for (int i = 0; i < size; i++) {
+            palette[i * 3] = (byte) icm.getRed(i);
+            palette[i * 3 + 1] = (byte) icm.getGreen(i);
+            palette[i * 3 + 2] = (byte) icm.getBlue(i);
+            alpha[i] = (byte) icm.getAlpha(i);
+            if (icm.getAlpha(i) != 255) {
+                lastTranslucent = i;
+            }
+        }
+        writeChunk(out, "PLTE", null, palette, null);
+        if (lastTranslucent >= 0) {
+            byte[] trns = new byte[lastTranslucent + 1];
+            System.arraycopy(alpha, 0, trns, 0, trns.length);
+            writeChunk(out, "tRNS", null, trns, null);
+        }
+    }
+
+    static void writeChunk(OutputStream out, String type, byte[] prefix, byte[] data,
+            byte[] suffix) throws IOException {
+        int length = data.length + (prefix != null ? prefix.length : 0)
+                + (suffix != null ? suffix.length : 0);
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        out.write(toBytes(length));
+        out.write(typeBytes);
+        if (prefix != null) {
+            out.write(prefix);
+            crc.update(prefix);
+        }
+        out.write(data);
+        crc.update(data);
+        if (suffix != null) {
+            out.write(suffix);
+            crc.update(suffix);
+        }
+        out.write(toBytes((int) crc.getValue()));
+    }
+
+    static byte[] toBytes(int value) {
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8),
+                (byte) value };
+    }
+
+    /**
+     * A compressed strip of rows
+     */
+    static class Strip {
+        final byte[] data;
+
+        final long adler;
+
+        final int rawLength;
+
+        final boolean last;
+
+        Strip(byte[] data, long adler, int rawLength, boolean last) {
+            this.data = data;
+            this.adler = adler;
+            this.rawLength = rawLength;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.capabilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfo;
+import org.geoserver.wms.WMSTestSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CapabilitiesCacheTest extends WMSTestSupport {
+
+    static final String CAPS_130 = "wms?service=WMS&request=GetCapabilities&version=1.3.0";
+
+    static final String CAPS_111 = "wms?service=WMS&request=GetCapabilities&version=1.1.1";
+
+    @Before
+    public void enableCache() {
+        setCacheEnabled(true);
+    }
+
+    @After
+    public void disableCache() {
+        setCacheEnabled(false);
+    }
+
+    void setCacheEnabled(boolean enabled) {
+        GeoServer gs = getGeoServer();
+        WMSInfo wms = gs.getService(WMSInfo.class);
+        wms.getMetadata().put(WMS.CAPABILITIES_CACHE, enabled);
+        gs.save(wms);
+    }
+
+    CapabilitiesCache getCache() {
+        return GeoServerExtensions.bean(CapabilitiesCache.class);
+    }
+
+    @Test
+    public void testCachedDocuments() throws Exception {
+        CapabilitiesCache cache = getCache();
+        String caps = getAsString(CAPS_130);
+        assertEquals(1, cache.getDocuments().size());
+        assertEquals(caps, getAsString(CAPS_130));
+        assertEquals(1, cache.getDocuments().size());
+
+        // other versions and virtual services are cached separately
+        String caps111 = getAsString(CAPS_111);
+        assertTrue(caps111.contains("WMT_MS_Capabilities"));
+        assertEquals(2, cache.getDocuments().size());
+        String citeCaps = getAsString("cite/" + CAPS_130);
+        assertTrue(caps.contains(getLayerId(MockData.PRIMITIVEGEOFEATURE)));
+        assertFalse(citeCaps.contains(getLayerId(MockData.PRIMITIVEGEOFEATURE)));
+        assertEquals(3, cache.getDocuments().size());
+    }
+
+    @Test
+    public void testCatalogChanges() throws Exception {
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo ft = catalog.getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+        String title = ft.getTitle();
+        assertTrue(getAsString(CAPS_130).contains(title));
+        try {
+            ft.setTitle("A brand new title");
+            catalog.save(ft);
+            assertEquals(0, getCache().getDocuments().size());
+
+            String caps = getAsString(CAPS_130);
+            assertTrue(caps.contains("A brand new title"));
+        } finally {
+            ft = catalog.getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+            ft.setTitle(title);
+            catalog.save(ft);
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        setCacheEnabled(false);
+        getAsString(CAPS_130);
+        assertEquals(0, getCache().getDocuments().size());
+    }
+}
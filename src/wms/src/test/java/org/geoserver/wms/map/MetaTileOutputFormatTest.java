@@ -4,13 +4,17 @@
  */
 package org.geoserver.wms.map;
 
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.*;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
@@ -19,7 +23,9 @@ import javax.media.jai.Interpolation;
 import javax.media.jai.PlanarImage;
 import javax.media.jai.TiledImage;
 
+import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.RasterCleaner;
+import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.map.QuickTileCache.MapKey;
 import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -67,4 +73,45 @@ public class MetaTileOutputFormatTest {
         // java.lang.ClassCastException: java.awt.image.Raster cannot be cast to java.awt.image.WritableRaster
         MetatileMapOutputFormat.split(key, source);
     }
+
+    @Test
+    public void testPlanarImageTilesShareData() throws Exception {
+        BufferedImage bi = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        RenderedImage planar = new ImageWorker(bi).scale(3, 3, 0, 0, Interpolation.getInstance(Interpolation.INTERP_NEAREST)).getRenderedImage();
+        RenderedImage[] tiles = MetatileMapOutputFormat.split(key, planar);
+        assertEquals(9, tiles.length);
+        DataBuffer buffer = ((BufferedImage) tiles[0]).getRaster().getDataBuffer();
+        for (RenderedImage tile : tiles) {
+            assertEquals(256, tile.getWidth());
+            assertEquals(256, tile.getHeight());
+            assertSame(buffer, ((BufferedImage) tile).getRaster().getDataBuffer());
+        }
+    }
+
+    @Test
+    public void testPalettePerMetaTile() throws Exception {
+        BufferedImage bi = new BufferedImage(768, 768, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = bi.createGraphics();
+        g.setColor(new Color(255, 0, 0, 128));
+        g.fillRect(0, 0, 384, 768);
+        g.setColor(Color.BLUE);
+        g.fillRect(384, 0, 384, 768);
+        g.dispose();
+
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat("image/png8");
+        RenderedImage indexed = MetatileMapOutputFormat.applyPalette(bi,
+                new WMSMapContent(request));
+        assertThat(indexed.getColorModel(), instanceOf(IndexColorModel.class));
+
+        // all the tiles share the same palette
+        RenderedImage[] tiles = MetatileMapOutputFormat.split(key, indexed);
+        for (RenderedImage tile : tiles) {
+            assertSame(indexed.getColorModel(), tile.getColorModel());
+        }
+
+        // no palette for the other formats
+        request.setFormat("image/png");
+        assertSame(bi, MetatileMapOutputFormat.applyPalette(bi, new WMSMapContent(request)));
+    }
 }
@@ -0,0 +1,114 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.wms.DefaultWebMapService;
+import org.geoserver.wms.GetMapRequest;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+public class ParallelLayerRendererTest {
+
+    StyleBuilder sb = new StyleBuilder();
+
+    SimpleFeatureType type;
+
+    @Before
+    public void setup() throws Exception {
+        type = DataUtilities.createType("test", "geom:LineString,name:String");
+    }
+
+    @Test
+    public void testGroupLayers() {
+        List<Layer> layers = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            layers.add(buildLayer(sb.createStyle(sb.createLineSymbolizer())));
+        }
+
+        List<List<Layer>> groups = ParallelLayerRenderer.groupLayers(layers, 3);
+        assertEquals(3, groups.size());
+        assertEquals(layers.subList(0, 2), groups.get(0));
+        assertEquals(layers.subList(2, 4), groups.get(1));
+        assertEquals(layers.subList(4, 7), groups.get(2));
+
+        // never more groups than layers
+        groups = ParallelLayerRenderer.groupLayers(layers.subList(0, 2), 8);
+        assertEquals(2, groups.size());
+        assertEquals(Arrays.asList(layers.get(0)), groups.get(0));
+        assertEquals(Arrays.asList(layers.get(1)), groups.get(1));
+    }
+
+    @Test
+    public void testCanRenderInParallel() {
+        Layer lines = buildLayer(sb.createStyle(sb.createLineSymbolizer(Color.BLUE, 2)));
+        Layer moreLines = buildLayer(sb.createStyle(sb.createLineSymbolizer(Color.RED, 1)));
+        assertTrue(ParallelLayerRenderer.canRenderInParallel(Arrays.asList(lines, moreLines)));
+
+        // a single layer gains nothing
+        assertFalse(ParallelLayerRenderer.canRenderInParallel(Arrays.asList(lines)));
+
+        // labels need global conflict resolution
+        Layer labels = buildLayer(sb.createStyle(sb.createTextSymbolizer(Color.BLACK,
+                sb.createFont("Serif", 10), "name")));
+        assertFalse(ParallelLayerRenderer.canRenderInParallel(Arrays.asList(lines, labels)));
+
+        // blending depends on what's painted below
+        Style blended = sb.createStyle(sb.createLineSymbolizer());
+        blended.featureTypeStyles().get(0).getOptions().put(FeatureTypeStyle.COMPOSITE,
+                "multiply");
+        Layer blendedLayer = buildLayer(blended);
+        assertFalse(ParallelLayerRenderer.canRenderInParallel(Arrays.asList(lines,
+                blendedLayer)));
+    }
+
+    @Test
+    public void testParallelRenderingRequested() {
+        boolean previous = DefaultWebMapService.isParallelLayerRenderingEnabled();
+        try {
+            GetMapRequest request = new GetMapRequest();
+            Map<String, Object> options = new HashMap<>();
+            request.setFormatOptions(options);
+
+            // the format option cannot enable it unless the administrator did
+            DefaultWebMapService.setParallelLayerRenderingEnabled(false);
+            assertFalse(ParallelLayerRenderer.isParallelRenderingRequested(request));
+            options.put(ParallelLayerRenderer.FORMAT_OPTION, "true");
+            assertFalse(ParallelLayerRenderer.isParallelRenderingRequested(request));
+
+            // but it can turn it off
+            DefaultWebMapService.setParallelLayerRenderingEnabled(true);
+            assertTrue(ParallelLayerRenderer.isParallelRenderingRequested(request));
+            options.put(ParallelLayerRenderer.FORMAT_OPTION, "false");
+            assertFalse(ParallelLayerRenderer.isParallelRenderingRequested(request));
+            options.clear();
+            assertTrue(ParallelLayerRenderer.isParallelRenderingRequested(request));
+        } finally {
+            DefaultWebMapService.setParallelLayerRenderingEnabled(previous);
+        }
+    }
+
+    Layer buildLayer(Style style) {
+        return new FeatureLayer(new ListFeatureCollection(type), style);
+    }
+}
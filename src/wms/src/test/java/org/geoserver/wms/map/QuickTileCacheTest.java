@@ -6,10 +6,24 @@
 package org.geoserver.wms.map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
-
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.Collections;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wms.map.QuickTileCache.CacheElement;
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultEngineeringCRS;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Envelope;
@@ -67,4 +81,71 @@ public class QuickTileCacheTest {
         assertEquals(new Point(0, 2), cache.getTileOffsetsInMeta(box1, meta));
         assertEquals(new Point(1, 2), cache.getTileOffsetsInMeta(box2, meta));
     }
+
+    @Test
+    public void testSizeBoundedEviction() {
+        // room for two meta-tiles of 9 RGBA 256x256 tiles each
+        long metaTileSize = 9 * 256 * 256 * 4;
+        QuickTileCache bounded = new QuickTileCache(metaTileSize * 2);
+        MetaTileKey k1 = buildKey(0, "topp", "states");
+        MetaTileKey k2 = buildKey(3, "topp", "states");
+        MetaTileKey k3 = buildKey(6, "topp", "states");
+        bounded.storeTiles(k1, buildTiles());
+        bounded.storeTiles(k2, buildTiles());
+        assertEquals(2, bounded.getCachedMetaTileCount());
+        assertEquals(metaTileSize * 2, bounded.getCachedSize());
+
+        bounded.storeTiles(k3, buildTiles());
+        assertEquals(2, bounded.getCachedMetaTileCount());
+        assertEquals(1, bounded.getStatistics().evictionCount());
+    }
+
+    @Test
+    public void testLayerInvalidation() {
+        MetaTileKey states = buildKey(0, "topp", "states");
+        MetaTileKey roads = buildKey(3, "sf", "roads");
+        MetaTileKey unknown = new MetaTileKey(new MapKey("abcd", 0.01, new Point2D.Double(0, 0)),
+                new Point(6, 6), null);
+        cache.storeTiles(states, buildTiles());
+        cache.storeTiles(roads, buildTiles());
+        cache.storeTiles(unknown, buildTiles());
+        assertEquals(3, cache.getCachedMetaTileCount());
+
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_UPDATE, null,
+                new QName("http://www.openplans.org/topp", "states"), null));
+        assertNull(cache.getCachedTiles(states));
+        assertNotNull(cache.getCachedTiles(roads));
+        assertNull(cache.getCachedTiles(unknown));
+
+        // no namespace, matches on the local name
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.POST_UPDATE, null,
+                new QName("roads"), null));
+        assertEquals(0, cache.getCachedMetaTileCount());
+    }
+
+    @Test
+    public void testEstimateSize() {
+        assertEquals(256 * 256 * 4, CacheElement.estimateSize(
+                new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR)));
+        assertEquals(256 * 256, CacheElement.estimateSize(
+                new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_INDEXED)));
+    }
+
+    MetaTileKey buildKey(int coord, String prefix, String layer) {
+        MapKey mapKey = new MapKey("layers=" + prefix + ":" + layer, 0.01,
+                new Point2D.Double(0, 0));
+        QName name = new QName("topp".equals(prefix) ? "http://www.openplans.org/topp"
+                : "http://www.openplans.org/spearfish", layer);
+        return new MetaTileKey(mapKey, new Point(coord, coord),
+                new ReferencedEnvelope(0, 10, 0, 10, DefaultEngineeringCRS.GENERIC_2D),
+                Collections.singleton(name));
+    }
+
+    RenderedImage[] buildTiles() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        }
+        return tiles;
+    }
 }
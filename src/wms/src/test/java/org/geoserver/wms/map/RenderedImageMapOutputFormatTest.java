@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,9 +54,12 @@ import org.geoserver.catalog.LayerInfo.WMSInterpolation;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.security.decorators.DecoratingFeatureSource;
+import org.geoserver.util.SharedExecutors;
 import org.geoserver.wms.CachedGridReaderLayer;
+import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
@@ -391,6 +395,76 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         assertNotBlank("testBlueLake", image);
     }
     
+    @Test
+    public void testParallelLayerRendering() throws Exception {
+        final Catalog catalog = getCatalog();
+        FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        Envelope env = typeInfo.getFeatureSource(null, null).getBounds();
+        double shift = env.getWidth() / 6;
+        env = new Envelope(env.getMinX() - shift, env.getMaxX() + shift, env.getMinY() - shift,
+                env.getMaxY() + shift);
+
+        StyleBuilder sb = new StyleBuilder();
+        Style polygons = sb.createStyle(sb.createPolygonSymbolizer(Color.GREEN, Color.BLACK, 1));
+        Style lines = sb.createStyle(sb.createLineSymbolizer(Color.BLUE, 3));
+        RenderedImage[] images = new RenderedImage[2];
+        int[] submitted = new int[2];
+        // count the groups of layers painted by the layer rendering pool
+        ThreadPoolExecutor pool = GeoServerExtensions.bean(SharedExecutors.class).getPool(
+                ParallelLayerRenderer.RENDERING_POOL,
+                DefaultWebMapService.getParallelLayerRenderingThreads());
+        boolean previousEnabled = DefaultWebMapService.isParallelLayerRenderingEnabled();
+        DefaultWebMapService.setParallelLayerRenderingEnabled(true);
+        try {
+            for (int i = 0; i < images.length; i++) {
+                GetMapRequest request = new GetMapRequest();
+                Map formatOptions = new HashMap();
+                formatOptions.put(ParallelLayerRenderer.FORMAT_OPTION, String.valueOf(i == 1));
+                request.setFormatOptions(formatOptions);
+                request.setFormat(getMapFormat());
+                final WMSMapContent map = new WMSMapContent();
+                map.setMapWidth(400);
+                map.setMapHeight((int) Math.round((env.getHeight() * 400) / env.getWidth()));
+                map.setBgColor(BG_COLOR);
+                map.setTransparent(true);
+                map.setRequest(request);
+                map.getViewport()
+                        .setBounds(new ReferencedEnvelope(env, DefaultGeographicCRS.WGS84));
+                for (QName name : new QName[] { MockData.FORESTS, MockData.LAKES,
+                        MockData.PONDS }) {
+                    map.addLayer(new FeatureLayer(getFeatureSource(name), polygons));
+                }
+                for (QName name : new QName[] { MockData.STREAMS, MockData.ROAD_SEGMENTS }) {
+                    map.addLayer(new FeatureLayer(getFeatureSource(name), lines));
+                }
+                assertTrue(ParallelLayerRenderer.canRenderInParallel(map.layers()));
+
+                long tasks = pool.getTaskCount();
+                RenderedImageMap imageMap = new RenderedImageMapOutputFormat(getWMS())
+                        .produceMap(map);
+                submitted[i] = (int) (pool.getTaskCount() - tasks);
+                images[i] = imageMap.getImage();
+                assertNotBlank("testParallelLayerRendering", (BufferedImage) images[i]);
+                imageMap.dispose();
+            }
+        } finally {
+            DefaultWebMapService.setParallelLayerRenderingEnabled(previousEnabled);
+        }
+
+        // only the parallel rendering used the pool, the calling thread paints the first group
+        assertEquals(0, submitted[0]);
+        assertTrue(submitted[1] > 0);
+
+        // compositing the group rasters can only cause minor differences along the edges
+        ImageAssert.assertEquals(images[0], images[1], 100);
+    }
+
+    private FeatureSource getFeatureSource(QName name) throws IOException {
+        return getCatalog().getFeatureTypeByName(name.getNamespaceURI(), name.getLocalPart())
+                .getFeatureSource(null, null);
+    }
+
     @Test
     public void testCustomLabelCache() throws IOException {
         final Catalog catalog = getCatalog();
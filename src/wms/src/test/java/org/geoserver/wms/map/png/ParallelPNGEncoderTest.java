@@ -0,0 +1,205 @@
+/* (c) 2018 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import org.geotools.image.test.ImageAssert;
+import org.geotools.util.logging.Logging;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ar.com.hjg.pngj.FilterType;
+import it.geosolutions.imageio.plugins.png.PNGWriter;
+
+public class ParallelPNGEncoderTest {
+
+    static final Logger LOGGER = Logging.getLogger(ParallelPNGEncoderTest.class);
+
+    static ExecutorService executor;
+
+    @BeforeClass
+    public static void setupExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void shutdownExecutor() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testAdlerCombine() {
+        byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        Adler32 full = new Adler32();
+        full.update(data);
+
+        Adler32 first = new Adler32();
+        first.update(data, 0, 30000);
+        Adler32 second = new Adler32();
+        second.update(data, 30000, 70000);
+        long combined = ParallelPNGEncoder.combineAdler32(first.getValue(), second.getValue(),
+                70000);
+        assertEquals(full.getValue(), combined);
+        // combining with the empty checksum is a no-op
+        assertEquals(full.getValue(), ParallelPNGEncoder.combineAdler32(1, full.getValue(),
+                data.length));
+    }
+
+    @Test
+    public void testZlibHeader() {
+        for (int level = 0; level <= 9; level++) {
+            byte[] header = ParallelPNGEncoder.getZlibHeader(level);
+            assertEquals(0, ((header[0] & 0xFF) * 256 + (header[1] & 0xFF)) % 31);
+        }
+    }
+
+    @Test
+    public void testSupported() {
+        assertTrue(ParallelPNGEncoder.isSupported(
+                new BufferedImage(10, 10, BufferedImage.TYPE_4BYTE_ABGR)));
+        assertTrue(ParallelPNGEncoder.isSupported(
+                new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB)));
+        assertTrue(ParallelPNGEncoder.isSupported(
+                new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY)));
+        assertTrue(ParallelPNGEncoder.isSupported(
+                new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_INDEXED)));
+        assertFalse(ParallelPNGEncoder.isSupported(
+                new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB_PRE)));
+        assertFalse(ParallelPNGEncoder.isSupported(
+                new BufferedImage(10, 10, BufferedImage.TYPE_USHORT_GRAY)));
+        assertFalse(ParallelPNGEncoder.isSupported(
+                new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_BINARY)));
+    }
+
+    @Test
+    public void testRGBA() throws Exception {
+        assertRoundTrip(buildImage(BufferedImage.TYPE_4BYTE_ABGR, 1000, 700),
+                FilterType.FILTER_NONE);
+        assertRoundTrip(buildImage(BufferedImage.TYPE_INT_ARGB, 1000, 700),
+                FilterType.FILTER_SUB);
+    }
+
+    @Test
+    public void testRGB() throws Exception {
+        assertRoundTrip(buildImage(BufferedImage.TYPE_3BYTE_BGR, 800, 600),
+                FilterType.FILTER_SUB);
+        assertRoundTrip(buildImage(BufferedImage.TYPE_INT_RGB, 256, 256),
+                FilterType.FILTER_NONE);
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        assertRoundTrip(buildImage(BufferedImage.TYPE_BYTE_GRAY, 1024, 1024),
+                FilterType.FILTER_SUB);
+    }
+
+    @Test
+    public void testIndexed() throws Exception {
+        byte[] reds = new byte[] { 0, (byte) 255, 0, 0 };
+        byte[] greens = new byte[] { 0, 0, (byte) 255, 0 };
+        byte[] blues = new byte[] { 0, 0, 0, (byte) 255 };
+        byte[] alphas = new byte[] { 0, (byte) 255, (byte) 128, (byte) 255 };
+        IndexColorModel icm = new IndexColorModel(8, 4, reds, greens, blues, alphas);
+        BufferedImage image = new BufferedImage(600, 600, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.getRaster().setSample(x, y, 0, (x / 10 + y / 10) % 4);
+            }
+        }
+        assertRoundTrip(image, FilterType.FILTER_NONE);
+    }
+
+    @Test
+    public void testSingleStripInFlight() throws Exception {
+        // the calling thread has to do all the work
+        BufferedImage image = buildImage(BufferedImage.TYPE_4BYTE_ABGR, 512, 512);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new ParallelPNGEncoder(r -> {
+        }, 1).writePNG(image, bos, 6, FilterType.FILTER_NONE);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        ImageAssert.assertEquals(image, read, 0);
+    }
+
+    /**
+     * Compares the parallel encoder with the PNGJ based one on a 4096x4096 image, only runs with
+     * the <code>benchmarkTests</code> profile
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBenchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmarkTests"));
+        BufferedImage image = buildImage(BufferedImage.TYPE_4BYTE_ABGR, 4096, 4096);
+        int runs = 10;
+        ParallelPNGEncoder encoder = new ParallelPNGEncoder(executor, 8);
+        for (FilterType filter : new FilterType[] { FilterType.FILTER_NONE,
+                FilterType.FILTER_SUB }) {
+            long size = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                new PNGWriter().writePNG(image, bos, 0.75f, filter);
+                size = bos.size();
+            }
+            long pngj = (System.nanoTime() - start) / runs / 1000000;
+            LOGGER.info("PNGJ, filter " + filter + ": " + pngj + "ms, " + size + " bytes");
+
+            start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                encoder.writePNG(image, bos, PNGJWriter.getCompressionLevel(0.75f), filter);
+                size = bos.size();
+            }
+            long parallel = (System.nanoTime() - start) / runs / 1000000;
+            LOGGER.info("Parallel, filter " + filter + ": " + parallel + "ms, " + size + " bytes");
+        }
+    }
+
+    void assertRoundTrip(RenderedImage image, FilterType filter) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new ParallelPNGEncoder(executor, 4).writePNG(image, bos, 4, filter);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(image.getWidth(), read.getWidth());
+        assertEquals(image.getHeight(), read.getHeight());
+        assertEquals(image.getColorModel().hasAlpha(), read.getColorModel().hasAlpha());
+        ImageAssert.assertEquals(image, read, 0);
+    }
+
+    BufferedImage buildImage(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(255, 0, 0, 50), width, height,
+                new Color(0, 0, 255, 255)));
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.GREEN);
+        for (int i = 0; i < width; i += 37) {
+            g.drawLine(i, 0, width - i, height);
+        }
+        g.dispose();
+        return image;
+    }
+}